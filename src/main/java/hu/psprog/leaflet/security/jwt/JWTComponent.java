@@ -2,6 +2,7 @@ package hu.psprog.leaflet.security.jwt;
 
 import hu.psprog.leaflet.security.jwt.exception.InvalidJWTTokenException;
 import hu.psprog.leaflet.security.jwt.model.JWTAuthenticationAnswerModel;
+import hu.psprog.leaflet.security.jwt.model.JWTDecodeResult;
 import hu.psprog.leaflet.security.jwt.model.JWTPayload;
 import org.springframework.security.core.userdetails.UserDetails;
 
@@ -26,8 +27,9 @@ public interface JWTComponent {
      * Generates token from {@link UserDetails} object with custom expiration length.
      *
      * @param userDetails {@link UserDetails} object to generate token based on
-     * @param expiration expiration length in hours
+     * @param expiration expiration length in hours, at most jwt.max-expire-hours
      * @return token wrapped in {@link JWTAuthenticationAnswerModel} object
+     * @throws IllegalArgumentException if the expiration length exceeds jwt.max-expire-hours
      */
     JWTAuthenticationAnswerModel generateToken(UserDetails userDetails, Integer expiration);
 
@@ -40,6 +42,14 @@ public interface JWTComponent {
      */
     JWTPayload decode(String token) throws InvalidJWTTokenException;
 
+    /**
+     * Decodes given JWT token without throwing exception on invalid token.
+     *
+     * @param token given (raw) token
+     * @return {@link JWTDecodeResult} object holding the contents of JWT payload section on success, or the reason of failure
+     */
+    JWTDecodeResult tryDecode(String token);
+
     /**
      * Extracts token from servlet request. Requires Bearer type Authorization header.
      *
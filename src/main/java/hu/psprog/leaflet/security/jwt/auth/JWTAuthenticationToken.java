@@ -3,7 +3,6 @@ package hu.psprog.leaflet.security.jwt.auth;
 import hu.psprog.leaflet.security.jwt.model.JWTPayload;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.GrantedAuthority;
-import org.springframework.security.core.authority.AuthorityUtils;
 
 import java.util.Collection;
 import java.util.UUID;
@@ -117,7 +116,7 @@ public class JWTAuthenticationToken implements Authentication {
             jWTAuthenticationToken.deviceID = this.deviceID;
             jWTAuthenticationToken.remoteAddress = this.remoteAddress;
             jWTAuthenticationToken.rawToken = this.rawToken;
-            jWTAuthenticationToken.authorities = AuthorityUtils.createAuthorityList(payload.getRole().toString());
+            jWTAuthenticationToken.authorities = payload.getRoles().getAuthorities();
             return jWTAuthenticationToken;
         }
     }
@@ -1,5 +1,18 @@
 package hu.psprog.leaflet.security.jwt.config;
 
+import hu.psprog.leaflet.security.jwt.filter.PublicPathMatcher;
+import hu.psprog.leaflet.security.jwt.impl.DecodeFailureLogger;
+import hu.psprog.leaflet.security.jwt.impl.HmacKeyFileParser;
+import hu.psprog.leaflet.security.jwt.impl.JJWTDecoder;
+import hu.psprog.leaflet.security.jwt.impl.JWKSKeyFileParser;
+import hu.psprog.leaflet.security.jwt.impl.JWTDecoder;
+import hu.psprog.leaflet.security.jwt.impl.JWTEncoder;
+import hu.psprog.leaflet.security.jwt.impl.JWTKey;
+import hu.psprog.leaflet.security.jwt.impl.JWTKeyFileParser;
+import hu.psprog.leaflet.security.jwt.impl.JWTKeyRing;
+import hu.psprog.leaflet.security.jwt.impl.StreamingJWTDecoder;
+import hu.psprog.leaflet.security.jwt.impl.TokenPreValidator;
+import hu.psprog.leaflet.security.jwt.impl.VerifiedTokenCache;
 import io.jsonwebtoken.lang.Assert;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -8,8 +21,16 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.util.StringUtils;
 
-import java.util.Base64;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Reads up initial configuration values for JWT component.
@@ -18,11 +39,27 @@ import java.util.Base64;
  */
 @Configuration
 @ComponentScan("hu.psprog.leaflet.security.jwt.impl")
+@EnableScheduling
 public class JWTComponentInitializer implements InitializingBean {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(JWTComponentInitializer.class);
-    private static final String CONFIG_JWT_SECRET = "${jwt.secret}";
+    private static final String SIGNING_KEY_ALGORITHM = "HmacSHA512";
+    private static final String CONFIG_JWT_SECRET = "${jwt.secret:}";
     private static final String CONFIG_JWT_EXPIRATION_IN_HOURS = "${jwt.expire.hours}";
+    private static final String CONFIG_JWT_MAX_EXPIRATION_IN_HOURS = "${jwt.max-expire-hours:${jwt.expire.hours}}";
+    private static final String CONFIG_JWT_DECODE_CACHE_ENABLED = "${jwt.decode-cache.enabled:false}";
+    private static final String CONFIG_JWT_DECODE_CACHE_MAX_SIZE = "${jwt.decode-cache.max-size:10000}";
+    private static final String CONFIG_JWT_DECODER = "${jwt.decoder:JJWT}";
+    private static final String CONFIG_JWT_MAC_POOL_MAX_IDLE = "${jwt.mac-pool.max-idle:64}";
+    private static final String CONFIG_JWT_KEYS_FILE = "${jwt.keys.file:}";
+    private static final String CONFIG_JWT_KEYS_SIGNING_KEY_FILE = "${jwt.keys.signing-key-file:}";
+    private static final String CONFIG_JWT_SIGNING_ALGORITHM = "${jwt.signing-algorithm:HS512}";
+    private static final String CONFIG_JWT_ROLE_CLAIM_FORMAT = "${jwt.role-claim-format:NAMES}";
+    private static final String CONFIG_JWT_PRE_VALIDATION_MAX_HEADER_LENGTH = "${jwt.pre-validation.max-header-length:256}";
+    private static final String CONFIG_JWT_PRE_VALIDATION_MAX_TOKEN_LENGTH = "${jwt.pre-validation.max-token-length:4096}";
+    private static final String CONFIG_JWT_FAILURE_LOG_INTERVAL = "${jwt.failure-log.interval-ms:10000}";
+    private static final String CONFIG_JWT_PUBLIC_PATHS = "${jwt.public-paths:}";
+    private static final String CONFIG_JWT_OPTIONAL_AUTH_PATHS = "${jwt.optional-auth-paths:}";
 
     @Value(CONFIG_JWT_SECRET)
     private String jwtSecret;
@@ -30,9 +67,74 @@ public class JWTComponentInitializer implements InitializingBean {
     @Value(CONFIG_JWT_EXPIRATION_IN_HOURS)
     private Integer expirationInHours;
 
+    @Value(CONFIG_JWT_MAX_EXPIRATION_IN_HOURS)
+    private Integer maxExpirationInHours;
+
+    @Value(CONFIG_JWT_DECODE_CACHE_ENABLED)
+    private boolean decodeCacheEnabled;
+
+    @Value(CONFIG_JWT_DECODE_CACHE_MAX_SIZE)
+    private int decodeCacheMaxSize;
+
+    @Value(CONFIG_JWT_DECODER)
+    private JWTDecoderType decoderType;
+
+    @Value(CONFIG_JWT_MAC_POOL_MAX_IDLE)
+    private int macPoolMaxIdle;
+
+    @Value(CONFIG_JWT_KEYS_FILE)
+    private String keysFile;
+
+    @Value(CONFIG_JWT_KEYS_SIGNING_KEY_FILE)
+    private String signingKeyFile;
+
+    @Value(CONFIG_JWT_SIGNING_ALGORITHM)
+    private JWTSigningAlgorithm signingAlgorithm;
+
+    @Value(CONFIG_JWT_ROLE_CLAIM_FORMAT)
+    private JWTRoleClaimFormat roleClaimFormat;
+
+    @Value(CONFIG_JWT_PRE_VALIDATION_MAX_HEADER_LENGTH)
+    private int preValidationMaxHeaderLength;
+
+    @Value(CONFIG_JWT_PRE_VALIDATION_MAX_TOKEN_LENGTH)
+    private int preValidationMaxTokenLength;
+
+    @Value(CONFIG_JWT_FAILURE_LOG_INTERVAL)
+    private long failureLogInterval;
+
+    @Value(CONFIG_JWT_PUBLIC_PATHS)
+    private String[] publicPaths;
+
+    @Value(CONFIG_JWT_OPTIONAL_AUTH_PATHS)
+    private String[] optionalAuthPaths;
+
     @Bean
-    public String jwtSecret() {
-        return new String(Base64.getEncoder().encode(jwtSecret.getBytes()));
+    public JWTKeyRing jwtKeyRing() throws IOException {
+
+        JWTKey defaultKey;
+        JWTKeyFileParser keyFileParser;
+        if (signingAlgorithm == JWTSigningAlgorithm.ES256) {
+            JWKSKeyFileParser jwksKeyFileParser = new JWKSKeyFileParser(macPoolMaxIdle);
+            defaultKey = StringUtils.hasText(signingKeyFile)
+                    ? jwksKeyFileParser.parseSigningKey(Paths.get(signingKeyFile))
+                    : null;
+            keyFileParser = jwksKeyFileParser;
+        } else {
+            defaultKey = StringUtils.hasText(jwtSecret)
+                    ? new JWTKey(null, new SecretKeySpec(jwtSecret.getBytes(), SIGNING_KEY_ALGORITHM), macPoolMaxIdle)
+                    : null;
+            keyFileParser = new HmacKeyFileParser(macPoolMaxIdle);
+        }
+
+        Path keyFilePath = StringUtils.hasText(keysFile)
+                ? Paths.get(keysFile)
+                : null;
+
+        JWTKeyRing keyRing = new JWTKeyRing(defaultKey, keyFilePath, keyFileParser, TimeUnit.HOURS.toMillis(maxExpirationInHours));
+        keyRing.reload();
+
+        return keyRing;
     }
 
     @Bean
@@ -40,10 +142,76 @@ public class JWTComponentInitializer implements InitializingBean {
         return expirationInHours;
     }
 
+    @Bean
+    public JWTRoleClaimFormat roleClaimFormat() {
+        return roleClaimFormat;
+    }
+
+    @Bean
+    public JWTEncoder jwtEncoder() throws IOException {
+        return new JWTEncoder(jwtKeyRing());
+    }
+
+    @Bean
+    public JWTDecoder jwtDecoder() throws IOException {
+
+        JWTDecoder jjwtDecoder = new JJWTDecoder(jwtKeyRing());
+
+        return decoderType == JWTDecoderType.STREAMING
+                ? new StreamingJWTDecoder(jwtKeyRing(), jjwtDecoder)
+                : jjwtDecoder;
+    }
+
+    @Bean
+    public TokenPreValidator tokenPreValidator() {
+        return new TokenPreValidator(Collections.singleton(signingAlgorithm.name()), preValidationMaxHeaderLength, preValidationMaxTokenLength);
+    }
+
+    @Bean
+    public DecodeFailureLogger decodeFailureLogger() {
+        return new DecodeFailureLogger(failureLogInterval);
+    }
+
+    @Bean
+    public PublicPathMatcher publicPathMatcher() {
+        return new PublicPathMatcher(Arrays.asList(publicPaths), Arrays.asList(optionalAuthPaths));
+    }
+
+    @Bean
+    public VerifiedTokenCache verifiedTokenCache() {
+        return new VerifiedTokenCache(decodeCacheEnabled, decodeCacheMaxSize);
+    }
+
     @Override
     public void afterPropertiesSet() throws Exception {
-        Assert.notNull(jwtSecret, "JWT Secret must be set!");
+        if (signingAlgorithm == JWTSigningAlgorithm.ES256) {
+            Assert.isTrue(StringUtils.hasText(keysFile), "JWKS key file must be set for ES256 signing!");
+        } else {
+            Assert.isTrue(StringUtils.hasText(jwtSecret) || StringUtils.hasText(keysFile), "JWT Secret or key file must be set!");
+        }
         Assert.notNull(expirationInHours, "JWT Expiration must be set!");
-        LOGGER.info(String.format("JWT tokens will expire in %d hours", expirationInHours));
+        Assert.isTrue(maxExpirationInHours >= expirationInHours, "JWT maximum expiration must not be shorter than the default expiration!");
+        Assert.isTrue(!decodeCacheEnabled || decodeCacheMaxSize > 0, "JWT decode cache size must be positive!");
+        Assert.isTrue(macPoolMaxIdle > 0, "JWT MAC pool size must be positive!");
+        Assert.isTrue(preValidationMaxHeaderLength > 0 && preValidationMaxTokenLength > 0, "JWT pre-validation length limits must be positive!");
+        LOGGER.info(String.format("JWT tokens will expire in %d hours (at most %d hours)", expirationInHours, maxExpirationInHours));
+        LOGGER.info(String.format("JWT tokens will be signed by %s algorithm", signingAlgorithm));
+        LOGGER.info(String.format("JWT tokens will be decoded by %s decoder", decoderType));
+        LOGGER.info(String.format("JWT role claim will be written in %s format", roleClaimFormat));
+        if (signingAlgorithm == JWTSigningAlgorithm.ES256 && !StringUtils.hasText(signingKeyFile)) {
+            LOGGER.info("No JWT signing key file is set, tokens can only be verified");
+        }
+        if (StringUtils.hasText(keysFile)) {
+            LOGGER.info(String.format("JWT keys are loaded from key file [%s]", keysFile));
+        }
+        if (publicPaths.length > 0) {
+            LOGGER.info(String.format("JWT processing is skipped on public paths %s", Arrays.toString(publicPaths)));
+        }
+        if (optionalAuthPaths.length > 0) {
+            LOGGER.info(String.format("JWT authentication is optional on paths %s", Arrays.toString(optionalAuthPaths)));
+        }
+        if (decodeCacheEnabled) {
+            LOGGER.info(String.format("JWT decode cache is enabled with maximum %d entries", decodeCacheMaxSize));
+        }
     }
 }
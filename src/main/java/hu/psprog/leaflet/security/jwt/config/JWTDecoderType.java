@@ -0,0 +1,20 @@
+package hu.psprog.leaflet.security.jwt.config;
+
+/**
+ * Available token decoder engines.
+ *
+ * @author Peter Smith
+ */
+public enum JWTDecoderType {
+
+    /**
+     * Generic jjwt based decoder.
+     */
+    JJWT,
+
+    /**
+     * Allocation-light streaming decoder specialised for the Leaflet claim set.
+     * Falls back to the jjwt based decoder for tokens it cannot handle.
+     */
+    STREAMING
+}
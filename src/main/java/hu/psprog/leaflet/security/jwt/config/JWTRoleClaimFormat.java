@@ -0,0 +1,21 @@
+package hu.psprog.leaflet.security.jwt.config;
+
+/**
+ * Available formats of the "rol" claim of generated tokens.
+ * Tokens of both formats are accepted on decoding, the format only affects token generation.
+ *
+ * @author Peter Smith
+ */
+public enum JWTRoleClaimFormat {
+
+    /**
+     * Comma separated role names, the format understood by every release.
+     * Must be used until every node accepting the tokens is able to decode the bitmask format.
+     */
+    NAMES,
+
+    /**
+     * Role bitmask (see {@link hu.psprog.leaflet.security.jwt.model.RoleSet}), rejected by releases prior to its introduction.
+     */
+    MASK
+}
@@ -0,0 +1,21 @@
+package hu.psprog.leaflet.security.jwt.config;
+
+/**
+ * Supported token signing algorithms.
+ *
+ * @author Peter Smith
+ */
+public enum JWTSigningAlgorithm {
+
+    /**
+     * HMAC using SHA-512 with shared secret(s).
+     * Every node verifying tokens must know the secret.
+     */
+    HS512,
+
+    /**
+     * ECDSA using P-256 and SHA-256.
+     * Only the issuing node holds the private key, verifier nodes use public keys from a JWKS file.
+     */
+    ES256
+}
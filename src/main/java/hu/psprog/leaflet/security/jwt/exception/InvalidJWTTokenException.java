@@ -1,5 +1,6 @@
 package hu.psprog.leaflet.security.jwt.exception;
 
+import hu.psprog.leaflet.security.jwt.model.TokenRejectionReason;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.security.core.AuthenticationException;
@@ -16,8 +17,31 @@ public class InvalidJWTTokenException extends AuthenticationException {
     private static final String NOT_SIGNED_IN_MESSAGE = "Your are not signed in. Please sign in to proceed.";
     private static final String EXCEPTION_MESSAGE = "Found issues with provided JWT token while parsing.";
 
+    private final TokenRejectionReason rejectionReason;
+
     public InvalidJWTTokenException(Exception exception) {
         super(NOT_SIGNED_IN_MESSAGE, exception);
+        this.rejectionReason = null;
         LOGGER.error(EXCEPTION_MESSAGE, exception);
     }
+
+    /**
+     * Creates exception for a token rejected with the given reason. Only logged on debug level, without stack trace.
+     *
+     * @param rejectionReason reason of rejection as {@link TokenRejectionReason}
+     */
+    public InvalidJWTTokenException(TokenRejectionReason rejectionReason) {
+        super(NOT_SIGNED_IN_MESSAGE);
+        this.rejectionReason = rejectionReason;
+        LOGGER.debug(String.format("Token rejected, reason: %s", rejectionReason));
+    }
+
+    /**
+     * Returns the reason of rejection.
+     *
+     * @return {@link TokenRejectionReason} or {@code null} if the exception has been created from a verification exception
+     */
+    public TokenRejectionReason getRejectionReason() {
+        return rejectionReason;
+    }
 }
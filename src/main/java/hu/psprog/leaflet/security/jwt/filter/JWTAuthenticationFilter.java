@@ -2,33 +2,33 @@ package hu.psprog.leaflet.security.jwt.filter;
 
 import hu.psprog.leaflet.security.jwt.JWTComponent;
 import hu.psprog.leaflet.security.jwt.auth.JWTAuthenticationToken;
+import hu.psprog.leaflet.security.jwt.model.JWTDecodeResult;
 import hu.psprog.leaflet.security.jwt.model.Role;
+import hu.psprog.leaflet.security.jwt.model.RoleSet;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.security.authentication.AnonymousAuthenticationToken;
 import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.AuthenticationException;
 import org.springframework.security.core.GrantedAuthority;
-import org.springframework.security.core.authority.AuthorityUtils;
-import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.web.authentication.AbstractAuthenticationProcessingFilter;
-import org.springframework.security.web.util.matcher.AntPathRequestMatcher;
+import org.springframework.security.web.util.matcher.AnyRequestMatcher;
 
 import javax.servlet.FilterChain;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
-import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.UUID;
 
 /**
  * Authentication filter for JWT-based authentication.
+ * Requests without a valid token are authenticated with the shared {@link SharedAnonymousAuthenticationToken} instance,
+ * bypassing the authentication manager.
  *
  * @author Peter Smith
  */
@@ -38,43 +38,63 @@ public class JWTAuthenticationFilter extends AbstractAuthenticationProcessingFil
     public static final String DEVICE_ID_HEADER = "X-Device-ID";
     public static final String AUTH_TOKEN_HEADER = "X-Auth-Token";
 
-    private static final String ANONYMOUS_PRINCIPAL = "ANONYMOUS";
-    private static final List<GrantedAuthority> ANONYMOUS_ROLE = AuthorityUtils.createAuthorityList(Role.ANONYMOUS.name());
-    private static final GrantedAuthority RECLAIM_AUTHORITY = new SimpleGrantedAuthority(Role.RECLAIM.name());
-    private static final String URL_ROOT = "/**";
+    private static final GrantedAuthority RECLAIM_AUTHORITY = RoleSet.of(Role.RECLAIM).getAuthorities().get(0);
 
     private static final Logger LOGGER = LoggerFactory.getLogger(JWTAuthenticationFilter.class);
 
     private JWTComponent jwtComponent;
+    private PublicPathMatcher publicPathMatcher;
 
     public JWTAuthenticationFilter(JWTComponent jwtComponent) {
-        super(new AntPathRequestMatcher(URL_ROOT));
+        this(jwtComponent, PublicPathMatcher.none());
+    }
+
+    public JWTAuthenticationFilter(JWTComponent jwtComponent, PublicPathMatcher publicPathMatcher) {
+        super(AnyRequestMatcher.INSTANCE);
         this.jwtComponent = jwtComponent;
+        this.publicPathMatcher = publicPathMatcher;
     }
 
+    /**
+     * Authenticates the request by its JWT token.
+     * Requests without a valid token are authenticated as anonymous directly, without calling the authentication manager.
+     * Requests on skipped public paths (see {@link PublicPathMatcher}) are authenticated as anonymous without looking at their token,
+     * while requests on optional authentication paths fall back to anonymous when their token is rejected by the authentication manager.
+     */
     @Override
     public Authentication attemptAuthentication(HttpServletRequest request, HttpServletResponse response)
             throws AuthenticationException, IOException, ServletException {
 
-        Authentication authentication = new AnonymousAuthenticationToken(ANONYMOUS_ID,
-                ANONYMOUS_PRINCIPAL,
-                ANONYMOUS_ROLE);
+        PublicPathMatcher.PathMode pathMode = publicPathMatcher.match(request);
+        if (pathMode == PublicPathMatcher.PathMode.SKIP) {
+            return SharedAnonymousAuthenticationToken.INSTANCE;
+        }
 
+        Authentication authentication = null;
         try {
             String token = jwtComponent.extractToken(request);
             if (Objects.nonNull(token)) {
-                authentication = JWTAuthenticationToken.getBuilder()
-                        .withRawToken(token)
-                        .withPayload(jwtComponent.decode(token))
-                        .withDeviceID(extractDeviceID(request))
-                        .withRemoteAddress(request.getRemoteAddr())
-                        .build();
+                JWTDecodeResult decodeResult = jwtComponent.tryDecode(token);
+                if (decodeResult.isSuccessful()) {
+                    authentication = JWTAuthenticationToken.getBuilder()
+                            .withRawToken(token)
+                            .withPayload(decodeResult.getPayload())
+                            .withDeviceID(extractDeviceID(request))
+                            .withRemoteAddress(request.getRemoteAddr())
+                            .build();
+                }
             }
         } catch (Exception exc) {
             LOGGER.warn("An error occurred while parsing token. Root cause is the following: ", exc);
         }
 
-        return getAuthenticationManager().authenticate(authentication);
+        if (Objects.isNull(authentication)) {
+            return SharedAnonymousAuthenticationToken.INSTANCE;
+        }
+
+        return pathMode == PublicPathMatcher.PathMode.OPTIONAL_AUTH
+                ? authenticateOptionally(authentication)
+                : getAuthenticationManager().authenticate(authentication);
     }
 
     @Override
@@ -95,6 +115,16 @@ public class JWTAuthenticationFilter extends AbstractAuthenticationProcessingFil
         super.setAuthenticationManager(authenticationManager);
     }
 
+    private Authentication authenticateOptionally(Authentication authentication) {
+
+        try {
+            return getAuthenticationManager().authenticate(authentication);
+        } catch (AuthenticationException exc) {
+            LOGGER.debug("Token rejected on optional authentication path, falling back to anonymous: {}", exc.getMessage());
+            return SharedAnonymousAuthenticationToken.INSTANCE;
+        }
+    }
+
     private boolean shouldSetAuthenticationTokenHeader(Authentication authentication) {
         return authentication instanceof JWTAuthenticationToken
                 && !authentication.getAuthorities().contains(RECLAIM_AUTHORITY);
@@ -0,0 +1,201 @@
+package hu.psprog.leaflet.security.jwt.filter;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Matches request paths against the configured public path patterns, in one of the {@link PathMode}s:
+ *  - skipped paths are authenticated as anonymous without looking at their token;
+ *  - optional authentication paths are authenticated by their token if it is present and accepted,
+ *    otherwise as anonymous (instead of rejecting the request).
+ *
+ * Patterns are compiled into a character trie on initialization, so matching is a single pass over the request path,
+ * regardless of the number of patterns. Supported pattern forms (paths are relative to the context path):
+ *  - /exact/path: matches the given path only;
+ *  - /path/*: matches any path with exactly one more segment under /path;
+ *  - /path/**: matches /path and any path under it.
+ * Wildcards are only allowed as the last segment of the pattern. When patterns of both modes match a path,
+ * the most specific (longest) pattern wins; on the very same pattern, skipping wins.
+ *
+ * @author Peter Smith
+ */
+public class PublicPathMatcher {
+
+    private static final PublicPathMatcher NONE = new PublicPathMatcher(new String[0]);
+
+    private static final char PATH_SEPARATOR = '/';
+    private static final String ANY_PATH_SUFFIX = "/**";
+    private static final String ANY_SEGMENT_SUFFIX = "/*";
+    private static final String WILDCARD = "*";
+
+    /**
+     * Authentication modes of public paths.
+     */
+    public enum PathMode {
+
+        /**
+         * Token is not processed, request is authenticated as anonymous.
+         */
+        SKIP,
+
+        /**
+         * Request is authenticated by its token if present and accepted, otherwise as anonymous.
+         */
+        OPTIONAL_AUTH
+    }
+
+    private final Node root = new Node();
+    private boolean empty = true;
+
+    public PublicPathMatcher(String... skipPatterns) {
+        this(Arrays.asList(skipPatterns));
+    }
+
+    public PublicPathMatcher(Collection<String> skipPatterns) {
+        this(skipPatterns, Collections.emptyList());
+    }
+
+    public PublicPathMatcher(Collection<String> skipPatterns, Collection<String> optionalAuthPatterns) {
+        addPatterns(optionalAuthPatterns, PathMode.OPTIONAL_AUTH);
+        addPatterns(skipPatterns, PathMode.SKIP);
+    }
+
+    /**
+     * Returns a matcher without public paths.
+     *
+     * @return {@link PublicPathMatcher} matching no path
+     */
+    public static PublicPathMatcher none() {
+        return NONE;
+    }
+
+    /**
+     * Checks whether the token processing shall be skipped on the path of the given request (without context path).
+     *
+     * @param request {@link HttpServletRequest} to check
+     * @return {@code true} if the request path is skipped
+     */
+    public boolean matches(HttpServletRequest request) {
+        return match(request) == PathMode.SKIP;
+    }
+
+    /**
+     * Checks whether the token processing shall be skipped on the given path.
+     *
+     * @param path path to check
+     * @return {@code true} if the path is skipped
+     */
+    public boolean matches(String path) {
+        return match(path) == PathMode.SKIP;
+    }
+
+    /**
+     * Returns the {@link PathMode} of the path of the given request (without context path).
+     *
+     * @param request {@link HttpServletRequest} to check
+     * @return {@link PathMode} of the most specific matching pattern, or {@code null} if the path is not public
+     */
+    public PathMode match(HttpServletRequest request) {
+
+        if (empty) {
+            return null;
+        }
+
+        String requestURI = request.getRequestURI();
+        String contextPath = request.getContextPath();
+        int offset = contextPath != null && requestURI.startsWith(contextPath)
+                ? contextPath.length()
+                : 0;
+
+        return match(requestURI, offset);
+    }
+
+    /**
+     * Returns the {@link PathMode} of the given path.
+     *
+     * @param path path to check
+     * @return {@link PathMode} of the most specific matching pattern, or {@code null} if the path is not public
+     */
+    public PathMode match(String path) {
+        return match(path, 0);
+    }
+
+    private PathMode match(String path, int offset) {
+
+        int lastSeparator = path.lastIndexOf(PATH_SEPARATOR);
+        PathMode matchedMode = null;
+        Node node = root;
+        for (int index = offset; index < path.length(); index++) {
+            char current = path.charAt(index);
+            if (current == PATH_SEPARATOR) {
+                if (node.anyPath != null) {
+                    matchedMode = node.anyPath;
+                }
+                if (node.anySegment != null && index == lastSeparator && index < path.length() - 1) {
+                    matchedMode = node.anySegment;
+                }
+            }
+            node = node.children.get(current);
+            if (node == null) {
+                return matchedMode;
+            }
+        }
+
+        if (node.exact != null) {
+            return node.exact;
+        }
+
+        return node.anyPath != null
+                ? node.anyPath
+                : matchedMode;
+    }
+
+    private void addPatterns(Collection<String> patterns, PathMode pathMode) {
+        patterns.stream()
+                .map(String::trim)
+                .filter(pattern -> !pattern.isEmpty())
+                .forEach(pattern -> addPattern(pattern, pathMode));
+    }
+
+    private void addPattern(String pattern, PathMode pathMode) {
+
+        if (pattern.charAt(0) != PATH_SEPARATOR) {
+            throw new IllegalArgumentException(String.format("Public path pattern [%s] must start with '/'", pattern));
+        }
+
+        if (pattern.endsWith(ANY_PATH_SUFFIX)) {
+            insert(pattern.substring(0, pattern.length() - ANY_PATH_SUFFIX.length()), pattern).anyPath = pathMode;
+        } else if (pattern.endsWith(ANY_SEGMENT_SUFFIX)) {
+            insert(pattern.substring(0, pattern.length() - ANY_SEGMENT_SUFFIX.length()), pattern).anySegment = pathMode;
+        } else {
+            insert(pattern, pattern).exact = pathMode;
+        }
+        empty = false;
+    }
+
+    private Node insert(String literal, String pattern) {
+
+        if (literal.contains(WILDCARD)) {
+            throw new IllegalArgumentException(String.format("Public path pattern [%s] may only contain wildcard as its last segment", pattern));
+        }
+
+        Node node = root;
+        for (int index = 0; index < literal.length(); index++) {
+            node = node.children.computeIfAbsent(literal.charAt(index), key -> new Node());
+        }
+
+        return node;
+    }
+
+    private static final class Node {
+
+        private final Map<Character, Node> children = new HashMap<>();
+        private PathMode exact;
+        private PathMode anySegment;
+        private PathMode anyPath;
+    }
+}
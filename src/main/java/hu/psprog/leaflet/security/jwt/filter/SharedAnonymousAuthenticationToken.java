@@ -0,0 +1,43 @@
+package hu.psprog.leaflet.security.jwt.filter;
+
+import hu.psprog.leaflet.security.jwt.model.Role;
+import hu.psprog.leaflet.security.jwt.model.RoleSet;
+import org.springframework.security.authentication.AnonymousAuthenticationToken;
+
+/**
+ * Immutable {@link AnonymousAuthenticationToken} shared by every request without a valid token.
+ * The anonymous authentication carries no request specific information, so a single instance is used instead of
+ * creating a new one per request. Since the instance is shared, it is immutable: setting its details or its authentication
+ * flag is silently ignored (instead of failing the request), and deserializing it results in the shared instance.
+ *
+ * @author Peter Smith
+ */
+final class SharedAnonymousAuthenticationToken extends AnonymousAuthenticationToken {
+
+    private static final long serialVersionUID = 1L;
+
+    static final SharedAnonymousAuthenticationToken INSTANCE = new SharedAnonymousAuthenticationToken();
+
+    private static final String ANONYMOUS_PRINCIPAL = "ANONYMOUS";
+
+    private SharedAnonymousAuthenticationToken() {
+        super(JWTAuthenticationFilter.ANONYMOUS_ID, ANONYMOUS_PRINCIPAL, RoleSet.of(Role.ANONYMOUS).getAuthorities());
+    }
+
+    @Override
+    public void setAuthenticated(boolean isAuthenticated) {
+        // shared instance, it can only be marked authenticated (done once by the constructor)
+        if (isAuthenticated) {
+            super.setAuthenticated(true);
+        }
+    }
+
+    @Override
+    public void setDetails(Object details) {
+        // shared instance, request details are not stored
+    }
+
+    private Object readResolve() {
+        return INSTANCE;
+    }
+}
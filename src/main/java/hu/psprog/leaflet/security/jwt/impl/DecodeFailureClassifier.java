@@ -0,0 +1,43 @@
+package hu.psprog.leaflet.security.jwt.impl;
+
+import hu.psprog.leaflet.security.jwt.model.TokenRejectionReason;
+import io.jsonwebtoken.ExpiredJwtException;
+import io.jsonwebtoken.MalformedJwtException;
+import io.jsonwebtoken.SignatureException;
+import io.jsonwebtoken.UnsupportedJwtException;
+
+/**
+ * Maps token verification exceptions to {@link TokenRejectionReason}.
+ *
+ * @author Peter Smith
+ */
+final class DecodeFailureClassifier {
+
+    private DecodeFailureClassifier() {
+        // utility class
+    }
+
+    /**
+     * Classifies the given verification exception.
+     *
+     * @param exception exception thrown by a {@link JWTDecoder}
+     * @return matching {@link TokenRejectionReason}
+     */
+    static TokenRejectionReason classify(Exception exception) {
+
+        TokenRejectionReason reason;
+        if (exception instanceof ExpiredJwtException) {
+            reason = TokenRejectionReason.EXPIRED;
+        } else if (exception instanceof SignatureException) {
+            reason = TokenRejectionReason.INVALID_SIGNATURE;
+        } else if (exception instanceof UnsupportedJwtException) {
+            reason = TokenRejectionReason.UNSUPPORTED_ALGORITHM;
+        } else if (exception instanceof MalformedJwtException || exception instanceof IllegalArgumentException) {
+            reason = TokenRejectionReason.MALFORMED;
+        } else {
+            reason = TokenRejectionReason.INVALID_CLAIMS;
+        }
+
+        return reason;
+    }
+}
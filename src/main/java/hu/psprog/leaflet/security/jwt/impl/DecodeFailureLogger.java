@@ -0,0 +1,60 @@
+package hu.psprog.leaflet.security.jwt.impl;
+
+import hu.psprog.leaflet.security.jwt.model.TokenRejectionReason;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Rate-limited logging of token decode failures.
+ * At most one line (without stack trace) is written per {@link TokenRejectionReason} in every logging interval,
+ * reporting the number of failures of the same reason suppressed since the previous line.
+ *
+ * @author Peter Smith
+ */
+public class DecodeFailureLogger {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DecodeFailureLogger.class);
+
+    private final long intervalInMillis;
+    private final Map<TokenRejectionReason, FailureLogState> states = new EnumMap<>(TokenRejectionReason.class);
+
+    public DecodeFailureLogger(long intervalInMillis) {
+        this.intervalInMillis = intervalInMillis;
+        for (TokenRejectionReason reason : TokenRejectionReason.values()) {
+            states.put(reason, new FailureLogState());
+        }
+    }
+
+    /**
+     * Records a decode failure and logs it, if no failure of the same reason has been logged in the current interval.
+     *
+     * @param reason reason of the failure
+     * @return {@code true} if the failure has been logged, {@code false} if it has been suppressed
+     */
+    public boolean log(TokenRejectionReason reason) {
+
+        FailureLogState state = states.get(reason);
+        long now = System.currentTimeMillis();
+        long nextLogAt = state.nextLogAt.get();
+        if (now < nextLogAt || !state.nextLogAt.compareAndSet(nextLogAt, now + intervalInMillis)) {
+            state.suppressedCount.increment();
+            return false;
+        }
+
+        LOGGER.warn("Token can not be decoded, reason: {} ({} similar failures suppressed since last report)",
+                reason, state.suppressedCount.sumThenReset());
+
+        return true;
+    }
+
+    private static final class FailureLogState {
+
+        private final AtomicLong nextLogAt = new AtomicLong();
+        private final LongAdder suppressedCount = new LongAdder();
+    }
+}
@@ -0,0 +1,79 @@
+package hu.psprog.leaflet.security.jwt.impl;
+
+import java.security.GeneralSecurityException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.SignatureException;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * ES256 (ECDSA using P-256 and SHA-256) signing and verification engine reusing initialized {@link Signature} instances.
+ *
+ * Signatures are produced and verified in the JWS (R || S) format. Separate bounded pools are kept for signing and verification
+ * instances, both initialized with their key once. An engine created without private key can only verify signatures.
+ *
+ * @author Peter Smith
+ */
+public class EcdsaSignatureEngine implements SignatureEngine {
+
+    private static final String SIGNATURE_ALGORITHM = "SHA256withECDSAinP1363Format";
+
+    private final PrivateKey signingKey;
+    private final PublicKey verificationKey;
+    private final Queue<Signature> idleSigners;
+    private final Queue<Signature> idleVerifiers;
+
+    public EcdsaSignatureEngine(PrivateKey signingKey, PublicKey verificationKey, int maximumIdleInstances) {
+        this.signingKey = signingKey;
+        this.verificationKey = verificationKey;
+        this.idleSigners = new ArrayBlockingQueue<>(maximumIdleInstances);
+        this.idleVerifiers = new ArrayBlockingQueue<>(maximumIdleInstances);
+    }
+
+    @Override
+    public byte[] sign(byte[] data, int offset, int length) {
+
+        if (signingKey == null) {
+            throw new IllegalStateException("ES256 engine has no private key, it can only verify signatures");
+        }
+
+        try {
+            Signature signer = idleSigners.poll();
+            if (signer == null) {
+                signer = Signature.getInstance(SIGNATURE_ALGORITHM);
+                signer.initSign(signingKey);
+            }
+            signer.update(data, offset, length);
+            byte[] signature = signer.sign();
+            idleSigners.offer(signer);
+
+            return signature;
+        } catch (GeneralSecurityException exc) {
+            throw new IllegalStateException("Failed to create ES256 signature", exc);
+        }
+    }
+
+    @Override
+    public boolean verify(byte[] data, int offset, int length, byte[] signature) {
+
+        try {
+            Signature verifier = idleVerifiers.poll();
+            if (verifier == null) {
+                verifier = Signature.getInstance(SIGNATURE_ALGORITHM);
+                verifier.initVerify(verificationKey);
+            }
+            verifier.update(data, offset, length);
+            boolean valid = verifier.verify(signature);
+            idleVerifiers.offer(verifier);
+
+            return valid;
+        } catch (SignatureException exc) {
+            // malformed signature - the instance is left in an undefined state, so it is not returned to the pool
+            return false;
+        } catch (GeneralSecurityException exc) {
+            throw new IllegalStateException("Failed to verify ES256 signature", exc);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package hu.psprog.leaflet.security.jwt.impl;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * {@link JWTKeyFileParser} implementation for HS512 keys, read from a properties file of the following format:
+ *
+ * <pre>
+ * signing-key=2024-02
+ * key.2024-01=first-secret
+ * key.2024-02=second-secret
+ * not-after.2024-01=2024-03-01T12:00:00Z
+ * default-key.not-after=2024-02-01T12:00:00Z
+ * </pre>
+ *
+ * The optional not-after times (ISO-8601 instants) retire keys which are no longer used for signing: the key is accepted
+ * for verification until then. The default key of the key ring (jwt.secret) can be kept the same way after a key file
+ * defining the signing key has been introduced.
+ *
+ * @author Peter Smith
+ */
+public class HmacKeyFileParser implements JWTKeyFileParser {
+
+    private static final String SIGNING_KEY_ALGORITHM = "HmacSHA512";
+    private static final String PROPERTY_SIGNING_KEY = "signing-key";
+    private static final String PROPERTY_KEY_PREFIX = "key.";
+    private static final String PROPERTY_NOT_AFTER_PREFIX = "not-after.";
+    private static final String PROPERTY_DEFAULT_KEY_NOT_AFTER = "default-key.not-after";
+
+    private final int macPoolMaxIdle;
+
+    public HmacKeyFileParser(int macPoolMaxIdle) {
+        this.macPoolMaxIdle = macPoolMaxIdle;
+    }
+
+    @Override
+    public JWTKeySet parse(Path keyFile) throws IOException {
+
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(keyFile, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        }
+
+        Map<String, JWTKey> keys = new HashMap<>();
+        Map<String, Long> notAfter = new HashMap<>();
+        for (String propertyName : properties.stringPropertyNames()) {
+            if (propertyName.startsWith(PROPERTY_KEY_PREFIX)) {
+                String keyId = propertyName.substring(PROPERTY_KEY_PREFIX.length());
+                SecretKeySpec secretKey = new SecretKeySpec(properties.getProperty(propertyName).getBytes(StandardCharsets.UTF_8), SIGNING_KEY_ALGORITHM);
+                keys.put(keyId, new JWTKey(keyId, secretKey, macPoolMaxIdle));
+            } else if (propertyName.startsWith(PROPERTY_NOT_AFTER_PREFIX)) {
+                notAfter.put(propertyName.substring(PROPERTY_NOT_AFTER_PREFIX.length()), parseInstant(keyFile, properties, propertyName));
+            } else if (PROPERTY_DEFAULT_KEY_NOT_AFTER.equals(propertyName)) {
+                notAfter.put(null, parseInstant(keyFile, properties, propertyName));
+            }
+        }
+
+        String signingKeyId = properties.getProperty(PROPERTY_SIGNING_KEY);
+        if (signingKeyId == null || !keys.containsKey(signingKeyId)) {
+            throw new IllegalStateException(String.format("JWT key file [%s] does not define signing key [%s]", keyFile, signingKeyId));
+        }
+
+        return new JWTKeySet(signingKeyId, keys, notAfter);
+    }
+
+    private static long parseInstant(Path keyFile, Properties properties, String propertyName) {
+
+        try {
+            return Instant.parse(properties.getProperty(propertyName).trim()).toEpochMilli();
+        } catch (DateTimeParseException exc) {
+            throw new IllegalStateException(String.format("Invalid time [%s] of JWT key file [%s]", propertyName, keyFile), exc);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package hu.psprog.leaflet.security.jwt.impl;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * HMAC signing and verification engine reusing pre-keyed {@link Mac} instances.
+ *
+ * A prototype {@link Mac} is initialized with the signing key once. Requests borrow an idle instance from a bounded pool,
+ * or get a clone of the prototype if the pool is empty, and return it after use. Instances are never bound to a thread,
+ * so the engine is safe to use from any number of platform or virtual threads.
+ *
+ * @author Peter Smith
+ */
+public class HmacSignatureEngine implements SignatureEngine {
+
+    private final SecretKey signingKey;
+    private final Mac prototype;
+    private final boolean cloneable;
+    private final Queue<Mac> idleInstances;
+
+    public HmacSignatureEngine(SecretKey signingKey, int maximumIdleInstances) {
+        this.signingKey = signingKey;
+        this.prototype = createInstance();
+        this.cloneable = isCloneable(prototype);
+        this.idleInstances = new ArrayBlockingQueue<>(maximumIdleInstances);
+    }
+
+    @Override
+    public byte[] sign(byte[] data, int offset, int length) {
+
+        Mac mac = borrow();
+        try {
+            mac.update(data, offset, length);
+            return mac.doFinal();
+        } finally {
+            release(mac);
+        }
+    }
+
+    /**
+     * Verifies the signature of the given range of the data in constant time.
+     */
+    @Override
+    public boolean verify(byte[] data, int offset, int length, byte[] signature) {
+        return MessageDigest.isEqual(sign(data, offset, length), signature);
+    }
+
+    /**
+     * Returns the algorithm name of the signing key (e.g. "HmacSHA512").
+     *
+     * @return algorithm name
+     */
+    public String getAlgorithm() {
+        return signingKey.getAlgorithm();
+    }
+
+    private Mac borrow() {
+
+        Mac mac = idleInstances.poll();
+        if (mac == null) {
+            mac = cloneable
+                    ? clonePrototype()
+                    : createInstance();
+        }
+
+        return mac;
+    }
+
+    private void release(Mac mac) {
+        mac.reset();
+        idleInstances.offer(mac);
+    }
+
+    private Mac clonePrototype() {
+
+        try {
+            synchronized (prototype) {
+                return (Mac) prototype.clone();
+            }
+        } catch (CloneNotSupportedException exc) {
+            return createInstance();
+        }
+    }
+
+    private Mac createInstance() {
+
+        try {
+            Mac mac = Mac.getInstance(signingKey.getAlgorithm());
+            mac.init(signingKey);
+            return mac;
+        } catch (GeneralSecurityException exc) {
+            throw new IllegalStateException("Failed to initialize HMAC engine", exc);
+        }
+    }
+
+    private static boolean isCloneable(Mac mac) {
+
+        try {
+            mac.clone();
+            return true;
+        } catch (CloneNotSupportedException exc) {
+            return false;
+        }
+    }
+}
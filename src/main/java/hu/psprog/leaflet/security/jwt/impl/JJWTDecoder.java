@@ -0,0 +1,87 @@
+package hu.psprog.leaflet.security.jwt.impl;
+
+import hu.psprog.leaflet.security.jwt.model.JWTPayload;
+import hu.psprog.leaflet.security.jwt.model.RoleSet;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwsHeader;
+import io.jsonwebtoken.JwtParser;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.MalformedJwtException;
+import io.jsonwebtoken.SignatureException;
+import io.jsonwebtoken.SigningKeyResolverAdapter;
+
+import java.security.Key;
+
+/**
+ * {@link JWTDecoder} implementation backed by the generic jjwt parser.
+ *
+ * @author Peter Smith
+ */
+public class JJWTDecoder implements JWTDecoder {
+
+    /**
+     * Parser instance shared by all decode calls.
+     * Configured once on initialization and never modified afterwards, so it can be safely used by concurrent requests.
+     */
+    private final JwtParser jwtParser;
+
+    public JJWTDecoder(JWTKeyRing keyRing) {
+        this.jwtParser = Jwts.parser().setSigningKeyResolver(new KeyRingSigningKeyResolver(keyRing));
+    }
+
+    @Override
+    public JWTPayload decode(String token) {
+
+        Claims claims = jwtParser.parseClaimsJws(token).getBody();
+
+        return JWTPayload.getBuilder()
+                .withUsername(claims.get(JWTClaimNames.USERNAME, String.class))
+                .withExpires(claims.getExpiration())
+                .withIssuedAt(claims.getIssuedAt())
+                .withRoles(readRoles(claims.get(JWTClaimNames.USER_ROLE)))
+                .withName(claims.get(JWTClaimNames.USER_PUBLIC_NAME, String.class))
+                .withId(claims.get(JWTClaimNames.USER_ID, Integer.class))
+                .build();
+    }
+
+    private RoleSet readRoles(Object roleClaim) {
+
+        RoleSet roles;
+        if (roleClaim instanceof Integer) {
+            roles = RoleSet.fromMask((Integer) roleClaim);
+        } else if (roleClaim instanceof String) {
+            roles = RoleSet.fromNames((String) roleClaim);
+        } else {
+            throw new MalformedJwtException(String.format("Invalid role claim [%s]", roleClaim));
+        }
+
+        return roles;
+    }
+
+    /**
+     * Resolves the verification key of the token by its "kid" header from {@link JWTKeyRing}.
+     */
+    private static final class KeyRingSigningKeyResolver extends SigningKeyResolverAdapter {
+
+        private final JWTKeyRing keyRing;
+
+        private KeyRingSigningKeyResolver(JWTKeyRing keyRing) {
+            this.keyRing = keyRing;
+        }
+
+        @Override
+        @SuppressWarnings("rawtypes")
+        public Key resolveSigningKey(JwsHeader header, Claims claims) {
+
+            JWTKey key = keyRing.getVerificationKey(header.getKeyId());
+            if (key == null) {
+                throw new SignatureException(String.format("Unknown JWT key [%s]", header.getKeyId()));
+            }
+            if (!key.getAlgorithm().equals(header.getAlgorithm())) {
+                throw new SignatureException(String.format("JWT key [%s] can not be used with algorithm [%s]", header.getKeyId(), header.getAlgorithm()));
+            }
+
+            return key.getVerificationKey();
+        }
+    }
+}
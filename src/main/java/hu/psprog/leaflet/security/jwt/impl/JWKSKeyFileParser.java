@@ -0,0 +1,163 @@
+package hu.psprog.leaflet.security.jwt.impl;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.AlgorithmParameters;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.ECParameterSpec;
+import java.security.spec.ECPoint;
+import java.security.spec.ECPrivateKeySpec;
+import java.security.spec.ECPublicKeySpec;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link JWTKeyFileParser} implementation for ES256 public keys, read from a JWKS (JSON Web Key Set) file.
+ * Only P-256 elliptic curve keys intended for signature verification are used, other keys of the set are ignored.
+ * The set never defines a signing key, which (on the issuing node only) is read from a separate private JWK file
+ * by {@link #parseSigningKey(Path)}.
+ *
+ * A key can be retired by its optional "exp" member (NumericDate, i.e. epoch seconds): the key is accepted for verification
+ * until then.
+ *
+ * @author Peter Smith
+ */
+public class JWKSKeyFileParser implements JWTKeyFileParser {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(JWKSKeyFileParser.class);
+
+    private static final String KEY_ALGORITHM = "EC";
+    private static final String CURVE_NAME = "secp256r1";
+    private static final String JWK_CURVE = "P-256";
+    private static final String JWK_USE_SIGNATURE = "sig";
+    private static final String FIELD_KEYS = "keys";
+    private static final String FIELD_KEY_TYPE = "kty";
+    private static final String FIELD_CURVE = "crv";
+    private static final String FIELD_ALGORITHM = "alg";
+    private static final String FIELD_USE = "use";
+    private static final String FIELD_KEY_ID = "kid";
+    private static final String FIELD_X = "x";
+    private static final String FIELD_Y = "y";
+    private static final String FIELD_D = "d";
+    private static final String FIELD_EXPIRATION = "exp";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final ECParameterSpec curveParameters;
+    private final KeyFactory keyFactory;
+    private final int signaturePoolMaxIdle;
+
+    public JWKSKeyFileParser(int signaturePoolMaxIdle) {
+        this.signaturePoolMaxIdle = signaturePoolMaxIdle;
+        try {
+            AlgorithmParameters parameters = AlgorithmParameters.getInstance(KEY_ALGORITHM);
+            parameters.init(new ECGenParameterSpec(CURVE_NAME));
+            this.curveParameters = parameters.getParameterSpec(ECParameterSpec.class);
+            this.keyFactory = KeyFactory.getInstance(KEY_ALGORITHM);
+        } catch (GeneralSecurityException exc) {
+            throw new IllegalStateException("P-256 elliptic curve is not supported by the runtime", exc);
+        }
+    }
+
+    @Override
+    public JWTKeySet parse(Path keyFile) throws IOException {
+
+        JsonNode keySet = objectMapper.readTree(Files.readAllBytes(keyFile));
+        Map<String, JWTKey> keys = new HashMap<>();
+        Map<String, Long> notAfter = new HashMap<>();
+        for (JsonNode jwk : keySet.path(FIELD_KEYS)) {
+            if (isES256VerificationKey(jwk)) {
+                String keyId = jwk.path(FIELD_KEY_ID).asText(null);
+                PublicKey publicKey = createPublicKey(jwk);
+                keys.put(keyId, new JWTKey(keyId, JWTKey.ALGORITHM_ES256, publicKey, new EcdsaSignatureEngine(null, publicKey, signaturePoolMaxIdle)));
+                if (jwk.hasNonNull(FIELD_EXPIRATION)) {
+                    notAfter.put(keyId, parseExpiration(jwk));
+                }
+            } else {
+                LOGGER.debug(String.format("Ignoring unsupported key [%s] of JWKS file [%s]", jwk.path(FIELD_KEY_ID).asText(), keyFile));
+            }
+        }
+
+        return new JWTKeySet(null, keys, notAfter);
+    }
+
+    /**
+     * Parses a single private ES256 key in JWK format (containing the "d" parameter), used to sign tokens.
+     *
+     * @param jwkFile path of the private JWK file
+     * @return signing {@link JWTKey}
+     * @throws IOException if the file cannot be read
+     * @throws IllegalStateException if the file does not contain a private ES256 key
+     */
+    public JWTKey parseSigningKey(Path jwkFile) throws IOException {
+
+        JsonNode jwk = objectMapper.readTree(Files.readAllBytes(jwkFile));
+        if (!isES256VerificationKey(jwk) || !jwk.hasNonNull(FIELD_D)) {
+            throw new IllegalStateException(String.format("JWK file [%s] does not contain a private ES256 key with key ID", jwkFile));
+        }
+
+        PublicKey publicKey = createPublicKey(jwk);
+        PrivateKey privateKey = createPrivateKey(jwk);
+
+        return new JWTKey(jwk.get(FIELD_KEY_ID).asText(), JWTKey.ALGORITHM_ES256, publicKey,
+                new EcdsaSignatureEngine(privateKey, publicKey, signaturePoolMaxIdle));
+    }
+
+    private boolean isES256VerificationKey(JsonNode jwk) {
+        return KEY_ALGORITHM.equals(jwk.path(FIELD_KEY_TYPE).asText())
+                && JWK_CURVE.equals(jwk.path(FIELD_CURVE).asText())
+                && JWTKey.ALGORITHM_ES256.equals(jwk.path(FIELD_ALGORITHM).asText(JWTKey.ALGORITHM_ES256))
+                && JWK_USE_SIGNATURE.equals(jwk.path(FIELD_USE).asText(JWK_USE_SIGNATURE))
+                && jwk.hasNonNull(FIELD_KEY_ID);
+    }
+
+    private PublicKey createPublicKey(JsonNode jwk) {
+
+        ECPoint point = new ECPoint(decodeParameter(jwk, FIELD_X), decodeParameter(jwk, FIELD_Y));
+        try {
+            return keyFactory.generatePublic(new ECPublicKeySpec(point, curveParameters));
+        } catch (GeneralSecurityException exc) {
+            throw new IllegalStateException(String.format("Invalid ES256 public key [%s]", jwk.path(FIELD_KEY_ID).asText()), exc);
+        }
+    }
+
+    private PrivateKey createPrivateKey(JsonNode jwk) {
+
+        try {
+            return keyFactory.generatePrivate(new ECPrivateKeySpec(decodeParameter(jwk, FIELD_D), curveParameters));
+        } catch (GeneralSecurityException exc) {
+            throw new IllegalStateException(String.format("Invalid ES256 private key [%s]", jwk.path(FIELD_KEY_ID).asText()), exc);
+        }
+    }
+
+    private long parseExpiration(JsonNode jwk) {
+
+        JsonNode expiration = jwk.get(FIELD_EXPIRATION);
+        if (!expiration.canConvertToLong()) {
+            throw new IllegalStateException(String.format("Invalid expiration of ES256 key [%s]", jwk.path(FIELD_KEY_ID).asText()));
+        }
+
+        return TimeUnit.SECONDS.toMillis(expiration.asLong());
+    }
+
+    private BigInteger decodeParameter(JsonNode jwk, String field) {
+
+        if (!jwk.hasNonNull(field)) {
+            throw new IllegalStateException(String.format("Missing parameter [%s] of ES256 key [%s]", field, jwk.path(FIELD_KEY_ID).asText()));
+        }
+
+        return new BigInteger(1, Base64.getUrlDecoder().decode(jwk.get(field).asText()));
+    }
+}
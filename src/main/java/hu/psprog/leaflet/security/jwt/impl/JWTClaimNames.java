@@ -0,0 +1,21 @@
+package hu.psprog.leaflet.security.jwt.impl;
+
+/**
+ * Claim names used in Leaflet tokens.
+ *
+ * @author Peter Smith
+ */
+final class JWTClaimNames {
+
+    static final String USERNAME = "usr";
+    static final String USER_ROLE = "rol";
+    static final String USER_PUBLIC_NAME = "name";
+    static final String USER_ID = "uid";
+    static final String ISSUED_AT = "iat";
+    static final String EXPIRATION = "exp";
+    static final String NOT_BEFORE = "nbf";
+
+    private JWTClaimNames() {
+        // prevent instantiation
+    }
+}
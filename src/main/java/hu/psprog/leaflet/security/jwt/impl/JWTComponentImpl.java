@@ -1,56 +1,59 @@
 package hu.psprog.leaflet.security.jwt.impl;
 
 import hu.psprog.leaflet.security.jwt.JWTComponent;
+import hu.psprog.leaflet.security.jwt.config.JWTRoleClaimFormat;
 import hu.psprog.leaflet.security.jwt.exception.InvalidJWTTokenException;
 import hu.psprog.leaflet.security.jwt.model.ExtendedUserDetails;
 import hu.psprog.leaflet.security.jwt.model.JWTAuthenticationAnswerModel;
+import hu.psprog.leaflet.security.jwt.model.JWTDecodeResult;
 import hu.psprog.leaflet.security.jwt.model.JWTPayload;
-import hu.psprog.leaflet.security.jwt.model.Role;
-import io.jsonwebtoken.Claims;
-import io.jsonwebtoken.Jwts;
-import io.jsonwebtoken.SignatureAlgorithm;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import hu.psprog.leaflet.security.jwt.model.RoleSet;
+import hu.psprog.leaflet.security.jwt.model.TokenRejectionReason;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.security.core.GrantedAuthority;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.stereotype.Component;
 
 import javax.servlet.http.HttpServletRequest;
-import java.util.Calendar;
-import java.util.Date;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Objects;
-import java.util.stream.Collectors;
+import java.util.concurrent.TimeUnit;
 
 /**
  * JWT encoder/decoder utility.
  *
  * Application specific JWT secret and expiration shall be provided in external application configuration file.
+ * Tokens are never issued for longer than jwt.max-expire-hours (defaults to jwt.expire.hours), the longest token lifetime
+ * the key retirement period and the pruning of revocation watermarks rely on.
  */
 @Component
 public class JWTComponentImpl implements JWTComponent {
 
-    private static final Logger LOGGER = LoggerFactory.getLogger(JWTComponentImpl.class);
-
-    private static final String TOKEN_CAN_NOT_BE_DECODED = "Token can not be decoded because of the following reason: ";
-
-    private static final String JWT_USERNAME = "usr";
-    private static final String JWT_USER_ROLE = "rol";
-    private static final String JWT_USER_PUBLIC_NAME = "name";
-    private static final String JWT_USER_ID = "uid";
-
     private static final String AUTH_HEADER = "Authorization";
     private static final String AUTH_BEARER = "Bearer ";
 
-    private String jwtSecret;
     private Integer expirationInHours;
+    private Integer maxExpirationInHours;
+    private JWTRoleClaimFormat roleClaimFormat;
+    private VerifiedTokenCache verifiedTokenCache;
+    private JWTEncoder jwtEncoder;
+    private JWTDecoder jwtDecoder;
+    private TokenPreValidator tokenPreValidator;
+    private DecodeFailureLogger decodeFailureLogger;
 
     @Autowired
-    public JWTComponentImpl(String jwtSecret, Integer expirationInHours) {
-        this.jwtSecret = jwtSecret;
+    public JWTComponentImpl(Integer expirationInHours, @Value("${jwt.max-expire-hours:${jwt.expire.hours}}") Integer maxExpirationInHours,
+                            JWTRoleClaimFormat roleClaimFormat, VerifiedTokenCache verifiedTokenCache,
+                            JWTEncoder jwtEncoder, JWTDecoder jwtDecoder, TokenPreValidator tokenPreValidator, DecodeFailureLogger decodeFailureLogger) {
         this.expirationInHours = expirationInHours;
+        this.maxExpirationInHours = maxExpirationInHours;
+        this.roleClaimFormat = roleClaimFormat;
+        this.verifiedTokenCache = verifiedTokenCache;
+        this.jwtEncoder = jwtEncoder;
+        this.jwtDecoder = jwtDecoder;
+        this.tokenPreValidator = tokenPreValidator;
+        this.decodeFailureLogger = decodeFailureLogger;
     }
 
     /**
@@ -66,31 +69,35 @@ public class JWTComponentImpl implements JWTComponent {
 
     /**
      * Generates token from {@link UserDetails} object with custom expiration length.
+     * Authorities of the user are written into the "rol" claim in the configured {@link JWTRoleClaimFormat}: as comma separated
+     * role names (understood by every release), or as a {@link RoleSet} bitmask.
      *
      * @param userDetails {@link UserDetails} object to generate token based on
      * @param expiration expiration length in hours
      * @return token wrapped in {@link JWTAuthenticationAnswerModel} object
+     * @throws IllegalArgumentException if the expiration length exceeds jwt.max-expire-hours
      */
     @Override
     public JWTAuthenticationAnswerModel generateToken(UserDetails userDetails, Integer expiration) {
-        String roles = userDetails.getAuthorities().stream()
-                .map(GrantedAuthority::getAuthority)
-                .collect(Collectors.joining(","));
 
-        Date issuedAt = new Date();
-        Map<String, Object> claims = new HashMap<>();
-        claims.put(JWT_USERNAME, userDetails.getUsername());
-        claims.put(JWT_USER_ROLE, roles);
-        claims.put(JWT_USER_PUBLIC_NAME, ((ExtendedUserDetails) userDetails).getName());
-        claims.put(JWT_USER_ID, ((ExtendedUserDetails) userDetails).getId().intValue());
+        if (expiration > maxExpirationInHours) {
+            throw new IllegalArgumentException(String.format("JWT token expiration of %d hours exceeds the maximum of %d hours", expiration, maxExpirationInHours));
+        }
+
+        long issuedAt = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+        Map<String, Object> claims = new LinkedHashMap<>();
+        claims.put(JWTClaimNames.EXPIRATION, issuedAt + TimeUnit.HOURS.toSeconds(expiration));
+        claims.put(JWTClaimNames.ISSUED_AT, issuedAt);
+        claims.put(JWTClaimNames.USERNAME, userDetails.getUsername());
+        RoleSet roles = RoleSet.fromAuthorities(userDetails.getAuthorities());
+        claims.put(JWTClaimNames.USER_ROLE, roleClaimFormat == JWTRoleClaimFormat.MASK
+                ? roles.getMask()
+                : roles.getNames());
+        claims.put(JWTClaimNames.USER_PUBLIC_NAME, ((ExtendedUserDetails) userDetails).getName());
+        claims.put(JWTClaimNames.USER_ID, ((ExtendedUserDetails) userDetails).getId().intValue());
 
         return JWTAuthenticationAnswerModel.getBuilder()
-                .withToken(Jwts.builder()
-                        .setExpiration(generateExpiration(issuedAt, expiration))
-                        .setIssuedAt(issuedAt)
-                        .addClaims(claims)
-                        .signWith(SignatureAlgorithm.HS512, jwtSecret)
-                        .compact())
+                .withToken(jwtEncoder.encode(claims))
                 .build();
     }
 
@@ -100,26 +107,40 @@ public class JWTComponentImpl implements JWTComponent {
      * @param token given (raw) token
      * @return {@link JWTPayload} object on success with the contents of JWT payload section
      * @throws InvalidJWTTokenException if format of given token is invalid
+     * @see #tryDecode(String)
      */
     @Override
     public JWTPayload decode(String token) throws InvalidJWTTokenException {
 
-        try {
-            Claims claims = Jwts.parser().setSigningKey(jwtSecret).parseClaimsJws(token).getBody();
-
-            return JWTPayload.getBuilder()
-                    .withUsername(claims.get(JWT_USERNAME, String.class))
-                    .withExpires(claims.getExpiration())
-                    .withIssuedAt(claims.getIssuedAt())
-                    .withRole(Role.valueOf(claims.get(JWT_USER_ROLE, String.class)))
-                    .withName(claims.get(JWT_USER_PUBLIC_NAME, String.class))
-                    .withId(claims.get(JWT_USER_ID, Integer.class))
-                    .build();
-
-        } catch(Exception exc) {
-            LOGGER.warn(TOKEN_CAN_NOT_BE_DECODED, exc);
-            throw new InvalidJWTTokenException(exc);
+        JWTDecodeResult result = tryDecode(token);
+        if (!result.isSuccessful()) {
+            throw new InvalidJWTTokenException(result.getFailureReason());
         }
+
+        return result.getPayload();
+    }
+
+    /**
+     * Decodes given JWT token without throwing exception on invalid token.
+     * Already verified tokens are served from {@link VerifiedTokenCache} (if enabled) until they expire, without any further check.
+     * On cache miss, structurally invalid and expired tokens are rejected by {@link TokenPreValidator} before signature verification.
+     * Failures are logged by {@link DecodeFailureLogger}.
+     *
+     * @param token given (raw) token
+     * @return {@link JWTDecodeResult} holding the payload on success, or the reason of failure
+     */
+    @Override
+    public JWTDecodeResult tryDecode(String token) {
+
+        JWTDecodeResult result = verifiedTokenCache.get(token)
+                .map(JWTDecodeResult::success)
+                .orElseGet(() -> verifyToken(token));
+
+        if (!result.isSuccessful()) {
+            decodeFailureLogger.log(result.getFailureReason());
+        }
+
+        return result;
     }
 
     /**
@@ -141,21 +162,18 @@ public class JWTComponentImpl implements JWTComponent {
         return extractedToken;
     }
 
-    /**
-     * Generates Expires ("exp") value.
-     *
-     * @param issuedAt date when the token was issued
-     * @param expiration expiration in hours
-     * @return {@link Long} timestamp of expiration date in seconds
-     */
-    private Date generateExpiration(Date issuedAt, Integer expiration) {
+    private JWTDecodeResult verifyToken(String token) {
 
-        Calendar calendar = new Calendar.Builder()
-                .setInstant(issuedAt)
-                .build();
+        TokenRejectionReason rejectionReason = tokenPreValidator.validate(token);
+        if (rejectionReason != null) {
+            return JWTDecodeResult.failure(rejectionReason);
+        }
 
-        calendar.add(Calendar.HOUR, expiration);
+        JWTDecodeResult result = jwtDecoder.tryDecode(token);
+        if (result.isSuccessful()) {
+            verifiedTokenCache.put(token, result.getPayload());
+        }
 
-        return calendar.getTime();
+        return result;
     }
 }
@@ -0,0 +1,37 @@
+package hu.psprog.leaflet.security.jwt.impl;
+
+import hu.psprog.leaflet.security.jwt.model.JWTDecodeResult;
+import hu.psprog.leaflet.security.jwt.model.JWTPayload;
+
+/**
+ * Decoder engine verifying a raw JWT token and extracting its payload.
+ *
+ * @author Peter Smith
+ */
+public interface JWTDecoder {
+
+    /**
+     * Verifies the given token and returns its payload's content as {@link JWTPayload} object.
+     *
+     * @param token given (raw) token
+     * @return {@link JWTPayload} object on success with the contents of JWT payload section
+     * @throws RuntimeException if the token is invalid (malformed, expired, invalid signature, etc.)
+     */
+    JWTPayload decode(String token);
+
+    /**
+     * Verifies the given token without throwing exception on invalid token.
+     * Default implementation classifies the exception thrown by {@link #decode(String)}, implementations able to detect failures
+     * without exceptions should override it.
+     *
+     * @param token given (raw) token
+     * @return {@link JWTDecodeResult} holding the payload on success, or the reason of failure
+     */
+    default JWTDecodeResult tryDecode(String token) {
+        try {
+            return JWTDecodeResult.success(decode(token));
+        } catch (Exception exc) {
+            return JWTDecodeResult.failure(DecodeFailureClassifier.classify(exc));
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package hu.psprog.leaflet.security.jwt.impl;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Map;
+
+/**
+ * Creates signed compact JWS tokens using the current signing key of {@link JWTKeyRing}.
+ * Claim values must be either strings or integral numbers, claims with null value are omitted.
+ *
+ * @author Peter Smith
+ */
+public class JWTEncoder {
+
+    private static final char SEGMENT_SEPARATOR = '.';
+
+    private final JWTKeyRing keyRing;
+    private final JsonFactory jsonFactory = new JsonFactory();
+    private final Base64.Encoder base64Encoder = Base64.getUrlEncoder().withoutPadding();
+
+    public JWTEncoder(JWTKeyRing keyRing) {
+        this.keyRing = keyRing;
+    }
+
+    /**
+     * Creates a signed token containing the given claims.
+     *
+     * @param claims claims of the token
+     * @return signed token in compact serialization format
+     * @throws IllegalStateException if the key ring has no signing key
+     */
+    public String encode(Map<String, Object> claims) {
+
+        JWTKey signingKey = keyRing.getSigningKey();
+        if (signingKey == null) {
+            throw new IllegalStateException("No JWT signing key is configured, tokens can only be verified on this node");
+        }
+
+        StringBuilder token = new StringBuilder(signingKey.getEncodedHeader())
+                .append(SEGMENT_SEPARATOR)
+                .append(base64Encoder.encodeToString(serializeClaims(claims)));
+
+        byte[] signingInput = token.toString().getBytes(StandardCharsets.US_ASCII);
+
+        return token
+                .append(SEGMENT_SEPARATOR)
+                .append(base64Encoder.encodeToString(signingKey.getSignatureEngine().sign(signingInput, 0, signingInput.length)))
+                .toString();
+    }
+
+    private byte[] serializeClaims(Map<String, Object> claims) {
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(256);
+        try (JsonGenerator generator = jsonFactory.createGenerator(outputStream)) {
+            generator.writeStartObject();
+            for (Map.Entry<String, Object> claim : claims.entrySet()) {
+                writeClaim(generator, claim.getKey(), claim.getValue());
+            }
+            generator.writeEndObject();
+        } catch (IOException exc) {
+            throw new IllegalStateException("Failed to serialize token claims", exc);
+        }
+
+        return outputStream.toByteArray();
+    }
+
+    private void writeClaim(JsonGenerator generator, String name, Object value) throws IOException {
+
+        if (value == null) {
+            return;
+        }
+
+        if (value instanceof String) {
+            generator.writeStringField(name, (String) value);
+        } else if (value instanceof Integer) {
+            generator.writeNumberField(name, (Integer) value);
+        } else if (value instanceof Long) {
+            generator.writeNumberField(name, (Long) value);
+        } else {
+            throw new IllegalArgumentException(String.format("Unsupported value type for claim [%s]", name));
+        }
+    }
+}
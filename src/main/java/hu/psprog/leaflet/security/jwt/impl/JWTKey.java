@@ -0,0 +1,116 @@
+package hu.psprog.leaflet.security.jwt.impl;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import javax.crypto.SecretKey;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.Key;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.Objects;
+
+/**
+ * Key of the {@link JWTKeyRing}, along with its key ID ("kid"), JWS algorithm, signature engine
+ * and the pre-encoded JWS header of tokens signed with it.
+ *
+ * @author Peter Smith
+ */
+public class JWTKey {
+
+    public static final String ALGORITHM_HS512 = "HS512";
+    public static final String ALGORITHM_ES256 = "ES256";
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final String HEADER_ALGORITHM = "alg";
+    private static final String HEADER_KEY_ID = "kid";
+
+    private final String keyId;
+    private final String algorithm;
+    private final Key verificationKey;
+    private final SignatureEngine signatureEngine;
+    private final String encodedHeader;
+
+    public JWTKey(String keyId, SecretKey secretKey, int macPoolMaxIdle) {
+        this(keyId, ALGORITHM_HS512, secretKey, new HmacSignatureEngine(secretKey, macPoolMaxIdle));
+    }
+
+    public JWTKey(String keyId, String algorithm, Key verificationKey, SignatureEngine signatureEngine) {
+        this.keyId = keyId;
+        this.algorithm = algorithm;
+        this.verificationKey = verificationKey;
+        this.signatureEngine = signatureEngine;
+        this.encodedHeader = encodeHeader(algorithm, keyId);
+    }
+
+    /**
+     * Returns the key ID, or {@code null} for the default HS512 key (tokens signed with it carry no "kid" header).
+     *
+     * @return key ID
+     */
+    public String getKeyId() {
+        return keyId;
+    }
+
+    /**
+     * Returns the JWS algorithm name of the key ("HS512" or "ES256").
+     *
+     * @return JWS algorithm name
+     */
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * Returns the key to verify token signatures with (secret key for HS512, public key for ES256).
+     *
+     * @return verification key
+     */
+    public Key getVerificationKey() {
+        return verificationKey;
+    }
+
+    public SignatureEngine getSignatureEngine() {
+        return signatureEngine;
+    }
+
+    /**
+     * Returns the base64url encoded JWS header of tokens signed with this key.
+     *
+     * @return encoded header
+     */
+    public String getEncodedHeader() {
+        return encodedHeader;
+    }
+
+    /**
+     * Checks whether the given key has the same ID, algorithm and key material as this key.
+     *
+     * @param other key to compare with
+     * @return {@code true} if both keys are the same
+     */
+    boolean isSameKey(JWTKey other) {
+        return other != null
+                && Objects.equals(keyId, other.keyId)
+                && algorithm.equals(other.algorithm)
+                && MessageDigest.isEqual(verificationKey.getEncoded(), other.verificationKey.getEncoded());
+    }
+
+    private static String encodeHeader(String algorithm, String keyId) {
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(64);
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(outputStream)) {
+            generator.writeStartObject();
+            generator.writeStringField(HEADER_ALGORITHM, algorithm);
+            if (keyId != null) {
+                generator.writeStringField(HEADER_KEY_ID, keyId);
+            }
+            generator.writeEndObject();
+        } catch (IOException exc) {
+            throw new IllegalStateException("Failed to serialize token header", exc);
+        }
+
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(outputStream.toByteArray());
+    }
+}
@@ -0,0 +1,22 @@
+package hu.psprog.leaflet.security.jwt.impl;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Parser of the key file loaded by {@link JWTKeyRing}.
+ *
+ * @author Peter Smith
+ */
+public interface JWTKeyFileParser {
+
+    /**
+     * Parses the given key file.
+     *
+     * @param keyFile path of the key file
+     * @return parsed keys as {@link JWTKeySet}
+     * @throws IOException if the key file cannot be read
+     * @throws IllegalStateException if the contents of the key file are invalid
+     */
+    JWTKeySet parse(Path keyFile) throws IOException;
+}
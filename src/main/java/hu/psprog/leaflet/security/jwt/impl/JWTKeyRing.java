@@ -0,0 +1,212 @@
+package hu.psprog.leaflet.security.jwt.impl;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Set of keys used for token signing and verification.
+ *
+ * The ring holds at most one signing key and any number of verification keys, looked up by the "kid" header of the token.
+ * Without a key file, the ring consists of the single default key (in HS512 mode the key configured by jwt.secret,
+ * which signs tokens without "kid" header). With a key file, keys are read by the given {@link JWTKeyFileParser}.
+ * If the key file does not define the signing key (e.g. a JWKS file of public keys), the default key remains the signing key,
+ * and a ring without default key is only able to verify tokens.
+ *
+ * The key file can be reloaded at runtime. Keys are retired by giving them a not-after time in the key file (see
+ * {@link JWTKeySet#getNotAfter()}; the default key can be kept the same way once a key file defining the signing key is loaded):
+ * they are accepted for verification until then, so tokens signed with them remain valid until they expire. Set the not-after
+ * time at least the longest token lifetime (jwt.max-expire-hours) after the key stopped signing; as it is stored in the key file,
+ * retirement survives a restart. Keys simply removed from the file (including the default key without not-after time) are
+ * kept in memory for the retirement period (the longest token lifetime), which a restart cuts short. The signing key cannot
+ * have a not-after time. Key IDs must not be reused with a different key.
+ *
+ * @author Peter Smith
+ */
+public class JWTKeyRing {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(JWTKeyRing.class);
+
+    private final JWTKey defaultKey;
+    private final Path keyFile;
+    private final JWTKeyFileParser keyFileParser;
+    private final long retirementPeriodInMillis;
+    private final Map<String, Long> retiredKeys = new HashMap<>();
+
+    private volatile KeyRingState state;
+    private FileTime keyFileLastModified;
+    private Map<String, Long> keyNotAfter = Collections.emptyMap();
+
+    public JWTKeyRing(JWTKey defaultKey, Path keyFile, JWTKeyFileParser keyFileParser, long retirementPeriodInMillis) {
+        this.defaultKey = defaultKey;
+        this.keyFile = keyFile;
+        this.keyFileParser = keyFileParser;
+        this.retirementPeriodInMillis = retirementPeriodInMillis;
+        this.state = defaultKey != null
+                ? new KeyRingState(defaultKey, Collections.singletonMap(defaultKey.getKeyId(), defaultKey))
+                : null;
+    }
+
+    /**
+     * Returns the key to sign new tokens with.
+     *
+     * @return signing {@link JWTKey}, or {@code null} if the key ring can only verify tokens
+     */
+    public JWTKey getSigningKey() {
+        return currentState().signingKey;
+    }
+
+    /**
+     * Returns the verification key of the given key ID.
+     *
+     * @param keyId key ID from the token header, {@code null} for tokens without "kid" header
+     * @return verification {@link JWTKey}, or {@code null} if the key is unknown or has already been retired
+     */
+    public JWTKey getVerificationKey(String keyId) {
+        return currentState().verificationKeys.get(keyId);
+    }
+
+    /**
+     * Returns the IDs of the currently accepted verification keys.
+     *
+     * @return set of key IDs
+     */
+    public Set<String> getVerificationKeyIds() {
+        return currentState().verificationKeys.keySet();
+    }
+
+    /**
+     * Reloads the key file (if configured) and drops retired keys whose not-after time or retirement period has passed.
+     * Keys whose ID and key material did not change are kept as they are, along with their signature engines.
+     *
+     * @throws IOException if the key file cannot be read
+     * @throws IllegalStateException if the contents of the key file are invalid
+     */
+    public synchronized void reload() throws IOException {
+
+        if (keyFile == null) {
+            return;
+        }
+
+        FileTime lastModified = Files.getLastModifiedTime(keyFile);
+        JWTKeySet keySet = keyFileParser.parse(keyFile);
+
+        Map<String, JWTKey> activeKeys = new HashMap<>();
+        JWTKey signingKey = defaultKey;
+        if (defaultKey != null && (keySet.getSigningKeyId() == null || keySet.getNotAfter().containsKey(defaultKey.getKeyId()))) {
+            activeKeys.put(defaultKey.getKeyId(), defaultKey);
+        }
+        keySet.getKeys().forEach((keyId, key) -> activeKeys.put(keyId, reuseCurrentKey(key)));
+        if (keySet.getSigningKeyId() != null) {
+            signingKey = activeKeys.get(keySet.getSigningKeyId());
+        }
+        if (signingKey != null && keySet.getNotAfter().containsKey(signingKey.getKeyId())) {
+            throw new IllegalStateException(String.format("JWT signing key [%s] cannot have a not-after time", signingKey.getKeyId()));
+        }
+
+        updateState(signingKey, activeKeys, keySet.getNotAfter(), System.currentTimeMillis());
+        keyFileLastModified = lastModified;
+        LOGGER.info(String.format("JWT key ring loaded: signing key [%s], verification keys %s",
+                signingKey != null ? signingKey.getKeyId() : null, state.verificationKeys.keySet()));
+    }
+
+    /**
+     * Reloads the key file if it has been modified since the last reload, otherwise only drops the retired keys whose
+     * not-after time or retirement period has passed.
+     *
+     * @throws IOException if the key file cannot be read
+     */
+    public synchronized void reloadIfModified() throws IOException {
+
+        if (keyFile != null && !Files.getLastModifiedTime(keyFile).equals(keyFileLastModified)) {
+            reload();
+        } else if (!retiredKeys.isEmpty() || !keyNotAfter.isEmpty()) {
+            Map<String, JWTKey> activeKeys = new HashMap<>(state.verificationKeys);
+            activeKeys.keySet().removeAll(retiredKeys.keySet());
+            updateState(state.signingKey, activeKeys, keyNotAfter, System.currentTimeMillis());
+        }
+    }
+
+    private JWTKey reuseCurrentKey(JWTKey key) {
+
+        JWTKey currentKey = state != null
+                ? state.verificationKeys.get(key.getKeyId())
+                : null;
+
+        return key.isSameKey(currentKey)
+                ? currentKey
+                : key;
+    }
+
+    private void updateState(JWTKey signingKey, Map<String, JWTKey> activeKeys, Map<String, Long> notAfter, long now) {
+
+        Map<String, JWTKey> verificationKeys = new HashMap<>();
+        activeKeys.forEach((keyId, key) -> {
+            Long keyNotAfterTime = notAfter.get(keyId);
+            if (keyNotAfterTime == null || now < keyNotAfterTime) {
+                verificationKeys.put(keyId, key);
+            }
+        });
+        retiredKeys.keySet().removeAll(verificationKeys.keySet());
+        if (state != null) {
+            state.verificationKeys.forEach((keyId, key) -> {
+                if (!verificationKeys.containsKey(keyId)) {
+                    long retiredUntil = notAfter.containsKey(keyId)
+                            ? notAfter.get(keyId)
+                            : retiredKeys.computeIfAbsent(keyId, id -> retirementEndOf(id, now));
+                    if (now < retiredUntil) {
+                        verificationKeys.put(keyId, key);
+                    } else {
+                        retiredKeys.remove(keyId);
+                        LOGGER.info(String.format("JWT key [%s] is retired", keyId));
+                    }
+                }
+            });
+        }
+
+        keyNotAfter = notAfter;
+        state = new KeyRingState(signingKey, Collections.unmodifiableMap(verificationKeys));
+    }
+
+    private long retirementEndOf(String keyId, long now) {
+
+        Long declaredNotAfter = keyNotAfter.get(keyId);
+        if (declaredNotAfter != null) {
+            return declaredNotAfter;
+        }
+
+        LOGGER.warn(String.format("JWT key [%s] has been removed from the key file, it is kept in memory only until the retirement period passes "
+                + "or the node restarts; give it a not-after time in the key file instead", keyId));
+
+        return now + retirementPeriodInMillis;
+    }
+
+    private KeyRingState currentState() {
+
+        KeyRingState currentState = state;
+        if (currentState == null) {
+            throw new IllegalStateException("JWT key ring is not loaded");
+        }
+
+        return currentState;
+    }
+
+    private static final class KeyRingState {
+
+        private final JWTKey signingKey;
+        private final Map<String, JWTKey> verificationKeys;
+
+        private KeyRingState(JWTKey signingKey, Map<String, JWTKey> verificationKeys) {
+            this.signingKey = signingKey;
+            this.verificationKeys = verificationKeys;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package hu.psprog.leaflet.security.jwt.impl;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Scheduled reload of the JWT key file.
+ * Only active if key file is configured (jwt.keys.file). A failed reload keeps the previously loaded keys.
+ *
+ * @author Peter Smith
+ */
+@Component
+@ConditionalOnProperty(prefix = "jwt.keys", name = "file")
+public class JWTKeyRingReloadScheduledTask {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(JWTKeyRingReloadScheduledTask.class);
+
+    private JWTKeyRing keyRing;
+
+    @Autowired
+    public JWTKeyRingReloadScheduledTask(JWTKeyRing keyRing) {
+        this.keyRing = keyRing;
+    }
+
+    @Scheduled(fixedDelayString = "${jwt.keys.reload-interval-ms:60000}")
+    public void scheduledReload() {
+        try {
+            keyRing.reloadIfModified();
+        } catch (Exception exc) {
+            LOGGER.error("Failed to reload JWT key file, previously loaded keys are kept.", exc);
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package hu.psprog.leaflet.security.jwt.impl;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Keys parsed from a key file by {@link JWTKeyFileParser}.
+ *
+ * @author Peter Smith
+ */
+public class JWTKeySet {
+
+    private final String signingKeyId;
+    private final Map<String, JWTKey> keys;
+    private final Map<String, Long> notAfter;
+
+    public JWTKeySet(String signingKeyId, Map<String, JWTKey> keys) {
+        this(signingKeyId, keys, Collections.emptyMap());
+    }
+
+    public JWTKeySet(String signingKeyId, Map<String, JWTKey> keys, Map<String, Long> notAfter) {
+        this.signingKeyId = signingKeyId;
+        this.keys = keys;
+        this.notAfter = notAfter;
+    }
+
+    /**
+     * Returns the ID of the signing key, or {@code null} if the key file does not define one
+     * (in which case the default key of the key ring remains the signing key).
+     *
+     * @return signing key ID
+     */
+    public String getSigningKeyId() {
+        return signingKeyId;
+    }
+
+    public Map<String, JWTKey> getKeys() {
+        return keys;
+    }
+
+    /**
+     * Returns the time (in epoch milliseconds) after which the keys are no longer accepted for verification, by key ID.
+     * Keys without not-after time are accepted as long as they are defined. The {@code null} key ID stands for the default
+     * key of the key ring.
+     *
+     * @return not-after times by key ID
+     */
+    public Map<String, Long> getNotAfter() {
+        return notAfter;
+    }
+}
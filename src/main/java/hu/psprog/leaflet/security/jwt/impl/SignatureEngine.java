@@ -0,0 +1,31 @@
+package hu.psprog.leaflet.security.jwt.impl;
+
+/**
+ * JWS signature engine bound to a single key.
+ *
+ * @author Peter Smith
+ */
+public interface SignatureEngine {
+
+    /**
+     * Signs the given range of the data.
+     *
+     * @param data data to sign
+     * @param offset offset of the signed range
+     * @param length length of the signed range
+     * @return signature bytes in JWS format
+     * @throws IllegalStateException if the engine is not able to sign (verification only engine)
+     */
+    byte[] sign(byte[] data, int offset, int length);
+
+    /**
+     * Verifies the signature of the given range of the data.
+     *
+     * @param data signed data
+     * @param offset offset of the signed range
+     * @param length length of the signed range
+     * @param signature signature to verify in JWS format
+     * @return {@code true} if the signature matches
+     */
+    boolean verify(byte[] data, int offset, int length, byte[] signature);
+}
@@ -0,0 +1,247 @@
+package hu.psprog.leaflet.security.jwt.impl;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import hu.psprog.leaflet.security.jwt.model.JWTDecodeResult;
+import hu.psprog.leaflet.security.jwt.model.JWTPayload;
+import hu.psprog.leaflet.security.jwt.model.RoleSet;
+import hu.psprog.leaflet.security.jwt.model.TokenRejectionReason;
+import io.jsonwebtoken.ExpiredJwtException;
+import io.jsonwebtoken.SignatureException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Allocation-light {@link JWTDecoder} implementation specialised for the fixed Leaflet claim set.
+ * Verifies the HS512 or ES256 signature (with the key selected from {@link JWTKeyRing} by the "kid" header) directly over the raw header and payload bytes of the token, then stream-parses the payload
+ * into {@link JWTPayload} without building an intermediate claims map. Issue and expiration times are kept as epoch values,
+ * no {@link java.util.Date} objects are created while decoding.
+ *
+ * Tokens this decoder cannot handle (unknown header parameters or key, not-before claim, unexpected claim types, structural issues)
+ * are passed to the fallback decoder, which also produces the standard error for invalid tokens.
+ *
+ * @author Peter Smith
+ */
+public class StreamingJWTDecoder implements JWTDecoder {
+
+    private static final String SIGNATURE_MISMATCH = "JWT signature does not match locally computed signature. "
+            + "JWT validity cannot be asserted and should not be trusted.";
+    private static final String TOKEN_EXPIRED = "JWT expired.";
+
+    private static final String HEADER_ALGORITHM = "alg";
+    private static final String HEADER_TYPE = "typ";
+    private static final String HEADER_KEY_ID = "kid";
+    private static final long MILLISECONDS_IN_SECOND = 1000L;
+    private static final char SEGMENT_SEPARATOR = '.';
+
+    private final JWTKeyRing keyRing;
+    private final JWTDecoder fallbackDecoder;
+    private final JsonFactory jsonFactory = new JsonFactory();
+    private final Base64.Decoder base64Decoder = Base64.getUrlDecoder();
+    private final LongAdder fallbackCount = new LongAdder();
+
+    public StreamingJWTDecoder(JWTKeyRing keyRing, JWTDecoder fallbackDecoder) {
+        this.keyRing = keyRing;
+        this.fallbackDecoder = fallbackDecoder;
+    }
+
+    @Override
+    public JWTPayload decode(String token) {
+
+        JWTDecodeResult result = decodeOwnFormat(token);
+        if (result == null) {
+            fallbackCount.increment();
+            return fallbackDecoder.decode(token);
+        }
+
+        if (!result.isSuccessful()) {
+            throw result.getFailureReason() == TokenRejectionReason.EXPIRED
+                    ? new ExpiredJwtException(null, null, TOKEN_EXPIRED)
+                    : new SignatureException(SIGNATURE_MISMATCH);
+        }
+
+        return result.getPayload();
+    }
+
+    /**
+     * Verifies the given token, reporting signature mismatch and expiration without throwing exception.
+     * Tokens passed to the fallback decoder are verified by its {@link JWTDecoder#tryDecode(String)} method.
+     */
+    @Override
+    public JWTDecodeResult tryDecode(String token) {
+
+        JWTDecodeResult result = decodeOwnFormat(token);
+        if (result == null) {
+            fallbackCount.increment();
+            result = fallbackDecoder.tryDecode(token);
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the number of tokens passed to the fallback decoder.
+     *
+     * @return number of fallback decodes
+     */
+    public long getFallbackCount() {
+        return fallbackCount.sum();
+    }
+
+    private JWTDecodeResult decodeOwnFormat(String token) {
+        try {
+            return verifyAndParse(token);
+        } catch (IOException | IllegalArgumentException exc) {
+            // handled by fallback decoder
+            return null;
+        }
+    }
+
+    private JWTDecodeResult verifyAndParse(String token) throws IOException {
+
+        int headerEnd = token.indexOf(SEGMENT_SEPARATOR);
+        int payloadEnd = headerEnd < 0 ? -1 : token.indexOf(SEGMENT_SEPARATOR, headerEnd + 1);
+        if (payloadEnd < 0 || token.indexOf(SEGMENT_SEPARATOR, payloadEnd + 1) >= 0) {
+            return null;
+        }
+
+        JWTKey verificationKey = resolveVerificationKey(token, headerEnd);
+        if (verificationKey == null) {
+            return null;
+        }
+
+        byte[] tokenBytes = token.getBytes(StandardCharsets.US_ASCII);
+        byte[] signature = base64Decoder.decode(ByteBuffer.wrap(tokenBytes, payloadEnd + 1, tokenBytes.length - payloadEnd - 1)).array();
+        if (!verificationKey.getSignatureEngine().verify(tokenBytes, 0, payloadEnd, signature)) {
+            return JWTDecodeResult.failure(TokenRejectionReason.INVALID_SIGNATURE);
+        }
+
+        ByteBuffer payloadBytes = base64Decoder.decode(ByteBuffer.wrap(tokenBytes, headerEnd + 1, payloadEnd - headerEnd - 1));
+
+        return parsePayload(payloadBytes);
+    }
+
+    private JWTKey resolveVerificationKey(String token, int headerEnd) throws IOException {
+
+        JWTKey signingKey = keyRing.getSigningKey();
+        if (signingKey != null && headerEnd == signingKey.getEncodedHeader().length() && token.startsWith(signingKey.getEncodedHeader())) {
+            return signingKey;
+        }
+
+        byte[] header = base64Decoder.decode(token.substring(0, headerEnd));
+        String algorithm = null;
+        String keyId = null;
+        try (JsonParser parser = jsonFactory.createParser(header)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return null;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if (HEADER_ALGORITHM.equals(field) && value == JsonToken.VALUE_STRING) {
+                    algorithm = parser.getText();
+                } else if (HEADER_KEY_ID.equals(field) && value == JsonToken.VALUE_STRING) {
+                    keyId = parser.getText();
+                } else if (!HEADER_TYPE.equals(field)) {
+                    return null;
+                }
+            }
+        }
+
+        JWTKey verificationKey = keyRing.getVerificationKey(keyId);
+
+        return verificationKey != null && verificationKey.getAlgorithm().equals(algorithm)
+                ? verificationKey
+                : null;
+    }
+
+    private JWTDecodeResult parsePayload(ByteBuffer payloadBytes) throws IOException {
+
+        String username = null;
+        RoleSet roles = null;
+        String name = null;
+        int id = 0;
+        boolean idPresent = false;
+        long issuedAt = -1;
+        long expiration = -1;
+
+        try (JsonParser parser = jsonFactory.createParser(payloadBytes.array(), payloadBytes.arrayOffset() + payloadBytes.position(), payloadBytes.remaining())) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return null;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                switch (field) {
+                    case JWTClaimNames.USERNAME:
+                        if (value != JsonToken.VALUE_STRING) {
+                            return null;
+                        }
+                        username = parser.getText();
+                        break;
+                    case JWTClaimNames.USER_ROLE:
+                        if (value == JsonToken.VALUE_NUMBER_INT) {
+                            roles = RoleSet.fromMask(parser.getIntValue());
+                        } else if (value == JsonToken.VALUE_STRING) {
+                            roles = RoleSet.fromNames(parser.getText());
+                        } else {
+                            return null;
+                        }
+                        break;
+                    case JWTClaimNames.USER_PUBLIC_NAME:
+                        if (value != JsonToken.VALUE_STRING) {
+                            return null;
+                        }
+                        name = parser.getText();
+                        break;
+                    case JWTClaimNames.USER_ID:
+                        if (value != JsonToken.VALUE_NUMBER_INT) {
+                            return null;
+                        }
+                        id = parser.getIntValue();
+                        idPresent = true;
+                        break;
+                    case JWTClaimNames.ISSUED_AT:
+                        if (value != JsonToken.VALUE_NUMBER_INT) {
+                            return null;
+                        }
+                        issuedAt = parser.getLongValue();
+                        break;
+                    case JWTClaimNames.EXPIRATION:
+                        if (value != JsonToken.VALUE_NUMBER_INT) {
+                            return null;
+                        }
+                        expiration = parser.getLongValue();
+                        break;
+                    case JWTClaimNames.NOT_BEFORE:
+                        return null;
+                    default:
+                        parser.skipChildren();
+                }
+            }
+        }
+
+        if (roles == null || issuedAt < 0 || expiration < 0) {
+            return null;
+        }
+
+        long expirationInMillis = expiration * MILLISECONDS_IN_SECOND;
+        if (System.currentTimeMillis() > expirationInMillis) {
+            return JWTDecodeResult.failure(TokenRejectionReason.EXPIRED);
+        }
+
+        return JWTDecodeResult.success(JWTPayload.getBuilder()
+                .withUsername(username)
+                .withRoles(roles)
+                .withName(name)
+                .withId(idPresent ? id : null)
+                .withIssuedAtMillis(issuedAt * MILLISECONDS_IN_SECOND)
+                .withExpiresMillis(expirationInMillis)
+                .build());
+    }
+}
@@ -0,0 +1,150 @@
+package hu.psprog.leaflet.security.jwt.impl;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import hu.psprog.leaflet.security.jwt.model.TokenRejectionReason;
+
+import java.io.IOException;
+import java.util.Base64;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cheap structural checks of a raw token, done before its signature is verified.
+ *
+ * Rejects tokens with invalid segment count, oversized tokens and headers, unsupported "alg" header and already expired "exp" claim.
+ * The payload is read without verifying the token, so passing the checks does not mean the token is valid - it only means the
+ * token is worth verifying. Rejections are counted per {@link TokenRejectionReason}.
+ *
+ * @author Peter Smith
+ */
+public class TokenPreValidator {
+
+    private static final String HEADER_ALGORITHM = "alg";
+    private static final long MILLISECONDS_IN_SECOND = 1000L;
+    private static final char SEGMENT_SEPARATOR = '.';
+
+    private final Set<String> supportedAlgorithms;
+    private final int maximumHeaderLength;
+    private final int maximumTokenLength;
+    private final JsonFactory jsonFactory = new JsonFactory();
+    private final Base64.Decoder base64Decoder = Base64.getUrlDecoder();
+    private final Map<TokenRejectionReason, LongAdder> rejectionCounters = new EnumMap<>(TokenRejectionReason.class);
+
+    public TokenPreValidator(Set<String> supportedAlgorithms, int maximumHeaderLength, int maximumTokenLength) {
+        this.supportedAlgorithms = supportedAlgorithms;
+        this.maximumHeaderLength = maximumHeaderLength;
+        this.maximumTokenLength = maximumTokenLength;
+        for (TokenRejectionReason reason : TokenRejectionReason.values()) {
+            rejectionCounters.put(reason, new LongAdder());
+        }
+    }
+
+    /**
+     * Checks the given raw token.
+     *
+     * @param token raw token
+     * @return {@link TokenRejectionReason} if the token shall be rejected, {@code null} if it may be passed to signature verification
+     */
+    public TokenRejectionReason validate(String token) {
+
+        TokenRejectionReason reason = checkToken(token);
+        if (reason != null) {
+            rejectionCounters.get(reason).increment();
+        }
+
+        return reason;
+    }
+
+    /**
+     * Returns the number of tokens rejected by the given reason.
+     *
+     * @param reason {@link TokenRejectionReason} to return counter of
+     * @return number of rejected tokens
+     */
+    public long getRejectionCount(TokenRejectionReason reason) {
+        return rejectionCounters.get(reason).sum();
+    }
+
+    private TokenRejectionReason checkToken(String token) {
+
+        if (token.length() > maximumTokenLength) {
+            return TokenRejectionReason.OVERSIZED;
+        }
+
+        int headerEnd = token.indexOf(SEGMENT_SEPARATOR);
+        int payloadEnd = headerEnd < 0 ? -1 : token.indexOf(SEGMENT_SEPARATOR, headerEnd + 1);
+        if (headerEnd <= 0 || payloadEnd <= headerEnd + 1 || payloadEnd == token.length() - 1
+                || token.indexOf(SEGMENT_SEPARATOR, payloadEnd + 1) >= 0) {
+            return TokenRejectionReason.MALFORMED;
+        }
+
+        if (headerEnd > maximumHeaderLength) {
+            return TokenRejectionReason.OVERSIZED;
+        }
+
+        try {
+            String algorithm = readAlgorithm(base64Decoder.decode(token.substring(0, headerEnd)));
+            if (algorithm == null || !supportedAlgorithms.contains(algorithm)) {
+                return TokenRejectionReason.UNSUPPORTED_ALGORITHM;
+            }
+
+            long expiration = readExpiration(base64Decoder.decode(token.substring(headerEnd + 1, payloadEnd)));
+            if (expiration >= 0 && System.currentTimeMillis() > expiration * MILLISECONDS_IN_SECOND) {
+                return TokenRejectionReason.EXPIRED;
+            }
+        } catch (IOException | IllegalArgumentException exc) {
+            return TokenRejectionReason.MALFORMED;
+        }
+
+        return null;
+    }
+
+    private String readAlgorithm(byte[] header) throws IOException {
+
+        String algorithm = null;
+        try (JsonParser parser = createObjectParser(header)) {
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if (HEADER_ALGORITHM.equals(field) && value == JsonToken.VALUE_STRING) {
+                    algorithm = parser.getText();
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+
+        return algorithm;
+    }
+
+    private long readExpiration(byte[] payload) throws IOException {
+
+        try (JsonParser parser = createObjectParser(payload)) {
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if (JWTClaimNames.EXPIRATION.equals(field) && value == JsonToken.VALUE_NUMBER_INT) {
+                    return parser.getLongValue();
+                }
+                parser.skipChildren();
+            }
+        }
+
+        return -1;
+    }
+
+    private JsonParser createObjectParser(byte[] content) throws IOException {
+
+        JsonParser parser = jsonFactory.createParser(content);
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            parser.close();
+            throw new IOException("Token segment is not a JSON object");
+        }
+
+        return parser;
+    }
+}
@@ -0,0 +1,193 @@
+package hu.psprog.leaflet.security.jwt.impl;
+
+import hu.psprog.leaflet.security.jwt.model.JWTPayload;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Size-bounded cache of already verified tokens.
+ * Entries are keyed by the SHA-256 digest of the raw token, so raw tokens are never kept by the cache.
+ * An entry is evicted when the token itself expires ("exp") or when the cache exceeds its maximum size,
+ * in which case a not recently used entry is dropped.
+ *
+ * Lookups are lock-free: a hit only marks the entry as referenced. Eviction follows the CLOCK algorithm
+ * (an approximation of LRU): a single clock hand sweeps the entries, giving referenced entries (and the entry
+ * just added) a second chance and dropping the first unreferenced (or expired) one. Only puts overflowing the cache
+ * run the sweep.
+ *
+ * @author Peter Smith
+ */
+public class VerifiedTokenCache {
+
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+
+    private final boolean enabled;
+    private final int maximumSize;
+    private final ConcurrentMap<ByteBuffer, CacheEntry> entries = new ConcurrentHashMap<>();
+    private final Object clockLock = new Object();
+
+    private Iterator<Map.Entry<ByteBuffer, CacheEntry>> clockHand;
+
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+
+    public VerifiedTokenCache(boolean enabled, int maximumSize) {
+        this.enabled = enabled;
+        this.maximumSize = maximumSize;
+    }
+
+    /**
+     * Returns the cached payload of the given token, if it has already been verified and is not yet expired.
+     *
+     * @param token raw token
+     * @return cached {@link JWTPayload} wrapped in {@link Optional}, or empty Optional if the token is not cached
+     */
+    public Optional<JWTPayload> get(String token) {
+
+        if (!enabled) {
+            return Optional.empty();
+        }
+
+        ByteBuffer key = digest(token);
+        JWTPayload payload = null;
+        CacheEntry entry = entries.get(key);
+        if (entry != null) {
+            if (entry.isExpired(System.currentTimeMillis())) {
+                if (entries.remove(key, entry)) {
+                    evictionCount.increment();
+                }
+            } else {
+                entry.reference();
+                payload = entry.payload;
+            }
+        }
+
+        if (payload != null) {
+            hitCount.increment();
+        } else {
+            missCount.increment();
+        }
+
+        return Optional.ofNullable(payload);
+    }
+
+    /**
+     * Stores the payload of a successfully verified token.
+     *
+     * @param token raw token
+     * @param payload verified {@link JWTPayload} of the token
+     */
+    public void put(String token, JWTPayload payload) {
+
+        if (!enabled || payload.getExpiresMillis() == JWTPayload.NO_TIMESTAMP) {
+            return;
+        }
+
+        CacheEntry entry = new CacheEntry(payload, payload.getExpiresMillis());
+        ByteBuffer key = digest(token);
+        entries.put(key, entry);
+        if (entries.size() > maximumSize) {
+            evictOnOverflow(key);
+        }
+    }
+
+    /**
+     * Drops every cached entry.
+     */
+    public void invalidateAll() {
+        entries.clear();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.sum();
+    }
+
+    private void evictOnOverflow(ByteBuffer addedKey) {
+
+        synchronized (clockLock) {
+            long now = System.currentTimeMillis();
+            int remainingSteps = 2 * entries.size() + 1;
+            while (entries.size() > maximumSize && remainingSteps-- > 0) {
+                if (clockHand == null || !clockHand.hasNext()) {
+                    clockHand = entries.entrySet().iterator();
+                    if (!clockHand.hasNext()) {
+                        return;
+                    }
+                }
+                Map.Entry<ByteBuffer, CacheEntry> candidate = clockHand.next();
+                CacheEntry entry = candidate.getValue();
+                boolean secondChance = !entry.isExpired(now) && remainingSteps > 0
+                        && (candidate.getKey().equals(addedKey) || entry.clearReference());
+                if (!secondChance && entries.remove(candidate.getKey(), entry)) {
+                    evictionCount.increment();
+                }
+            }
+        }
+    }
+
+    private ByteBuffer digest(String token) {
+
+        try {
+            return ByteBuffer.wrap(MessageDigest.getInstance(DIGEST_ALGORITHM).digest(token.getBytes(StandardCharsets.US_ASCII)));
+        } catch (NoSuchAlgorithmException exc) {
+            throw new IllegalStateException("Token digest algorithm is not available", exc);
+        }
+    }
+
+    private static final class CacheEntry {
+
+        private final JWTPayload payload;
+        private final long expiresAt;
+
+        private volatile boolean referenced;
+
+        private CacheEntry(JWTPayload payload, long expiresAt) {
+            this.payload = payload;
+            this.expiresAt = expiresAt;
+        }
+
+        private boolean isExpired(long now) {
+            return now >= expiresAt;
+        }
+
+        private void reference() {
+            if (!referenced) {
+                referenced = true;
+            }
+        }
+
+        private boolean clearReference() {
+            boolean wasReferenced = referenced;
+            if (wasReferenced) {
+                referenced = false;
+            }
+            return wasReferenced;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package hu.psprog.leaflet.security.jwt.model;
+
+import org.apache.commons.lang3.builder.ToStringBuilder;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Result of decoding a token: either the verified {@link JWTPayload}, or the {@link TokenRejectionReason} of the failure.
+ * Failure results are shared constants, so reporting a failure does not allocate.
+ *
+ * @author Peter Smith
+ */
+public final class JWTDecodeResult {
+
+    private static final Map<TokenRejectionReason, JWTDecodeResult> FAILURES = new EnumMap<>(TokenRejectionReason.class);
+
+    static {
+        for (TokenRejectionReason reason : TokenRejectionReason.values()) {
+            FAILURES.put(reason, new JWTDecodeResult(null, reason));
+        }
+    }
+
+    private final JWTPayload payload;
+    private final TokenRejectionReason failureReason;
+
+    private JWTDecodeResult(JWTPayload payload, TokenRejectionReason failureReason) {
+        this.payload = payload;
+        this.failureReason = failureReason;
+    }
+
+    /**
+     * Creates successful result.
+     *
+     * @param payload verified {@link JWTPayload}
+     * @return successful {@link JWTDecodeResult}
+     */
+    public static JWTDecodeResult success(JWTPayload payload) {
+        return new JWTDecodeResult(payload, null);
+    }
+
+    /**
+     * Returns failure result of the given reason.
+     *
+     * @param failureReason reason of the failure
+     * @return failed {@link JWTDecodeResult}
+     */
+    public static JWTDecodeResult failure(TokenRejectionReason failureReason) {
+        return FAILURES.get(failureReason);
+    }
+
+    public boolean isSuccessful() {
+        return failureReason == null;
+    }
+
+    /**
+     * Returns the verified payload.
+     *
+     * @return {@link JWTPayload} on success, {@code null} on failure
+     */
+    public JWTPayload getPayload() {
+        return payload;
+    }
+
+    /**
+     * Returns the reason of failure.
+     *
+     * @return {@link TokenRejectionReason} on failure, {@code null} on success
+     */
+    public TokenRejectionReason getFailureReason() {
+        return failureReason;
+    }
+
+    @Override
+    public String toString() {
+        return new ToStringBuilder(this)
+                .append("payload", payload)
+                .append("failureReason", failureReason)
+                .toString();
+    }
+}
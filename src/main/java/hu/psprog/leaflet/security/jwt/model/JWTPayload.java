@@ -1,5 +1,6 @@
 package hu.psprog.leaflet.security.jwt.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
@@ -11,21 +12,27 @@ import java.util.Date;
 
 /**
  * JWT content wrapper.
+ * Issue and expiration times are kept as epoch milliseconds, {@link Date} objects are only created when requested.
  */
 @JsonDeserialize(builder = JWTPayload.JWTPayloadBuilder.class)
 public class JWTPayload implements Serializable {
 
+    /**
+     * Epoch milliseconds value of a missing issue or expiration time.
+     */
+    public static final long NO_TIMESTAMP = Long.MIN_VALUE;
+
     /**
      * Standard Issued at field in payload ("iat").
      */
     @NotNull
-    private Date issuedAt;
+    private long issuedAt = NO_TIMESTAMP;
 
     /**
      * Standard Expiration time field in payload ("exp");
      */
     @NotNull
-    private Date expires;
+    private long expires = NO_TIMESTAMP;
 
     /**
      * Username of user who claimed the token.
@@ -34,10 +41,10 @@ public class JWTPayload implements Serializable {
     private String username;
 
     /**
-     * User role.
+     * User roles.
      */
     @NotNull
-    private Role role;
+    private RoleSet roles;
 
     /**
      * User's public name.
@@ -52,10 +59,30 @@ public class JWTPayload implements Serializable {
     private Integer id;
 
     public Date getIssuedAt() {
-        return issuedAt;
+        return toDate(issuedAt);
     }
 
     public Date getExpires() {
+        return toDate(expires);
+    }
+
+    /**
+     * Returns the issue time as epoch milliseconds, without creating a {@link Date} object.
+     *
+     * @return issue time in epoch milliseconds, or {@link #NO_TIMESTAMP} if missing
+     */
+    @JsonIgnore
+    public long getIssuedAtMillis() {
+        return issuedAt;
+    }
+
+    /**
+     * Returns the expiration time as epoch milliseconds, without creating a {@link Date} object.
+     *
+     * @return expiration time in epoch milliseconds, or {@link #NO_TIMESTAMP} if missing
+     */
+    @JsonIgnore
+    public long getExpiresMillis() {
         return expires;
     }
 
@@ -63,8 +90,20 @@ public class JWTPayload implements Serializable {
         return username;
     }
 
+    /**
+     * Returns the primary role of the user, that is the highest privilege role of the token (see {@link RoleSet#getPrimaryRole()}).
+     * Use {@link #getRoles()} to check every role of the user.
+     *
+     * @return primary {@link Role}
+     */
     public Role getRole() {
-        return role;
+        return roles != null
+                ? roles.getPrimaryRole()
+                : null;
+    }
+
+    public RoleSet getRoles() {
+        return roles;
     }
 
     public String getName() {
@@ -78,10 +117,10 @@ public class JWTPayload implements Serializable {
     @Override
     public String toString() {
         return new ToStringBuilder(this)
-                .append("issuedAt", issuedAt)
-                .append("expires", expires)
+                .append("issuedAt", getIssuedAt())
+                .append("expires", getExpires())
                 .append("username", username)
-                .append("role", role)
+                .append("roles", roles)
                 .append("name", name)
                 .append("id", id)
                 .toString();
@@ -99,7 +138,7 @@ public class JWTPayload implements Serializable {
                 .append(issuedAt, that.issuedAt)
                 .append(expires, that.expires)
                 .append(username, that.username)
-                .append(role, that.role)
+                .append(roles, that.roles)
                 .append(name, that.name)
                 .append(id, that.id)
                 .isEquals();
@@ -111,7 +150,7 @@ public class JWTPayload implements Serializable {
                 .append(issuedAt)
                 .append(expires)
                 .append(username)
-                .append(role)
+                .append(roles)
                 .append(name)
                 .append(id)
                 .toHashCode();
@@ -121,14 +160,26 @@ public class JWTPayload implements Serializable {
         return new JWTPayloadBuilder();
     }
 
+    private static Date toDate(long epochMillis) {
+        return epochMillis != NO_TIMESTAMP
+                ? new Date(epochMillis)
+                : null;
+    }
+
+    private static long toEpochMillis(Date date) {
+        return date != null
+                ? date.getTime()
+                : NO_TIMESTAMP;
+    }
+
     /**
      * Builder for {@link JWTPayload}.
      */
     public static final class JWTPayloadBuilder {
-        private Date issuedAt;
-        private Date expires;
+        private long issuedAt = NO_TIMESTAMP;
+        private long expires = NO_TIMESTAMP;
         private String username;
-        private Role role;
+        private RoleSet roles;
         private String name;
         private Integer id;
 
@@ -136,11 +187,21 @@ public class JWTPayload implements Serializable {
         }
 
         public JWTPayloadBuilder withIssuedAt(Date issuedAt) {
+            this.issuedAt = toEpochMillis(issuedAt);
+            return this;
+        }
+
+        public JWTPayloadBuilder withIssuedAtMillis(long issuedAt) {
             this.issuedAt = issuedAt;
             return this;
         }
 
         public JWTPayloadBuilder withExpires(Date expires) {
+            this.expires = toEpochMillis(expires);
+            return this;
+        }
+
+        public JWTPayloadBuilder withExpiresMillis(long expires) {
             this.expires = expires;
             return this;
         }
@@ -151,7 +212,12 @@ public class JWTPayload implements Serializable {
         }
 
         public JWTPayloadBuilder withRole(Role role) {
-            this.role = role;
+            this.roles = RoleSet.of(role);
+            return this;
+        }
+
+        public JWTPayloadBuilder withRoles(RoleSet roles) {
+            this.roles = roles;
             return this;
         }
 
@@ -169,7 +235,7 @@ public class JWTPayload implements Serializable {
             JWTPayload jWTPayload = new JWTPayload();
             jWTPayload.username = this.username;
             jWTPayload.expires = this.expires;
-            jWTPayload.role = this.role;
+            jWTPayload.roles = this.roles;
             jWTPayload.issuedAt = this.issuedAt;
             jWTPayload.name = this.name;
             jWTPayload.id = this.id;
@@ -2,6 +2,7 @@ package hu.psprog.leaflet.security.jwt.model;
 
 /**
  * User roles.
+ * Roles are encoded in tokens by their ordinal number (see {@link RoleSet}), so new roles shall only be appended.
  *
  * @author Peter Smith
  */
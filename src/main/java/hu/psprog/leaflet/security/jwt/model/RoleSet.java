@@ -0,0 +1,224 @@
+package hu.psprog.leaflet.security.jwt.model;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonValue;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Immutable set of {@link Role}s, encoded as a bitmask (bit of each role is its ordinal number).
+ *
+ * Every possible role combination is created once on class initialization along with its granted authority list,
+ * so converting a bitmask to a role set (and to authorities) does not allocate.
+ * Bits are assigned by the ordinal of the roles, so new roles must only be appended to {@link Role}.
+ * The primary role of a set is its highest privilege role, ranked by {@link #PRIVILEGE_RANKING}.
+ *
+ * @author Peter Smith
+ */
+public final class RoleSet implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Roles from the highest to the lowest privilege.
+     */
+    private static final Role[] PRIVILEGE_RANKING = {Role.ADMIN, Role.EDITOR, Role.SERVICE, Role.USER, Role.RECLAIM, Role.ANONYMOUS};
+
+    private static final Role[] ROLES = Role.values();
+    private static final GrantedAuthority[] ROLE_AUTHORITIES = new GrantedAuthority[ROLES.length];
+    private static final RoleSet[] ROLE_SETS = new RoleSet[1 << ROLES.length];
+    private static final String ROLE_NAME_SEPARATOR = ",";
+
+    static {
+        for (Role role : ROLES) {
+            ROLE_AUTHORITIES[role.ordinal()] = new SimpleGrantedAuthority(role.name());
+        }
+        for (int mask = 0; mask < ROLE_SETS.length; mask++) {
+            ROLE_SETS[mask] = new RoleSet(mask);
+        }
+    }
+
+    private final int mask;
+    private final transient Set<Role> roles;
+    private final transient List<GrantedAuthority> authorities;
+    private final transient Role primaryRole;
+    private final transient String names;
+
+    private RoleSet(int mask) {
+        EnumSet<Role> roleSet = EnumSet.noneOf(Role.class);
+        List<GrantedAuthority> authorityList = new ArrayList<>();
+        List<String> roleNames = new ArrayList<>();
+        for (Role role : ROLES) {
+            if ((mask & bitOf(role)) != 0) {
+                roleSet.add(role);
+                authorityList.add(ROLE_AUTHORITIES[role.ordinal()]);
+                roleNames.add(role.name());
+            }
+        }
+        this.mask = mask;
+        this.roles = Collections.unmodifiableSet(roleSet);
+        this.authorities = Collections.unmodifiableList(authorityList);
+        this.primaryRole = highestPrivilegeRole(mask);
+        this.names = String.join(ROLE_NAME_SEPARATOR, roleNames);
+    }
+
+    /**
+     * Returns the role set of the given bitmask.
+     *
+     * @param mask role bitmask
+     * @return {@link RoleSet} instance
+     * @throws IllegalArgumentException if the bitmask contains unknown roles
+     */
+    @JsonCreator
+    public static RoleSet fromMask(int mask) {
+
+        if (mask < 0 || mask >= ROLE_SETS.length) {
+            throw new IllegalArgumentException(String.format("Invalid role bitmask [%d]", mask));
+        }
+
+        return ROLE_SETS[mask];
+    }
+
+    /**
+     * Returns the role set of the given roles.
+     *
+     * @param roles roles to include
+     * @return {@link RoleSet} instance
+     */
+    public static RoleSet of(Role... roles) {
+
+        int mask = 0;
+        for (Role role : roles) {
+            mask |= bitOf(role);
+        }
+
+        return ROLE_SETS[mask];
+    }
+
+    /**
+     * Returns the role set of the given comma separated role names (legacy "rol" claim format).
+     *
+     * @param roleNames comma separated role names
+     * @return {@link RoleSet} instance
+     * @throws IllegalArgumentException if any of the names is not a {@link Role}
+     */
+    public static RoleSet fromNames(String roleNames) {
+
+        int mask = 0;
+        for (String roleName : roleNames.split(ROLE_NAME_SEPARATOR)) {
+            mask |= bitOf(Role.valueOf(roleName.trim()));
+        }
+
+        return ROLE_SETS[mask];
+    }
+
+    /**
+     * Returns the role set of the given granted authorities.
+     *
+     * @param authorities authorities named after {@link Role}s
+     * @return {@link RoleSet} instance
+     * @throws IllegalArgumentException if any of the authorities is not a {@link Role}
+     */
+    public static RoleSet fromAuthorities(Collection<? extends GrantedAuthority> authorities) {
+
+        int mask = 0;
+        for (GrantedAuthority authority : authorities) {
+            mask |= bitOf(Role.valueOf(authority.getAuthority()));
+        }
+
+        return ROLE_SETS[mask];
+    }
+
+    @JsonValue
+    public int getMask() {
+        return mask;
+    }
+
+    public Set<Role> getRoles() {
+        return roles;
+    }
+
+    /**
+     * Returns the granted authorities of the roles (shared, unmodifiable list).
+     *
+     * @return list of {@link GrantedAuthority}
+     */
+    public List<GrantedAuthority> getAuthorities() {
+        return authorities;
+    }
+
+    /**
+     * Returns the highest privilege role of the set (ADMIN, EDITOR, SERVICE, USER, RECLAIM, ANONYMOUS in this order).
+     *
+     * @return primary {@link Role} or {@code null} if the set is empty
+     */
+    public Role getPrimaryRole() {
+        return primaryRole;
+    }
+
+    /**
+     * Returns the comma separated role names (legacy "rol" claim format, see {@link #fromNames(String)}).
+     *
+     * @return role names
+     */
+    public String getNames() {
+        return names;
+    }
+
+    public boolean contains(Role role) {
+        return (mask & bitOf(role)) != 0;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+
+        if (!(o instanceof RoleSet)) return false;
+
+        return mask == ((RoleSet) o).mask;
+    }
+
+    @Override
+    public int hashCode() {
+        return mask;
+    }
+
+    @Override
+    public String toString() {
+        return roles.toString();
+    }
+
+    private Object readResolve() {
+        return fromMask(mask);
+    }
+
+    private static Role highestPrivilegeRole(int mask) {
+
+        for (Role role : PRIVILEGE_RANKING) {
+            if ((mask & bitOf(role)) != 0) {
+                return role;
+            }
+        }
+
+        // roles not ranked yet
+        for (Role role : ROLES) {
+            if ((mask & bitOf(role)) != 0) {
+                return role;
+            }
+        }
+
+        return null;
+    }
+
+    private static int bitOf(Role role) {
+        return 1 << role.ordinal();
+    }
+}
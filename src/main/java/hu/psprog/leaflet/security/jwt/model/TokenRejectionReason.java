@@ -0,0 +1,41 @@
+package hu.psprog.leaflet.security.jwt.model;
+
+/**
+ * Reasons of rejecting a token.
+ * Malformed, oversized, unsupported algorithm and expired tokens are rejected before signature verification if possible,
+ * while invalid signature and claims are detected by verification.
+ *
+ * @author Peter Smith
+ */
+public enum TokenRejectionReason {
+
+    /**
+     * Token does not consist of three non-empty segments, or its header or payload is not base64url encoded JSON object.
+     */
+    MALFORMED,
+
+    /**
+     * Token or its header exceeds the configured maximum length.
+     */
+    OVERSIZED,
+
+    /**
+     * Signing algorithm of the token ("alg" header) is missing or not accepted.
+     */
+    UNSUPPORTED_ALGORITHM,
+
+    /**
+     * Token is already expired according to its "exp" claim.
+     */
+    EXPIRED,
+
+    /**
+     * Signature of the token does not match, or the token is signed with an unknown key.
+     */
+    INVALID_SIGNATURE,
+
+    /**
+     * Token is authentic, but its claims are missing, have invalid type or value, or the token is not yet valid.
+     */
+    INVALID_CLAIMS
+}
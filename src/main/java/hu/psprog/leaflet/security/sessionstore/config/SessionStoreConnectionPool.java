@@ -0,0 +1,144 @@
+package hu.psprog.leaflet.security.sessionstore.config;
+
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Connection pool of the Session Store database.
+ *
+ * Connections of the embedded database are kept open and reused, instead of opening a new connection for each DAO call.
+ * Since H2 caches parsed statements per connection (QUERY_CACHE_SIZE), reused connections also reuse prepared statements.
+ * Wait time of obtaining a connection and pool usage are tracked and exposed via the getters.
+ * The database is in-memory by default; a persistent (file based) one is closed when the pool is destroyed.
+ *
+ * The pooled {@link DataSource} is intentionally not exposed as a bean, so it does not interfere with the data source
+ * auto-configuration of the host application.
+ *
+ * @author Peter Smith
+ */
+public class SessionStoreConnectionPool implements DisposableBean {
+
+    private static final String IN_MEMORY_DATABASE_URL = "jdbc:h2:mem:%s;DB_CLOSE_DELAY=-1;DB_CLOSE_ON_EXIT=FALSE;QUERY_CACHE_SIZE=%d";
+    private static final String FILE_DATABASE_URL = "jdbc:h2:file:%s;QUERY_CACHE_SIZE=%d";
+
+    private final JdbcConnectionPool connectionPool;
+    private final DataSource dataSource;
+    private final LongAdder connectionRequestCount = new LongAdder();
+    private final LongAdder failedConnectionRequestCount = new LongAdder();
+    private final LongAdder totalWaitTimeInNanos = new LongAdder();
+    private final LongAccumulator maxWaitTimeInNanos = new LongAccumulator(Math::max, 0);
+    private final AtomicLong peakActiveConnections = new AtomicLong();
+
+    /**
+     * Creates a connection pool for the given embedded in-memory database.
+     *
+     * @param databaseName name of the in-memory H2 database
+     * @param maxSize maximum number of open connections
+     * @param waitTimeoutInSeconds maximum time to wait for a free connection, before failing
+     * @param statementCacheSize number of parsed statements cached per connection
+     */
+    public SessionStoreConnectionPool(String databaseName, int maxSize, int waitTimeoutInSeconds, int statementCacheSize) {
+        this(String.format(IN_MEMORY_DATABASE_URL, databaseName, statementCacheSize), maxSize, waitTimeoutInSeconds);
+    }
+
+    private SessionStoreConnectionPool(String databaseURL, int maxSize, int waitTimeoutInSeconds) {
+        this.connectionPool = JdbcConnectionPool.create(databaseURL, "sa", "");
+        this.connectionPool.setMaxConnections(maxSize);
+        this.connectionPool.setLoginTimeout(waitTimeoutInSeconds);
+        this.dataSource = new MeteredDataSource(connectionPool);
+    }
+
+    /**
+     * Creates a connection pool for the given embedded file based database, kept across restarts.
+     *
+     * @param databasePath path of the H2 database files (without extension)
+     * @param maxSize maximum number of open connections
+     * @param waitTimeoutInSeconds maximum time to wait for a free connection, before failing
+     * @param statementCacheSize number of parsed statements cached per connection
+     * @return created {@link SessionStoreConnectionPool}
+     */
+    public static SessionStoreConnectionPool persistent(String databasePath, int maxSize, int waitTimeoutInSeconds, int statementCacheSize) {
+        return new SessionStoreConnectionPool(String.format(FILE_DATABASE_URL, databasePath, statementCacheSize), maxSize, waitTimeoutInSeconds);
+    }
+
+    /**
+     * Returns the pooled {@link DataSource}.
+     *
+     * @return pooled {@link DataSource}
+     */
+    public DataSource getDataSource() {
+        return dataSource;
+    }
+
+    public int getMaxConnections() {
+        return connectionPool.getMaxConnections();
+    }
+
+    public int getActiveConnections() {
+        return connectionPool.getActiveConnections();
+    }
+
+    public long getPeakActiveConnections() {
+        return peakActiveConnections.get();
+    }
+
+    public long getConnectionRequestCount() {
+        return connectionRequestCount.sum();
+    }
+
+    public long getFailedConnectionRequestCount() {
+        return failedConnectionRequestCount.sum();
+    }
+
+    public long getAverageWaitTimeInNanos() {
+
+        long requests = connectionRequestCount.sum();
+
+        return requests == 0
+                ? 0
+                : totalWaitTimeInNanos.sum() / requests;
+    }
+
+    public long getMaxWaitTimeInNanos() {
+        return maxWaitTimeInNanos.get();
+    }
+
+    @Override
+    public void destroy() {
+        connectionPool.dispose();
+    }
+
+    private class MeteredDataSource extends DelegatingDataSource {
+
+        private MeteredDataSource(DataSource targetDataSource) {
+            super(targetDataSource);
+        }
+
+        @Override
+        public Connection getConnection() throws SQLException {
+
+            long start = System.nanoTime();
+            try {
+                Connection connection = super.getConnection();
+                peakActiveConnections.accumulateAndGet(connectionPool.getActiveConnections(), Math::max);
+                return connection;
+            } catch (SQLException exc) {
+                failedConnectionRequestCount.increment();
+                throw exc;
+            } finally {
+                long waitTime = System.nanoTime() - start;
+                connectionRequestCount.increment();
+                totalWaitTimeInNanos.add(waitTime);
+                maxWaitTimeInNanos.accumulate(waitTime);
+            }
+        }
+    }
+}
@@ -1,39 +1,82 @@
 package hu.psprog.leaflet.security.sessionstore.config;
 
+import org.apache.commons.lang3.StringUtils;
 import org.h2.tools.Server;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.DependsOn;
 import org.springframework.context.annotation.Profile;
+import org.springframework.core.io.DefaultResourceLoader;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
-import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
-import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
 
-import javax.sql.DataSource;
 import java.sql.SQLException;
 
 /**
  * Session Store data source configuration.
+ * Connections of the embedded database are pooled, see {@link SessionStoreConnectionPool}.
+ * The database is in-memory, unless session-store.database-path is set, in which case it is file based and kept across restarts.
+ * As revocation watermarks are kept in this database as well, a warning is logged on startup when it is in-memory.
  *
  * @author Peter Smith
  */
 @Configuration
 public class SessionStoreDataSourceConfiguration {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(SessionStoreDataSourceConfiguration.class);
+
     private static final String INIT_SCRIPT = "classpath:jwt_session_store_init.sql";
     private static final String DATABASE_NAME = "session-store";
+    private static final String CONFIG_POOL_MAX_SIZE = "${session-store.pool.max-size:10}";
+    private static final String CONFIG_POOL_WAIT_TIMEOUT_SECONDS = "${session-store.pool.wait-timeout-seconds:30}";
+    private static final String CONFIG_STATEMENT_CACHE_SIZE = "${session-store.statement-cache.size:64}";
+    private static final String CONFIG_DATABASE_PATH = "${session-store.database-path:}";
 
-    public static final String FIELD_TOKEN = "token";
+    public static final String FIELD_TOKEN_DIGEST = "token_digest";
     public static final String FIELD_DEVICE_ID = "device_id";
     public static final String FIELD_REMOTE_ADDRESS = "remote_address";
     public static final String FIELD_USERNAME = "username";
     public static final String FIELD_STATUS = "status";
     public static final String FIELD_ISSUED = "issued";
     public static final String FIELD_EXPIRES = "expires";
+    public static final String FIELD_LAST_ACTIVITY = "last_activity";
+    public static final String FIELD_REVOKED_BEFORE = "revoked_before";
+
+    @Value(CONFIG_POOL_MAX_SIZE)
+    private int poolMaxSize;
+
+    @Value(CONFIG_POOL_WAIT_TIMEOUT_SECONDS)
+    private int poolWaitTimeoutInSeconds;
+
+    @Value(CONFIG_STATEMENT_CACHE_SIZE)
+    private int statementCacheSize;
+
+    @Value(CONFIG_DATABASE_PATH)
+    private String databasePath;
 
     @Bean
     public NamedParameterJdbcTemplate sessionStoreJDBCTemplate() {
-        return new NamedParameterJdbcTemplate(sessionStoreDataSource());
+        return new NamedParameterJdbcTemplate(sessionStoreConnectionPool().getDataSource());
+    }
+
+    @Bean
+    public SessionStoreConnectionPool sessionStoreConnectionPool() {
+
+        SessionStoreConnectionPool sessionStoreConnectionPool;
+        if (StringUtils.isBlank(databasePath)) {
+            LOGGER.warn("Session Store database is in-memory (session-store.database-path is not set): "
+                    + "stored sessions and revocation watermarks (revoked sessions of users, mass revocations) are lost on restart");
+            sessionStoreConnectionPool = new SessionStoreConnectionPool(DATABASE_NAME, poolMaxSize, poolWaitTimeoutInSeconds, statementCacheSize);
+        } else {
+            sessionStoreConnectionPool = SessionStoreConnectionPool.persistent(databasePath, poolMaxSize, poolWaitTimeoutInSeconds, statementCacheSize);
+        }
+        new ResourceDatabasePopulator(new DefaultResourceLoader().getResource(INIT_SCRIPT))
+                .execute(sessionStoreConnectionPool.getDataSource());
+
+        return sessionStoreConnectionPool;
     }
 
 
@@ -45,13 +88,4 @@ public class SessionStoreDataSourceConfiguration {
                 .createTcpServer("-tcp", "-tcpAllowOthers", "-tcpPort", "9955")
                 .start();
     }
-
-    private DataSource sessionStoreDataSource() {
-
-        return new EmbeddedDatabaseBuilder()
-                .setType(EmbeddedDatabaseType.H2)
-                .setName(DATABASE_NAME)
-                .addScript(INIT_SCRIPT)
-                .build();
-    }
-}
+}
\ No newline at end of file
@@ -1,6 +1,7 @@
 package hu.psprog.leaflet.security.sessionstore.conversion;
 
 import hu.psprog.leaflet.security.sessionstore.domain.SessionStoreTokenEntry;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.core.convert.converter.Converter;
 import org.springframework.stereotype.Component;
 
@@ -12,7 +13,7 @@ import static hu.psprog.leaflet.security.sessionstore.config.SessionStoreDataSou
 import static hu.psprog.leaflet.security.sessionstore.config.SessionStoreDataSourceConfiguration.FIELD_ISSUED;
 import static hu.psprog.leaflet.security.sessionstore.config.SessionStoreDataSourceConfiguration.FIELD_REMOTE_ADDRESS;
 import static hu.psprog.leaflet.security.sessionstore.config.SessionStoreDataSourceConfiguration.FIELD_STATUS;
-import static hu.psprog.leaflet.security.sessionstore.config.SessionStoreDataSourceConfiguration.FIELD_TOKEN;
+import static hu.psprog.leaflet.security.sessionstore.config.SessionStoreDataSourceConfiguration.FIELD_TOKEN_DIGEST;
 import static hu.psprog.leaflet.security.sessionstore.config.SessionStoreDataSourceConfiguration.FIELD_USERNAME;
 
 /**
@@ -23,10 +24,17 @@ import static hu.psprog.leaflet.security.sessionstore.config.SessionStoreDataSou
 @Component
 public class SessionStoreTokenEntryConverter implements Converter<SessionStoreTokenEntry, Map<String, Object>> {
 
+    private TokenDigestConverter tokenDigestConverter;
+
+    @Autowired
+    public SessionStoreTokenEntryConverter(TokenDigestConverter tokenDigestConverter) {
+        this.tokenDigestConverter = tokenDigestConverter;
+    }
+
     public Map<String, Object> convert(SessionStoreTokenEntry sessionStoreTokenEntry) {
 
         Map<String, Object> insertToken = new HashMap<>();
-        insertToken.put(FIELD_TOKEN, sessionStoreTokenEntry.getToken());
+        insertToken.put(FIELD_TOKEN_DIGEST, tokenDigestConverter.convert(sessionStoreTokenEntry.getToken()));
         insertToken.put(FIELD_DEVICE_ID, sessionStoreTokenEntry.getDeviceID().toString());
         insertToken.put(FIELD_REMOTE_ADDRESS, sessionStoreTokenEntry.getRemoteAddress());
         insertToken.put(FIELD_USERNAME, sessionStoreTokenEntry.getUsername());
@@ -12,13 +12,14 @@ import java.util.UUID;
 import static hu.psprog.leaflet.security.sessionstore.config.SessionStoreDataSourceConfiguration.FIELD_DEVICE_ID;
 import static hu.psprog.leaflet.security.sessionstore.config.SessionStoreDataSourceConfiguration.FIELD_EXPIRES;
 import static hu.psprog.leaflet.security.sessionstore.config.SessionStoreDataSourceConfiguration.FIELD_ISSUED;
+import static hu.psprog.leaflet.security.sessionstore.config.SessionStoreDataSourceConfiguration.FIELD_LAST_ACTIVITY;
 import static hu.psprog.leaflet.security.sessionstore.config.SessionStoreDataSourceConfiguration.FIELD_REMOTE_ADDRESS;
 import static hu.psprog.leaflet.security.sessionstore.config.SessionStoreDataSourceConfiguration.FIELD_STATUS;
-import static hu.psprog.leaflet.security.sessionstore.config.SessionStoreDataSourceConfiguration.FIELD_TOKEN;
 import static hu.psprog.leaflet.security.sessionstore.config.SessionStoreDataSourceConfiguration.FIELD_USERNAME;
 
 /**
  * SQL mapper to read jwt_session_store records as {@link SessionStoreTokenEntry} objects.
+ * Records only contain the digest of the token, so mapped entries have no token, unless it is specified via {@link #forToken(String)}.
  *
  * @author Peter Smith
  */
@@ -27,13 +28,28 @@ public class SessionStoreTokenEntryMapper implements RowMapper<SessionStoreToken
 
     @Override
     public SessionStoreTokenEntry mapRow(ResultSet rs, int rowNum) throws SQLException {
+        return mapRow(rs, null);
+    }
+
+    /**
+     * Returns a mapper for records looked up by the given token, setting it in the mapped entries.
+     *
+     * @param token raw token the record has been looked up by
+     * @return {@link RowMapper} of {@link SessionStoreTokenEntry} objects with the given token
+     */
+    public RowMapper<SessionStoreTokenEntry> forToken(String token) {
+        return (rs, rowNum) -> mapRow(rs, token);
+    }
+
+    private SessionStoreTokenEntry mapRow(ResultSet rs, String token) throws SQLException {
         return SessionStoreTokenEntry.getBuilder()
-                .withToken(rs.getString(FIELD_TOKEN))
+                .withToken(token)
                 .withDeviceID(UUID.fromString(rs.getString(FIELD_DEVICE_ID)))
                 .withRemoteAddress(rs.getString(FIELD_REMOTE_ADDRESS))
                 .withUsername(rs.getString(FIELD_USERNAME))
                 .withIssued(rs.getTimestamp(FIELD_ISSUED))
                 .withExpires(rs.getTimestamp(FIELD_EXPIRES))
+                .withLastActivity(rs.getTimestamp(FIELD_LAST_ACTIVITY))
                 .withStatus(TokenStatus.valueOf(rs.getString(FIELD_STATUS)))
                 .build();
     }
@@ -0,0 +1,34 @@
+package hu.psprog.leaflet.security.sessionstore.conversion;
+
+import org.springframework.core.convert.converter.Converter;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Converts a raw token to its SHA-256 digest, used as session store key instead of the token itself.
+ *
+ * @author Peter Smith
+ */
+@Component
+public class TokenDigestConverter implements Converter<String, byte[]> {
+
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+    private static final ThreadLocal<MessageDigest> MESSAGE_DIGEST = ThreadLocal.withInitial(TokenDigestConverter::createMessageDigest);
+
+    @Override
+    public byte[] convert(String token) {
+        return MESSAGE_DIGEST.get().digest(token.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static MessageDigest createMessageDigest() {
+
+        try {
+            return MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException exc) {
+            throw new IllegalStateException("Token digest algorithm is not available", exc);
+        }
+    }
+}
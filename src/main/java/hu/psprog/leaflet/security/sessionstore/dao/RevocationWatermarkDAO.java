@@ -0,0 +1,50 @@
+package hu.psprog.leaflet.security.sessionstore.dao;
+
+import java.util.Date;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Revocation watermark database operations.
+ * A watermark revokes every token issued before it, either globally or for a single user.
+ *
+ * @author Peter Smith
+ */
+public interface RevocationWatermarkDAO {
+
+    /**
+     * Returns the global watermark, if set.
+     *
+     * @return time before which every token is revoked, wrapped in {@link Optional}
+     */
+    Optional<Date> getGlobalWatermark();
+
+    /**
+     * Returns the watermarks of users.
+     *
+     * @return time before which tokens of the user are revoked, by username
+     */
+    Map<String, Date> getUserWatermarks();
+
+    /**
+     * Stores (or replaces) the global watermark.
+     *
+     * @param revokedBefore time before which every token is revoked
+     */
+    void saveGlobalWatermark(Date revokedBefore);
+
+    /**
+     * Stores (or replaces) the watermark of the given user.
+     *
+     * @param username username to store watermark for
+     * @param revokedBefore time before which tokens of the user are revoked
+     */
+    void saveUserWatermark(String username, Date revokedBefore);
+
+    /**
+     * Removes the watermarks of users set before the given time. The global watermark is kept.
+     *
+     * @param revokedBefore user watermarks before this time are removed
+     */
+    void removeUserWatermarksBefore(Date revokedBefore);
+}
@@ -3,8 +3,12 @@ package hu.psprog.leaflet.security.sessionstore.dao;
 import hu.psprog.leaflet.security.sessionstore.domain.SessionStoreTokenEntry;
 import hu.psprog.leaflet.security.sessionstore.domain.TokenStatus;
 
+import java.nio.ByteBuffer;
+import java.util.Date;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.UUID;
 
 /**
  * Session store database operations.
@@ -13,6 +17,12 @@ import java.util.Optional;
  */
 public interface SessionStoreDAO {
 
+    /**
+     * Returned by {@link #upsertTokenEntry(SessionStoreTokenEntry, int)} when the tokens to remove are not known yet,
+     * because the upsert is applied asynchronously.
+     */
+    int UNKNOWN_REMOVED_TOKEN_COUNT = -1;
+
     /**
      * Returns all existing tokens in session store.
      *
@@ -27,6 +37,20 @@ public interface SessionStoreDAO {
      */
     void insertTokenEntry(SessionStoreTokenEntry sessionStoreTokenEntry);
 
+    /**
+     * Stores a new token in session store upon login, replacing the tokens previously stored for the same user and device.
+     * When the user would have more tokens than the given maximum, the least recently used tokens of the user (by recorded
+     * last activity, or issue time if none has been recorded) are removed, never the new one. Storing and removing
+     * the tokens of the user is serialized per user (or per engine), except for the JDBC engine, which runs them
+     * as separate statements.
+     *
+     * @param sessionStoreTokenEntry token and all required additional information as {@link SessionStoreTokenEntry} object
+     * @param maximumTokensPerUser maximum number of tokens the user may have, or 0 for no limit
+     * @return number of removed (replaced or evicted) tokens, or {@link #UNKNOWN_REMOVED_TOKEN_COUNT} if the upsert is
+     * applied asynchronously
+     */
+    int upsertTokenEntry(SessionStoreTokenEntry sessionStoreTokenEntry, int maximumTokensPerUser);
+
     /**
      * Retrieves a {@link SessionStoreTokenEntry} by provided token.
      *
@@ -43,10 +67,71 @@ public interface SessionStoreDAO {
      */
     void updateTokenEntry(String token, TokenStatus status);
 
+    /**
+     * Changes an existing token's status, only if its current status is the expected one.
+     * Checking and changing the status is a single atomic operation, so concurrent transitions of the same token
+     * cannot overwrite each other.
+     *
+     * @param token token to update status for
+     * @param expectedStatus status the token must currently have
+     * @param status new status
+     * @return {@code true} if the status has been changed, {@code false} if the token does not exist or has a different status
+     */
+    boolean compareAndUpdateTokenEntry(String token, TokenStatus expectedStatus, TokenStatus status);
+
+    /**
+     * Records the last activity of the given tokens in a single batch.
+     * Tokens are identified by their digest (see {@link hu.psprog.leaflet.security.sessionstore.conversion.TokenDigestConverter}),
+     * so callers collecting activities do not need to keep the raw tokens.
+     * Later activities already recorded are kept, tokens not (or no longer) stored are skipped.
+     *
+     * @param lastActivities time of last activity by token digest
+     */
+    void updateLastActivities(Map<ByteBuffer, Date> lastActivities);
+
+    /**
+     * Returns all tokens of the given user, looked up by username index.
+     * Depending on the implementation, returned entries may have no token (see {@link #getAllTokenEntries()}).
+     *
+     * @param username username to retrieve tokens for
+     * @return List of tokens as {@link SessionStoreTokenEntry} objects
+     */
+    List<SessionStoreTokenEntry> getTokenEntriesByUsername(String username);
+
+    /**
+     * Counts the tokens of the given user, looked up by username index.
+     *
+     * @param username username to count tokens for
+     * @return number of tokens of the user
+     */
+    int countTokenEntriesByUsername(String username);
+
+    /**
+     * Changes the status of every token of the given user having the expected status, looked up by username index.
+     * Tokens issued for the excluded device are left untouched.
+     *
+     * @param username username to update tokens for
+     * @param excludedDeviceID device ID to leave untouched, or {@code null} to update tokens of every device
+     * @param expectedStatus status the tokens must currently have
+     * @param status new status
+     * @return number of changed tokens
+     */
+    int updateTokenEntriesByUsername(String username, UUID excludedDeviceID, TokenStatus expectedStatus, TokenStatus status);
+
     /**
      * Removes a token from session store.
      *
      * @param token token to remove
      */
     void removeTokenEntry(String token);
+
+    /**
+     * Removes tokens expired before the given time from session store, at most the given number of them.
+     * Should be called repeatedly until it returns less than the limit, to remove every expired token.
+     *
+     * @param expiredBefore tokens expired before this time are removed
+     * @param limit maximum number of tokens to remove
+     * @return number of removed tokens
+     */
+    int removeExpiredTokenEntries(Date expiredBefore, int limit);
 }
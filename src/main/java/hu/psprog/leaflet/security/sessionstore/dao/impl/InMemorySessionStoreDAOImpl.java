@@ -0,0 +1,367 @@
+package hu.psprog.leaflet.security.sessionstore.dao.impl;
+
+import hu.psprog.leaflet.security.sessionstore.conversion.TokenDigestConverter;
+import hu.psprog.leaflet.security.sessionstore.dao.SessionStoreDAO;
+import hu.psprog.leaflet.security.sessionstore.domain.SessionStoreTokenEntry;
+import hu.psprog.leaflet.security.sessionstore.domain.TokenStatus;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.stereotype.Repository;
+
+import java.nio.ByteBuffer;
+import java.sql.Timestamp;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * In-memory implementation of {@link SessionStoreDAO}, enabled by session-store.engine=IN_MEMORY.
+ *
+ * Entries are kept in a {@link ConcurrentHashMap} keyed by the SHA-256 digest of the token (see {@link TokenDigestConverter}),
+ * so lookups need no SQL processing, parameter or result set mapping. Like the other engines, raw tokens are not kept:
+ * stored entries have no token, only the looked up token is set on the entry returned by {@link #getTokenEntry(String)}.
+ * Entries are immutable, status transitions replace them by compare-and-set. A secondary index ordered by expiration
+ * lets expired tokens be removed without scanning every entry, and an index of tokens by username lets the sessions of a user
+ * be listed and revoked without scanning every entry either. The username index is maintained after the entries themselves,
+ * so its digests are always checked against the entries. Upserts of a user are serialized on its username index entry. Like the default embedded database, contents are lost on restart.
+ *
+ * @author Peter Smith
+ */
+@Repository
+@ConditionalOnProperty(prefix = "session-store", name = "engine", havingValue = "IN_MEMORY")
+class InMemorySessionStoreDAOImpl implements SessionStoreDAO {
+
+    private final ConcurrentMap<ByteBuffer, SessionStoreTokenEntry> entries = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListSet<ExpiryIndexKey> expiryIndex = new ConcurrentSkipListSet<>();
+    private final ConcurrentMap<String, Set<ByteBuffer>> usernameIndex = new ConcurrentHashMap<>();
+
+    private final TokenDigestConverter tokenDigestConverter;
+
+    @Autowired
+    public InMemorySessionStoreDAOImpl(TokenDigestConverter tokenDigestConverter) {
+        this.tokenDigestConverter = tokenDigestConverter;
+    }
+
+    @Override
+    public List<SessionStoreTokenEntry> getAllTokenEntries() {
+        return new ArrayList<>(entries.values());
+    }
+
+    @Override
+    public void insertTokenEntry(SessionStoreTokenEntry sessionStoreTokenEntry) {
+
+        Objects.requireNonNull(sessionStoreTokenEntry.getToken(), "Token cannot be null!");
+        Objects.requireNonNull(sessionStoreTokenEntry.getExpires(), "Expiration cannot be null!");
+
+        ByteBuffer digest = digest(sessionStoreTokenEntry.getToken());
+        SessionStoreTokenEntry storedEntry = sessionStoreTokenEntry.withToken(null);
+        if (entries.putIfAbsent(digest, storedEntry) != null) {
+            throw new DuplicateKeyException(String.format("Token of user [%s] is already stored", sessionStoreTokenEntry.getUsername()));
+        }
+        expiryIndex.add(ExpiryIndexKey.of(digest, storedEntry));
+        addToUsernameIndex(digest, storedEntry);
+    }
+
+    /**
+     * Inserts the token, then removes the other tokens of the device and the least recently used tokens over the limit
+     * while the username index entry of the user is locked. Like the JDBC engine, tokens without device ID are never
+     * considered to be issued for the same device.
+     */
+    @Override
+    public int upsertTokenEntry(SessionStoreTokenEntry sessionStoreTokenEntry, int maximumTokensPerUser) {
+
+        if (sessionStoreTokenEntry.getUsername() == null) {
+            insertTokenEntry(sessionStoreTokenEntry);
+            return 0;
+        }
+
+        Objects.requireNonNull(sessionStoreTokenEntry.getToken(), "Token cannot be null!");
+        Objects.requireNonNull(sessionStoreTokenEntry.getExpires(), "Expiration cannot be null!");
+
+        ByteBuffer digest = digest(sessionStoreTokenEntry.getToken());
+        SessionStoreTokenEntry storedEntry = sessionStoreTokenEntry.withToken(null);
+        int[] removed = new int[1];
+        usernameIndex.compute(sessionStoreTokenEntry.getUsername(), (username, digests) -> {
+            if (entries.putIfAbsent(digest, storedEntry) != null) {
+                throw new DuplicateKeyException(String.format("Token of user [%s] is already stored", username));
+            }
+            expiryIndex.add(ExpiryIndexKey.of(digest, storedEntry));
+
+            Set<ByteBuffer> userDigests = digests != null
+                    ? digests
+                    : ConcurrentHashMap.newKeySet();
+            List<Map.Entry<ByteBuffer, SessionStoreTokenEntry>> otherEntries = new ArrayList<>();
+            for (ByteBuffer userDigest : userDigests) {
+                SessionStoreTokenEntry entry = entries.get(userDigest);
+                if (entry != null && storedEntry.getDeviceID() != null
+                        && Objects.equals(entry.getDeviceID(), storedEntry.getDeviceID())) {
+                    removed[0] += removeEntry(userDigest);
+                    userDigests.remove(userDigest);
+                } else if (entry != null) {
+                    otherEntries.add(new AbstractMap.SimpleImmutableEntry<>(userDigest, entry));
+                }
+            }
+
+            if (maximumTokensPerUser > 0 && otherEntries.size() >= maximumTokensPerUser) {
+                otherEntries.sort(Comparator.comparingLong(otherEntry -> lastUsed(otherEntry.getValue())));
+                for (Map.Entry<ByteBuffer, SessionStoreTokenEntry> otherEntry : otherEntries.subList(0, otherEntries.size() - maximumTokensPerUser + 1)) {
+                    removed[0] += removeEntry(otherEntry.getKey());
+                    userDigests.remove(otherEntry.getKey());
+                }
+            }
+
+            userDigests.add(digest);
+            return userDigests;
+        });
+
+        return removed[0];
+    }
+
+    @Override
+    public Optional<SessionStoreTokenEntry> getTokenEntry(String token) {
+        return Optional.ofNullable(entries.get(digest(token)))
+                .map(sessionStoreTokenEntry -> sessionStoreTokenEntry.withToken(token));
+    }
+
+    @Override
+    public void updateTokenEntry(String token, TokenStatus status) {
+
+        ByteBuffer digest = digest(token);
+        SessionStoreTokenEntry currentEntry;
+        do {
+            currentEntry = entries.get(digest);
+        } while (currentEntry != null
+                && currentEntry.getStatus() != status
+                && !entries.replace(digest, currentEntry, currentEntry.withStatus(status)));
+    }
+
+    @Override
+    public boolean compareAndUpdateTokenEntry(String token, TokenStatus expectedStatus, TokenStatus status) {
+        return compareAndUpdate(digest(token), expectedStatus, status);
+    }
+
+    @Override
+    public void updateLastActivities(Map<ByteBuffer, Date> lastActivities) {
+
+        lastActivities.forEach((digest, lastActivity) -> {
+            SessionStoreTokenEntry currentEntry;
+            do {
+                currentEntry = entries.get(digest);
+            } while (currentEntry != null
+                    && lastUsed(currentEntry) < lastActivity.getTime()
+                    && !entries.replace(digest, currentEntry, currentEntry.withLastActivity(new Timestamp(lastActivity.getTime()))));
+        });
+    }
+
+    @Override
+    public List<SessionStoreTokenEntry> getTokenEntriesByUsername(String username) {
+
+        List<SessionStoreTokenEntry> userEntries = new ArrayList<>();
+        usernameIndex.getOrDefault(username, Collections.emptySet()).forEach(digest -> {
+            SessionStoreTokenEntry entry = entries.get(digest);
+            if (entry != null) {
+                userEntries.add(entry);
+            }
+        });
+
+        return userEntries;
+    }
+
+    @Override
+    public int countTokenEntriesByUsername(String username) {
+        return getTokenEntriesByUsername(username).size();
+    }
+
+    @Override
+    public int updateTokenEntriesByUsername(String username, UUID excludedDeviceID, TokenStatus expectedStatus, TokenStatus status) {
+
+        int updated = 0;
+        for (ByteBuffer digest : usernameIndex.getOrDefault(username, Collections.emptySet())) {
+            SessionStoreTokenEntry entry = entries.get(digest);
+            boolean excluded = entry == null || excludedDeviceID != null && Objects.equals(entry.getDeviceID(), excludedDeviceID);
+            if (!excluded && compareAndUpdate(digest, expectedStatus, status)) {
+                updated++;
+            }
+        }
+
+        return updated;
+    }
+
+    @Override
+    public void removeTokenEntry(String token) {
+
+        ByteBuffer digest = digest(token);
+        SessionStoreTokenEntry removedEntry = entries.remove(digest);
+        if (removedEntry != null) {
+            expiryIndex.remove(ExpiryIndexKey.of(digest, removedEntry));
+            removeFromUsernameIndex(digest, removedEntry);
+        }
+    }
+
+    @Override
+    public int removeExpiredTokenEntries(Date expiredBefore, int limit) {
+
+        int removed = 0;
+        Iterator<ExpiryIndexKey> iterator = expiryIndex.headSet(new ExpiryIndexKey(expiredBefore.getTime(), null)).iterator();
+        while (removed < limit && iterator.hasNext()) {
+            ExpiryIndexKey key = iterator.next();
+            iterator.remove();
+            if (removeIfExpiresAt(key.digest, key.expires)) {
+                removed++;
+            }
+        }
+
+        return removed;
+    }
+
+    private boolean compareAndUpdate(ByteBuffer digest, TokenStatus expectedStatus, TokenStatus status) {
+
+        SessionStoreTokenEntry currentEntry;
+        do {
+            currentEntry = entries.get(digest);
+            if (currentEntry == null || currentEntry.getStatus() != expectedStatus) {
+                return false;
+            }
+        } while (!entries.replace(digest, currentEntry, currentEntry.withStatus(status)));
+
+        return true;
+    }
+
+    private boolean removeIfExpiresAt(ByteBuffer digest, long expires) {
+
+        while (true) {
+            SessionStoreTokenEntry entry = entries.get(digest);
+            if (entry == null || entry.getExpires().getTime() != expires) {
+                return false;
+            }
+            if (entries.remove(digest, entry)) {
+                removeFromUsernameIndex(digest, entry);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Removes the entry of the given token digest without touching the username index.
+     *
+     * @return 1 if the entry has been removed, 0 if it did not exist
+     */
+    private int removeEntry(ByteBuffer digest) {
+
+        while (true) {
+            SessionStoreTokenEntry entry = entries.get(digest);
+            if (entry == null) {
+                return 0;
+            }
+            if (entries.remove(digest, entry)) {
+                expiryIndex.remove(ExpiryIndexKey.of(digest, entry));
+                return 1;
+            }
+        }
+    }
+
+    private ByteBuffer digest(String token) {
+        return ByteBuffer.wrap(tokenDigestConverter.convert(token));
+    }
+
+    private static long lastUsed(SessionStoreTokenEntry sessionStoreTokenEntry) {
+
+        long issued = sessionStoreTokenEntry.getIssued() != null
+                ? sessionStoreTokenEntry.getIssued().getTime()
+                : Long.MIN_VALUE;
+
+        return sessionStoreTokenEntry.getLastActivity() != null
+                ? Math.max(issued, sessionStoreTokenEntry.getLastActivity().getTime())
+                : issued;
+    }
+
+    private void addToUsernameIndex(ByteBuffer digest, SessionStoreTokenEntry sessionStoreTokenEntry) {
+
+        if (sessionStoreTokenEntry.getUsername() != null) {
+            usernameIndex.compute(sessionStoreTokenEntry.getUsername(), (username, digests) -> {
+                Set<ByteBuffer> userDigests = digests != null
+                        ? digests
+                        : ConcurrentHashMap.newKeySet();
+                userDigests.add(digest);
+                return userDigests;
+            });
+        }
+    }
+
+    private void removeFromUsernameIndex(ByteBuffer digest, SessionStoreTokenEntry sessionStoreTokenEntry) {
+
+        if (sessionStoreTokenEntry.getUsername() != null) {
+            usernameIndex.computeIfPresent(sessionStoreTokenEntry.getUsername(), (username, digests) -> {
+                digests.remove(digest);
+                return digests.isEmpty()
+                        ? null
+                        : digests;
+            });
+        }
+    }
+
+    /**
+     * Expiry index key ordered by expiration, then by token digest.
+     * A key without digest precedes every key of the same expiration, so it can be used as exclusive upper bound.
+     */
+    private static final class ExpiryIndexKey implements Comparable<ExpiryIndexKey> {
+
+        private final long expires;
+        private final ByteBuffer digest;
+
+        private ExpiryIndexKey(long expires, ByteBuffer digest) {
+            this.expires = expires;
+            this.digest = digest;
+        }
+
+        private static ExpiryIndexKey of(ByteBuffer digest, SessionStoreTokenEntry sessionStoreTokenEntry) {
+            return new ExpiryIndexKey(sessionStoreTokenEntry.getExpires().getTime(), digest);
+        }
+
+        @Override
+        public int compareTo(ExpiryIndexKey other) {
+
+            int result = Long.compare(expires, other.expires);
+            if (result == 0 && !Objects.equals(digest, other.digest)) {
+                if (digest == null) {
+                    result = -1;
+                } else if (other.digest == null) {
+                    result = 1;
+                } else {
+                    result = digest.compareTo(other.digest);
+                }
+            }
+
+            return result;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+
+            if (!(o instanceof ExpiryIndexKey)) return false;
+
+            ExpiryIndexKey that = (ExpiryIndexKey) o;
+
+            return expires == that.expires && Objects.equals(digest, that.digest);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(expires, digest);
+        }
+    }
+}
@@ -0,0 +1,818 @@
+package hu.psprog.leaflet.security.sessionstore.dao.impl;
+
+import hu.psprog.leaflet.security.sessionstore.conversion.TokenDigestConverter;
+import hu.psprog.leaflet.security.sessionstore.dao.SessionStoreDAO;
+import hu.psprog.leaflet.security.sessionstore.domain.SessionStoreTokenEntry;
+import hu.psprog.leaflet.security.sessionstore.domain.TokenStatus;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.stereotype.Repository;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Off-heap implementation of {@link SessionStoreDAO}, enabled by session-store.engine=OFF_HEAP.
+ *
+ * Entries are packed into fixed-width records of {@value #RECORD_SIZE} bytes in direct {@link ByteBuffer} slabs:
+ *  - the first 128 bits of the SHA-256 digest of the token (the raw token itself is not stored),
+ *  - the device ID as two longs,
+ *  - the remote address as 16 bytes (IPv4 addresses are stored as IPv4-mapped IPv6 addresses),
+ *  - issue, expiration and last activity time as unsigned epoch seconds (0 if no activity has been recorded),
+ *  - the ID of the username in an on-heap dictionary (usernames are repeated across the sessions of a user),
+ *  - the status and the record flags,
+ *  - the next and previous record of the same user,
+ *  - the position of the record in the expiry heap.
+ * Records are looked up through an open-addressing (linear probing) index of record numbers, also kept in a direct buffer,
+ * which is resized to keep its load factor between 0.25 and 0.5. Records of a user form a doubly linked list, starting
+ * from the first record of the user kept next to the username dictionary, so the sessions of a user are found without
+ * scanning the slabs. Records are also kept in a binary min-heap of record numbers ordered by expiration (a primitive array),
+ * so expired records are found without scanning the slabs. Including the index and the heap, a session takes at most 100 bytes
+ * and none of it is traced by the garbage collector; entries are only materialized on lookup.
+ *
+ * Consequences of the record layout:
+ *  - entries returned by {@link #getAllTokenEntries()} have no token, since only its digest is stored,
+ *  - timestamps are truncated to seconds (tokens are issued with second precision anyway),
+ *  - remote addresses that are not IP address literals in their canonical form are kept in an on-heap overflow map.
+ * Expired records are removed in expiration order, in batches of {@value #PURGE_BATCH_SIZE} records, releasing the write lock
+ * between batches, so lookups are never blocked for longer than a batch. Freed records are reused, but slabs are never released. Modifications (including the removals of an upsert) are serialized,
+ * lookups only share a read lock.
+ * Like the default embedded database, contents are lost on restart.
+ *
+ * @author Peter Smith
+ */
+@Repository
+@ConditionalOnProperty(prefix = "session-store", name = "engine", havingValue = "OFF_HEAP")
+class OffHeapSessionStoreDAOImpl implements SessionStoreDAO {
+
+    static final int RECORD_SIZE = 80;
+
+    private static final int DIGEST_HIGH_OFFSET = 0;
+    private static final int DIGEST_LOW_OFFSET = 8;
+    private static final int DEVICE_ID_MSB_OFFSET = 16;
+    private static final int DEVICE_ID_LSB_OFFSET = 24;
+    private static final int ADDRESS_OFFSET = 32;
+    private static final int ISSUED_OFFSET = 48;
+    private static final int EXPIRES_OFFSET = 52;
+    private static final int USER_ID_OFFSET = 56;
+    private static final int STATUS_OFFSET = 60;
+    private static final int FLAGS_OFFSET = 61;
+    private static final int NEXT_USER_RECORD_OFFSET = 64;
+    private static final int PREVIOUS_USER_RECORD_OFFSET = 68;
+    private static final int LAST_ACTIVITY_OFFSET = 72;
+    private static final int EXPIRY_HEAP_POSITION_OFFSET = 76;
+    private static final int NEXT_FREE_RECORD_OFFSET = 0;
+
+    private static final byte FLAG_USED = 0x01;
+    private static final byte FLAG_IPV4_ADDRESS = 0x02;
+    private static final byte FLAG_IPV6_ADDRESS = 0x04;
+    private static final byte FLAG_OVERFLOW_ADDRESS = 0x08;
+
+    private static final int SLAB_SHIFT = 14;
+    private static final int RECORDS_PER_SLAB = 1 << SLAB_SHIFT;
+    private static final int INDEX_SLOT_SIZE = Integer.BYTES;
+    private static final int NO_RECORD = -1;
+    private static final int NO_USER = -1;
+    private static final int PURGE_BATCH_SIZE = 256;
+    private static final TokenStatus[] TOKEN_STATUSES = TokenStatus.values();
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final List<ByteBuffer> slabs = new ArrayList<>();
+    private final Map<String, Integer> userIDs = new HashMap<>();
+    private final List<String> usernames = new ArrayList<>();
+    private int[] firstUserRecords = new int[16];
+    private final Map<Integer, String> overflowAddresses = new HashMap<>();
+    private int[] expiryHeap = new int[1024];
+    private int expiryHeapSize;
+
+    private TokenDigestConverter tokenDigestConverter;
+    private ByteBuffer index;
+    private int indexMask;
+    private int size;
+    private int allocatedRecords;
+    private int firstFreeRecord = NO_RECORD;
+
+    @Autowired
+    public OffHeapSessionStoreDAOImpl(TokenDigestConverter tokenDigestConverter,
+                                      @Value("${session-store.off-heap.initial-capacity:65536}") int initialCapacity) {
+        this.tokenDigestConverter = tokenDigestConverter;
+        allocateIndex(indexCapacityFor(initialCapacity));
+    }
+
+    @Override
+    public List<SessionStoreTokenEntry> getAllTokenEntries() {
+
+        lock.readLock().lock();
+        try {
+            List<SessionStoreTokenEntry> entries = new ArrayList<>(size);
+            for (int record = 0; record < allocatedRecords; record++) {
+                if (isUsed(record)) {
+                    entries.add(readEntry(record, null));
+                }
+            }
+
+            return entries;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void insertTokenEntry(SessionStoreTokenEntry sessionStoreTokenEntry) {
+
+        Objects.requireNonNull(sessionStoreTokenEntry.getToken(), "Token cannot be null!");
+        Objects.requireNonNull(sessionStoreTokenEntry.getDeviceID(), "Device ID cannot be null!");
+        Objects.requireNonNull(sessionStoreTokenEntry.getRemoteAddress(), "Remote address cannot be null!");
+        Objects.requireNonNull(sessionStoreTokenEntry.getIssued(), "Issue time cannot be null!");
+        Objects.requireNonNull(sessionStoreTokenEntry.getExpires(), "Expiration cannot be null!");
+
+        ByteBuffer digest = digest(sessionStoreTokenEntry.getToken());
+        byte[] address = new byte[16];
+        byte addressFlag = encodeAddress(sessionStoreTokenEntry.getRemoteAddress(), address);
+
+        lock.writeLock().lock();
+        try {
+            insert(sessionStoreTokenEntry, digest, address, addressFlag);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Inserts the token, then removes the other records of the device and the least recently used records over
+     * the limit, walking the record list of the user. Of records last used in the same second, the earlier inserted one
+     * is evicted first.
+     */
+    @Override
+    public int upsertTokenEntry(SessionStoreTokenEntry sessionStoreTokenEntry, int maximumTokensPerUser) {
+
+        Objects.requireNonNull(sessionStoreTokenEntry.getToken(), "Token cannot be null!");
+        Objects.requireNonNull(sessionStoreTokenEntry.getDeviceID(), "Device ID cannot be null!");
+        Objects.requireNonNull(sessionStoreTokenEntry.getRemoteAddress(), "Remote address cannot be null!");
+        Objects.requireNonNull(sessionStoreTokenEntry.getIssued(), "Issue time cannot be null!");
+        Objects.requireNonNull(sessionStoreTokenEntry.getExpires(), "Expiration cannot be null!");
+
+        ByteBuffer digest = digest(sessionStoreTokenEntry.getToken());
+        byte[] address = new byte[16];
+        byte addressFlag = encodeAddress(sessionStoreTokenEntry.getRemoteAddress(), address);
+        UUID deviceID = sessionStoreTokenEntry.getDeviceID();
+
+        int removed = 0;
+        lock.writeLock().lock();
+        try {
+            int insertedRecord = insert(sessionStoreTokenEntry, digest, address, addressFlag);
+            if (sessionStoreTokenEntry.getUsername() == null) {
+                return removed;
+            }
+
+            int count = 0;
+            int record = firstUserRecord(sessionStoreTokenEntry.getUsername());
+            while (record != NO_RECORD) {
+                int nextRecord = nextUserRecord(record);
+                ByteBuffer slab = slab(record);
+                int offset = offset(record);
+                if (record != insertedRecord
+                        && slab.getLong(offset + DEVICE_ID_MSB_OFFSET) == deviceID.getMostSignificantBits()
+                        && slab.getLong(offset + DEVICE_ID_LSB_OFFSET) == deviceID.getLeastSignificantBits()) {
+                    removeRecord(record);
+                    removed++;
+                } else {
+                    count++;
+                }
+                record = nextRecord;
+            }
+
+            while (maximumTokensPerUser > 0 && count > maximumTokensPerUser) {
+                removeRecord(leastRecentlyUsedUserRecord(sessionStoreTokenEntry.getUsername(), insertedRecord));
+                removed++;
+                count--;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        return removed;
+    }
+
+    @Override
+    public Optional<SessionStoreTokenEntry> getTokenEntry(String token) {
+
+        ByteBuffer digest = digest(token);
+
+        lock.readLock().lock();
+        try {
+            int record = getSlot(findSlot(digest.getLong(0), digest.getLong(Long.BYTES)));
+
+            return record == NO_RECORD
+                    ? Optional.empty()
+                    : Optional.of(readEntry(record, token));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void updateTokenEntry(String token, TokenStatus status) {
+
+        ByteBuffer digest = digest(token);
+
+        lock.writeLock().lock();
+        try {
+            int record = getSlot(findSlot(digest.getLong(0), digest.getLong(Long.BYTES)));
+            if (record != NO_RECORD) {
+                slab(record).put(offset(record) + STATUS_OFFSET, (byte) status.ordinal());
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean compareAndUpdateTokenEntry(String token, TokenStatus expectedStatus, TokenStatus status) {
+
+        ByteBuffer digest = digest(token);
+
+        lock.writeLock().lock();
+        try {
+            boolean updated = false;
+            int record = getSlot(findSlot(digest.getLong(0), digest.getLong(Long.BYTES)));
+            if (record != NO_RECORD && slab(record).get(offset(record) + STATUS_OFFSET) == expectedStatus.ordinal()) {
+                slab(record).put(offset(record) + STATUS_OFFSET, (byte) status.ordinal());
+                updated = true;
+            }
+
+            return updated;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void updateLastActivities(Map<ByteBuffer, Date> lastActivities) {
+
+        Map<ByteBuffer, Integer> encodedLastActivities = new HashMap<>();
+        lastActivities.forEach((digest, lastActivity) -> encodedLastActivities.put(digest, toEpochSeconds(lastActivity)));
+
+        lock.writeLock().lock();
+        try {
+            encodedLastActivities.forEach((digest, lastActivity) -> {
+                int record = getSlot(findSlot(digest.getLong(0), digest.getLong(Long.BYTES)));
+                if (record != NO_RECORD && Integer.toUnsignedLong(lastActivity) > lastUse(record)) {
+                    slab(record).putInt(offset(record) + LAST_ACTIVITY_OFFSET, lastActivity);
+                }
+            });
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public List<SessionStoreTokenEntry> getTokenEntriesByUsername(String username) {
+
+        lock.readLock().lock();
+        try {
+            List<SessionStoreTokenEntry> entries = new ArrayList<>();
+            for (int record = firstUserRecord(username); record != NO_RECORD; record = nextUserRecord(record)) {
+                entries.add(readEntry(record, null));
+            }
+
+            return entries;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int countTokenEntriesByUsername(String username) {
+
+        lock.readLock().lock();
+        try {
+            int count = 0;
+            for (int record = firstUserRecord(username); record != NO_RECORD; record = nextUserRecord(record)) {
+                count++;
+            }
+
+            return count;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int updateTokenEntriesByUsername(String username, UUID excludedDeviceID, TokenStatus expectedStatus, TokenStatus status) {
+
+        int updated = 0;
+        lock.writeLock().lock();
+        try {
+            for (int record = firstUserRecord(username); record != NO_RECORD; record = nextUserRecord(record)) {
+                ByteBuffer slab = slab(record);
+                int offset = offset(record);
+                boolean excluded = excludedDeviceID != null
+                        && slab.getLong(offset + DEVICE_ID_MSB_OFFSET) == excludedDeviceID.getMostSignificantBits()
+                        && slab.getLong(offset + DEVICE_ID_LSB_OFFSET) == excludedDeviceID.getLeastSignificantBits();
+                if (!excluded && slab.get(offset + STATUS_OFFSET) == expectedStatus.ordinal()) {
+                    slab.put(offset + STATUS_OFFSET, (byte) status.ordinal());
+                    updated++;
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        return updated;
+    }
+
+    @Override
+    public void removeTokenEntry(String token) {
+
+        ByteBuffer digest = digest(token);
+
+        lock.writeLock().lock();
+        try {
+            int slot = findSlot(digest.getLong(0), digest.getLong(Long.BYTES));
+            if (getSlot(slot) != NO_RECORD) {
+                remove(slot);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public int removeExpiredTokenEntries(Date expiredBefore, int limit) {
+
+        int removed = 0;
+        boolean expiredRemaining = true;
+        while (expiredRemaining && removed < limit) {
+            lock.writeLock().lock();
+            try {
+                int batchLimit = Math.min(limit, removed + PURGE_BATCH_SIZE);
+                while (removed < batchLimit && (expiredRemaining = isFirstToExpireExpired(expiredBefore))) {
+                    removeRecord(expiryHeap[0]);
+                    removed++;
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        return removed;
+    }
+
+    private int insert(SessionStoreTokenEntry sessionStoreTokenEntry, ByteBuffer digest, byte[] address, byte addressFlag) {
+
+        long digestHigh = digest.getLong(0);
+        long digestLow = digest.getLong(Long.BYTES);
+        int slot = findSlot(digestHigh, digestLow);
+        if (getSlot(slot) != NO_RECORD) {
+            throw new DuplicateKeyException(String.format("Token of user [%s] is already stored", sessionStoreTokenEntry.getUsername()));
+        }
+
+        int record = allocateRecord();
+        ByteBuffer slab = slab(record);
+        int offset = offset(record);
+        slab.putLong(offset + DIGEST_HIGH_OFFSET, digestHigh);
+        slab.putLong(offset + DIGEST_LOW_OFFSET, digestLow);
+        slab.putLong(offset + DEVICE_ID_MSB_OFFSET, sessionStoreTokenEntry.getDeviceID().getMostSignificantBits());
+        slab.putLong(offset + DEVICE_ID_LSB_OFFSET, sessionStoreTokenEntry.getDeviceID().getLeastSignificantBits());
+        for (int i = 0; i < address.length; i++) {
+            slab.put(offset + ADDRESS_OFFSET + i, address[i]);
+        }
+        slab.putInt(offset + ISSUED_OFFSET, toEpochSeconds(sessionStoreTokenEntry.getIssued()));
+        slab.putInt(offset + EXPIRES_OFFSET, toEpochSeconds(sessionStoreTokenEntry.getExpires()));
+        addToExpiryHeap(record);
+        slab.putInt(offset + LAST_ACTIVITY_OFFSET, sessionStoreTokenEntry.getLastActivity() != null
+                ? toEpochSeconds(sessionStoreTokenEntry.getLastActivity())
+                : 0);
+        linkUserRecord(record, userID(sessionStoreTokenEntry.getUsername()));
+        slab.put(offset + STATUS_OFFSET, (byte) sessionStoreTokenEntry.getStatus().ordinal());
+        slab.put(offset + FLAGS_OFFSET, (byte) (FLAG_USED | addressFlag));
+        if (addressFlag == FLAG_OVERFLOW_ADDRESS) {
+            overflowAddresses.put(record, sessionStoreTokenEntry.getRemoteAddress());
+        }
+
+        setSlot(slot, record);
+        if (++size > (indexMask + 1) / 2) {
+            allocateIndex((indexMask + 1) * 2);
+        }
+
+        return record;
+    }
+
+    private SessionStoreTokenEntry readEntry(int record, String token) {
+
+        ByteBuffer slab = slab(record);
+        int offset = offset(record);
+        int userID = slab.getInt(offset + USER_ID_OFFSET);
+        int lastActivity = slab.getInt(offset + LAST_ACTIVITY_OFFSET);
+
+        return SessionStoreTokenEntry.getBuilder()
+                .withToken(token)
+                .withDeviceID(new UUID(slab.getLong(offset + DEVICE_ID_MSB_OFFSET), slab.getLong(offset + DEVICE_ID_LSB_OFFSET)))
+                .withRemoteAddress(decodeAddress(record, slab, offset))
+                .withUsername(userID == NO_USER ? null : usernames.get(userID))
+                .withStatus(TOKEN_STATUSES[slab.get(offset + STATUS_OFFSET)])
+                .withIssued(new Timestamp(fromEpochSeconds(slab.getInt(offset + ISSUED_OFFSET))))
+                .withExpires(new Timestamp(fromEpochSeconds(slab.getInt(offset + EXPIRES_OFFSET))))
+                .withLastActivity(lastActivity == 0 ? null : new Timestamp(fromEpochSeconds(lastActivity)))
+                .build();
+    }
+
+    private void removeRecord(int record) {
+
+        ByteBuffer slab = slab(record);
+        int offset = offset(record);
+        remove(findSlot(slab.getLong(offset + DIGEST_HIGH_OFFSET), slab.getLong(offset + DIGEST_LOW_OFFSET)));
+    }
+
+    private int leastRecentlyUsedUserRecord(String username, int excludedRecord) {
+
+        int leastRecentRecord = NO_RECORD;
+        long leastRecentUse = Long.MAX_VALUE;
+        for (int record = firstUserRecord(username); record != NO_RECORD; record = nextUserRecord(record)) {
+            long lastUse = lastUse(record);
+            if (record != excludedRecord && lastUse <= leastRecentUse) {
+                leastRecentRecord = record;
+                leastRecentUse = lastUse;
+            }
+        }
+
+        return leastRecentRecord;
+    }
+
+    private long lastUse(int record) {
+
+        ByteBuffer slab = slab(record);
+        int offset = offset(record);
+
+        return Math.max(Integer.toUnsignedLong(slab.getInt(offset + ISSUED_OFFSET)), Integer.toUnsignedLong(slab.getInt(offset + LAST_ACTIVITY_OFFSET)));
+    }
+
+    private void remove(int slot) {
+
+        int record = getSlot(slot);
+        deleteSlot(slot);
+        unlinkUserRecord(record);
+        removeFromExpiryHeap(record);
+        overflowAddresses.remove(record);
+
+        ByteBuffer slab = slab(record);
+        int offset = offset(record);
+        slab.put(offset + FLAGS_OFFSET, (byte) 0);
+        slab.putInt(offset + NEXT_FREE_RECORD_OFFSET, firstFreeRecord);
+        firstFreeRecord = record;
+        size--;
+    }
+
+    private int allocateRecord() {
+
+        int record;
+        if (firstFreeRecord != NO_RECORD) {
+            record = firstFreeRecord;
+            firstFreeRecord = slab(record).getInt(offset(record) + NEXT_FREE_RECORD_OFFSET);
+        } else {
+            record = allocatedRecords++;
+            if (record >>> SLAB_SHIFT == slabs.size()) {
+                slabs.add(ByteBuffer.allocateDirect(RECORDS_PER_SLAB * RECORD_SIZE));
+            }
+        }
+
+        return record;
+    }
+
+    private boolean isUsed(int record) {
+        return (slab(record).get(offset(record) + FLAGS_OFFSET) & FLAG_USED) != 0;
+    }
+
+    private int userID(String username) {
+
+        if (username == null) {
+            return NO_USER;
+        }
+
+        return userIDs.computeIfAbsent(username, key -> {
+            usernames.add(key);
+            if (usernames.size() > firstUserRecords.length) {
+                firstUserRecords = Arrays.copyOf(firstUserRecords, firstUserRecords.length * 2);
+            }
+            firstUserRecords[usernames.size() - 1] = NO_RECORD;
+            return usernames.size() - 1;
+        });
+    }
+
+    private int firstUserRecord(String username) {
+
+        Integer userID = userIDs.get(username);
+
+        return userID == null
+                ? NO_RECORD
+                : firstUserRecords[userID];
+    }
+
+    private int nextUserRecord(int record) {
+        return slab(record).getInt(offset(record) + NEXT_USER_RECORD_OFFSET);
+    }
+
+    /**
+     * Stores the given user ID in the record and puts the record at the head of the record list of the user.
+     */
+    private void linkUserRecord(int record, int userID) {
+
+        ByteBuffer slab = slab(record);
+        int offset = offset(record);
+        slab.putInt(offset + USER_ID_OFFSET, userID);
+        slab.putInt(offset + PREVIOUS_USER_RECORD_OFFSET, NO_RECORD);
+        if (userID == NO_USER) {
+            slab.putInt(offset + NEXT_USER_RECORD_OFFSET, NO_RECORD);
+            return;
+        }
+
+        int nextRecord = firstUserRecords[userID];
+        slab.putInt(offset + NEXT_USER_RECORD_OFFSET, nextRecord);
+        if (nextRecord != NO_RECORD) {
+            slab(nextRecord).putInt(offset(nextRecord) + PREVIOUS_USER_RECORD_OFFSET, record);
+        }
+        firstUserRecords[userID] = record;
+    }
+
+    private void unlinkUserRecord(int record) {
+
+        ByteBuffer slab = slab(record);
+        int offset = offset(record);
+        int userID = slab.getInt(offset + USER_ID_OFFSET);
+        if (userID == NO_USER) {
+            return;
+        }
+
+        int previousRecord = slab.getInt(offset + PREVIOUS_USER_RECORD_OFFSET);
+        int nextRecord = slab.getInt(offset + NEXT_USER_RECORD_OFFSET);
+        if (previousRecord == NO_RECORD) {
+            firstUserRecords[userID] = nextRecord;
+        } else {
+            slab(previousRecord).putInt(offset(previousRecord) + NEXT_USER_RECORD_OFFSET, nextRecord);
+        }
+        if (nextRecord != NO_RECORD) {
+            slab(nextRecord).putInt(offset(nextRecord) + PREVIOUS_USER_RECORD_OFFSET, previousRecord);
+        }
+    }
+
+    private boolean isFirstToExpireExpired(Date expiredBefore) {
+        return expiryHeapSize > 0 && fromEpochSeconds(expiresOf(expiryHeap[0])) < expiredBefore.getTime();
+    }
+
+    private void addToExpiryHeap(int record) {
+
+        if (expiryHeapSize == expiryHeap.length) {
+            expiryHeap = Arrays.copyOf(expiryHeap, expiryHeap.length * 2);
+        }
+        placeInExpiryHeap(record, expiryHeapSize++);
+        siftUp(expiryHeapSize - 1);
+    }
+
+    private void removeFromExpiryHeap(int record) {
+
+        int position = slab(record).getInt(offset(record) + EXPIRY_HEAP_POSITION_OFFSET);
+        int lastRecord = expiryHeap[--expiryHeapSize];
+        if (position < expiryHeapSize) {
+            placeInExpiryHeap(lastRecord, position);
+            siftDown(position);
+            siftUp(position);
+        }
+    }
+
+    private void siftUp(int position) {
+
+        int record = expiryHeap[position];
+        int current = position;
+        while (current > 0) {
+            int parent = (current - 1) >>> 1;
+            if (compareExpiry(record, expiryHeap[parent]) >= 0) {
+                break;
+            }
+            placeInExpiryHeap(expiryHeap[parent], current);
+            current = parent;
+        }
+        placeInExpiryHeap(record, current);
+    }
+
+    private void siftDown(int position) {
+
+        int record = expiryHeap[position];
+        int current = position;
+        while (current < expiryHeapSize >>> 1) {
+            int child = 2 * current + 1;
+            if (child + 1 < expiryHeapSize && compareExpiry(expiryHeap[child + 1], expiryHeap[child]) < 0) {
+                child++;
+            }
+            if (compareExpiry(record, expiryHeap[child]) <= 0) {
+                break;
+            }
+            placeInExpiryHeap(expiryHeap[child], current);
+            current = child;
+        }
+        placeInExpiryHeap(record, current);
+    }
+
+    private void placeInExpiryHeap(int record, int position) {
+        expiryHeap[position] = record;
+        slab(record).putInt(offset(record) + EXPIRY_HEAP_POSITION_OFFSET, position);
+    }
+
+    private int compareExpiry(int record, int otherRecord) {
+        return Integer.compareUnsigned(expiresOf(record), expiresOf(otherRecord));
+    }
+
+    private int expiresOf(int record) {
+        return slab(record).getInt(offset(record) + EXPIRES_OFFSET);
+    }
+
+    private ByteBuffer slab(int record) {
+        return slabs.get(record >>> SLAB_SHIFT);
+    }
+
+    private static int offset(int record) {
+        return (record & (RECORDS_PER_SLAB - 1)) * RECORD_SIZE;
+    }
+
+    /**
+     * Returns the slot holding the record of the given digest, or the empty slot where it should be inserted.
+     */
+    private int findSlot(long digestHigh, long digestLow) {
+
+        int slot = idealSlot(digestHigh);
+        int record;
+        while ((record = getSlot(slot)) != NO_RECORD) {
+            ByteBuffer slab = slab(record);
+            int offset = offset(record);
+            if (slab.getLong(offset + DIGEST_HIGH_OFFSET) == digestHigh && slab.getLong(offset + DIGEST_LOW_OFFSET) == digestLow) {
+                break;
+            }
+            slot = (slot + 1) & indexMask;
+        }
+
+        return slot;
+    }
+
+    /**
+     * Empties the given slot, moving back the following entries of the probe sequence, so no tombstones are needed.
+     */
+    private void deleteSlot(int slot) {
+
+        int hole = slot;
+        int next = (hole + 1) & indexMask;
+        int record;
+        while ((record = getSlot(next)) != NO_RECORD) {
+            int ideal = idealSlot(slab(record).getLong(offset(record) + DIGEST_HIGH_OFFSET));
+            if (((next - ideal) & indexMask) >= ((next - hole) & indexMask)) {
+                setSlot(hole, record);
+                hole = next;
+            }
+            next = (next + 1) & indexMask;
+        }
+        setSlot(hole, NO_RECORD);
+    }
+
+    private int idealSlot(long digestHigh) {
+        return (int) (digestHigh ^ (digestHigh >>> 32)) & indexMask;
+    }
+
+    private int getSlot(int slot) {
+        return index.getInt(slot * INDEX_SLOT_SIZE) - 1;
+    }
+
+    private void setSlot(int slot, int record) {
+        index.putInt(slot * INDEX_SLOT_SIZE, record + 1);
+    }
+
+    private void allocateIndex(int capacity) {
+
+        index = ByteBuffer.allocateDirect(capacity * INDEX_SLOT_SIZE);
+        indexMask = capacity - 1;
+        for (int record = 0; record < allocatedRecords; record++) {
+            if (isUsed(record)) {
+                ByteBuffer slab = slab(record);
+                int offset = offset(record);
+                setSlot(findSlot(slab.getLong(offset + DIGEST_HIGH_OFFSET), slab.getLong(offset + DIGEST_LOW_OFFSET)), record);
+            }
+        }
+    }
+
+    private static int indexCapacityFor(int expectedEntries) {
+        return Integer.highestOneBit(Math.max(16, expectedEntries * 2 - 1)) << 1;
+    }
+
+    private static int toEpochSeconds(Date date) {
+        return (int) TimeUnit.MILLISECONDS.toSeconds(date.getTime());
+    }
+
+    private static long fromEpochSeconds(int epochSeconds) {
+        return TimeUnit.SECONDS.toMillis(Integer.toUnsignedLong(epochSeconds));
+    }
+
+    /**
+     * Encodes the given IP address literal into the given 16 bytes, if it is in the form it is decoded into.
+     * No name resolution is done, anything else is flagged for the overflow map.
+     */
+    private static byte encodeAddress(String remoteAddress, byte[] address) {
+
+        byte addressFlag = FLAG_OVERFLOW_ADDRESS;
+        byte[] parsedAddress = parseIPv4Address(remoteAddress);
+        if (parsedAddress != null) {
+            address[10] = (byte) 0xff;
+            address[11] = (byte) 0xff;
+            System.arraycopy(parsedAddress, 0, address, 12, parsedAddress.length);
+            addressFlag = FLAG_IPV4_ADDRESS;
+        } else if (remoteAddress.indexOf(':') >= 0) {
+            try {
+                InetAddress inetAddress = InetAddress.getByName(remoteAddress);
+                if (inetAddress.getAddress().length == address.length && inetAddress.getHostAddress().equals(remoteAddress)) {
+                    System.arraycopy(inetAddress.getAddress(), 0, address, 0, address.length);
+                    addressFlag = FLAG_IPV6_ADDRESS;
+                }
+            } catch (UnknownHostException exc) {
+                // not an IPv6 literal, kept in the overflow map
+            }
+        }
+
+        return addressFlag;
+    }
+
+    private static byte[] parseIPv4Address(String remoteAddress) {
+
+        String[] octets = remoteAddress.split("\\.", -1);
+        if (octets.length != 4) {
+            return null;
+        }
+
+        byte[] address = new byte[4];
+        for (int i = 0; i < octets.length; i++) {
+            String octet = octets[i];
+            if (octet.isEmpty() || octet.length() > 3 || (octet.length() > 1 && octet.charAt(0) == '0')) {
+                return null;
+            }
+            int value = 0;
+            for (int j = 0; j < octet.length(); j++) {
+                char digit = octet.charAt(j);
+                if (digit < '0' || digit > '9') {
+                    return null;
+                }
+                value = value * 10 + (digit - '0');
+            }
+            if (value > 255) {
+                return null;
+            }
+            address[i] = (byte) value;
+        }
+
+        return address;
+    }
+
+    private String decodeAddress(int record, ByteBuffer slab, int offset) {
+
+        byte flags = slab.get(offset + FLAGS_OFFSET);
+        String remoteAddress;
+        if ((flags & FLAG_IPV4_ADDRESS) != 0) {
+            StringBuilder builder = new StringBuilder(15);
+            for (int i = 12; i < 16; i++) {
+                if (i > 12) {
+                    builder.append('.');
+                }
+                builder.append(slab.get(offset + ADDRESS_OFFSET + i) & 0xff);
+            }
+            remoteAddress = builder.toString();
+        } else if ((flags & FLAG_IPV6_ADDRESS) != 0) {
+            StringBuilder builder = new StringBuilder(39);
+            for (int i = 0; i < 16; i += 2) {
+                if (i > 0) {
+                    builder.append(':');
+                }
+                builder.append(Integer.toHexString(slab.getShort(offset + ADDRESS_OFFSET + i) & 0xffff));
+            }
+            remoteAddress = builder.toString();
+        } else {
+            remoteAddress = overflowAddresses.get(record);
+        }
+
+        return remoteAddress;
+    }
+
+    private ByteBuffer digest(String token) {
+        return ByteBuffer.wrap(tokenDigestConverter.convert(token));
+    }
+}
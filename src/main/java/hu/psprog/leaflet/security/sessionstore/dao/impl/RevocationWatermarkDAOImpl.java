@@ -0,0 +1,107 @@
+package hu.psprog.leaflet.security.sessionstore.dao.impl;
+
+import hu.psprog.leaflet.security.sessionstore.dao.RevocationWatermarkDAO;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Timestamp;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+import static hu.psprog.leaflet.security.sessionstore.config.SessionStoreDataSourceConfiguration.FIELD_REVOKED_BEFORE;
+import static hu.psprog.leaflet.security.sessionstore.config.SessionStoreDataSourceConfiguration.FIELD_USERNAME;
+
+/**
+ * JDBC based implementation of {@link RevocationWatermarkDAO}.
+ * Watermarks are kept in a side table of the Session Store database, one row per user and a row with an empty username
+ * for the global watermark (usernames are never empty). Used regardless of the Session Store engine.
+ *
+ * @author Peter Smith
+ */
+@Repository
+class RevocationWatermarkDAOImpl implements RevocationWatermarkDAO {
+
+    private static final String GLOBAL_SCOPE = "";
+
+    private static final String GET_WATERMARKS =
+            "SELECT username, revoked_before "
+            + "FROM jwt_revocation_watermark;";
+
+    private static final String SAVE_WATERMARK =
+            "MERGE INTO jwt_revocation_watermark "
+            + "(username, revoked_before) "
+            + "KEY (username) "
+            + "VALUES "
+            + "(:username, :revoked_before);";
+
+    private static final String REMOVE_USER_WATERMARKS =
+            "DELETE FROM jwt_revocation_watermark "
+            + "WHERE revoked_before < :revoked_before "
+            + "AND username <> :username;";
+
+    private NamedParameterJdbcTemplate sessionStoreJDBCTemplate;
+
+    @Autowired
+    public RevocationWatermarkDAOImpl(@Qualifier("sessionStoreJDBCTemplate") NamedParameterJdbcTemplate sessionStoreJDBCTemplate) {
+        this.sessionStoreJDBCTemplate = sessionStoreJDBCTemplate;
+    }
+
+    @Override
+    public Optional<Date> getGlobalWatermark() {
+        return Optional.ofNullable(getWatermarks().get(GLOBAL_SCOPE));
+    }
+
+    @Override
+    public Map<String, Date> getUserWatermarks() {
+
+        Map<String, Date> watermarks = getWatermarks();
+        watermarks.remove(GLOBAL_SCOPE);
+
+        return watermarks;
+    }
+
+    @Override
+    public void saveGlobalWatermark(Date revokedBefore) {
+        saveWatermark(GLOBAL_SCOPE, revokedBefore);
+    }
+
+    @Override
+    public void saveUserWatermark(String username, Date revokedBefore) {
+        saveWatermark(username, revokedBefore);
+    }
+
+    @Override
+    public void removeUserWatermarksBefore(Date revokedBefore) {
+
+        Map<String, Object> paramMap = new HashMap<>();
+        paramMap.put(FIELD_USERNAME, GLOBAL_SCOPE);
+        paramMap.put(FIELD_REVOKED_BEFORE, new Timestamp(revokedBefore.getTime()));
+
+        sessionStoreJDBCTemplate.update(REMOVE_USER_WATERMARKS, paramMap);
+    }
+
+    private Map<String, Date> getWatermarks() {
+
+        Map<String, Date> watermarks = new HashMap<>();
+        sessionStoreJDBCTemplate.query(GET_WATERMARKS, Collections.emptyMap(),
+                resultSet -> {
+                    watermarks.put(resultSet.getString(FIELD_USERNAME), new Date(resultSet.getTimestamp(FIELD_REVOKED_BEFORE).getTime()));
+                });
+
+        return watermarks;
+    }
+
+    private void saveWatermark(String scope, Date revokedBefore) {
+
+        Map<String, Object> paramMap = new HashMap<>();
+        paramMap.put(FIELD_USERNAME, scope);
+        paramMap.put(FIELD_REVOKED_BEFORE, new Timestamp(revokedBefore.getTime()));
+
+        sessionStoreJDBCTemplate.update(SAVE_WATERMARK, paramMap);
+    }
+}
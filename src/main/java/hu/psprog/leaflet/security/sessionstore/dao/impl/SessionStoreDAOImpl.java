@@ -2,30 +2,52 @@ package hu.psprog.leaflet.security.sessionstore.dao.impl;
 
 import hu.psprog.leaflet.security.sessionstore.conversion.SessionStoreTokenEntryConverter;
 import hu.psprog.leaflet.security.sessionstore.conversion.SessionStoreTokenEntryMapper;
+import hu.psprog.leaflet.security.sessionstore.conversion.TokenDigestConverter;
 import hu.psprog.leaflet.security.sessionstore.dao.SessionStoreDAO;
 import hu.psprog.leaflet.security.sessionstore.domain.SessionStoreTokenEntry;
 import hu.psprog.leaflet.security.sessionstore.domain.TokenStatus;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.jdbc.core.PreparedStatementCallback;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
 import org.springframework.stereotype.Repository;
 
+import java.nio.ByteBuffer;
 import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.UUID;
 
+import static hu.psprog.leaflet.security.sessionstore.config.SessionStoreDataSourceConfiguration.FIELD_DEVICE_ID;
+import static hu.psprog.leaflet.security.sessionstore.config.SessionStoreDataSourceConfiguration.FIELD_EXPIRES;
+import static hu.psprog.leaflet.security.sessionstore.config.SessionStoreDataSourceConfiguration.FIELD_LAST_ACTIVITY;
 import static hu.psprog.leaflet.security.sessionstore.config.SessionStoreDataSourceConfiguration.FIELD_STATUS;
-import static hu.psprog.leaflet.security.sessionstore.config.SessionStoreDataSourceConfiguration.FIELD_TOKEN;
+import static hu.psprog.leaflet.security.sessionstore.config.SessionStoreDataSourceConfiguration.FIELD_TOKEN_DIGEST;
+import static hu.psprog.leaflet.security.sessionstore.config.SessionStoreDataSourceConfiguration.FIELD_USERNAME;
 
 /**
- * Implementation of {@link SessionStoreDAO}.
+ * JDBC based implementation of {@link SessionStoreDAO}.
+ * Default (session-store.engine=JDBC) engine, storing tokens in the Session Store database.
+ * Records are keyed by the SHA-256 digest of the token (see {@link TokenDigestConverter}), raw tokens are not stored,
+ * so entries returned by {@link #getAllTokenEntries()} and {@link #getTokenEntriesByUsername(String)} have no token.
+ * Tokens of a user are looked up through the index on the username column.
  *
  * @author Peter Smith
+ * @see InMemorySessionStoreDAOImpl
+ * @see OffHeapSessionStoreDAOImpl
+ * @see WriteBehindSessionStoreDAOImpl
  */
 @Repository
+@ConditionalOnProperty(prefix = "session-store", name = "engine", havingValue = "JDBC", matchIfMissing = true)
 class SessionStoreDAOImpl implements SessionStoreDAO {
 
     private static final String GET_ALL_TOKENS =
@@ -34,37 +56,99 @@ class SessionStoreDAOImpl implements SessionStoreDAO {
 
     private static final String INSERT_TOKEN =
             "INSERT INTO jwt_session_store "
-            + "(token, device_id, remote_address, username, status, issued, expires) "
+            + "(token_digest, device_id, remote_address, username, status, issued, expires) "
             + "VALUES "
-            + "(:token, :device_id, :remote_address, :username, :status, :issued, :expires);";
+            + "(:token_digest, :device_id, :remote_address, :username, :status, :issued, :expires);";
+
+    private static final String REMOVE_OTHER_TOKENS_OF_DEVICE =
+            "DELETE FROM jwt_session_store "
+            + "WHERE username = :username "
+            + "AND device_id = :device_id "
+            + "AND token_digest <> :token_digest;";
+
+    private static final String REMOVE_LEAST_RECENTLY_USED_TOKENS =
+            "DELETE FROM jwt_session_store "
+            + "WHERE username = :username "
+            + "AND token_digest NOT IN ("
+            + "SELECT token_digest "
+            + "FROM jwt_session_store "
+            + "WHERE username = :username "
+            + "ORDER BY token_digest = :token_digest DESC, COALESCE(last_activity, issued) DESC "
+            + "FETCH FIRST :limit ROWS ONLY);";
 
     private static final String GET_TOKEN =
             "SELECT * "
             + "FROM jwt_session_store "
-            + "WHERE token = :token;";
+            + "WHERE token_digest = :token_digest;";
 
     private static final String UPDATE_TOKEN =
             "UPDATE jwt_session_store "
             + "SET status = :status "
-            + "WHERE token = :token;";
+            + "WHERE token_digest = :token_digest;";
+
+    private static final String COMPARE_AND_UPDATE_TOKEN =
+            "UPDATE jwt_session_store "
+            + "SET status = :status "
+            + "WHERE token_digest = :token_digest "
+            + "AND status = :expected_status;";
+
+    private static final String UPDATE_LAST_ACTIVITY =
+            "UPDATE jwt_session_store "
+            + "SET last_activity = :last_activity "
+            + "WHERE token_digest = :token_digest "
+            + "AND (last_activity IS NULL OR last_activity < :last_activity);";
+
+    private static final String GET_TOKENS_BY_USERNAME =
+            "SELECT * "
+            + "FROM jwt_session_store "
+            + "WHERE username = :username;";
+
+    private static final String COUNT_TOKENS_BY_USERNAME =
+            "SELECT COUNT(*) "
+            + "FROM jwt_session_store "
+            + "WHERE username = :username;";
+
+    private static final String UPDATE_TOKENS_BY_USERNAME =
+            "UPDATE jwt_session_store "
+            + "SET status = :status "
+            + "WHERE username = :username "
+            + "AND status = :expected_status;";
+
+    private static final String UPDATE_TOKENS_BY_USERNAME_EXCLUDING_DEVICE =
+            "UPDATE jwt_session_store "
+            + "SET status = :status "
+            + "WHERE username = :username "
+            + "AND status = :expected_status "
+            + "AND device_id <> :device_id;";
 
     private static final String REMOVE_TOKEN =
             "DELETE FROM jwt_session_store "
-            + "WHERE token = :token;";
+            + "WHERE token_digest = :token_digest;";
+
+    private static final String REMOVE_EXPIRED_TOKENS =
+            "DELETE FROM jwt_session_store "
+            + "WHERE expires < :expires "
+            + "FETCH FIRST :limit ROWS ONLY;";
+
+    private static final String PARAMETER_LIMIT = "limit";
+    private static final String PARAMETER_EXPECTED_STATUS = "expected_status";
 
     private static final PreparedStatementCallback<Boolean> PREPARED_STATEMENT_CALLBACK = PreparedStatement::execute;
 
     private SessionStoreTokenEntryConverter sessionStoreTokenEntryConverter;
     private SessionStoreTokenEntryMapper sessionStoreTokenEntryMapper;
+    private TokenDigestConverter tokenDigestConverter;
     private NamedParameterJdbcTemplate sessionStoreJDBCTemplate;
 
     @Autowired
     public SessionStoreDAOImpl(@Qualifier("sessionStoreJDBCTemplate") NamedParameterJdbcTemplate sessionStoreJDBCTemplate,
                                SessionStoreTokenEntryConverter sessionStoreTokenEntryConverter,
-                               SessionStoreTokenEntryMapper sessionStoreTokenEntryMapper) {
+                               SessionStoreTokenEntryMapper sessionStoreTokenEntryMapper,
+                               TokenDigestConverter tokenDigestConverter) {
         this.sessionStoreTokenEntryConverter = sessionStoreTokenEntryConverter;
         this.sessionStoreJDBCTemplate = sessionStoreJDBCTemplate;
         this.sessionStoreTokenEntryMapper = sessionStoreTokenEntryMapper;
+        this.tokenDigestConverter = tokenDigestConverter;
     }
 
     @Override
@@ -78,11 +162,30 @@ class SessionStoreDAOImpl implements SessionStoreDAO {
         sessionStoreJDBCTemplate.execute(INSERT_TOKEN, insertTokenParamMap, PREPARED_STATEMENT_CALLBACK);
     }
 
+    /**
+     * Inserts the token first, so a duplicate token fails before anything is removed, then removes the other tokens
+     * of the device and the tokens over the limit, by the username index. The statements are not run in a transaction.
+     */
+    @Override
+    public int upsertTokenEntry(SessionStoreTokenEntry sessionStoreTokenEntry, int maximumTokensPerUser) {
+
+        Map<String, Object> paramMap = sessionStoreTokenEntryConverter.convert(sessionStoreTokenEntry);
+        sessionStoreJDBCTemplate.execute(INSERT_TOKEN, paramMap, PREPARED_STATEMENT_CALLBACK);
+
+        int removed = sessionStoreJDBCTemplate.update(REMOVE_OTHER_TOKENS_OF_DEVICE, paramMap);
+        if (maximumTokensPerUser > 0) {
+            paramMap.put(PARAMETER_LIMIT, maximumTokensPerUser);
+            removed += sessionStoreJDBCTemplate.update(REMOVE_LEAST_RECENTLY_USED_TOKENS, paramMap);
+        }
+
+        return removed;
+    }
+
     @Override
     public Optional<SessionStoreTokenEntry> getTokenEntry(String token) {
 
         SessionStoreTokenEntry tokenEntry = null;
-        List<SessionStoreTokenEntry> result = sessionStoreJDBCTemplate.query(GET_TOKEN, paramMap(token), sessionStoreTokenEntryMapper);
+        List<SessionStoreTokenEntry> result = sessionStoreJDBCTemplate.query(GET_TOKEN, paramMap(token), sessionStoreTokenEntryMapper.forToken(token));
         if (result.size() == 1) {
             tokenEntry = result.get(0);
         }
@@ -95,15 +198,140 @@ class SessionStoreDAOImpl implements SessionStoreDAO {
         sessionStoreJDBCTemplate.execute(UPDATE_TOKEN, paramMap(token, status), PREPARED_STATEMENT_CALLBACK);
     }
 
+    @Override
+    public boolean compareAndUpdateTokenEntry(String token, TokenStatus expectedStatus, TokenStatus status) {
+
+        Map<String, Object> paramMap = paramMap(token, status);
+        paramMap.put(PARAMETER_EXPECTED_STATUS, expectedStatus.name());
+
+        return sessionStoreJDBCTemplate.update(COMPARE_AND_UPDATE_TOKEN, paramMap) == 1;
+    }
+
+    @Override
+    public void updateLastActivities(Map<ByteBuffer, Date> lastActivities) {
+
+        SqlParameterSource[] batchParameters = lastActivities.entrySet().stream()
+                .map(lastActivity -> {
+                    Map<String, Object> paramMap = new HashMap<>();
+                    paramMap.put(FIELD_TOKEN_DIGEST, toByteArray(lastActivity.getKey()));
+                    paramMap.put(FIELD_LAST_ACTIVITY, new Timestamp(lastActivity.getValue().getTime()));
+                    return paramMap;
+                })
+                .map(MapSqlParameterSource::new)
+                .toArray(SqlParameterSource[]::new);
+
+        sessionStoreJDBCTemplate.batchUpdate(UPDATE_LAST_ACTIVITY, batchParameters);
+    }
+
+    @Override
+    public List<SessionStoreTokenEntry> getTokenEntriesByUsername(String username) {
+        return sessionStoreJDBCTemplate.query(GET_TOKENS_BY_USERNAME, Collections.singletonMap(FIELD_USERNAME, username), sessionStoreTokenEntryMapper);
+    }
+
+    @Override
+    public int countTokenEntriesByUsername(String username) {
+
+        Integer count = sessionStoreJDBCTemplate.queryForObject(COUNT_TOKENS_BY_USERNAME, Collections.singletonMap(FIELD_USERNAME, username), Integer.class);
+
+        return Objects.isNull(count)
+                ? 0
+                : count;
+    }
+
+    @Override
+    public int updateTokenEntriesByUsername(String username, UUID excludedDeviceID, TokenStatus expectedStatus, TokenStatus status) {
+
+        Map<String, Object> paramMap = new HashMap<>();
+        paramMap.put(FIELD_USERNAME, username);
+        paramMap.put(FIELD_STATUS, status.name());
+        paramMap.put(PARAMETER_EXPECTED_STATUS, expectedStatus.name());
+
+        String query = UPDATE_TOKENS_BY_USERNAME;
+        if (Objects.nonNull(excludedDeviceID)) {
+            paramMap.put(FIELD_DEVICE_ID, excludedDeviceID.toString());
+            query = UPDATE_TOKENS_BY_USERNAME_EXCLUDING_DEVICE;
+        }
+
+        return sessionStoreJDBCTemplate.update(query, paramMap);
+    }
+
     @Override
     public void removeTokenEntry(String token) {
         sessionStoreJDBCTemplate.execute(REMOVE_TOKEN, paramMap(token), PREPARED_STATEMENT_CALLBACK);
     }
 
+    /**
+     * Stores the given tokens in a single JDBC batch.
+     *
+     * @param sessionStoreTokenEntries tokens to store
+     */
+    void insertTokenEntries(List<SessionStoreTokenEntry> sessionStoreTokenEntries) {
+
+        SqlParameterSource[] batchParameters = sessionStoreTokenEntries.stream()
+                .map(sessionStoreTokenEntryConverter::convert)
+                .map(MapSqlParameterSource::new)
+                .toArray(SqlParameterSource[]::new);
+
+        sessionStoreJDBCTemplate.batchUpdate(INSERT_TOKEN, batchParameters);
+    }
+
+    /**
+     * Updates the status of the given tokens in a single JDBC batch.
+     *
+     * @param statuses new status by token
+     */
+    void updateTokenEntries(Map<String, TokenStatus> statuses) {
+
+        SqlParameterSource[] batchParameters = statuses.entrySet().stream()
+                .map(status -> paramMap(status.getKey(), status.getValue()))
+                .map(MapSqlParameterSource::new)
+                .toArray(SqlParameterSource[]::new);
+
+        sessionStoreJDBCTemplate.batchUpdate(UPDATE_TOKEN, batchParameters);
+    }
+
+    /**
+     * Changes the status of the given tokens in a single JDBC batch, only where the current status is the expected one.
+     *
+     * @param expectedStatus status the tokens must currently have
+     * @param statuses new status by token
+     */
+    void compareAndUpdateTokenEntries(TokenStatus expectedStatus, Map<String, TokenStatus> statuses) {
+
+        SqlParameterSource[] batchParameters = statuses.entrySet().stream()
+                .map(status -> {
+                    Map<String, Object> paramMap = paramMap(status.getKey(), status.getValue());
+                    paramMap.put(PARAMETER_EXPECTED_STATUS, expectedStatus.name());
+                    return paramMap;
+                })
+                .map(MapSqlParameterSource::new)
+                .toArray(SqlParameterSource[]::new);
+
+        sessionStoreJDBCTemplate.batchUpdate(COMPARE_AND_UPDATE_TOKEN, batchParameters);
+    }
+
+    @Override
+    public int removeExpiredTokenEntries(Date expiredBefore, int limit) {
+
+        Map<String, Object> paramMap = new HashMap<>();
+        paramMap.put(FIELD_EXPIRES, new Timestamp(expiredBefore.getTime()));
+        paramMap.put(PARAMETER_LIMIT, limit);
+
+        return sessionStoreJDBCTemplate.update(REMOVE_EXPIRED_TOKENS, paramMap);
+    }
+
+    private static byte[] toByteArray(ByteBuffer digest) {
+
+        byte[] digestBytes = new byte[digest.remaining()];
+        digest.duplicate().get(digestBytes);
+
+        return digestBytes;
+    }
+
     private Map<String, Object> paramMap(String token) {
 
         Map<String, Object> paramMap = new HashMap<>();
-        paramMap.put(FIELD_TOKEN, token);
+        paramMap.put(FIELD_TOKEN_DIGEST, tokenDigestConverter.convert(token));
 
         return paramMap;
     }
@@ -111,7 +339,7 @@ class SessionStoreDAOImpl implements SessionStoreDAO {
     private Map<String, Object> paramMap(String token, TokenStatus status) {
 
         Map<String, Object> paramMap = new HashMap<>();
-        paramMap.put(FIELD_TOKEN, token);
+        paramMap.put(FIELD_TOKEN_DIGEST, tokenDigestConverter.convert(token));
         paramMap.put(FIELD_STATUS, status.name());
 
         return paramMap;
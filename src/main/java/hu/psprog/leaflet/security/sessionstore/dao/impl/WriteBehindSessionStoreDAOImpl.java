@@ -0,0 +1,551 @@
+package hu.psprog.leaflet.security.sessionstore.dao.impl;
+
+import hu.psprog.leaflet.security.sessionstore.conversion.TokenDigestConverter;
+import hu.psprog.leaflet.security.sessionstore.dao.SessionStoreDAO;
+import hu.psprog.leaflet.security.sessionstore.domain.SessionStoreTokenEntry;
+import hu.psprog.leaflet.security.sessionstore.domain.TokenStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.context.annotation.Primary;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.stereotype.Repository;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Write-behind layer in front of the JDBC session store engine, enabled by session-store.write-behind.enabled=true.
+ *
+ * Token inserts, status updates and conditional status transitions are recorded in an in-memory overlay and return
+ * immediately, so login and logout do not wait for the database. A transition of a token not pending in the overlay is
+ * queued without reading the stored status: the flusher applies it as a compare-and-set (status = :expected_status), and
+ * lookups apply it only on a stored entry having the expected status. Lookups consult the overlay first, so written
+ * changes are visible right away.
+ * A background flusher collects the pending tokens (waiting at most session-store.write-behind.linger-ms for a batch
+ * of session-store.write-behind.batch-size tokens) and writes them as JDBC batch inserts and updates. Writes of the same
+ * token are coalesced while pending, e.g. a login followed by a logout is flushed as a single insert of a revoked token.
+ *
+ * Upserts are queued the same way, as a single pending operation: the flusher stores the new token, removes the other
+ * token of its device and evicts the tokens over the limit of the user in one go, applying the upserts in the order they
+ * have been made. As the removed tokens are not known until then, upserts return {@link #UNKNOWN_REMOVED_TOKEN_COUNT},
+ * and looking up a token of a user having pending upserts flushes those first, so a replaced or evicted token is never
+ * reported as valid.
+ *
+ * The queue of pending tokens is bounded by session-store.write-behind.queue-capacity; when it is full, writers wait for
+ * the flusher. Removals, listing and operations on the tokens of a user flush every pending write first.
+ * Last activities arrive in batches already (keyed by token digest), they are written through after flushing the pending writes of their tokens.
+ * Pending writes are fully flushed on shutdown.
+ * Writes failing at flush time (e.g. an already stored token) cannot be reported to the caller, they are logged and dropped.
+ *
+ * @author Peter Smith
+ */
+@Repository
+@Primary
+@ConditionalOnExpression("${session-store.write-behind.enabled:false} and '${session-store.engine:JDBC}' == 'JDBC'")
+class WriteBehindSessionStoreDAOImpl implements SessionStoreDAO, DisposableBean {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(WriteBehindSessionStoreDAOImpl.class);
+    private static final long IDLE_POLL_INTERVAL_IN_MILLIS = 100L;
+    private static final long SHUTDOWN_TIMEOUT_IN_MILLIS = 10000L;
+
+    private final SessionStoreDAOImpl sessionStoreDAO;
+    private final TokenDigestConverter tokenDigestConverter;
+    private final int batchSize;
+    private final long lingerInNanos;
+    private final ConcurrentMap<String, PendingWrite> pendingWrites = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Set<String>> pendingUpsertTokensByUser = new ConcurrentHashMap<>();
+    private final AtomicLong upsertSequence = new AtomicLong();
+    private final BlockingQueue<String> flushQueue;
+    private final Lock flushLock = new ReentrantLock();
+    private final LongAdder flushedBatchCount = new LongAdder();
+    private final LongAdder failedWriteCount = new LongAdder();
+    private final Thread flusher;
+
+    private volatile boolean running = true;
+
+    @Autowired
+    public WriteBehindSessionStoreDAOImpl(SessionStoreDAOImpl sessionStoreDAO,
+                                          TokenDigestConverter tokenDigestConverter,
+                                          @Value("${session-store.write-behind.queue-capacity:10000}") int queueCapacity,
+                                          @Value("${session-store.write-behind.batch-size:100}") int batchSize,
+                                          @Value("${session-store.write-behind.linger-ms:20}") long lingerInMillis) {
+        this.sessionStoreDAO = sessionStoreDAO;
+        this.tokenDigestConverter = tokenDigestConverter;
+        this.batchSize = batchSize;
+        this.lingerInNanos = TimeUnit.MILLISECONDS.toNanos(lingerInMillis);
+        this.flushQueue = new ArrayBlockingQueue<>(queueCapacity);
+        this.flusher = new Thread(this::runFlusher, "session-store-write-behind");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    @Override
+    public List<SessionStoreTokenEntry> getAllTokenEntries() {
+        flushAll();
+        return sessionStoreDAO.getAllTokenEntries();
+    }
+
+    @Override
+    public void insertTokenEntry(SessionStoreTokenEntry sessionStoreTokenEntry) {
+
+        if (pendingWrites.putIfAbsent(sessionStoreTokenEntry.getToken(), PendingWrite.insert(sessionStoreTokenEntry)) != null) {
+            throw new DuplicateKeyException(String.format("Token of user [%s] is already stored", sessionStoreTokenEntry.getUsername()));
+        }
+        enqueue(sessionStoreTokenEntry.getToken());
+    }
+
+    /**
+     * Queues the upsert without touching the database, thus the removed tokens are not known yet and
+     * {@link #UNKNOWN_REMOVED_TOKEN_COUNT} is returned.
+     */
+    @Override
+    public int upsertTokenEntry(SessionStoreTokenEntry sessionStoreTokenEntry, int maximumTokensPerUser) {
+
+        boolean[] duplicate = new boolean[1];
+        pendingWrites.compute(sessionStoreTokenEntry.getToken(), (token, pendingWrite) -> {
+            duplicate[0] = pendingWrite != null;
+            if (duplicate[0]) {
+                return pendingWrite;
+            }
+            pendingUpsertTokensByUser.compute(sessionStoreTokenEntry.getUsername(), (username, pendingUpsertTokens) -> {
+                Set<String> registeredTokens = pendingUpsertTokens != null
+                        ? pendingUpsertTokens
+                        : ConcurrentHashMap.newKeySet();
+                registeredTokens.add(token);
+                return registeredTokens;
+            });
+            return PendingWrite.upsert(sessionStoreTokenEntry, maximumTokensPerUser, upsertSequence.incrementAndGet());
+        });
+
+        if (duplicate[0]) {
+            throw new DuplicateKeyException(String.format("Token of user [%s] is already stored", sessionStoreTokenEntry.getUsername()));
+        }
+        enqueue(sessionStoreTokenEntry.getToken());
+
+        return UNKNOWN_REMOVED_TOKEN_COUNT;
+    }
+
+    /**
+     * If the user of the token has pending upserts (other than the one of the given token), they are flushed first,
+     * as they might replace or evict the token.
+     */
+    @Override
+    public Optional<SessionStoreTokenEntry> getTokenEntry(String token) {
+
+        Optional<SessionStoreTokenEntry> tokenEntry = readTokenEntry(token);
+        Set<String> pendingUpsertTokens = tokenEntry
+                .map(sessionStoreTokenEntry -> pendingUpsertTokensByUser.get(sessionStoreTokenEntry.getUsername()))
+                .orElse(null);
+
+        if (pendingUpsertTokens != null && pendingUpsertTokens.stream().anyMatch(pendingToken -> !pendingToken.equals(token))) {
+            List<String> flushedTokens = new ArrayList<>(pendingUpsertTokens);
+            flushedTokens.add(token);
+            flush(flushedTokens);
+            tokenEntry = readTokenEntry(token);
+        }
+
+        return tokenEntry;
+    }
+
+    private Optional<SessionStoreTokenEntry> readTokenEntry(String token) {
+
+        PendingWrite pendingWrite = pendingWrites.get(token);
+        Optional<SessionStoreTokenEntry> tokenEntry;
+        if (pendingWrite == null) {
+            tokenEntry = sessionStoreDAO.getTokenEntry(token);
+        } else if (pendingWrite.entry != null) {
+            tokenEntry = Optional.of(pendingWrite.entry);
+        } else {
+            tokenEntry = sessionStoreDAO.getTokenEntry(token)
+                    .map(pendingWrite::applyTo);
+        }
+
+        return tokenEntry;
+    }
+
+    @Override
+    public void updateTokenEntry(String token, TokenStatus status) {
+
+        boolean[] newlyPending = new boolean[1];
+        pendingWrites.compute(token, (key, pendingWrite) -> {
+            newlyPending[0] = pendingWrite == null;
+            return newlyPending[0]
+                    ? PendingWrite.update(status)
+                    : pendingWrite.withStatus(status);
+        });
+
+        if (newlyPending[0]) {
+            enqueue(token);
+        }
+    }
+
+    /**
+     * Compares against the pending status of the token if there is one (the status it has once its pending write is applied).
+     * Otherwise the transition is queued without reading the stored status and reported as done; the flusher applies it
+     * only if the stored status is still the expected one, so a status changed by another writer is never overwritten.
+     */
+    @Override
+    public boolean compareAndUpdateTokenEntry(String token, TokenStatus expectedStatus, TokenStatus status) {
+
+        boolean[] updated = new boolean[1];
+        boolean[] newlyPending = new boolean[1];
+        pendingWrites.compute(token, (key, pendingWrite) -> {
+            newlyPending[0] = pendingWrite == null;
+            updated[0] = newlyPending[0] || pendingWrite.status == expectedStatus;
+            if (newlyPending[0]) {
+                return PendingWrite.transition(expectedStatus, status);
+            }
+            return updated[0]
+                    ? pendingWrite.transitionTo(status)
+                    : pendingWrite;
+        });
+
+        if (newlyPending[0]) {
+            enqueue(token);
+        }
+
+        return updated[0];
+    }
+
+    @Override
+    public void updateLastActivities(Map<ByteBuffer, Date> lastActivities) {
+
+        List<String> pendingTokens = new ArrayList<>();
+        pendingWrites.keySet().forEach(token -> {
+            if (lastActivities.containsKey(ByteBuffer.wrap(tokenDigestConverter.convert(token)))) {
+                pendingTokens.add(token);
+            }
+        });
+        flush(pendingTokens);
+
+        sessionStoreDAO.updateLastActivities(lastActivities);
+    }
+
+    @Override
+    public List<SessionStoreTokenEntry> getTokenEntriesByUsername(String username) {
+        flushAll();
+        return sessionStoreDAO.getTokenEntriesByUsername(username);
+    }
+
+    @Override
+    public int countTokenEntriesByUsername(String username) {
+        flushAll();
+        return sessionStoreDAO.countTokenEntriesByUsername(username);
+    }
+
+    @Override
+    public int updateTokenEntriesByUsername(String username, UUID excludedDeviceID, TokenStatus expectedStatus, TokenStatus status) {
+        flushAll();
+        return sessionStoreDAO.updateTokenEntriesByUsername(username, excludedDeviceID, expectedStatus, status);
+    }
+
+    @Override
+    public void removeTokenEntry(String token) {
+        flushAll();
+        sessionStoreDAO.removeTokenEntry(token);
+    }
+
+    @Override
+    public int removeExpiredTokenEntries(Date expiredBefore, int limit) {
+        flushAll();
+        return sessionStoreDAO.removeExpiredTokenEntries(expiredBefore, limit);
+    }
+
+    /**
+     * Stops the flusher and writes every pending change.
+     */
+    @Override
+    public void destroy() {
+
+        running = false;
+        try {
+            flusher.join(SHUTDOWN_TIMEOUT_IN_MILLIS);
+        } catch (InterruptedException exc) {
+            Thread.currentThread().interrupt();
+        }
+        flushAll();
+    }
+
+    public int getPendingWriteCount() {
+        return pendingWrites.size();
+    }
+
+    public long getFlushedBatchCount() {
+        return flushedBatchCount.sum();
+    }
+
+    public long getFailedWriteCount() {
+        return failedWriteCount.sum();
+    }
+
+    private void enqueue(String token) {
+
+        if (!running) {
+            flush(Collections.singletonList(token));
+            return;
+        }
+
+        try {
+            flushQueue.put(token);
+        } catch (InterruptedException exc) {
+            Thread.currentThread().interrupt();
+            flush(Collections.singletonList(token));
+        }
+    }
+
+    private void runFlusher() {
+
+        List<String> batch = new ArrayList<>(batchSize);
+        while (running) {
+            try {
+                String token = flushQueue.poll(IDLE_POLL_INTERVAL_IN_MILLIS, TimeUnit.MILLISECONDS);
+                long deadline = System.nanoTime() + lingerInNanos;
+                while (token != null) {
+                    batch.add(token);
+                    token = pollUntil(deadline, batch.size());
+                }
+            } catch (InterruptedException exc) {
+                LOGGER.warn("Session Store write-behind flusher has been interrupted");
+            }
+
+            if (!batch.isEmpty()) {
+                flush(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    private String pollUntil(long deadline, int currentBatchSize) throws InterruptedException {
+
+        String token = null;
+        long remaining = deadline - System.nanoTime();
+        while (token == null && running && currentBatchSize < batchSize && remaining > 0) {
+            token = flushQueue.poll(Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(IDLE_POLL_INTERVAL_IN_MILLIS)), TimeUnit.NANOSECONDS);
+            remaining = deadline - System.nanoTime();
+        }
+
+        return token;
+    }
+
+    private void flushAll() {
+        flush(new ArrayList<>(pendingWrites.keySet()));
+    }
+
+    private void flush(List<String> tokens) {
+
+        List<String> carryOver = new ArrayList<>();
+        flushLock.lock();
+        try {
+            Map<String, PendingWrite> flushedWrites = new LinkedHashMap<>();
+            tokens.forEach(token -> {
+                PendingWrite pendingWrite = pendingWrites.get(token);
+                if (pendingWrite != null) {
+                    flushedWrites.put(token, pendingWrite);
+                }
+            });
+
+            if (flushedWrites.isEmpty()) {
+                return;
+            }
+
+            List<SessionStoreTokenEntry> inserts = new ArrayList<>();
+            List<PendingWrite> upserts = new ArrayList<>();
+            Map<String, TokenStatus> updates = new LinkedHashMap<>();
+            Map<TokenStatus, Map<String, TokenStatus>> transitions = new EnumMap<>(TokenStatus.class);
+            flushedWrites.forEach((token, pendingWrite) -> {
+                if (pendingWrite.isUpsert()) {
+                    upserts.add(pendingWrite);
+                } else if (pendingWrite.entry != null) {
+                    inserts.add(pendingWrite.entry);
+                } else if (pendingWrite.expectedStatus != null) {
+                    transitions.computeIfAbsent(pendingWrite.expectedStatus, expectedStatus -> new LinkedHashMap<>())
+                            .put(token, pendingWrite.status);
+                } else {
+                    updates.put(token, pendingWrite.status);
+                }
+            });
+
+            writeInserts(inserts);
+            upserts.sort(Comparator.comparingLong(pendingWrite -> pendingWrite.sequence));
+            upserts.forEach(this::writeUpsert);
+            writeUpdates(updates);
+            transitions.forEach(this::writeTransitions);
+            flushedBatchCount.increment();
+
+            flushedWrites.forEach((token, flushedWrite) -> {
+                PendingWrite remainingWrite = pendingWrites.computeIfPresent(token, (key, pendingWrite) -> {
+                    if (flushedWrite.isUpsert()) {
+                        pendingUpsertTokensByUser.computeIfPresent(flushedWrite.entry.getUsername(), (username, pendingUpsertTokens) -> {
+                            pendingUpsertTokens.remove(key);
+                            return pendingUpsertTokens.isEmpty() ? null : pendingUpsertTokens;
+                        });
+                    }
+                    return pendingWrite == flushedWrite
+                            ? null
+                            : pendingWrite.afterFlushOf(flushedWrite);
+                });
+                if (remainingWrite != null && (!running || !flushQueue.offer(token))) {
+                    carryOver.add(token);
+                }
+            });
+        } finally {
+            flushLock.unlock();
+        }
+
+        if (!carryOver.isEmpty()) {
+            flush(carryOver);
+        }
+    }
+
+    private void writeInserts(List<SessionStoreTokenEntry> inserts) {
+
+        if (inserts.isEmpty()) {
+            return;
+        }
+
+        try {
+            sessionStoreDAO.insertTokenEntries(inserts);
+        } catch (DataAccessException exc) {
+            LOGGER.warn("Batch insert of [{}] token(s) failed, retrying them one by one", inserts.size(), exc);
+            inserts.forEach(sessionStoreTokenEntry -> {
+                try {
+                    sessionStoreDAO.insertTokenEntry(sessionStoreTokenEntry);
+                } catch (DataAccessException insertException) {
+                    failedWriteCount.increment();
+                    LOGGER.error("Failed to store token of user [{}]", sessionStoreTokenEntry.getUsername(), insertException);
+                }
+            });
+        }
+    }
+
+    private void writeUpsert(PendingWrite upsert) {
+
+        try {
+            int removed = sessionStoreDAO.upsertTokenEntry(upsert.entry, upsert.maximumTokensPerUser);
+            if (removed > 0) {
+                LOGGER.debug("Storing new session of user [{}] removed [{}] previous session(s)", upsert.entry.getUsername(), removed);
+            }
+        } catch (DataAccessException exc) {
+            failedWriteCount.increment();
+            LOGGER.error("Failed to store token of user [{}]", upsert.entry.getUsername(), exc);
+        }
+    }
+
+    private void writeUpdates(Map<String, TokenStatus> updates) {
+
+        if (updates.isEmpty()) {
+            return;
+        }
+
+        try {
+            sessionStoreDAO.updateTokenEntries(updates);
+        } catch (DataAccessException exc) {
+            failedWriteCount.add(updates.size());
+            LOGGER.error("Failed to update status of [{}] token(s)", updates.size(), exc);
+        }
+    }
+
+    private void writeTransitions(TokenStatus expectedStatus, Map<String, TokenStatus> transitions) {
+
+        try {
+            sessionStoreDAO.compareAndUpdateTokenEntries(expectedStatus, transitions);
+        } catch (DataAccessException exc) {
+            failedWriteCount.add(transitions.size());
+            LOGGER.error("Failed to transition status of [{}] token(s)", transitions.size(), exc);
+        }
+    }
+
+    /**
+     * Pending change of a token: a not yet stored entry (with its latest status), inserted as is or upserted (ordered by
+     * its sequence), a status update of a stored one, or a status transition of a stored one, applied only if it has the
+     * expected status.
+     */
+    private static final class PendingWrite {
+
+        private static final int NOT_UPSERT = -1;
+
+        private final SessionStoreTokenEntry entry;
+        private final TokenStatus status;
+        private final TokenStatus expectedStatus;
+        private final int maximumTokensPerUser;
+        private final long sequence;
+
+        private PendingWrite(SessionStoreTokenEntry entry, TokenStatus status, TokenStatus expectedStatus, int maximumTokensPerUser, long sequence) {
+            this.entry = entry;
+            this.status = status;
+            this.expectedStatus = expectedStatus;
+            this.maximumTokensPerUser = maximumTokensPerUser;
+            this.sequence = sequence;
+        }
+
+        private static PendingWrite insert(SessionStoreTokenEntry sessionStoreTokenEntry) {
+            return new PendingWrite(sessionStoreTokenEntry, sessionStoreTokenEntry.getStatus(), null, NOT_UPSERT, 0L);
+        }
+
+        private static PendingWrite upsert(SessionStoreTokenEntry sessionStoreTokenEntry, int maximumTokensPerUser, long sequence) {
+            return new PendingWrite(sessionStoreTokenEntry, sessionStoreTokenEntry.getStatus(), null, maximumTokensPerUser, sequence);
+        }
+
+        private static PendingWrite update(TokenStatus status) {
+            return new PendingWrite(null, status, null, NOT_UPSERT, 0L);
+        }
+
+        private static PendingWrite transition(TokenStatus expectedStatus, TokenStatus status) {
+            return new PendingWrite(null, status, expectedStatus, NOT_UPSERT, 0L);
+        }
+
+        private boolean isUpsert() {
+            return maximumTokensPerUser != NOT_UPSERT;
+        }
+
+        private PendingWrite withStatus(TokenStatus status) {
+            return new PendingWrite(entry != null ? entry.withStatus(status) : null, status, null, maximumTokensPerUser, sequence);
+        }
+
+        private PendingWrite transitionTo(TokenStatus status) {
+            return new PendingWrite(entry != null ? entry.withStatus(status) : null, status, expectedStatus, maximumTokensPerUser, sequence);
+        }
+
+        private SessionStoreTokenEntry applyTo(SessionStoreTokenEntry storedEntry) {
+            return expectedStatus == null || storedEntry.getStatus() == expectedStatus
+                    ? storedEntry.withStatus(status)
+                    : storedEntry;
+        }
+
+        private PendingWrite afterFlushOf(PendingWrite flushedWrite) {
+
+            PendingWrite remainingWrite = this;
+            if (flushedWrite.entry != null) {
+                remainingWrite = update(status);
+            } else if (flushedWrite.expectedStatus != null && expectedStatus != null) {
+                remainingWrite = transition(flushedWrite.status, status);
+            }
+
+            return remainingWrite;
+        }
+    }
+}
@@ -21,6 +21,7 @@ public class SessionStoreTokenEntry {
     private TokenStatus status;
     private Timestamp issued;
     private Timestamp expires;
+    private Timestamp lastActivity;
 
     public String getToken() {
         return token;
@@ -50,6 +51,72 @@ public class SessionStoreTokenEntry {
         return expires;
     }
 
+    /**
+     * Returns the recorded last activity of the token (with the resolution it has been recorded with).
+     *
+     * @return time of last recorded activity, or {@code null} if no activity has been recorded yet
+     */
+    public Timestamp getLastActivity() {
+        return lastActivity;
+    }
+
+    /**
+     * Returns a copy of this entry with the given token.
+     *
+     * @param token raw token, or {@code null} to drop the token of the copy
+     * @return copy of this {@link SessionStoreTokenEntry} with the given token
+     */
+    public SessionStoreTokenEntry withToken(String token) {
+        return getBuilder()
+                .withToken(token)
+                .withDeviceID(deviceID)
+                .withRemoteAddress(remoteAddress)
+                .withUsername(username)
+                .withStatus(status)
+                .withIssued(issued)
+                .withExpires(expires)
+                .withLastActivity(lastActivity)
+                .build();
+    }
+
+    /**
+     * Returns a copy of this entry with the given status.
+     *
+     * @param status new status
+     * @return copy of this {@link SessionStoreTokenEntry} with the given status
+     */
+    public SessionStoreTokenEntry withStatus(TokenStatus status) {
+        return getBuilder()
+                .withToken(token)
+                .withDeviceID(deviceID)
+                .withRemoteAddress(remoteAddress)
+                .withUsername(username)
+                .withStatus(status)
+                .withIssued(issued)
+                .withExpires(expires)
+                .withLastActivity(lastActivity)
+                .build();
+    }
+
+    /**
+     * Returns a copy of this entry with the given last activity.
+     *
+     * @param lastActivity new last activity
+     * @return copy of this {@link SessionStoreTokenEntry} with the given last activity
+     */
+    public SessionStoreTokenEntry withLastActivity(Timestamp lastActivity) {
+        return getBuilder()
+                .withToken(token)
+                .withDeviceID(deviceID)
+                .withRemoteAddress(remoteAddress)
+                .withUsername(username)
+                .withStatus(status)
+                .withIssued(issued)
+                .withExpires(expires)
+                .withLastActivity(lastActivity)
+                .build();
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -66,6 +133,7 @@ public class SessionStoreTokenEntry {
                 .append(status, that.status)
                 .append(issued, that.issued)
                 .append(expires, that.expires)
+                .append(lastActivity, that.lastActivity)
                 .isEquals();
     }
 
@@ -79,6 +147,7 @@ public class SessionStoreTokenEntry {
                 .append(status)
                 .append(issued)
                 .append(expires)
+                .append(lastActivity)
                 .toHashCode();
     }
 
@@ -92,6 +161,7 @@ public class SessionStoreTokenEntry {
                 .append("status", status)
                 .append("issued", issued)
                 .append("expires", expires)
+                .append("lastActivity", lastActivity)
                 .toString();
     }
 
@@ -110,6 +180,7 @@ public class SessionStoreTokenEntry {
         private TokenStatus status;
         private Timestamp issued;
         private Timestamp expires;
+        private Timestamp lastActivity;
 
         private SessionStoreTokenEntryBuilder() {
         }
@@ -149,6 +220,11 @@ public class SessionStoreTokenEntry {
             return this;
         }
 
+        public SessionStoreTokenEntryBuilder withLastActivity(Timestamp lastActivity) {
+            this.lastActivity = lastActivity;
+            return this;
+        }
+
         public SessionStoreTokenEntry build() {
             SessionStoreTokenEntry sessionStoreTokenEntry = new SessionStoreTokenEntry();
             sessionStoreTokenEntry.status = this.status;
@@ -158,6 +234,7 @@ public class SessionStoreTokenEntry {
             sessionStoreTokenEntry.expires = this.expires;
             sessionStoreTokenEntry.issued = this.issued;
             sessionStoreTokenEntry.deviceID = this.deviceID;
+            sessionStoreTokenEntry.lastActivity = this.lastActivity;
             return sessionStoreTokenEntry;
         }
     }
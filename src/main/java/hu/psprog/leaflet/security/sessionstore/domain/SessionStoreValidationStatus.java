@@ -22,6 +22,11 @@ public enum SessionStoreValidationStatus {
      */
     INVALIDATED,
 
+    /**
+     * Received token has not been used for longer than the idle timeout.
+     */
+    IDLE,
+
     /**
      * No information is available about the received token in Session Store.
      */
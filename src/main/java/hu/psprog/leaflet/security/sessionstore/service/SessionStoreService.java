@@ -2,8 +2,13 @@ package hu.psprog.leaflet.security.sessionstore.service;
 
 import hu.psprog.leaflet.security.jwt.auth.JWTAuthenticationToken;
 import hu.psprog.leaflet.security.sessionstore.domain.ClaimedTokenContext;
+import hu.psprog.leaflet.security.sessionstore.domain.SessionStoreTokenEntry;
 import hu.psprog.leaflet.security.sessionstore.domain.SessionStoreValidationStatus;
 
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
 /**
  * Session Store is an in-memory storage that stores all active tokens.
  * This service provides tools to post-validate and handle tokens.
@@ -14,6 +19,7 @@ public interface SessionStoreService {
 
     /**
      * Stores given token in Session Store.
+     * Depending on the implementation, the session previously opened by the same user on the same device is replaced.
      *
      * @param claimedTokenContext {@link ClaimedTokenContext} object holding login information
      */
@@ -23,7 +29,7 @@ public interface SessionStoreService {
      * Validates given token.
      * A token is considered valid if the token can be opened (non-expired and signature is valid - these checks should be already done by
      * the time this service is called) and post-validation is successful. Post-validation is considered successful, if the token is stored
-     * in the Session Store and it's status is "ACTIVE".
+     * in the Session Store, it's status is "ACTIVE" and it has not been revoked by issue time.
      *
      * @param jwtAuthenticationToken {@link JWTAuthenticationToken} object from security context
      * @return validation status as {@link SessionStoreValidationStatus}
@@ -37,6 +43,64 @@ public interface SessionStoreService {
      */
     void revokeToken(JWTAuthenticationToken jwtAuthenticationToken);
 
+    /**
+     * Returns all sessions (stored tokens) of the given user, regardless of their status.
+     * Returned entries may have no token, as the Session Store is not required to keep the raw token.
+     * Implementations not tracking sessions per user (stateless mode) return an empty list.
+     *
+     * @param username username to list sessions of
+     * @return List of sessions as {@link SessionStoreTokenEntry} objects
+     */
+    List<SessionStoreTokenEntry> getSessions(String username);
+
+    /**
+     * Counts the sessions (stored tokens) of the given user, regardless of their status.
+     * Implementations not tracking sessions per user (stateless mode) return 0.
+     *
+     * @param username username to count sessions of
+     * @return number of sessions of the user
+     */
+    int countSessions(String username);
+
+    /**
+     * Revokes every active session of the given user (for example on password change or lock-out).
+     * Implementations not tracking sessions per user (stateless mode) revoke the tokens of the user by issue time
+     * (see {@link #revokeTokensIssuedBefore(String, Date)}) and return 0, as the number of sessions is unknown.
+     *
+     * @param username username to revoke sessions of
+     * @return number of revoked sessions
+     */
+    int revokeSessions(String username);
+
+    /**
+     * Revokes every active session of the given user, except the sessions of the given device
+     * (for example to sign out everywhere else after a password change).
+     * Implementations not tracking devices (stateless mode) cannot keep the sessions of the given device,
+     * they revoke every session of the user like {@link #revokeSessions(String)}.
+     *
+     * @param username username to revoke sessions of
+     * @param keptDeviceID device ID of the sessions to keep
+     * @return number of revoked sessions
+     */
+    int revokeSessions(String username, UUID keptDeviceID);
+
+    /**
+     * Revokes every token issued before the given time (for example after the signing secret has leaked).
+     * Tokens are not updated one by one, they are rejected on validation by their issue time.
+     *
+     * @param issuedBefore tokens issued before this time are revoked
+     */
+    void revokeTokensIssuedBefore(Date issuedBefore);
+
+    /**
+     * Revokes every token of the given user issued before the given time (for example after a role change).
+     * Tokens are not updated one by one, they are rejected on validation by their issue time.
+     *
+     * @param username username to revoke tokens of
+     * @param issuedBefore tokens issued before this time are revoked
+     */
+    void revokeTokensIssuedBefore(String username, Date issuedBefore);
+
     /**
      * Removes expired tokens from Session Store.
      * Called automatically by scheduled cleanup task.
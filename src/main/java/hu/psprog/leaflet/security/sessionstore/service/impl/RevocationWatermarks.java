@@ -0,0 +1,154 @@
+package hu.psprog.leaflet.security.sessionstore.service.impl;
+
+import hu.psprog.leaflet.security.sessionstore.dao.RevocationWatermarkDAO;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Issue time based mass revocation of tokens, used by the {@link hu.psprog.leaflet.security.sessionstore.service.SessionStoreService}
+ * implementations.
+ *
+ * A global watermark revokes every token issued before it, a user watermark every token of the user issued before it.
+ * Revoking this way is a single write, regardless of the number of affected sessions; tokens are checked against the
+ * watermarks on validation by their issue time, with two lookups in memory. Watermarks only move forward, and are written
+ * through to the Session Store database (see {@link RevocationWatermarkDAO}), from where they are loaded on startup.
+ * They survive a restart only if the database does, i.e. session-store.database-path is set.
+ *
+ * Since the issue time of a token has second precision, watermarks are truncated to the full second: tokens issued in
+ * the second of the revocation are kept, so a login right after revoking the sessions of a user is not rejected.
+ * The price is that a token issued less than a second before the revocation is kept as well.
+ *
+ * A user watermark older than the longest lifetime of tokens (jwt.max-expire-hours, enforced on token generation) cannot
+ * revoke any unexpired token, so such watermarks are pruned by the Session Store cleanup (see {@link #pruneExpiredUserWatermarks()}).
+ *
+ * @author Peter Smith
+ */
+@Component
+public class RevocationWatermarks {
+
+    private static final long ONE_SECOND_IN_MILLIS = TimeUnit.SECONDS.toMillis(1);
+    private static final long NO_WATERMARK = Long.MIN_VALUE;
+
+    private final RevocationWatermarkDAO revocationWatermarkDAO;
+    private final long maxTokenLifetimeInMillis;
+    private final Map<String, Long> userWatermarks = new ConcurrentHashMap<>();
+
+    private volatile long globalWatermark;
+
+    @Autowired
+    public RevocationWatermarks(RevocationWatermarkDAO revocationWatermarkDAO,
+                                @Value("${jwt.max-expire-hours:${jwt.expire.hours}}") int maxTokenLifetimeInHours) {
+        this.revocationWatermarkDAO = revocationWatermarkDAO;
+        this.maxTokenLifetimeInMillis = TimeUnit.HOURS.toMillis(maxTokenLifetimeInHours);
+        this.globalWatermark = revocationWatermarkDAO.getGlobalWatermark()
+                .map(Date::getTime)
+                .orElse(NO_WATERMARK);
+        revocationWatermarkDAO.getUserWatermarks()
+                .forEach((username, revokedBefore) -> userWatermarks.put(username, revokedBefore.getTime()));
+    }
+
+    /**
+     * Checks whether the token of the given user, issued at the given time, is revoked by a watermark.
+     * Tokens without issue time are revoked by any watermark.
+     *
+     * @param username username of the user who claimed the token (may be null)
+     * @param issuedAt issue time of the token (may be null)
+     * @return {@code true} if the token is revoked
+     */
+    public boolean isRevoked(String username, Date issuedAt) {
+        return isRevoked(username, issuedAt != null
+                ? issuedAt.getTime()
+                : NO_WATERMARK);
+    }
+
+    /**
+     * Checks whether the token of the given user, issued at the given epoch milliseconds, is revoked by a watermark.
+     * Tokens without issue time ({@link Long#MIN_VALUE}) are revoked by any watermark.
+     *
+     * @param username username of the user who claimed the token (may be null)
+     * @param issued issue time of the token in epoch milliseconds
+     * @return {@code true} if the token is revoked
+     */
+    public boolean isRevoked(String username, long issued) {
+
+        if (issued < globalWatermark) {
+            return true;
+        }
+
+        Long userWatermark = username != null
+                ? userWatermarks.get(username)
+                : null;
+
+        return userWatermark != null && issued < userWatermark;
+    }
+
+    /**
+     * Revokes every token issued before the given time.
+     *
+     * @param issuedBefore tokens issued before this time are revoked
+     */
+    public synchronized void revokeIssuedBefore(Date issuedBefore) {
+
+        long watermark = truncateToSecond(issuedBefore);
+        if (watermark > globalWatermark) {
+            revocationWatermarkDAO.saveGlobalWatermark(new Date(watermark));
+            globalWatermark = watermark;
+        }
+    }
+
+    /**
+     * Revokes every token of the given user issued before the given time.
+     *
+     * @param username username to revoke tokens of
+     * @param issuedBefore tokens issued before this time are revoked
+     */
+    public void revokeIssuedBefore(String username, Date issuedBefore) {
+
+        long watermark = truncateToSecond(issuedBefore);
+        userWatermarks.compute(username, (key, currentWatermark) -> {
+            if (currentWatermark != null && currentWatermark >= watermark) {
+                return currentWatermark;
+            }
+            revocationWatermarkDAO.saveUserWatermark(key, new Date(watermark));
+            return watermark;
+        });
+    }
+
+    /**
+     * Removes the user watermarks older than the longest lifetime of tokens, as every token issued before them has expired.
+     * Watermarks moved forward concurrently are kept.
+     *
+     * @return number of removed user watermarks
+     */
+    public int pruneExpiredUserWatermarks() {
+
+        long expiredBefore = System.currentTimeMillis() - maxTokenLifetimeInMillis;
+        revocationWatermarkDAO.removeUserWatermarksBefore(new Date(expiredBefore));
+
+        int removed = 0;
+        for (String username : userWatermarks.keySet()) {
+            Long remainingWatermark = userWatermarks.computeIfPresent(username, (key, watermark) -> watermark < expiredBefore
+                    ? null
+                    : watermark);
+            if (remainingWatermark == null) {
+                removed++;
+            }
+        }
+
+        return removed;
+    }
+
+    public int getUserWatermarkCount() {
+        return userWatermarks.size();
+    }
+
+    private static long truncateToSecond(Date date) {
+        return Math.floorDiv(date.getTime(), ONE_SECOND_IN_MILLIS) * ONE_SECOND_IN_MILLIS;
+    }
+}
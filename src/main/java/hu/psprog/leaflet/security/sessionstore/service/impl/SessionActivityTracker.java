@@ -0,0 +1,205 @@
+package hu.psprog.leaflet.security.sessionstore.service.impl;
+
+import hu.psprog.leaflet.security.sessionstore.conversion.TokenDigestConverter;
+import hu.psprog.leaflet.security.sessionstore.dao.SessionStoreDAO;
+import hu.psprog.leaflet.security.sessionstore.domain.SessionStoreTokenEntry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Coalescing tracker of the last activity of tokens, used by {@link SessionStoreServiceImpl} to enforce the idle timeout,
+ * enabled by session-store.activity-tracking.enabled=true.
+ *
+ * Activity is recorded in memory, keyed by the SHA-256 digest of the token (see {@link TokenDigestConverter}) so raw tokens
+ * are not kept on the heap, and coarsened to buckets of session-store.activity-tracking.resolution-ms milliseconds:
+ * recording an activity in the bucket already recorded for the token is a single lock-free read, so a token is written
+ * at most once per bucket, regardless of the number of requests. Recorded buckets are flushed to the Session Store
+ * periodically (see {@link hu.psprog.leaflet.security.sessionstore.task.SessionStoreActivityFlushScheduledTask}) as a single batch,
+ * and on shutdown. Flushed buckets are kept in memory until they fall out of the idle timeout, so the idle check does not
+ * depend on the status cache reloading the entry; after that, the token is idle anyway.
+ *
+ * A token is idle, when neither the tracker, nor the Session Store has an activity (or issue time) of the token
+ * within session-store.activity-tracking.idle-timeout-ms milliseconds (0 means no idle timeout). Since an activity
+ * is recorded at the start of its bucket, a token may be considered idle at most one bucket earlier.
+ *
+ * @author Peter Smith
+ */
+@Component
+public class SessionActivityTracker implements DisposableBean {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SessionActivityTracker.class);
+
+    private final SessionStoreDAO sessionStoreDAO;
+    private final TokenDigestConverter tokenDigestConverter;
+    private final boolean enabled;
+    private final long resolutionInMillis;
+    private final long idleTimeoutInMillis;
+    private final ConcurrentMap<ByteBuffer, Activity> activities = new ConcurrentHashMap<>();
+
+    private final LongAdder flushedActivityCount = new LongAdder();
+    private final LongAdder failedFlushCount = new LongAdder();
+
+    @Autowired
+    public SessionActivityTracker(SessionStoreDAO sessionStoreDAO,
+                                  TokenDigestConverter tokenDigestConverter,
+                                  @Value("${session-store.activity-tracking.enabled:false}") boolean enabled,
+                                  @Value("${session-store.activity-tracking.resolution-ms:60000}") long resolutionInMillis,
+                                  @Value("${session-store.activity-tracking.idle-timeout-ms:0}") long idleTimeoutInMillis) {
+        this.sessionStoreDAO = sessionStoreDAO;
+        this.tokenDigestConverter = tokenDigestConverter;
+        this.enabled = enabled;
+        this.resolutionInMillis = Math.max(1L, resolutionInMillis);
+        this.idleTimeoutInMillis = idleTimeoutInMillis;
+    }
+
+    /**
+     * Records an activity of the given token now.
+     *
+     * @param token raw token
+     */
+    public void recordActivity(String token) {
+
+        if (!enabled) {
+            return;
+        }
+
+        ByteBuffer digest = digest(token);
+        long bucket = bucketOf(System.currentTimeMillis());
+        Activity currentActivity = activities.get(digest);
+        while (currentActivity == null || currentActivity.bucket < bucket) {
+            Activity activity = new Activity(bucket, false);
+            boolean recorded = currentActivity == null
+                    ? activities.putIfAbsent(digest, activity) == null
+                    : activities.replace(digest, currentActivity, activity);
+            if (recorded) {
+                return;
+            }
+            currentActivity = activities.get(digest);
+        }
+    }
+
+    /**
+     * Checks whether the given token has been idle for longer than the idle timeout.
+     *
+     * @param token raw token
+     * @param sessionStoreTokenEntry stored {@link SessionStoreTokenEntry} of the token
+     * @return {@code true} if the token is idle, {@code false} if it is not, or the idle timeout is disabled
+     */
+    public boolean isIdle(String token, SessionStoreTokenEntry sessionStoreTokenEntry) {
+
+        if (!enabled || idleTimeoutInMillis <= 0 || sessionStoreTokenEntry.getIssued() == null) {
+            return false;
+        }
+
+        long lastActivity = sessionStoreTokenEntry.getIssued().getTime();
+        if (sessionStoreTokenEntry.getLastActivity() != null) {
+            lastActivity = Math.max(lastActivity, sessionStoreTokenEntry.getLastActivity().getTime());
+        }
+        Activity activity = activities.get(digest(token));
+        if (activity != null) {
+            lastActivity = Math.max(lastActivity, activity.bucket);
+        }
+
+        return System.currentTimeMillis() - lastActivity >= idleTimeoutInMillis;
+    }
+
+    /**
+     * Writes the activities recorded since the previous flush to the Session Store as a single batch,
+     * then drops the flushed activities that fell out of the idle timeout.
+     * Activities failed to be written are kept, and retried on the next flush.
+     *
+     * @return number of written activities
+     */
+    public synchronized int flush() {
+
+        if (!enabled) {
+            return 0;
+        }
+
+        Map<ByteBuffer, Activity> flushedActivities = new HashMap<>();
+        Map<ByteBuffer, Date> lastActivities = new HashMap<>();
+        activities.forEach((digest, activity) -> {
+            if (!activity.flushed) {
+                flushedActivities.put(digest, activity);
+                lastActivities.put(digest, new Date(activity.bucket));
+            }
+        });
+
+        int written = 0;
+        if (!lastActivities.isEmpty()) {
+            try {
+                sessionStoreDAO.updateLastActivities(lastActivities);
+                flushedActivities.forEach((digest, activity) -> activities.replace(digest, activity, new Activity(activity.bucket, true)));
+                flushedActivityCount.add(lastActivities.size());
+                written = lastActivities.size();
+            } catch (DataAccessException exc) {
+                failedFlushCount.increment();
+                LOGGER.error("Failed to flush last activity of [{}] token(s)", lastActivities.size(), exc);
+            }
+        }
+
+        long now = System.currentTimeMillis();
+        activities.entrySet().removeIf(entry -> entry.getValue().flushed && now - entry.getValue().bucket >= idleTimeoutInMillis);
+
+        return written;
+    }
+
+    /**
+     * Flushes the recorded activities.
+     */
+    @Override
+    public void destroy() {
+        flush();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public int getTrackedTokenCount() {
+        return activities.size();
+    }
+
+    public long getFlushedActivityCount() {
+        return flushedActivityCount.sum();
+    }
+
+    public long getFailedFlushCount() {
+        return failedFlushCount.sum();
+    }
+
+    private ByteBuffer digest(String token) {
+        return ByteBuffer.wrap(tokenDigestConverter.convert(token));
+    }
+
+    private long bucketOf(long time) {
+        return time - Math.floorMod(time, resolutionInMillis);
+    }
+
+    /**
+     * Recorded activity bucket of a token, and whether it has been written to the Session Store.
+     */
+    private static final class Activity {
+
+        private final long bucket;
+        private final boolean flushed;
+
+        private Activity(long bucket, boolean flushed) {
+            this.bucket = bucket;
+            this.flushed = flushed;
+        }
+    }
+}
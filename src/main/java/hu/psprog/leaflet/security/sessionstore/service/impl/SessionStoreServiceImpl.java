@@ -1,6 +1,7 @@
 package hu.psprog.leaflet.security.sessionstore.service.impl;
 
 import hu.psprog.leaflet.security.jwt.auth.JWTAuthenticationToken;
+import hu.psprog.leaflet.security.jwt.model.JWTPayload;
 import hu.psprog.leaflet.security.sessionstore.conversion.ClaimedTokenContextConverter;
 import hu.psprog.leaflet.security.sessionstore.dao.SessionStoreDAO;
 import hu.psprog.leaflet.security.sessionstore.domain.ClaimedTokenContext;
@@ -8,29 +9,66 @@ import hu.psprog.leaflet.security.sessionstore.domain.SessionStoreTokenEntry;
 import hu.psprog.leaflet.security.sessionstore.domain.SessionStoreValidationStatus;
 import hu.psprog.leaflet.security.sessionstore.domain.TokenStatus;
 import hu.psprog.leaflet.security.sessionstore.service.SessionStoreService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Service;
 
+import java.util.Date;
+import java.util.List;
 import java.util.Objects;
+import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 
 /**
  * Implementation of {@link SessionStoreService}.
+ * Default (session-store.mode=STATEFUL) implementation, accepting only tokens stored in the Session Store.
  *
  * @author Peter Smith
+ * @see StatelessSessionStoreServiceImpl
  */
 @Service
+@ConditionalOnProperty(prefix = "session-store", name = "mode", havingValue = "STATEFUL", matchIfMissing = true)
 class SessionStoreServiceImpl implements SessionStoreService {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(SessionStoreServiceImpl.class);
+
     private SessionStoreDAO sessionStoreDAO;
     private ClaimedTokenContextConverter claimedTokenContextConverter;
+    private SessionStoreStatusCache sessionStoreStatusCache;
+    private RevocationWatermarks revocationWatermarks;
+    private SessionActivityTracker sessionActivityTracker;
+    private int cleanupChunkSize;
+    private long cleanupChunkPauseInMillis;
+    private int maximumSessionsPerUser;
 
     @Autowired
-    public SessionStoreServiceImpl(SessionStoreDAO sessionStoreDAO, ClaimedTokenContextConverter claimedTokenContextConverter) {
+    public SessionStoreServiceImpl(SessionStoreDAO sessionStoreDAO, ClaimedTokenContextConverter claimedTokenContextConverter,
+                                   SessionStoreStatusCache sessionStoreStatusCache, RevocationWatermarks revocationWatermarks,
+                                   SessionActivityTracker sessionActivityTracker,
+                                   @Value("${session-store.auto-cleanup.chunk-size:1000}") int cleanupChunkSize,
+                                   @Value("${session-store.auto-cleanup.chunk-pause-ms:10}") long cleanupChunkPauseInMillis,
+                                   @Value("${session-store.max-sessions-per-user:0}") int maximumSessionsPerUser) {
         this.sessionStoreDAO = sessionStoreDAO;
         this.claimedTokenContextConverter = claimedTokenContextConverter;
+        this.sessionStoreStatusCache = sessionStoreStatusCache;
+        this.revocationWatermarks = revocationWatermarks;
+        this.sessionActivityTracker = sessionActivityTracker;
+        this.cleanupChunkSize = cleanupChunkSize;
+        this.cleanupChunkPauseInMillis = cleanupChunkPauseInMillis;
+        this.maximumSessionsPerUser = maximumSessionsPerUser;
     }
 
+    /**
+     * Stores the token, replacing the session previously opened by the same user on the same device.
+     * If session-store.max-sessions-per-user is set (0 means no limit), the least recently used sessions of the user
+     * over the limit are removed. Removed sessions are dropped from the status cache as well; when the Session Store
+     * applies the upsert asynchronously, every cached session of the user is dropped, as removed sessions are not known yet.
+     *
+     * @param claimedTokenContext token and all required additional information as {@link ClaimedTokenContext} object
+     */
     @Override
     public void storeToken(ClaimedTokenContext claimedTokenContext) {
 
@@ -39,29 +77,105 @@ class SessionStoreServiceImpl implements SessionStoreService {
         Objects.requireNonNull(claimedTokenContext.getRemoteAddress(), "Remote address cannot be null");
 
         SessionStoreTokenEntry sessionStoreTokenEntry = claimedTokenContextConverter.convert(claimedTokenContext);
-        sessionStoreDAO.insertTokenEntry(sessionStoreTokenEntry);
+        int removed = sessionStoreDAO.upsertTokenEntry(sessionStoreTokenEntry, maximumSessionsPerUser);
+        if (removed > 0) {
+            sessionStoreStatusCache.invalidateUser(sessionStoreTokenEntry.getUsername());
+            LOGGER.debug("Storing new session of user [{}] removed [{}] previous session(s)", sessionStoreTokenEntry.getUsername(), removed);
+        } else if (removed == SessionStoreDAO.UNKNOWN_REMOVED_TOKEN_COUNT) {
+            sessionStoreStatusCache.invalidateUser(sessionStoreTokenEntry.getUsername());
+        }
+        sessionStoreStatusCache.put(sessionStoreTokenEntry);
     }
 
     @Override
     public SessionStoreValidationStatus validateToken(JWTAuthenticationToken jwtAuthenticationToken) {
-        return sessionStoreDAO.getTokenEntry(jwtAuthenticationToken.getRawToken())
+
+        if (isRevokedByIssueTime(jwtAuthenticationToken)) {
+            return SessionStoreValidationStatus.INVALIDATED;
+        }
+
+        return sessionStoreStatusCache.getTokenEntry(jwtAuthenticationToken.getRawToken(), sessionStoreDAO::getTokenEntry)
                 .map(sessionStoreTokenEntry -> validate(jwtAuthenticationToken, sessionStoreTokenEntry))
                 .orElse(SessionStoreValidationStatus.UNKNOWN_TOKEN);
     }
 
     @Override
     public void revokeToken(JWTAuthenticationToken jwtAuthenticationToken) {
-        sessionStoreDAO.updateTokenEntry(jwtAuthenticationToken.getRawToken(), TokenStatus.REVOKED);
+        transitionStatus(jwtAuthenticationToken.getRawToken(), TokenStatus.REVOKED);
+    }
+
+    @Override
+    public List<SessionStoreTokenEntry> getSessions(String username) {
+        return sessionStoreDAO.getTokenEntriesByUsername(username);
+    }
+
+    @Override
+    public int countSessions(String username) {
+        return sessionStoreDAO.countTokenEntriesByUsername(username);
+    }
+
+    @Override
+    public int revokeSessions(String username) {
+        return revokeSessions(username, null);
+    }
+
+    @Override
+    public int revokeSessions(String username, UUID keptDeviceID) {
+
+        Objects.requireNonNull(username, "Username cannot be null!");
+
+        int revoked = sessionStoreDAO.updateTokenEntriesByUsername(username, keptDeviceID, TokenStatus.ACTIVE, TokenStatus.REVOKED);
+        sessionStoreStatusCache.invalidateUser(username);
+        LOGGER.info("Revoked [{}] session(s) of user [{}]", revoked, username);
+
+        return revoked;
+    }
+
+    @Override
+    public void revokeTokensIssuedBefore(Date issuedBefore) {
+        revocationWatermarks.revokeIssuedBefore(issuedBefore);
+        LOGGER.info("Revoked every token issued before [{}]", issuedBefore);
+    }
+
+    @Override
+    public void revokeTokensIssuedBefore(String username, Date issuedBefore) {
+        revocationWatermarks.revokeIssuedBefore(username, issuedBefore);
+        LOGGER.info("Revoked every token of user [{}] issued before [{}]", username, issuedBefore);
     }
 
+    /**
+     * Removes expired tokens in chunks of session-store.auto-cleanup.chunk-size tokens, pausing for
+     * session-store.auto-cleanup.chunk-pause-ms milliseconds between chunks, so the cleanup does not hold up token validation.
+     * User revocation watermarks no longer revoking any unexpired token are removed as well.
+     *
+     * @param threshold threshold in minutes
+     */
     @Override
     public void cleanExpiredToken(int threshold) {
-        sessionStoreDAO.getAllTokenEntries().stream()
-                .filter(sessionStoreTokenEntry -> getExpirationInMinutes(sessionStoreTokenEntry) > threshold)
-                .map(SessionStoreTokenEntry::getToken)
-                .forEach(sessionStoreDAO::removeTokenEntry);
+
+        long start = System.currentTimeMillis();
+        Date expiredBefore = new Date(start - TimeUnit.MINUTES.toMillis(threshold));
+        int removed = 0;
+        int chunks = 0;
+        int removedInChunk;
+        do {
+            if (chunks > 0 && !pauseCleanup()) {
+                break;
+            }
+            removedInChunk = sessionStoreDAO.removeExpiredTokenEntries(expiredBefore, cleanupChunkSize);
+            removed += removedInChunk;
+            chunks++;
+        } while (removedInChunk >= cleanupChunkSize);
+        int prunedWatermarks = revocationWatermarks.pruneExpiredUserWatermarks();
+
+        LOGGER.info("Session Store cleanup removed [{}] expired token(s) in [{}] chunk(s) and [{}] expired revocation watermark(s) within [{}] ms",
+                removed, chunks, prunedWatermarks, System.currentTimeMillis() - start);
     }
 
+    /**
+     * Validates the stored status, the source and the idle time of the token, and records the activity of valid tokens.
+     * Idle tokens are rejected without changing their status, they cannot become active again anyway.
+     */
     private SessionStoreValidationStatus validate(JWTAuthenticationToken jwtAuthenticationToken, SessionStoreTokenEntry sessionStoreTokenEntry) {
 
         SessionStoreValidationStatus validationResult = SessionStoreValidationStatus.VALID;
@@ -69,12 +183,55 @@ class SessionStoreServiceImpl implements SessionStoreService {
             validationResult = SessionStoreValidationStatus.INVALIDATED;
         } else if (!isSourceValid(jwtAuthenticationToken, sessionStoreTokenEntry)) {
             validationResult = SessionStoreValidationStatus.DIFFERENT_SOURCE;
-            sessionStoreDAO.updateTokenEntry(sessionStoreTokenEntry.getToken(), TokenStatus.COMPROMISED);
+            transitionStatus(jwtAuthenticationToken.getRawToken(), TokenStatus.COMPROMISED);
+        } else if (sessionActivityTracker.isIdle(jwtAuthenticationToken.getRawToken(), sessionStoreTokenEntry)) {
+            validationResult = SessionStoreValidationStatus.IDLE;
+        } else {
+            sessionActivityTracker.recordActivity(jwtAuthenticationToken.getRawToken());
         }
 
         return validationResult;
     }
 
+    /**
+     * Moves an active token to the given (terminal) status. Tokens no longer active are left untouched, so a revoked
+     * or compromised token is never overwritten, and repeated or concurrent transitions do not write again.
+     * When the transition does not happen, the cached entry is dropped, so the next lookup reads the stored status.
+     */
+    private void transitionStatus(String token, TokenStatus status) {
+
+        if (sessionStoreDAO.compareAndUpdateTokenEntry(token, TokenStatus.ACTIVE, status)) {
+            sessionStoreStatusCache.updateStatus(token, status);
+        } else {
+            sessionStoreStatusCache.invalidate(token);
+        }
+    }
+
+    private boolean isRevokedByIssueTime(JWTAuthenticationToken jwtAuthenticationToken) {
+
+        JWTPayload payload = (JWTPayload) jwtAuthenticationToken.getDetails();
+
+        return payload != null && revocationWatermarks.isRevoked(payload.getUsername(), payload.getIssuedAtMillis());
+    }
+
+    private boolean pauseCleanup() {
+
+        boolean proceed = true;
+        try {
+            if (cleanupChunkPauseInMillis > 0) {
+                Thread.sleep(cleanupChunkPauseInMillis);
+            } else {
+                Thread.yield();
+            }
+        } catch (InterruptedException exc) {
+            LOGGER.warn("Session Store cleanup has been interrupted");
+            Thread.currentThread().interrupt();
+            proceed = false;
+        }
+
+        return proceed;
+    }
+
     private boolean isSourceValid(JWTAuthenticationToken jwtAuthenticationToken, SessionStoreTokenEntry sessionStoreTokenEntry) {
         return isDeviceIDValid(jwtAuthenticationToken, sessionStoreTokenEntry)
                 && isRemoteAddressValid(jwtAuthenticationToken, sessionStoreTokenEntry);
@@ -90,11 +247,4 @@ class SessionStoreServiceImpl implements SessionStoreService {
     private boolean isRemoteAddressValid(JWTAuthenticationToken jwtAuthenticationToken, SessionStoreTokenEntry sessionStoreTokenEntry) {
         return jwtAuthenticationToken.getRemoteAddress().equals(sessionStoreTokenEntry.getRemoteAddress());
     }
-
-    private long getExpirationInMinutes(SessionStoreTokenEntry sessionStoreTokenEntry) {
-
-        long difference = System.currentTimeMillis() - sessionStoreTokenEntry.getExpires().getTime();
-
-        return TimeUnit.MILLISECONDS.toMinutes(difference);
-    }
 }
@@ -0,0 +1,363 @@
+package hu.psprog.leaflet.security.sessionstore.service.impl;
+
+import hu.psprog.leaflet.security.sessionstore.conversion.TokenDigestConverter;
+import hu.psprog.leaflet.security.sessionstore.domain.SessionStoreTokenEntry;
+import hu.psprog.leaflet.security.sessionstore.domain.TokenStatus;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * Size-bounded in-memory cache of Session Store entries, used by {@link SessionStoreServiceImpl} to validate tokens
+ * without querying the Session Store on every request.
+ *
+ * An entry expires after the configured time-to-live, but never later than the token itself.
+ * Entries are keyed by the SHA-256 digest of the token (see {@link TokenDigestConverter}) and cached without their token,
+ * so raw tokens are not kept on the heap; entries served from the cache have no token.
+ * The cache is updated write-through by the service on every status change and removal, so revocation is visible on the next request.
+ * Entries loaded concurrently with a status change are not cached, so a stale status read before the change cannot overwrite it.
+ * Cached entries are indexed by username, so the entries of a user are invalidated in time proportional to their number.
+ * Invalidating a user only discards the concurrent loads of users sharing its invalidation stripe (a fixed number of stripes
+ * selected by the hash of the username), instead of every concurrent load.
+ * When the cache exceeds its maximum size, a small sample of entries is taken by a rotating eviction hand: expired sampled
+ * entries are dropped, then the sampled entry closest to its expiration, so an overflowing write does a bounded amount of work
+ * regardless of the cache size. Only one thread evicts at a time, others skip eviction instead of waiting.
+ *
+ * @author Peter Smith
+ */
+@Component
+public class SessionStoreStatusCache {
+
+    private static final int EVICTION_SAMPLE_SIZE = 8;
+    private static final int MAXIMUM_EVICTIONS_PER_WRITE = 4;
+    private static final int USER_INVALIDATION_STRIPES = 64;
+
+    private final boolean enabled;
+    private final int maximumSize;
+    private final long timeToLiveInMillis;
+    private final TokenDigestConverter tokenDigestConverter;
+    private final Map<ByteBuffer, CacheEntry> entries = new ConcurrentHashMap<>();
+    private final Map<String, Set<ByteBuffer>> userIndex = new ConcurrentHashMap<>();
+    private final AtomicLong writeGeneration = new AtomicLong();
+    private final AtomicLong userInvalidationSequence = new AtomicLong();
+    private final AtomicLongArray userInvalidations = new AtomicLongArray(USER_INVALIDATION_STRIPES);
+    private final Lock evictionLock = new ReentrantLock();
+
+    private Iterator<Map.Entry<ByteBuffer, CacheEntry>> evictionHand;
+
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder lookupTimeInNanos = new LongAdder();
+
+    @Autowired
+    public SessionStoreStatusCache(TokenDigestConverter tokenDigestConverter,
+                                   @Value("${session-store.status-cache.enabled:false}") boolean enabled,
+                                   @Value("${session-store.status-cache.max-size:10000}") int maximumSize,
+                                   @Value("${session-store.status-cache.ttl-ms:300000}") long timeToLiveInMillis) {
+        this.tokenDigestConverter = tokenDigestConverter;
+        this.enabled = enabled;
+        this.maximumSize = maximumSize;
+        this.timeToLiveInMillis = timeToLiveInMillis;
+    }
+
+    /**
+     * Returns the Session Store entry of the given token from the cache, or loads (and caches) it by the given loader.
+     * Lookup time is measured for both cache hits and loads.
+     *
+     * @param token raw token
+     * @param loader function to load the entry from the Session Store on cache miss
+     * @return {@link SessionStoreTokenEntry} (without token, if served from the cache) wrapped in {@link Optional},
+     * or empty Optional if the token is unknown
+     */
+    public Optional<SessionStoreTokenEntry> getTokenEntry(String token, Function<String, Optional<SessionStoreTokenEntry>> loader) {
+
+        if (!enabled) {
+            return loader.apply(token);
+        }
+
+        long start = System.nanoTime();
+        ByteBuffer digest = digest(token);
+        SessionStoreTokenEntry tokenEntry = null;
+        CacheEntry cacheEntry = entries.get(digest);
+        if (cacheEntry != null) {
+            if (cacheEntry.isExpired(System.currentTimeMillis())) {
+                remove(digest, cacheEntry);
+            } else {
+                tokenEntry = cacheEntry.tokenEntry;
+            }
+        }
+
+        if (tokenEntry != null) {
+            hitCount.increment();
+        } else {
+            missCount.increment();
+            long generation = writeGeneration.get();
+            long userInvalidation = userInvalidationSequence.get();
+            tokenEntry = loader.apply(token).orElse(null);
+            if (tokenEntry != null && tokenEntry.getExpires() != null) {
+                cacheLoadedEntry(digest, tokenEntry, generation, userInvalidation);
+            }
+        }
+        lookupTimeInNanos.add(System.nanoTime() - start);
+
+        return Optional.ofNullable(tokenEntry);
+    }
+
+    /**
+     * Stores (or replaces) the given entry in the cache.
+     *
+     * @param tokenEntry {@link SessionStoreTokenEntry} to cache
+     */
+    public void put(SessionStoreTokenEntry tokenEntry) {
+
+        if (!enabled || tokenEntry.getToken() == null || tokenEntry.getExpires() == null) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        ByteBuffer digest = digest(tokenEntry.getToken());
+        entries.put(digest, createCacheEntry(tokenEntry, now));
+        index(digest, tokenEntry.getUsername());
+        evictOnOverflow(now);
+    }
+
+    /**
+     * Updates the status of the given token, if it is cached.
+     *
+     * @param token raw token
+     * @param status new status
+     */
+    public void updateStatus(String token, TokenStatus status) {
+
+        if (!enabled) {
+            return;
+        }
+
+        writeGeneration.incrementAndGet();
+        entries.computeIfPresent(digest(token), (key, cacheEntry) -> new CacheEntry(cacheEntry.tokenEntry.withStatus(status), cacheEntry.expiresAt));
+    }
+
+    /**
+     * Removes the given token from the cache.
+     *
+     * @param token raw token
+     */
+    public void invalidate(String token) {
+
+        if (enabled) {
+            writeGeneration.incrementAndGet();
+            ByteBuffer digest = digest(token);
+            CacheEntry cacheEntry = entries.remove(digest);
+            if (cacheEntry != null) {
+                unindex(digest, cacheEntry.tokenEntry.getUsername());
+            }
+        }
+    }
+
+    /**
+     * Removes every cached token of the given user.
+     * Takes time proportional to the number of cached tokens of the user.
+     *
+     * @param username username to remove cached tokens of
+     */
+    public void invalidateUser(String username) {
+
+        if (enabled) {
+            userInvalidations.accumulateAndGet(stripeOf(username), userInvalidationSequence.incrementAndGet(), Math::max);
+            Set<ByteBuffer> digests = userIndex.remove(username);
+            if (digests != null) {
+                digests.forEach(digest -> entries.computeIfPresent(digest, (key, cacheEntry) -> username.equals(cacheEntry.tokenEntry.getUsername())
+                        ? null
+                        : cacheEntry));
+            }
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    /**
+     * Returns the ratio of lookups served from the cache.
+     *
+     * @return hit ratio between 0 and 1 (0 if there was no lookup yet)
+     */
+    public double getHitRatio() {
+
+        long hits = hitCount.sum();
+        long lookups = hits + missCount.sum();
+
+        return lookups > 0
+                ? (double) hits / lookups
+                : 0;
+    }
+
+    /**
+     * Returns the average time of token entry lookups (including Session Store queries on cache miss).
+     *
+     * @return average lookup time in nanoseconds (0 if there was no lookup yet)
+     */
+    public long getAverageLookupTimeInNanos() {
+
+        long lookups = hitCount.sum() + missCount.sum();
+
+        return lookups > 0
+                ? lookupTimeInNanos.sum() / lookups
+                : 0;
+    }
+
+    private void cacheLoadedEntry(ByteBuffer digest, SessionStoreTokenEntry tokenEntry, long generation, long userInvalidation) {
+
+        long now = System.currentTimeMillis();
+        entries.compute(digest, (key, currentEntry) -> writeGeneration.get() == generation && indexLoaded(digest, tokenEntry.getUsername(), userInvalidation)
+                ? createCacheEntry(tokenEntry, now)
+                : currentEntry);
+        evictOnOverflow(now);
+    }
+
+    /**
+     * Indexes the loaded entry, unless its user has been invalidated (or another user of its stripe) since the load started.
+     * Checking and indexing happen atomically for the user, so an invalidation either rejects the entry or finds it indexed.
+     */
+    private boolean indexLoaded(ByteBuffer digest, String username, long userInvalidation) {
+
+        if (username == null) {
+            return true;
+        }
+
+        boolean[] indexed = new boolean[1];
+        userIndex.compute(username, (key, digests) -> {
+            indexed[0] = userInvalidations.get(stripeOf(key)) <= userInvalidation;
+            if (!indexed[0]) {
+                return digests;
+            }
+            Set<ByteBuffer> indexedDigests = digests != null
+                    ? digests
+                    : ConcurrentHashMap.newKeySet();
+            indexedDigests.add(digest);
+            return indexedDigests;
+        });
+
+        return indexed[0];
+    }
+
+    private static int stripeOf(String username) {
+        return Math.floorMod(username.hashCode(), USER_INVALIDATION_STRIPES);
+    }
+
+    private void index(ByteBuffer digest, String username) {
+
+        if (username != null) {
+            userIndex.compute(username, (key, digests) -> {
+                Set<ByteBuffer> indexedDigests = digests != null
+                        ? digests
+                        : ConcurrentHashMap.newKeySet();
+                indexedDigests.add(digest);
+                return indexedDigests;
+            });
+        }
+    }
+
+    private void unindex(ByteBuffer digest, String username) {
+
+        if (username != null) {
+            userIndex.computeIfPresent(username, (key, digests) -> {
+                digests.remove(digest);
+                return digests.isEmpty() ? null : digests;
+            });
+        }
+    }
+
+    private void remove(ByteBuffer digest, CacheEntry cacheEntry) {
+
+        if (entries.remove(digest, cacheEntry)) {
+            unindex(digest, cacheEntry.tokenEntry.getUsername());
+        }
+    }
+
+    private CacheEntry createCacheEntry(SessionStoreTokenEntry tokenEntry, long now) {
+        return new CacheEntry(tokenEntry.withToken(null), Math.min(tokenEntry.getExpires().getTime(), now + timeToLiveInMillis));
+    }
+
+    private ByteBuffer digest(String token) {
+        return ByteBuffer.wrap(tokenDigestConverter.convert(token));
+    }
+
+    private void evictOnOverflow(long now) {
+
+        if (entries.size() <= maximumSize || !evictionLock.tryLock()) {
+            return;
+        }
+
+        try {
+            for (int evictions = 0; evictions < MAXIMUM_EVICTIONS_PER_WRITE && entries.size() > maximumSize; evictions++) {
+                evictSampledEntry(now);
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private void evictSampledEntry(long now) {
+
+        Map.Entry<ByteBuffer, CacheEntry> candidate = null;
+        for (int sampled = 0; sampled < EVICTION_SAMPLE_SIZE && entries.size() > maximumSize; sampled++) {
+            if (evictionHand == null || !evictionHand.hasNext()) {
+                evictionHand = entries.entrySet().iterator();
+                if (!evictionHand.hasNext()) {
+                    return;
+                }
+            }
+            Map.Entry<ByteBuffer, CacheEntry> entry = evictionHand.next();
+            if (entry.getValue().isExpired(now)) {
+                remove(entry.getKey(), entry.getValue());
+            } else if (candidate == null || entry.getValue().expiresAt < candidate.getValue().expiresAt) {
+                candidate = entry;
+            }
+        }
+
+        if (candidate != null && entries.size() > maximumSize) {
+            remove(candidate.getKey(), candidate.getValue());
+        }
+    }
+
+    private static final class CacheEntry {
+
+        private final SessionStoreTokenEntry tokenEntry;
+        private final long expiresAt;
+
+        private CacheEntry(SessionStoreTokenEntry tokenEntry, long expiresAt) {
+            this.tokenEntry = tokenEntry;
+            this.expiresAt = expiresAt;
+        }
+
+        private boolean isExpired(long now) {
+            return now >= expiresAt;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package hu.psprog.leaflet.security.sessionstore.service.impl;
+
+import hu.psprog.leaflet.security.jwt.auth.JWTAuthenticationToken;
+import hu.psprog.leaflet.security.jwt.model.JWTPayload;
+import hu.psprog.leaflet.security.sessionstore.domain.ClaimedTokenContext;
+import hu.psprog.leaflet.security.sessionstore.domain.SessionStoreTokenEntry;
+import hu.psprog.leaflet.security.sessionstore.domain.SessionStoreValidationStatus;
+import hu.psprog.leaflet.security.sessionstore.service.SessionStoreService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Stateless implementation of {@link SessionStoreService}, enabled by session-store.mode=STATELESS.
+ *
+ * Tokens with valid signature and expiration (checked by the time this service is called) are accepted without any lookup,
+ * only revoked tokens are tracked, in an in-memory {@link TokenRevocationFilter}. Memory usage therefore depends on the
+ * number of revocations instead of the number of active sessions. Since the device ID and remote address of the login
+ * are not stored, tokens used from a different source are not detected in this mode. Revocations are not persisted either,
+ * so they are lost on restart. As sessions are not tracked per user, they cannot be listed or counted: no session is
+ * returned. Revocation by issue time (see {@link RevocationWatermarks}) is supported, and kept as long as the Session Store
+ * database; sessions of a user are revoked by setting the watermark of the user to the current time.
+ *
+ * @author Peter Smith
+ */
+@Service
+@ConditionalOnProperty(prefix = "session-store", name = "mode", havingValue = "STATELESS")
+class StatelessSessionStoreServiceImpl implements SessionStoreService {
+
+    private TokenRevocationFilter tokenRevocationFilter;
+    private RevocationWatermarks revocationWatermarks;
+
+    @Autowired
+    public StatelessSessionStoreServiceImpl(RevocationWatermarks revocationWatermarks,
+                                            @Value("${session-store.revocation-filter.expected-revocations:10000}") int expectedRevocations) {
+        this.revocationWatermarks = revocationWatermarks;
+        this.tokenRevocationFilter = new TokenRevocationFilter(expectedRevocations);
+    }
+
+    @Override
+    public void storeToken(ClaimedTokenContext claimedTokenContext) {
+        // tokens are not stored in stateless mode
+    }
+
+    @Override
+    public SessionStoreValidationStatus validateToken(JWTAuthenticationToken jwtAuthenticationToken) {
+
+        JWTPayload payload = (JWTPayload) jwtAuthenticationToken.getDetails();
+        boolean revokedByIssueTime = payload != null && revocationWatermarks.isRevoked(payload.getUsername(), payload.getIssuedAtMillis());
+
+        return revokedByIssueTime || tokenRevocationFilter.isRevoked(jwtAuthenticationToken.getRawToken())
+                ? SessionStoreValidationStatus.INVALIDATED
+                : SessionStoreValidationStatus.VALID;
+    }
+
+    @Override
+    public void revokeToken(JWTAuthenticationToken jwtAuthenticationToken) {
+
+        JWTPayload payload = (JWTPayload) jwtAuthenticationToken.getDetails();
+        long expiresAt = payload != null && payload.getExpiresMillis() != JWTPayload.NO_TIMESTAMP
+                ? payload.getExpiresMillis()
+                : Long.MAX_VALUE;
+
+        tokenRevocationFilter.revoke(jwtAuthenticationToken.getRawToken(), expiresAt);
+    }
+
+    /**
+     * Sessions are not tracked in stateless mode, so no session is returned.
+     */
+    @Override
+    public List<SessionStoreTokenEntry> getSessions(String username) {
+        return Collections.emptyList();
+    }
+
+    /**
+     * Sessions are not tracked in stateless mode, so no session is counted.
+     */
+    @Override
+    public int countSessions(String username) {
+        return 0;
+    }
+
+    /**
+     * Revokes every token of the user issued until now by issue time.
+     * The number of revoked sessions is unknown in stateless mode, so 0 is returned.
+     */
+    @Override
+    public int revokeSessions(String username) {
+
+        revocationWatermarks.revokeIssuedBefore(username, new Date());
+
+        return 0;
+    }
+
+    /**
+     * Device IDs are not tracked in stateless mode, so the sessions of the kept device cannot be told apart:
+     * every token of the user issued until now is revoked, including the ones of the kept device.
+     * The number of revoked sessions is unknown in stateless mode, so 0 is returned.
+     */
+    @Override
+    public int revokeSessions(String username, UUID keptDeviceID) {
+        return revokeSessions(username);
+    }
+
+    @Override
+    public void revokeTokensIssuedBefore(Date issuedBefore) {
+        revocationWatermarks.revokeIssuedBefore(issuedBefore);
+    }
+
+    @Override
+    public void revokeTokensIssuedBefore(String username, Date issuedBefore) {
+        revocationWatermarks.revokeIssuedBefore(username, issuedBefore);
+    }
+
+    /**
+     * Drops revoked tokens and user revocation watermarks that can only affect expired tokens.
+     * Threshold is ignored, as expired tokens are rejected anyway.
+     *
+     * @param threshold threshold in minutes (ignored)
+     */
+    @Override
+    public void cleanExpiredToken(int threshold) {
+        tokenRevocationFilter.purgeExpired();
+        revocationWatermarks.pruneExpiredUserWatermarks();
+    }
+}
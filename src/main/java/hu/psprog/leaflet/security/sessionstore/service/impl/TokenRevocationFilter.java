@@ -0,0 +1,161 @@
+package hu.psprog.leaflet.security.sessionstore.service.impl;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * In-memory denylist of revoked tokens.
+ *
+ * Revoked tokens are kept in an exact set (keyed by the SHA-256 digest of the token, so raw tokens are not stored),
+ * fronted by a Bloom filter. Most checked tokens are not revoked, and those are answered by the Bloom filter alone,
+ * without computing the digest. A Bloom filter hit is confirmed by the exact set, so false positives never deny access.
+ *
+ * Entries are kept until the token itself expires. Since a Bloom filter does not support removal, {@link #purgeExpired()}
+ * rebuilds it from the remaining entries. Revocations are rare, so modifications are serialized, while checks are lock-free.
+ *
+ * @author Peter Smith
+ */
+class TokenRevocationFilter {
+
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+    private static final int HASH_FUNCTIONS = 7;
+    private static final int BITS_PER_ENTRY = 10;
+    private static final int FNV_OFFSET_BASIS = 0x811c9dc5;
+    private static final int FNV_PRIME = 0x01000193;
+
+    private final int expectedRevocations;
+    private final Map<ByteBuffer, RevokedToken> revokedTokens = new ConcurrentHashMap<>();
+
+    private volatile BloomFilter bloomFilter;
+
+    TokenRevocationFilter(int expectedRevocations) {
+        this.expectedRevocations = expectedRevocations;
+        this.bloomFilter = new BloomFilter(expectedRevocations);
+    }
+
+    /**
+     * Adds the given token to the denylist.
+     *
+     * @param token raw token
+     * @param expiresAt expiration of the token (epoch milliseconds), after which the entry can be dropped
+     */
+    synchronized void revoke(String token, long expiresAt) {
+
+        int primaryHash = token.hashCode();
+        int secondaryHash = secondaryHash(token);
+        revokedTokens.put(digest(token), new RevokedToken(primaryHash, secondaryHash, expiresAt));
+        bloomFilter.add(primaryHash, secondaryHash);
+    }
+
+    /**
+     * Checks whether the given token is revoked.
+     *
+     * @param token raw token
+     * @return {@code true} if the token is on the denylist and has not yet expired
+     */
+    boolean isRevoked(String token) {
+
+        if (!bloomFilter.mightContain(token.hashCode(), secondaryHash(token))) {
+            return false;
+        }
+
+        RevokedToken revokedToken = revokedTokens.get(digest(token));
+
+        return revokedToken != null && revokedToken.expiresAt > System.currentTimeMillis();
+    }
+
+    /**
+     * Drops the entries of already expired tokens and rebuilds the Bloom filter from the remaining ones.
+     */
+    synchronized void purgeExpired() {
+
+        long now = System.currentTimeMillis();
+        revokedTokens.values().removeIf(revokedToken -> revokedToken.expiresAt <= now);
+
+        BloomFilter rebuiltBloomFilter = new BloomFilter(Math.max(expectedRevocations, revokedTokens.size()));
+        revokedTokens.values().forEach(revokedToken -> rebuiltBloomFilter.add(revokedToken.primaryHash, revokedToken.secondaryHash));
+        bloomFilter = rebuiltBloomFilter;
+    }
+
+    int size() {
+        return revokedTokens.size();
+    }
+
+    private static int secondaryHash(String token) {
+
+        int hash = FNV_OFFSET_BASIS;
+        for (int index = 0; index < token.length(); index++) {
+            hash = (hash ^ token.charAt(index)) * FNV_PRIME;
+        }
+
+        return hash | 1;
+    }
+
+    private static ByteBuffer digest(String token) {
+
+        try {
+            return ByteBuffer.wrap(MessageDigest.getInstance(DIGEST_ALGORITHM).digest(token.getBytes(StandardCharsets.US_ASCII)));
+        } catch (NoSuchAlgorithmException exc) {
+            throw new IllegalStateException("Token digest algorithm is not available", exc);
+        }
+    }
+
+    private static final class RevokedToken {
+
+        private final int primaryHash;
+        private final int secondaryHash;
+        private final long expiresAt;
+
+        private RevokedToken(int primaryHash, int secondaryHash, long expiresAt) {
+            this.primaryHash = primaryHash;
+            this.secondaryHash = secondaryHash;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * Bloom filter with double hashing (bit index i = primary + i * secondary).
+     */
+    private static final class BloomFilter {
+
+        private final AtomicLongArray bits;
+        private final long bitCount;
+
+        private BloomFilter(int capacity) {
+            int words = Math.max(1, (int) ((Math.max(1L, capacity) * BITS_PER_ENTRY + Long.SIZE - 1) / Long.SIZE));
+            this.bits = new AtomicLongArray(words);
+            this.bitCount = (long) words * Long.SIZE;
+        }
+
+        private void add(int primaryHash, int secondaryHash) {
+            for (int i = 0; i < HASH_FUNCTIONS; i++) {
+                long index = bitIndex(primaryHash, secondaryHash, i);
+                int word = (int) (index >>> 6);
+                long mask = 1L << index;
+                long current;
+                do {
+                    current = bits.get(word);
+                } while ((current & mask) == 0 && !bits.compareAndSet(word, current, current | mask));
+            }
+        }
+
+        private boolean mightContain(int primaryHash, int secondaryHash) {
+            for (int i = 0; i < HASH_FUNCTIONS; i++) {
+                long index = bitIndex(primaryHash, secondaryHash, i);
+                if ((bits.get((int) (index >>> 6)) & (1L << index)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private long bitIndex(int primaryHash, int secondaryHash, int i) {
+            return Math.floorMod((long) primaryHash + (long) i * secondaryHash, bitCount);
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package hu.psprog.leaflet.security.sessionstore.task;
+
+import hu.psprog.leaflet.security.sessionstore.service.impl.SessionActivityTracker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Scheduled flush of the last activities recorded by {@link SessionActivityTracker},
+ * every session-store.activity-tracking.flush-interval-ms milliseconds.
+ *
+ * @author Peter Smith
+ */
+@Component
+@ConditionalOnProperty(prefix = "session-store.activity-tracking", name = "enabled", havingValue = "true")
+public class SessionStoreActivityFlushScheduledTask {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SessionStoreActivityFlushScheduledTask.class);
+
+    private SessionActivityTracker sessionActivityTracker;
+
+    @Autowired
+    public SessionStoreActivityFlushScheduledTask(SessionActivityTracker sessionActivityTracker) {
+        this.sessionActivityTracker = sessionActivityTracker;
+    }
+
+    @Scheduled(fixedDelayString = "${session-store.activity-tracking.flush-interval-ms:60000}")
+    public void scheduledFlush() {
+        int written = sessionActivityTracker.flush();
+        LOGGER.debug("Session Store activity flush wrote last activity of [{}] token(s)", written);
+    }
+}
@@ -1,9 +1,20 @@
-create table jwt_session_store (
-    token varchar(512) not null primary key,
+create table if not exists jwt_session_store (
+    token_digest binary(32) not null primary key,
     device_id char(36) not null,
     remote_address varchar(256) not null,
     username varchar(256) not null,
     status varchar(12) not null,
     issued timestamp not null,
-    expires timestamp not null
+    expires timestamp not null,
+    last_activity timestamp
+);
+
+alter table jwt_session_store add column if not exists last_activity timestamp;
+
+create index if not exists jwt_session_store_expires_idx on jwt_session_store (expires);
+create index if not exists jwt_session_store_username_idx on jwt_session_store (username);
+
+create table if not exists jwt_revocation_watermark (
+    username varchar(256) not null primary key,
+    revoked_before timestamp not null
 );
\ No newline at end of file
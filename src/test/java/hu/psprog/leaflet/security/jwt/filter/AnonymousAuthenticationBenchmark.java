@@ -0,0 +1,96 @@
+package hu.psprog.leaflet.security.jwt.filter;
+
+import hu.psprog.leaflet.security.jwt.JWTComponent;
+import hu.psprog.leaflet.security.jwt.auth.JWTAuthenticationProvider;
+import hu.psprog.leaflet.security.jwt.config.JWTRoleClaimFormat;
+import hu.psprog.leaflet.security.jwt.impl.DecodeFailureLogger;
+import hu.psprog.leaflet.security.jwt.impl.JJWTDecoder;
+import hu.psprog.leaflet.security.jwt.impl.JWTComponentImpl;
+import hu.psprog.leaflet.security.jwt.impl.JWTEncoder;
+import hu.psprog.leaflet.security.jwt.impl.JWTKey;
+import hu.psprog.leaflet.security.jwt.impl.JWTKeyRing;
+import hu.psprog.leaflet.security.jwt.impl.TokenPreValidator;
+import hu.psprog.leaflet.security.jwt.impl.VerifiedTokenCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.authentication.AnonymousAuthenticationProvider;
+import org.springframework.security.authentication.AnonymousAuthenticationToken;
+import org.springframework.security.authentication.ProviderManager;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.authority.AuthorityUtils;
+
+import javax.crypto.spec.SecretKeySpec;
+import javax.servlet.ServletException;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Average time benchmark of authenticating a request without token: the previous way (new anonymous token per request,
+ * authenticated by a {@link ProviderManager} iterating its providers) versus the anonymous fast path of {@link JWTAuthenticationFilter}.
+ * Not part of the unit test suite, run it via the main method from the test classpath.
+ *
+ * @author Peter Smith
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AnonymousAuthenticationBenchmark {
+
+    private static final String ANONYMOUS = "ANONYMOUS";
+
+    private JWTComponent jwtComponent;
+    private ProviderManager providerManager;
+    private JWTAuthenticationFilter jwtAuthenticationFilter;
+    private MockHttpServletRequest request;
+    private MockHttpServletResponse response;
+
+    @Setup
+    public void setup() {
+        JWTKeyRing keyRing = new JWTKeyRing(new JWTKey(null, new SecretKeySpec("s3cr3t".getBytes(), "HmacSHA512"), 1), null, null, 0);
+        jwtComponent = new JWTComponentImpl(1, 1, JWTRoleClaimFormat.MASK, new VerifiedTokenCache(false, 0), new JWTEncoder(keyRing), new JJWTDecoder(keyRing),
+                new TokenPreValidator(Collections.singleton("HS512"), 256, 4096), new DecodeFailureLogger(1000L));
+        providerManager = new ProviderManager(Arrays.asList(
+                new JWTAuthenticationProvider(null),
+                new AnonymousAuthenticationProvider(ANONYMOUS)));
+        jwtAuthenticationFilter = new JWTAuthenticationFilter(jwtComponent);
+        jwtAuthenticationFilter.setAuthenticationManager(providerManager);
+        request = new MockHttpServletRequest("GET", "/entries/page/1");
+        response = new MockHttpServletResponse();
+    }
+
+    @Benchmark
+    public Authentication throughAuthenticationManager() {
+        jwtComponent.extractToken(request);
+        return providerManager.authenticate(new AnonymousAuthenticationToken(ANONYMOUS, ANONYMOUS, AuthorityUtils.createAuthorityList(ANONYMOUS)));
+    }
+
+    @Benchmark
+    public Authentication anonymousFastPath() throws IOException, ServletException {
+        return jwtAuthenticationFilter.attemptAuthentication(request, response);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(AnonymousAuthenticationBenchmark.class.getSimpleName())
+                .build())
+                .run();
+    }
+}
@@ -2,24 +2,37 @@ package hu.psprog.leaflet.security.jwt.filter;
 
 import hu.psprog.leaflet.security.jwt.JWTComponent;
 import hu.psprog.leaflet.security.jwt.auth.JWTAuthenticationToken;
+import hu.psprog.leaflet.security.jwt.model.JWTAuthenticationAnswerModel;
+import hu.psprog.leaflet.security.jwt.model.JWTDecodeResult;
 import hu.psprog.leaflet.security.jwt.model.JWTPayload;
 import hu.psprog.leaflet.security.jwt.model.Role;
+import hu.psprog.leaflet.security.jwt.model.RoleSet;
+import hu.psprog.leaflet.security.jwt.model.TokenRejectionReason;
+import org.junit.jupiter.api.Assumptions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
-import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.security.authentication.AnonymousAuthenticationToken;
+import org.springframework.security.authentication.AuthenticationManager;
+import org.springframework.security.authentication.BadCredentialsException;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.authority.AuthorityUtils;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.userdetails.UserDetails;
 
 import javax.servlet.FilterChain;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Collections;
 import java.util.UUID;
 
 import static hu.psprog.leaflet.security.jwt.filter.JWTAuthenticationFilter.AUTH_TOKEN_HEADER;
@@ -27,7 +40,9 @@ import static hu.psprog.leaflet.security.jwt.filter.JWTAuthenticationFilter.DEVI
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.BDDMockito.given;
 import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.verify;
@@ -46,6 +61,8 @@ public class JWTAuthenticationFilterTest {
     private static final UUID DEVICE_ID = UUID.randomUUID();
     private static final String REMOTE_ADDRESS = "remote-address";
     public static final String ANONYMOUS = "ANONYMOUS";
+    private static final int ALLOCATION_TEST_ITERATIONS = 20_000;
+    private static final long MAX_ALLOCATED_BYTES_PER_ANONYMOUS_REQUEST = 16L;
 
     @Mock
     private JWTComponent jwtComponent;
@@ -59,11 +76,14 @@ public class JWTAuthenticationFilterTest {
     @Mock
     private FilterChain filterChain;
 
-    @InjectMocks
+    @Mock
+    private AuthenticationManager authenticationManager;
+
     private JWTAuthenticationFilter jwtAuthenticationFilter;
 
     @BeforeEach
     public void setup() {
+        jwtAuthenticationFilter = new JWTAuthenticationFilter(jwtComponent);
         jwtAuthenticationFilter.setAuthenticationManager(authentication -> authentication);
     }
 
@@ -76,7 +96,7 @@ public class JWTAuthenticationFilterTest {
                 .withRole(Role.USER)
                 .build();
         given(jwtComponent.extractToken(httpServletRequest)).willReturn(TOKEN);
-        given(jwtComponent.decode(TOKEN)).willReturn(jwtPayload);
+        given(jwtComponent.tryDecode(TOKEN)).willReturn(JWTDecodeResult.success(jwtPayload));
         given(httpServletRequest.getHeader(DEVICE_ID_HEADER)).willReturn(DEVICE_ID.toString());
         given(httpServletRequest.getRemoteAddr()).willReturn(REMOTE_ADDRESS);
 
@@ -119,6 +139,104 @@ public class JWTAuthenticationFilterTest {
         assertAnonymousUser(result);
     }
 
+    @Test
+    public void shouldAttemptAuthenticationWithAnonymousUserIfTokenIsInvalid() throws IOException, ServletException {
+
+        // given
+        given(jwtComponent.extractToken(httpServletRequest)).willReturn(TOKEN);
+        given(jwtComponent.tryDecode(TOKEN)).willReturn(JWTDecodeResult.failure(TokenRejectionReason.INVALID_SIGNATURE));
+
+        // when
+        Authentication result = jwtAuthenticationFilter.attemptAuthentication(httpServletRequest, httpServletResponse);
+
+        // then
+        assertAnonymousUser(result);
+    }
+
+    @Test
+    public void shouldNotCallAuthenticationManagerForAnonymousUser() throws IOException, ServletException {
+
+        // given
+        jwtAuthenticationFilter.setAuthenticationManager(authenticationManager);
+
+        // when
+        Authentication result = jwtAuthenticationFilter.attemptAuthentication(httpServletRequest, httpServletResponse);
+
+        // then
+        assertAnonymousUser(result);
+        verifyNoInteractions(authenticationManager);
+    }
+
+    @Test
+    public void shouldSkipTokenProcessingOnPublicPath() throws IOException, ServletException {
+
+        // given
+        JWTAuthenticationFilter filter = new JWTAuthenticationFilter(jwtComponent, new PublicPathMatcher("/static/**"));
+        filter.setAuthenticationManager(authenticationManager);
+        given(httpServletRequest.getRequestURI()).willReturn("/static/app.js");
+        given(httpServletRequest.getContextPath()).willReturn("");
+
+        // when
+        Authentication result = filter.attemptAuthentication(httpServletRequest, httpServletResponse);
+
+        // then
+        assertAnonymousUser(result);
+        verifyNoInteractions(jwtComponent, authenticationManager);
+    }
+
+    @Test
+    public void shouldAuthenticateByTokenOnOptionalAuthenticationPath() throws IOException, ServletException {
+
+        // given
+        JWTAuthenticationFilter filter = prepareOptionalAuthenticationFilter();
+        given(jwtComponent.extractToken(httpServletRequest)).willReturn(TOKEN);
+        given(jwtComponent.tryDecode(TOKEN)).willReturn(JWTDecodeResult.success(JWTPayload.getBuilder()
+                .withUsername(USERNAME)
+                .withRole(Role.USER)
+                .build()));
+        given(authenticationManager.authenticate(any(JWTAuthenticationToken.class))).willAnswer(invocation -> invocation.getArgument(0));
+
+        // when
+        Authentication result = filter.attemptAuthentication(httpServletRequest, httpServletResponse);
+
+        // then
+        assertThat(result instanceof JWTAuthenticationToken, is(true));
+        assertThat(((JWTAuthenticationToken) result).getRawToken(), equalTo(TOKEN));
+    }
+
+    @Test
+    public void shouldFallBackToAnonymousUserOnOptionalAuthenticationPathIfTokenIsRejected() throws IOException, ServletException {
+
+        // given
+        JWTAuthenticationFilter filter = prepareOptionalAuthenticationFilter();
+        given(jwtComponent.extractToken(httpServletRequest)).willReturn(TOKEN);
+        given(jwtComponent.tryDecode(TOKEN)).willReturn(JWTDecodeResult.success(JWTPayload.getBuilder()
+                .withUsername(USERNAME)
+                .withRole(Role.USER)
+                .build()));
+        given(authenticationManager.authenticate(any(JWTAuthenticationToken.class))).willThrow(new BadCredentialsException("rejected"));
+
+        // when
+        Authentication result = filter.attemptAuthentication(httpServletRequest, httpServletResponse);
+
+        // then
+        assertAnonymousUser(result);
+    }
+
+    @Test
+    public void shouldAuthenticateAsAnonymousUserOnOptionalAuthenticationPathWithoutToken() throws IOException, ServletException {
+
+        // given
+        JWTAuthenticationFilter filter = prepareOptionalAuthenticationFilter();
+
+        // when
+        Authentication result = filter.attemptAuthentication(httpServletRequest, httpServletResponse);
+
+        // then
+        assertAnonymousUser(result);
+        verifyNoInteractions(authenticationManager);
+    }
+
     @Test
     public void shouldAddTokenToResponseHeader() throws IOException, ServletException {
 
@@ -170,6 +288,62 @@ public class JWTAuthenticationFilterTest {
         verifyNoInteractions(httpServletResponse);
     }
 
+    @Test
+    public void shouldNotAllocateAuthenticationForAnonymousRequests() throws Throwable {
+
+        // given
+        MethodHandle threadAllocatedBytes = findThreadAllocatedBytes(ManagementFactory.getThreadMXBean());
+        Assumptions.assumeTrue(threadAllocatedBytes != null, "Thread allocation accounting is not available on this JVM");
+        JWTAuthenticationFilter filter = new JWTAuthenticationFilter(new NoTokenJWTComponent());
+        filter.setAuthenticationManager(authentication -> authentication);
+        long threadId = Thread.currentThread().getId();
+        for (int i = 0; i < ALLOCATION_TEST_ITERATIONS; i++) {
+            filter.attemptAuthentication(httpServletRequest, httpServletResponse);
+        }
+
+        // when
+        long allocatedBefore = (long) threadAllocatedBytes.invokeExact(threadId);
+        for (int i = 0; i < ALLOCATION_TEST_ITERATIONS; i++) {
+            filter.attemptAuthentication(httpServletRequest, httpServletResponse);
+        }
+        long allocatedBytesPerRequest = ((long) threadAllocatedBytes.invokeExact(threadId) - allocatedBefore) / ALLOCATION_TEST_ITERATIONS;
+
+        // then
+        assertThat(allocatedBytesPerRequest < MAX_ALLOCATED_BYTES_PER_ANONYMOUS_REQUEST, is(true));
+        assertAnonymousUser(filter.attemptAuthentication(httpServletRequest, httpServletResponse));
+    }
+
+    @Test
+    public void shouldUseSharedAuthoritiesForAuthenticatedRequests() throws IOException, ServletException {
+
+        // given
+        JWTPayload jwtPayload = JWTPayload.getBuilder()
+                .withUsername(USERNAME)
+                .withRole(Role.ADMIN)
+                .build();
+        given(jwtComponent.extractToken(httpServletRequest)).willReturn(TOKEN);
+        given(jwtComponent.tryDecode(TOKEN)).willReturn(JWTDecodeResult.success(jwtPayload));
+
+        // when
+        Authentication first = jwtAuthenticationFilter.attemptAuthentication(httpServletRequest, httpServletResponse);
+        Authentication second = jwtAuthenticationFilter.attemptAuthentication(httpServletRequest, httpServletResponse);
+
+        // then
+        assertThat(first.getAuthorities(), sameInstance(second.getAuthorities()));
+        assertThat(first.getAuthorities(), sameInstance(RoleSet.of(Role.ADMIN).getAuthorities()));
+    }
+
+    private JWTAuthenticationFilter prepareOptionalAuthenticationFilter() {
+
+        JWTAuthenticationFilter filter = new JWTAuthenticationFilter(jwtComponent,
+                new PublicPathMatcher(Collections.singletonList("/static/**"), Collections.singletonList("/entries/**")));
+        filter.setAuthenticationManager(authenticationManager);
+        given(httpServletRequest.getRequestURI()).willReturn("/entries/first-entry");
+        given(httpServletRequest.getContextPath()).willReturn("");
+
+        return filter;
+    }
+
     private void assertAnonymousUser(Authentication result) {
         assertThat(result, notNullValue());
         assertThat(result instanceof AnonymousAuthenticationToken, is(true));
@@ -177,4 +351,56 @@ public class JWTAuthenticationFilterTest {
         assertThat(result.getAuthorities().size(), equalTo(1));
         assertThat(result.getAuthorities().contains(new SimpleGrantedAuthority(ANONYMOUS)), is(true));
     }
+
+    /**
+     * Looks up com.sun.management.ThreadMXBean#getThreadAllocatedBytes(long) reflectively, so the test class also loads
+     * (and the test is skipped) on JVMs without that extension.
+     */
+    private static MethodHandle findThreadAllocatedBytes(ThreadMXBean threadMXBean) {
+
+        try {
+            Class<?> allocationAccountingMXBean = Class.forName("com.sun.management.ThreadMXBean");
+            if (!allocationAccountingMXBean.isInstance(threadMXBean)
+                    || !(boolean) allocationAccountingMXBean.getMethod("isThreadAllocatedMemorySupported").invoke(threadMXBean)
+                    || !(boolean) allocationAccountingMXBean.getMethod("isThreadAllocatedMemoryEnabled").invoke(threadMXBean)) {
+                return null;
+            }
+            return MethodHandles.publicLookup()
+                    .findVirtual(allocationAccountingMXBean, "getThreadAllocatedBytes", MethodType.methodType(long.class, long.class))
+                    .bindTo(threadMXBean);
+        } catch (ReflectiveOperationException exc) {
+            return null;
+        }
+    }
+
+    /**
+     * Allocation-free {@link JWTComponent} stub for requests without token (Mockito mocks allocate on every invocation).
+     */
+    private static final class NoTokenJWTComponent implements JWTComponent {
+
+        @Override
+        public JWTAuthenticationAnswerModel generateToken(UserDetails userDetails) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public JWTAuthenticationAnswerModel generateToken(UserDetails userDetails, Integer expiration) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public JWTPayload decode(String token) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public JWTDecodeResult tryDecode(String token) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public String extractToken(HttpServletRequest request) {
+            return null;
+        }
+    }
 }
@@ -0,0 +1,133 @@
+package hu.psprog.leaflet.security.jwt.filter;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Unit tests for {@link PublicPathMatcher}.
+ *
+ * @author Peter Smith
+ */
+public class PublicPathMatcherTest {
+
+    private static final PublicPathMatcher PUBLIC_PATH_MATCHER = new PublicPathMatcher(
+            "/static/**", "/entries/*", "/health", " /docs/** ");
+    private static final PublicPathMatcher MIXED_PATH_MATCHER = new PublicPathMatcher(
+            Arrays.asList("/entries/static/**", "/health"), Arrays.asList("/entries/**", "/health", "/comments/*"));
+
+    @ParameterizedTest
+    @CsvSource({
+            "/static, true",
+            "/static/css/app.css, true",
+            "/staticfiles, false",
+            "/entries/first-entry, true",
+            "/entries, false",
+            "/entries/, false",
+            "/entries/first-entry/comments, false",
+            "/health, true",
+            "/health/details, false",
+            "/docs/index.html, true",
+            "/users/1, false",
+            "/, false"
+    })
+    public void shouldMatchPath(String path, boolean expectedResult) {
+
+        // when
+        boolean result = PUBLIC_PATH_MATCHER.matches(path);
+
+        // then
+        assertThat(result, is(expectedResult));
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+            "/entries, OPTIONAL_AUTH",
+            "/entries/first-entry, OPTIONAL_AUTH",
+            "/entries/static/app.js, SKIP",
+            "/entries/static, SKIP",
+            "/health, SKIP",
+            "/comments/1, OPTIONAL_AUTH",
+            "/comments/1/replies, ",
+            "/users/1, "
+    })
+    public void shouldMatchPathModeOfMostSpecificPattern(String path, PublicPathMatcher.PathMode expectedResult) {
+
+        // when
+        PublicPathMatcher.PathMode result = MIXED_PATH_MATCHER.match(path);
+
+        // then
+        assertThat(result, equalTo(expectedResult));
+        assertThat(MIXED_PATH_MATCHER.matches(path), is(expectedResult == PublicPathMatcher.PathMode.SKIP));
+    }
+
+    @Test
+    public void shouldNotSkipOptionalAuthenticationPath() {
+
+        // given
+        PublicPathMatcher publicPathMatcher = new PublicPathMatcher(Collections.emptyList(), Collections.singletonList("/**"));
+
+        // when
+        boolean result = publicPathMatcher.matches(new MockHttpServletRequest("GET", "/entries"));
+
+        // then
+        assertThat(result, is(false));
+        assertThat(publicPathMatcher.match("/entries"), equalTo(PublicPathMatcher.PathMode.OPTIONAL_AUTH));
+    }
+
+    @Test
+    public void shouldMatchRequestPathWithoutContextPath() {
+
+        // given
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/leaflet/static/app.js");
+        request.setContextPath("/leaflet");
+
+        // when
+        boolean result = PUBLIC_PATH_MATCHER.matches(request);
+
+        // then
+        assertThat(result, is(true));
+    }
+
+    @Test
+    public void shouldMatchAnyPathWithRootPattern() {
+
+        // given
+        PublicPathMatcher publicPathMatcher = new PublicPathMatcher("/**");
+
+        // when
+        boolean result = publicPathMatcher.matches("/any/path");
+
+        // then
+        assertThat(result, is(true));
+    }
+
+    @Test
+    public void shouldNotMatchAnyRequestWithoutPatterns() {
+
+        // when
+        boolean result = PublicPathMatcher.none().matches(new MockHttpServletRequest("GET", "/static/app.js"));
+
+        // then
+        assertThat(result, is(false));
+    }
+
+    @Test
+    public void shouldRejectWildcardInsidePattern() {
+
+        // when
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new PublicPathMatcher("/entries/*/comments"));
+
+        // then
+        // expected exception
+    }
+}
@@ -0,0 +1,39 @@
+package hu.psprog.leaflet.security.jwt.filter;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.util.SerializationUtils;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Unit tests for {@link SharedAnonymousAuthenticationToken}.
+ *
+ * @author Peter Smith
+ */
+public class SharedAnonymousAuthenticationTokenTest {
+
+    @Test
+    public void shouldIgnoreModificationsOfSharedInstance() {
+
+        // when
+        SharedAnonymousAuthenticationToken.INSTANCE.setDetails("request details");
+        SharedAnonymousAuthenticationToken.INSTANCE.setAuthenticated(false);
+
+        // then
+        assertThat(SharedAnonymousAuthenticationToken.INSTANCE.getDetails(), nullValue());
+        assertThat(SharedAnonymousAuthenticationToken.INSTANCE.isAuthenticated(), is(true));
+    }
+
+    @Test
+    public void shouldResolveSharedInstanceOnDeserialization() {
+
+        // when
+        Object result = SerializationUtils.deserialize(SerializationUtils.serialize(SharedAnonymousAuthenticationToken.INSTANCE));
+
+        // then
+        assertThat(result, sameInstance(SharedAnonymousAuthenticationToken.INSTANCE));
+    }
+}
@@ -0,0 +1,59 @@
+package hu.psprog.leaflet.security.jwt.impl;
+
+import hu.psprog.leaflet.security.jwt.model.TokenRejectionReason;
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Unit tests for {@link DecodeFailureLogger}.
+ *
+ * @author Peter Smith
+ */
+public class DecodeFailureLoggerTest {
+
+    @Test
+    public void shouldLogOnlyFirstFailureOfSameReasonInInterval() {
+
+        // given
+        DecodeFailureLogger decodeFailureLogger = new DecodeFailureLogger(60000L);
+
+        // when
+        boolean firstResult = decodeFailureLogger.log(TokenRejectionReason.INVALID_SIGNATURE);
+        boolean secondResult = decodeFailureLogger.log(TokenRejectionReason.INVALID_SIGNATURE);
+
+        // then
+        assertThat(firstResult, is(true));
+        assertThat(secondResult, is(false));
+    }
+
+    @Test
+    public void shouldLogFailuresOfDifferentReasonsIndependently() {
+
+        // given
+        DecodeFailureLogger decodeFailureLogger = new DecodeFailureLogger(60000L);
+        decodeFailureLogger.log(TokenRejectionReason.INVALID_SIGNATURE);
+
+        // when
+        boolean result = decodeFailureLogger.log(TokenRejectionReason.EXPIRED);
+
+        // then
+        assertThat(result, is(true));
+    }
+
+    @Test
+    public void shouldLogAgainAfterIntervalPassed() throws InterruptedException {
+
+        // given
+        DecodeFailureLogger decodeFailureLogger = new DecodeFailureLogger(1L);
+        decodeFailureLogger.log(TokenRejectionReason.MALFORMED);
+        Thread.sleep(5L);
+
+        // when
+        boolean result = decodeFailureLogger.log(TokenRejectionReason.MALFORMED);
+
+        // then
+        assertThat(result, is(true));
+    }
+}
@@ -0,0 +1,89 @@
+package hu.psprog.leaflet.security.jwt.impl;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.spec.ECGenParameterSpec;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Unit tests for {@link EcdsaSignatureEngine}.
+ *
+ * @author Peter Smith
+ */
+public class EcdsaSignatureEngineTest {
+
+    private static final byte[] DATA = "header.payload".getBytes(StandardCharsets.US_ASCII);
+
+    private static KeyPair keyPair;
+
+    @BeforeAll
+    public static void setup() throws GeneralSecurityException {
+        KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("EC");
+        keyPairGenerator.initialize(new ECGenParameterSpec("secp256r1"));
+        keyPair = keyPairGenerator.generateKeyPair();
+    }
+
+    @Test
+    public void shouldCreateVerifiableSignatureInJWSFormat() {
+
+        // given
+        EcdsaSignatureEngine ecdsaSignatureEngine = new EcdsaSignatureEngine(keyPair.getPrivate(), keyPair.getPublic(), 2);
+
+        // when
+        byte[] result = ecdsaSignatureEngine.sign(DATA, 0, DATA.length);
+
+        // then
+        assertThat(result.length, equalTo(64));
+        assertThat(ecdsaSignatureEngine.verify(DATA, 0, DATA.length, result), is(true));
+        assertThat(ecdsaSignatureEngine.verify(DATA, 0, DATA.length, result), is(true));
+    }
+
+    @Test
+    public void shouldRejectSignatureOfDifferentData() {
+
+        // given
+        EcdsaSignatureEngine ecdsaSignatureEngine = new EcdsaSignatureEngine(keyPair.getPrivate(), keyPair.getPublic(), 2);
+        byte[] signature = ecdsaSignatureEngine.sign(DATA, 0, 6);
+
+        // when
+        boolean result = ecdsaSignatureEngine.verify(DATA, 0, DATA.length, signature);
+
+        // then
+        assertThat(result, is(false));
+    }
+
+    @Test
+    public void shouldRejectMalformedSignature() {
+
+        // given
+        EcdsaSignatureEngine ecdsaSignatureEngine = new EcdsaSignatureEngine(null, keyPair.getPublic(), 2);
+
+        // when
+        boolean result = ecdsaSignatureEngine.verify(DATA, 0, DATA.length, new byte[] {1, 2, 3});
+
+        // then
+        assertThat(result, is(false));
+    }
+
+    @Test
+    public void shouldThrowIllegalStateExceptionOnSignWithoutPrivateKey() {
+
+        // given
+        EcdsaSignatureEngine ecdsaSignatureEngine = new EcdsaSignatureEngine(null, keyPair.getPublic(), 2);
+
+        // when
+        Assertions.assertThrows(IllegalStateException.class, () -> ecdsaSignatureEngine.sign(DATA, 0, DATA.length));
+
+        // then
+        // expected exception
+    }
+}
@@ -0,0 +1,72 @@
+package hu.psprog.leaflet.security.jwt.impl;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput benchmark of HS512 signing with a fresh {@link Mac} per call (as done by jjwt) versus {@link HmacSignatureEngine}.
+ * Runs with as many threads as available processors to measure multi-core scaling.
+ * Not part of the unit test suite, run it via the main method from the test classpath.
+ *
+ * @author Peter Smith
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(Threads.MAX)
+public class HmacSignatureEngineBenchmark {
+
+    private static final String SIGNING_INPUT = "eyJhbGciOiJIUzUxMiJ9.eyJleHAiOjE2MDAwMTQ0MDAsImlhdCI6MTYwMDAwMDAwMCwidXNyIjoidXNlcm5hbWUiLCJyb2wiOiJVU0VSIiwibmFtZSI6IlVzZXIgTmFtZSIsInVpZCI6MTIzfQ";
+
+    private SecretKey signingKey;
+    private HmacSignatureEngine hmacSignatureEngine;
+    private byte[] data;
+
+    @Setup
+    public void setup() {
+        signingKey = new SecretKeySpec("s3cr3t".getBytes(), "HmacSHA512");
+        hmacSignatureEngine = new HmacSignatureEngine(signingKey, Runtime.getRuntime().availableProcessors() * 2);
+        data = SIGNING_INPUT.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    @Benchmark
+    public byte[] freshMacPerCall() throws GeneralSecurityException {
+        Mac mac = Mac.getInstance(signingKey.getAlgorithm());
+        mac.init(signingKey);
+        return mac.doFinal(data);
+    }
+
+    @Benchmark
+    public byte[] pooledEngine() {
+        return hmacSignatureEngine.sign(data, 0, data.length);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(HmacSignatureEngineBenchmark.class.getSimpleName())
+                .build())
+                .run();
+    }
+}
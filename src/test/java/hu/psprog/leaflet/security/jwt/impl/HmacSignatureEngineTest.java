@@ -0,0 +1,117 @@
+package hu.psprog.leaflet.security.jwt.impl;
+
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Unit tests for {@link HmacSignatureEngine}.
+ *
+ * @author Peter Smith
+ */
+public class HmacSignatureEngineTest {
+
+    private static final SecretKey SIGNING_KEY = new SecretKeySpec("s3cr3t".getBytes(), "HmacSHA512");
+    private static final byte[] DATA = "header.payload".getBytes(StandardCharsets.US_ASCII);
+
+    @Test
+    public void shouldSignSameAsFreshMacInstance() throws Exception {
+
+        // given
+        HmacSignatureEngine hmacSignatureEngine = new HmacSignatureEngine(SIGNING_KEY, 2);
+
+        // when
+        byte[] result = hmacSignatureEngine.sign(DATA, 0, DATA.length);
+
+        // then
+        assertThat(result, equalTo(referenceSignature(DATA)));
+    }
+
+    @Test
+    public void shouldSignRangeOfData() throws Exception {
+
+        // given
+        HmacSignatureEngine hmacSignatureEngine = new HmacSignatureEngine(SIGNING_KEY, 2);
+
+        // when
+        byte[] result = hmacSignatureEngine.sign(DATA, 0, 6);
+
+        // then
+        assertThat(result, equalTo(referenceSignature("header".getBytes(StandardCharsets.US_ASCII))));
+    }
+
+    @Test
+    public void shouldVerifySignature() throws Exception {
+
+        // given
+        HmacSignatureEngine hmacSignatureEngine = new HmacSignatureEngine(SIGNING_KEY, 2);
+
+        // when
+        boolean result = hmacSignatureEngine.verify(DATA, 0, DATA.length, referenceSignature(DATA));
+
+        // then
+        assertThat(result, is(true));
+    }
+
+    @Test
+    public void shouldRejectInvalidSignature() throws Exception {
+
+        // given
+        HmacSignatureEngine hmacSignatureEngine = new HmacSignatureEngine(SIGNING_KEY, 2);
+        byte[] signature = referenceSignature(DATA);
+        signature[0] ^= 1;
+
+        // when
+        boolean result = hmacSignatureEngine.verify(DATA, 0, DATA.length, signature);
+
+        // then
+        assertThat(result, is(false));
+    }
+
+    @Test
+    public void shouldProduceConsistentSignaturesUnderConcurrentUse() throws Exception {
+
+        // given
+        HmacSignatureEngine hmacSignatureEngine = new HmacSignatureEngine(SIGNING_KEY, 2);
+        byte[] expected = referenceSignature(DATA);
+        ExecutorService executorService = Executors.newFixedThreadPool(8);
+        List<Callable<Boolean>> tasks = new ArrayList<>();
+        for (int i = 0; i < 64; i++) {
+            tasks.add(() -> {
+                boolean valid = true;
+                for (int j = 0; j < 100; j++) {
+                    valid &= hmacSignatureEngine.verify(DATA, 0, DATA.length, expected);
+                }
+                return valid;
+            });
+        }
+
+        // when
+        List<Future<Boolean>> results = executorService.invokeAll(tasks);
+
+        // then
+        for (Future<Boolean> result : results) {
+            assertThat(result.get(), is(true));
+        }
+        executorService.shutdown();
+    }
+
+    private byte[] referenceSignature(byte[] data) throws Exception {
+        Mac mac = Mac.getInstance("HmacSHA512");
+        mac.init(SIGNING_KEY);
+        return mac.doFinal(data);
+    }
+}
@@ -0,0 +1,137 @@
+package hu.psprog.leaflet.security.jwt.impl;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.interfaces.ECPrivateKey;
+import java.security.interfaces.ECPublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashSet;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Unit tests for {@link JWKSKeyFileParser}.
+ *
+ * @author Peter Smith
+ */
+public class JWKSKeyFileParserTest {
+
+    private static final byte[] DATA = "header.payload".getBytes(StandardCharsets.US_ASCII);
+
+    private static KeyPair keyPair;
+
+    @TempDir
+    Path tempDir;
+
+    private final JWKSKeyFileParser jwksKeyFileParser = new JWKSKeyFileParser(1);
+
+    @BeforeAll
+    public static void setup() throws GeneralSecurityException {
+        KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("EC");
+        keyPairGenerator.initialize(new ECGenParameterSpec("secp256r1"));
+        keyPair = keyPairGenerator.generateKeyPair();
+    }
+
+    @Test
+    public void shouldParseES256PublicKeysAndIgnoreOtherKeys() throws IOException {
+
+        // given
+        Path keyFile = writeFile("{\"keys\":["
+                + publicJWK("k1") + ","
+                + "{\"kty\":\"RSA\",\"kid\":\"rsa\",\"n\":\"AQAB\",\"e\":\"AQAB\"},"
+                + "{\"kty\":\"EC\",\"crv\":\"P-256\",\"use\":\"enc\",\"kid\":\"enc\",\"x\":\"AQAB\",\"y\":\"AQAB\"}"
+                + "]}");
+
+        // when
+        JWTKeySet result = jwksKeyFileParser.parse(keyFile);
+
+        // then
+        assertThat(result.getSigningKeyId(), nullValue());
+        assertThat(result.getKeys().keySet(), equalTo(Collections.singleton("k1")));
+        JWTKey key = result.getKeys().get("k1");
+        assertThat(key.getAlgorithm(), equalTo(JWTKey.ALGORITHM_ES256));
+        assertThat(key.getVerificationKey(), equalTo(keyPair.getPublic()));
+    }
+
+    @Test
+    public void shouldParseExpirationOfRetiredKeys() throws IOException {
+
+        // given
+        Path keyFile = writeFile("{\"keys\":["
+                + publicJWK("k1").replace("}", ",\"exp\":1700000000}") + ","
+                + publicJWK("k2")
+                + "]}");
+
+        // when
+        JWTKeySet result = jwksKeyFileParser.parse(keyFile);
+
+        // then
+        assertThat(result.getKeys().keySet(), equalTo(new HashSet<>(Arrays.asList("k1", "k2"))));
+        assertThat(result.getNotAfter(), equalTo(Collections.singletonMap("k1", 1700000000000L)));
+    }
+
+    @Test
+    public void shouldParseSigningKey() throws IOException {
+
+        // given
+        ECPrivateKey privateKey = (ECPrivateKey) keyPair.getPrivate();
+        String jwk = publicJWK("k1").replace("}", ",\"d\":\"" + encode(privateKey.getS()) + "\"}");
+        Path jwkFile = writeFile(jwk);
+
+        // when
+        JWTKey result = jwksKeyFileParser.parseSigningKey(jwkFile);
+
+        // then
+        assertThat(result.getKeyId(), equalTo("k1"));
+        byte[] signature = result.getSignatureEngine().sign(DATA, 0, DATA.length);
+        assertThat(new EcdsaSignatureEngine(null, keyPair.getPublic(), 1).verify(DATA, 0, DATA.length, signature), is(true));
+    }
+
+    @Test
+    public void shouldThrowIllegalStateExceptionForSigningKeyWithoutPrivatePart() throws IOException {
+
+        // given
+        Path jwkFile = writeFile(publicJWK("k1"));
+
+        // when
+        Assertions.assertThrows(IllegalStateException.class, () -> jwksKeyFileParser.parseSigningKey(jwkFile));
+
+        // then
+        // expected exception
+    }
+
+    private String publicJWK(String keyId) {
+        ECPublicKey publicKey = (ECPublicKey) keyPair.getPublic();
+        return String.format("{\"kty\":\"EC\",\"crv\":\"P-256\",\"use\":\"sig\",\"alg\":\"ES256\",\"kid\":\"%s\",\"x\":\"%s\",\"y\":\"%s\"}",
+                keyId, encode(publicKey.getW().getAffineX()), encode(publicKey.getW().getAffineY()));
+    }
+
+    private String encode(BigInteger value) {
+        byte[] bytes = value.toByteArray();
+        byte[] unsigned = bytes.length > 32
+                ? Arrays.copyOfRange(bytes, bytes.length - 32, bytes.length)
+                : bytes;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(unsigned);
+    }
+
+    private Path writeFile(String content) throws IOException {
+        return Files.write(tempDir.resolve("jwks.json"), content.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -3,32 +3,52 @@ package hu.psprog.leaflet.security.jwt.impl;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import hu.psprog.leaflet.security.jwt.JWTComponent;
+import hu.psprog.leaflet.security.jwt.config.JWTRoleClaimFormat;
 import hu.psprog.leaflet.security.jwt.exception.InvalidJWTTokenException;
 import hu.psprog.leaflet.security.jwt.model.ExtendedUserDetails;
 import hu.psprog.leaflet.security.jwt.model.JWTAuthenticationAnswerModel;
+import hu.psprog.leaflet.security.jwt.model.JWTDecodeResult;
 import hu.psprog.leaflet.security.jwt.model.JWTPayload;
 import hu.psprog.leaflet.security.jwt.model.Role;
+import hu.psprog.leaflet.security.jwt.model.RoleSet;
+import hu.psprog.leaflet.security.jwt.model.TokenRejectionReason;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.authority.AuthorityUtils;
 
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
 import javax.servlet.http.HttpServletRequest;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.spec.ECGenParameterSpec;
+import java.util.Arrays;
 import java.util.Base64;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.notNullValue;
 import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
 
 /**
  * Unit tests for {@link JWTComponentImpl}.
@@ -50,7 +70,12 @@ public class JWTComponentImplTest {
             .build();
 
     private static final long EXPIRATION_IN_HOURS = 4L;
-    private static final String JWT_SECRET = "czNjcjN0";
+    private static final int MAX_EXPIRATION_IN_HOURS = 8;
+    private static final SecretKey JWT_SIGNING_KEY = new SecretKeySpec("s3cr3t".getBytes(), "HmacSHA512");
+    private static final JWTKeyRing JWT_KEY_RING = new JWTKeyRing(new JWTKey(null, JWT_SIGNING_KEY, 1), null, null, 0);
+    private static final JWTEncoder JWT_ENCODER = new JWTEncoder(JWT_KEY_RING);
+    private static final DecodeFailureLogger DECODE_FAILURE_LOGGER = new DecodeFailureLogger(1000L);
+    private static final TokenPreValidator TOKEN_PRE_VALIDATOR = new TokenPreValidator(new HashSet<>(Arrays.asList("HS512", "ES256")), 256, 4096);
     private static final String AUTHORIZATION = "Authorization";
 
     private JWTComponent jwtComponent;
@@ -61,7 +86,7 @@ public class JWTComponentImplTest {
 
     @BeforeEach
     public void setup() {
-        jwtComponent = new JWTComponentImpl(JWT_SECRET, (int) EXPIRATION_IN_HOURS);
+        jwtComponent = new JWTComponentImpl((int) EXPIRATION_IN_HOURS, MAX_EXPIRATION_IN_HOURS, JWTRoleClaimFormat.MASK, new VerifiedTokenCache(false, 0), JWT_ENCODER, new JJWTDecoder(JWT_KEY_RING), TOKEN_PRE_VALIDATOR, DECODE_FAILURE_LOGGER);
     }
 
     @Test
@@ -76,6 +101,23 @@ public class JWTComponentImplTest {
         assertUserInfo(jwtPayload);
     }
 
+    @Test
+    public void shouldGenerateTokenWithRoleNamesReadableByPreviousReleases() throws IOException {
+
+        // given
+        jwtComponent = new JWTComponentImpl((int) EXPIRATION_IN_HOURS, MAX_EXPIRATION_IN_HOURS, JWTRoleClaimFormat.NAMES, new VerifiedTokenCache(false, 0), JWT_ENCODER,
+                new JJWTDecoder(JWT_KEY_RING), TOKEN_PRE_VALIDATOR, DECODE_FAILURE_LOGGER);
+
+        // when
+        JWTAuthenticationAnswerModel result = jwtComponent.generateToken(EXTENDED_USER_DETAILS);
+
+        // then
+        Map<String, String> jwtPayload = extractJWTPayload(result.getToken());
+        assertThat(jwtPayload.get("rol"), equalTo("USER"));
+        assertThat(Role.valueOf(jwtPayload.get("rol")), equalTo(Role.USER));
+        assertUserInfo(jwtComponent.decode(result.getToken()));
+    }
+
     @Test
     public void shouldDecodeValidToken() {
 
@@ -90,6 +132,129 @@ public class JWTComponentImplTest {
         assertUserInfo(result);
     }
 
+    @Test
+    public void shouldDecodeTokenOfUserWithMultipleRoles() {
+
+        // given
+        ExtendedUserDetails userDetails = ExtendedUserDetails.getBuilder()
+                .withUsername(USERNAME)
+                .withAuthorities(AuthorityUtils.createAuthorityList("ADMIN", "EDITOR"))
+                .withName(NAME)
+                .withID(USER_ID)
+                .build();
+        JWTAuthenticationAnswerModel generatedToken = jwtComponent.generateToken(userDetails);
+
+        // when
+        JWTPayload result = jwtComponent.decode(generatedToken.getToken());
+
+        // then
+        assertThat(result.getRoles(), sameInstance(RoleSet.of(Role.EDITOR, Role.ADMIN)));
+        assertThat(result.getRole(), equalTo(Role.ADMIN));
+        assertThat(result.getRoles().getAuthorities(), equalTo(AuthorityUtils.createAuthorityList("EDITOR", "ADMIN")));
+    }
+
+    @Test
+    public void shouldReturnHighestPrivilegeRoleAsRoleOfMultiRoleToken() {
+
+        // given
+        ExtendedUserDetails userDetails = ExtendedUserDetails.getBuilder()
+                .withUsername(USERNAME)
+                .withAuthorities(AuthorityUtils.createAuthorityList("USER", "ADMIN"))
+                .withName(NAME)
+                .withID(USER_ID)
+                .build();
+        JWTAuthenticationAnswerModel generatedToken = jwtComponent.generateToken(userDetails);
+
+        // when
+        JWTPayload result = jwtComponent.decode(generatedToken.getToken());
+
+        // then
+        assertThat(result.getRoles(), sameInstance(RoleSet.of(Role.USER, Role.ADMIN)));
+        assertThat(result.getRole(), equalTo(Role.ADMIN));
+    }
+
+    @Test
+    public void shouldDecodeValidTokenFromCacheOnSubsequentCalls() {
+
+        // given
+        VerifiedTokenCache verifiedTokenCache = new VerifiedTokenCache(true, 10);
+        jwtComponent = new JWTComponentImpl((int) EXPIRATION_IN_HOURS, MAX_EXPIRATION_IN_HOURS, JWTRoleClaimFormat.MASK, verifiedTokenCache, JWT_ENCODER, new JJWTDecoder(JWT_KEY_RING), TOKEN_PRE_VALIDATOR, DECODE_FAILURE_LOGGER);
+        JWTAuthenticationAnswerModel generatedToken = jwtComponent.generateToken(EXTENDED_USER_DETAILS);
+        JWTPayload firstResult = jwtComponent.decode(generatedToken.getToken());
+
+        // when
+        JWTPayload result = jwtComponent.decode(generatedToken.getToken());
+
+        // then
+        assertThat(result, sameInstance(firstResult));
+        assertUserInfo(result);
+        assertThat(verifiedTokenCache.getMissCount(), equalTo(1L));
+        assertThat(verifiedTokenCache.getHitCount(), equalTo(1L));
+    }
+
+    @Test
+    public void shouldPreValidateTokenOnlyOnCacheMiss() {
+
+        // given
+        TokenPreValidator tokenPreValidator = mock(TokenPreValidator.class);
+        jwtComponent = new JWTComponentImpl((int) EXPIRATION_IN_HOURS, MAX_EXPIRATION_IN_HOURS, JWTRoleClaimFormat.MASK, new VerifiedTokenCache(true, 10), JWT_ENCODER, new JJWTDecoder(JWT_KEY_RING), tokenPreValidator, DECODE_FAILURE_LOGGER);
+        JWTAuthenticationAnswerModel generatedToken = jwtComponent.generateToken(EXTENDED_USER_DETAILS);
+        jwtComponent.decode(generatedToken.getToken());
+
+        // when
+        jwtComponent.decode(generatedToken.getToken());
+
+        // then
+        verify(tokenPreValidator).validate(generatedToken.getToken());
+    }
+
+    @Test
+    public void shouldDecodeTokenSignedWithRetiredKeyAfterKeyRotation(@TempDir Path tempDir) throws IOException {
+
+        // given
+        Path keyFile = tempDir.resolve("jwt-keys.properties");
+        Files.write(keyFile, Arrays.asList("signing-key=k1", "key.k1=first-s3cr3t"));
+        JWTKeyRing keyRing = new JWTKeyRing(null, keyFile, new HmacKeyFileParser(1), TimeUnit.HOURS.toMillis(EXPIRATION_IN_HOURS));
+        keyRing.reload();
+        jwtComponent = new JWTComponentImpl((int) EXPIRATION_IN_HOURS, MAX_EXPIRATION_IN_HOURS, JWTRoleClaimFormat.MASK, new VerifiedTokenCache(false, 0), new JWTEncoder(keyRing), new JJWTDecoder(keyRing), TOKEN_PRE_VALIDATOR, DECODE_FAILURE_LOGGER);
+        JWTAuthenticationAnswerModel tokenBeforeRotation = jwtComponent.generateToken(EXTENDED_USER_DETAILS);
+        Files.write(keyFile, Arrays.asList("signing-key=k2", "key.k2=second-s3cr3t"));
+        keyRing.reload();
+
+        // when
+        JWTPayload result = jwtComponent.decode(tokenBeforeRotation.getToken());
+
+        // then
+        assertUserInfo(result);
+        assertUserInfo(jwtComponent.decode(jwtComponent.generateToken(EXTENDED_USER_DETAILS).getToken()));
+        assertThat(keyRing.getSigningKey().getKeyId(), equalTo("k2"));
+    }
+
+    @Test
+    public void shouldDecodeES256TokenOnVerifyOnlyNode() throws GeneralSecurityException {
+
+        // given
+        KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("EC");
+        keyPairGenerator.initialize(new ECGenParameterSpec("secp256r1"));
+        KeyPair keyPair = keyPairGenerator.generateKeyPair();
+        JWTKeyRing issuerKeyRing = new JWTKeyRing(new JWTKey("es-key", JWTKey.ALGORITHM_ES256, keyPair.getPublic(),
+                new EcdsaSignatureEngine(keyPair.getPrivate(), keyPair.getPublic(), 1)), null, null, 0);
+        JWTKeyRing verifierKeyRing = new JWTKeyRing(new JWTKey("es-key", JWTKey.ALGORITHM_ES256, keyPair.getPublic(),
+                new EcdsaSignatureEngine(null, keyPair.getPublic(), 1)), null, null, 0);
+        JWTComponent issuer = new JWTComponentImpl((int) EXPIRATION_IN_HOURS, MAX_EXPIRATION_IN_HOURS, JWTRoleClaimFormat.MASK, new VerifiedTokenCache(false, 0), new JWTEncoder(issuerKeyRing), new JJWTDecoder(issuerKeyRing), TOKEN_PRE_VALIDATOR, DECODE_FAILURE_LOGGER);
+        JWTComponent verifier = new JWTComponentImpl((int) EXPIRATION_IN_HOURS, MAX_EXPIRATION_IN_HOURS, JWTRoleClaimFormat.MASK, new VerifiedTokenCache(false, 0), new JWTEncoder(verifierKeyRing), new JJWTDecoder(verifierKeyRing), TOKEN_PRE_VALIDATOR, DECODE_FAILURE_LOGGER);
+        JWTAuthenticationAnswerModel generatedToken = issuer.generateToken(EXTENDED_USER_DETAILS);
+
+        // when
+        JWTPayload result = verifier.decode(generatedToken.getToken());
+
+        // then
+        assertExpiration(result);
+        assertUserInfo(result);
+        Assertions.assertThrows(IllegalStateException.class, () -> verifier.generateToken(EXTENDED_USER_DETAILS));
+        Assertions.assertThrows(InvalidJWTTokenException.class, () -> jwtComponent.decode(generatedToken.getToken()));
+    }
+
     @Test
     public void shouldGenerateTokenWithCustomExpiration() throws IOException {
 
@@ -105,6 +270,16 @@ public class JWTComponentImplTest {
         assertUserInfo(jwtPayload);
     }
 
+    @Test
+    public void shouldRejectCustomExpirationOverMaximumTokenLifetime() {
+
+        // when
+        Assertions.assertThrows(IllegalArgumentException.class, () -> jwtComponent.generateToken(EXTENDED_USER_DETAILS, MAX_EXPIRATION_IN_HOURS + 1));
+
+        // then
+        // exception expected
+    }
+
     @Test
     public void shouldThrowInvalidJWTTokenExceptionOnInvalidToken() {
 
@@ -118,6 +293,49 @@ public class JWTComponentImplTest {
         // expected exception
     }
 
+    @Test
+    public void shouldRejectExpiredTokenBeforeVerification() {
+
+        // given
+        String token = JWT_ENCODER.encode(Collections.singletonMap("exp", 1600000000L));
+
+        // when
+        InvalidJWTTokenException result = Assertions.assertThrows(InvalidJWTTokenException.class, () -> jwtComponent.decode(token));
+
+        // then
+        assertThat(result.getRejectionReason(), equalTo(TokenRejectionReason.EXPIRED));
+    }
+
+    @Test
+    public void shouldReturnFailureResultOnInvalidSignature() {
+
+        // given
+        String token = jwtComponent.generateToken(EXTENDED_USER_DETAILS).getToken();
+        String tamperedToken = token.substring(0, token.lastIndexOf('.') + 1) + "c2lnbmF0dXJl";
+
+        // when
+        JWTDecodeResult result = jwtComponent.tryDecode(tamperedToken);
+
+        // then
+        assertThat(result.isSuccessful(), is(false));
+        assertThat(result.getFailureReason(), equalTo(TokenRejectionReason.INVALID_SIGNATURE));
+        assertThat(result.getPayload(), nullValue());
+    }
+
+    @Test
+    public void shouldReturnSuccessfulResultOnValidToken() {
+
+        // given
+        String token = jwtComponent.generateToken(EXTENDED_USER_DETAILS).getToken();
+
+        // when
+        JWTDecodeResult result = jwtComponent.tryDecode(token);
+
+        // then
+        assertThat(result.isSuccessful(), is(true));
+        assertUserInfo(result.getPayload());
+    }
+
     @Test
     public void shouldExtractToken() {
 
@@ -168,7 +386,7 @@ public class JWTComponentImplTest {
 
     private void assertUserInfo(Map<String, String> jwtPayload) {
         assertThat(jwtPayload.get("usr"), equalTo(USERNAME));
-        assertThat(jwtPayload.get("rol"), equalTo(AUTHORITY_LIST.get(0).getAuthority()));
+        assertThat(jwtPayload.get("rol"), equalTo(String.valueOf(RoleSet.of(Role.USER).getMask())));
         assertThat(jwtPayload.get("name"), equalTo(NAME));
         assertThat(jwtPayload.get("uid"), equalTo(String.valueOf(USER_ID)));
     }
@@ -0,0 +1,173 @@
+package hu.psprog.leaflet.security.jwt.impl;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Unit tests for {@link JWTKeyRing}.
+ *
+ * @author Peter Smith
+ */
+public class JWTKeyRingTest {
+
+    private static final JWTKey DEFAULT_KEY = new JWTKey(null, new SecretKeySpec("s3cr3t".getBytes(), "HmacSHA512"), 1);
+    private static final long RETIREMENT_PERIOD = 3600000L;
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void shouldUseDefaultKeyWithoutKeyFile() throws IOException {
+
+        // given
+        JWTKeyRing keyRing = new JWTKeyRing(DEFAULT_KEY, null, null, RETIREMENT_PERIOD);
+
+        // when
+        keyRing.reload();
+
+        // then
+        assertThat(keyRing.getSigningKey(), sameInstance(DEFAULT_KEY));
+        assertThat(keyRing.getVerificationKey(null), sameInstance(DEFAULT_KEY));
+        assertThat(keyRing.getVerificationKey("k1"), nullValue());
+    }
+
+    @Test
+    public void shouldLoadKeysFromKeyFile() throws IOException {
+
+        // given
+        Path keyFile = writeKeyFile("signing-key=k2", "key.k1=first", "key.k2=second");
+        JWTKeyRing keyRing = new JWTKeyRing(null, keyFile, new HmacKeyFileParser(1), RETIREMENT_PERIOD);
+
+        // when
+        keyRing.reload();
+
+        // then
+        assertThat(keyRing.getSigningKey().getKeyId(), equalTo("k2"));
+        assertThat(keyRing.getVerificationKey("k1").getKeyId(), equalTo("k1"));
+        assertThat(keyRing.getVerificationKey("k2"), sameInstance(keyRing.getSigningKey()));
+    }
+
+    @Test
+    public void shouldKeepRemovedKeysUntilRetirementPeriodPasses() throws IOException {
+
+        // given
+        Path keyFile = writeKeyFile("signing-key=k1", "key.k1=first");
+        JWTKeyRing keyRing = new JWTKeyRing(DEFAULT_KEY, keyFile, new HmacKeyFileParser(1), RETIREMENT_PERIOD);
+        keyRing.reload();
+        JWTKey firstKey = keyRing.getSigningKey();
+        writeKeyFile("signing-key=k2", "key.k2=second");
+
+        // when
+        keyRing.reload();
+
+        // then
+        assertThat(keyRing.getSigningKey().getKeyId(), equalTo("k2"));
+        assertThat(keyRing.getVerificationKey("k1"), sameInstance(firstKey));
+        assertThat(keyRing.getVerificationKey(null), sameInstance(DEFAULT_KEY));
+    }
+
+    @Test
+    public void shouldDropRetiredKeysAfterRetirementPeriod() throws IOException {
+
+        // given
+        Path keyFile = writeKeyFile("signing-key=k1", "key.k1=first");
+        JWTKeyRing keyRing = new JWTKeyRing(DEFAULT_KEY, keyFile, new HmacKeyFileParser(1), 0L);
+        keyRing.reload();
+        writeKeyFile("signing-key=k2", "key.k2=second");
+
+        // when
+        keyRing.reload();
+
+        // then
+        assertThat(keyRing.getVerificationKey("k1"), nullValue());
+        assertThat(keyRing.getVerificationKey(null), nullValue());
+        assertThat(keyRing.getVerificationKey("k2"), notNullValue());
+    }
+
+    @Test
+    public void shouldKeepPreviousKeysIfSigningKeyIsMissingFromKeyFile() throws IOException {
+
+        // given
+        Path keyFile = writeKeyFile("signing-key=k1", "key.k1=first");
+        JWTKeyRing keyRing = new JWTKeyRing(null, keyFile, new HmacKeyFileParser(1), RETIREMENT_PERIOD);
+        keyRing.reload();
+        JWTKey signingKey = keyRing.getSigningKey();
+        writeKeyFile("signing-key=k3", "key.k2=second");
+
+        // when
+        Assertions.assertThrows(IllegalStateException.class, keyRing::reload);
+
+        // then
+        assertThat(keyRing.getSigningKey(), sameInstance(signingKey));
+        assertThat(keyRing.getVerificationKey("k2"), nullValue());
+    }
+
+    @Test
+    public void shouldKeepKeysUntilTheirNotAfterTimeAfterRestart() throws IOException {
+
+        // given
+        String notAfter = Instant.now().plus(1, ChronoUnit.HOURS).toString();
+        Path keyFile = writeKeyFile("signing-key=k2", "key.k1=first", "key.k2=second", "not-after.k1=" + notAfter, "default-key.not-after=" + notAfter);
+        JWTKeyRing keyRing = new JWTKeyRing(DEFAULT_KEY, keyFile, new HmacKeyFileParser(1), 0L);
+
+        // when
+        keyRing.reload();
+
+        // then
+        assertThat(keyRing.getSigningKey().getKeyId(), equalTo("k2"));
+        assertThat(keyRing.getVerificationKey("k1").getKeyId(), equalTo("k1"));
+        assertThat(keyRing.getVerificationKey(null), sameInstance(DEFAULT_KEY));
+    }
+
+    @Test
+    public void shouldDropKeysAfterTheirNotAfterTime() throws IOException {
+
+        // given
+        Path keyFile = writeKeyFile("signing-key=k1", "key.k1=first", "key.k2=second");
+        JWTKeyRing keyRing = new JWTKeyRing(DEFAULT_KEY, keyFile, new HmacKeyFileParser(1), RETIREMENT_PERIOD);
+        keyRing.reload();
+        String notAfter = Instant.now().minus(1, ChronoUnit.MINUTES).toString();
+        writeKeyFile("signing-key=k1", "key.k1=first", "key.k2=second", "not-after.k2=" + notAfter, "default-key.not-after=" + notAfter);
+
+        // when
+        keyRing.reload();
+
+        // then
+        assertThat(keyRing.getVerificationKey("k1"), notNullValue());
+        assertThat(keyRing.getVerificationKey("k2"), nullValue());
+        assertThat(keyRing.getVerificationKey(null), nullValue());
+    }
+
+    @Test
+    public void shouldRejectNotAfterTimeOfSigningKey() throws IOException {
+
+        // given
+        Path keyFile = writeKeyFile("signing-key=k1", "key.k1=first", "not-after.k1=" + Instant.now().plus(1, ChronoUnit.HOURS));
+        JWTKeyRing keyRing = new JWTKeyRing(null, keyFile, new HmacKeyFileParser(1), RETIREMENT_PERIOD);
+
+        // when
+        Assertions.assertThrows(IllegalStateException.class, keyRing::reload);
+
+        // then
+        // exception expected
+    }
+
+    private Path writeKeyFile(String... lines) throws IOException {
+        return Files.write(tempDir.resolve("jwt-keys.properties"), Arrays.asList(lines));
+    }
+}
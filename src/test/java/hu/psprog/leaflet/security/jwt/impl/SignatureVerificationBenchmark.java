@@ -0,0 +1,83 @@
+package hu.psprog.leaflet.security.jwt.impl;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.spec.ECGenParameterSpec;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Average time benchmark of token signature verification with HS512 versus ES256, using the engines of {@link JWTKey}.
+ * Not part of the unit test suite, run it via the main method from the test classpath.
+ *
+ * @author Peter Smith
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SignatureVerificationBenchmark {
+
+    private static final String SIGNING_INPUT = "eyJhbGciOiJIUzUxMiJ9.eyJleHAiOjE2MDAwMTQ0MDAsImlhdCI6MTYwMDAwMDAwMCwidXNyIjoidXNlcm5hbWUiLCJyb2wiOiJVU0VSIiwibmFtZSI6IlVzZXIgTmFtZSIsInVpZCI6MTIzfQ";
+
+    private byte[] data;
+    private SignatureEngine hmacSignatureEngine;
+    private byte[] hmacSignature;
+    private SignatureEngine ecdsaSignatureEngine;
+    private byte[] ecdsaSignature;
+
+    @Setup
+    public void setup() throws GeneralSecurityException {
+
+        data = SIGNING_INPUT.getBytes(StandardCharsets.US_ASCII);
+
+        hmacSignatureEngine = new HmacSignatureEngine(new SecretKeySpec("s3cr3t".getBytes(), "HmacSHA512"), 16);
+        hmacSignature = hmacSignatureEngine.sign(data, 0, data.length);
+
+        KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("EC");
+        keyPairGenerator.initialize(new ECGenParameterSpec("secp256r1"));
+        KeyPair keyPair = keyPairGenerator.generateKeyPair();
+        ecdsaSignatureEngine = new EcdsaSignatureEngine(keyPair.getPrivate(), keyPair.getPublic(), 16);
+        ecdsaSignature = ecdsaSignatureEngine.sign(data, 0, data.length);
+    }
+
+    @Benchmark
+    public boolean verifyHS512() {
+        return hmacSignatureEngine.verify(data, 0, data.length, hmacSignature);
+    }
+
+    @Benchmark
+    public boolean verifyES256() {
+        return ecdsaSignatureEngine.verify(data, 0, data.length, ecdsaSignature);
+    }
+
+    @Benchmark
+    public byte[] signES256() {
+        return ecdsaSignatureEngine.sign(data, 0, data.length);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(SignatureVerificationBenchmark.class.getSimpleName())
+                .build())
+                .run();
+    }
+}
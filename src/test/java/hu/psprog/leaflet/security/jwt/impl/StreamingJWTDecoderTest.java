@@ -0,0 +1,274 @@
+package hu.psprog.leaflet.security.jwt.impl;
+
+import hu.psprog.leaflet.security.jwt.model.JWTDecodeResult;
+import hu.psprog.leaflet.security.jwt.model.JWTPayload;
+import hu.psprog.leaflet.security.jwt.model.Role;
+import hu.psprog.leaflet.security.jwt.model.RoleSet;
+import hu.psprog.leaflet.security.jwt.model.TokenRejectionReason;
+import io.jsonwebtoken.ExpiredJwtException;
+import io.jsonwebtoken.JwtBuilder;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
+import io.jsonwebtoken.SignatureException;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.spec.ECGenParameterSpec;
+import java.util.Date;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.verifyNoInteractions;
+
+/**
+ * Unit tests for {@link StreamingJWTDecoder}.
+ *
+ * @author Peter Smith
+ */
+@ExtendWith(MockitoExtension.class)
+public class StreamingJWTDecoderTest {
+
+    private static final SecretKey JWT_SIGNING_KEY = new SecretKeySpec("s3cr3t".getBytes(), "HmacSHA512");
+    private static final JWTKeyRing JWT_KEY_RING = new JWTKeyRing(new JWTKey(null, JWT_SIGNING_KEY, 1), null, null, 0);
+    private static final SecretKey OTHER_SIGNING_KEY = new SecretKeySpec("other-s3cr3t".getBytes(), "HmacSHA512");
+    private static final String ES256_KEY_ID = "es-key";
+    private static final String USERNAME = "username";
+    private static final String NAME = "User Name";
+    private static final int USER_ID = 123;
+    private static final long ISSUED_AT = 1600000000L;
+    private static final long ONE_HOUR_IN_SECONDS = 3600L;
+
+    @Mock
+    private JWTDecoder fallbackDecoder;
+
+    private StreamingJWTDecoder streamingJWTDecoder;
+
+    @BeforeEach
+    public void setup() {
+        streamingJWTDecoder = new StreamingJWTDecoder(JWT_KEY_RING, fallbackDecoder);
+    }
+
+    @Test
+    public void shouldDecodeValidToken() {
+
+        // given
+        long now = System.currentTimeMillis() / 1000;
+        String token = prepareToken(JWT_SIGNING_KEY, now, now + ONE_HOUR_IN_SECONDS, false);
+
+        // when
+        JWTPayload result = streamingJWTDecoder.decode(token);
+
+        // then
+        assertThat(result.getUsername(), equalTo(USERNAME));
+        assertThat(result.getRole(), equalTo(Role.USER));
+        assertThat(result.getName(), equalTo(NAME));
+        assertThat(result.getId(), equalTo(USER_ID));
+        assertThat(result.getIssuedAt(), equalTo(new Date(now * 1000)));
+        assertThat(result.getExpires(), equalTo(new Date((now + ONE_HOUR_IN_SECONDS) * 1000)));
+        assertThat(result.getIssuedAtMillis(), equalTo(now * 1000));
+        assertThat(result.getExpiresMillis(), equalTo((now + ONE_HOUR_IN_SECONDS) * 1000));
+        assertThat(streamingJWTDecoder.getFallbackCount(), equalTo(0L));
+        verifyNoInteractions(fallbackDecoder);
+    }
+
+    @Test
+    public void shouldDecodeSameAsJJWTDecoder() {
+
+        // given
+        long now = System.currentTimeMillis() / 1000;
+        String token = prepareToken(JWT_SIGNING_KEY, now, now + ONE_HOUR_IN_SECONDS, false);
+
+        // when
+        JWTPayload result = streamingJWTDecoder.decode(token);
+
+        // then
+        assertThat(result, equalTo(new JJWTDecoder(JWT_KEY_RING).decode(token)));
+    }
+
+    @Test
+    public void shouldDecodeRoleBitmaskAndLegacyRoleNames() {
+
+        // given
+        long now = System.currentTimeMillis() / 1000;
+        String bitmaskToken = prepareTokenBuilder(now, now + ONE_HOUR_IN_SECONDS)
+                .claim("rol", RoleSet.of(Role.USER, Role.SERVICE).getMask())
+                .signWith(SignatureAlgorithm.HS512, JWT_SIGNING_KEY)
+                .compact();
+        String legacyToken = prepareTokenBuilder(now, now + ONE_HOUR_IN_SECONDS)
+                .claim("rol", "USER,SERVICE")
+                .signWith(SignatureAlgorithm.HS512, JWT_SIGNING_KEY)
+                .compact();
+
+        // when
+        JWTPayload bitmaskResult = streamingJWTDecoder.decode(bitmaskToken);
+        JWTPayload legacyResult = streamingJWTDecoder.decode(legacyToken);
+
+        // then
+        assertThat(bitmaskResult.getRoles(), sameInstance(RoleSet.of(Role.USER, Role.SERVICE)));
+        assertThat(legacyResult.getRoles(), sameInstance(RoleSet.of(Role.USER, Role.SERVICE)));
+        assertThat(bitmaskResult, equalTo(new JJWTDecoder(JWT_KEY_RING).decode(bitmaskToken)));
+        assertThat(legacyResult, equalTo(new JJWTDecoder(JWT_KEY_RING).decode(legacyToken)));
+        verifyNoInteractions(fallbackDecoder);
+    }
+
+    @Test
+    public void shouldRejectTokenWithInvalidSignature() {
+
+        // given
+        long now = System.currentTimeMillis() / 1000;
+        String token = prepareToken(OTHER_SIGNING_KEY, now, now + ONE_HOUR_IN_SECONDS, false);
+
+        // when
+        Assertions.assertThrows(SignatureException.class, () -> streamingJWTDecoder.decode(token));
+
+        // then
+        // expected exception
+        verifyNoInteractions(fallbackDecoder);
+    }
+
+    @Test
+    public void shouldReturnFailureResultForInvalidSignatureWithoutException() {
+
+        // given
+        long now = System.currentTimeMillis() / 1000;
+        String token = prepareToken(OTHER_SIGNING_KEY, now, now + ONE_HOUR_IN_SECONDS, false);
+
+        // when
+        JWTDecodeResult result = streamingJWTDecoder.tryDecode(token);
+
+        // then
+        assertThat(result, sameInstance(JWTDecodeResult.failure(TokenRejectionReason.INVALID_SIGNATURE)));
+        verifyNoInteractions(fallbackDecoder);
+    }
+
+    @Test
+    public void shouldRejectExpiredToken() {
+
+        // given
+        String token = prepareToken(JWT_SIGNING_KEY, ISSUED_AT, ISSUED_AT + ONE_HOUR_IN_SECONDS, false);
+
+        // when
+        Assertions.assertThrows(ExpiredJwtException.class, () -> streamingJWTDecoder.decode(token));
+
+        // then
+        // expected exception
+        verifyNoInteractions(fallbackDecoder);
+    }
+
+    @Test
+    public void shouldUseFallbackDecoderForUnsupportedHeader() {
+
+        // given
+        long now = System.currentTimeMillis() / 1000;
+        String token = prepareToken(JWT_SIGNING_KEY, now, now + ONE_HOUR_IN_SECONDS, true);
+        JWTPayload fallbackPayload = JWTPayload.getBuilder().build();
+        given(fallbackDecoder.decode(token)).willReturn(fallbackPayload);
+
+        // when
+        JWTPayload result = streamingJWTDecoder.decode(token);
+
+        // then
+        assertThat(result, sameInstance(fallbackPayload));
+        assertThat(streamingJWTDecoder.getFallbackCount(), equalTo(1L));
+    }
+
+    @Test
+    public void shouldDecodeValidES256Token() throws GeneralSecurityException {
+
+        // given
+        KeyPair keyPair = generateES256KeyPair();
+        JWTKey verificationKey = new JWTKey(ES256_KEY_ID, JWTKey.ALGORITHM_ES256, keyPair.getPublic(), new EcdsaSignatureEngine(null, keyPair.getPublic(), 1));
+        JWTKeyRing keyRing = new JWTKeyRing(verificationKey, null, null, 0);
+        streamingJWTDecoder = new StreamingJWTDecoder(keyRing, fallbackDecoder);
+        long now = System.currentTimeMillis() / 1000;
+        String token = prepareTokenBuilder(now, now + ONE_HOUR_IN_SECONDS)
+                .setHeaderParam("kid", ES256_KEY_ID)
+                .signWith(SignatureAlgorithm.ES256, keyPair.getPrivate())
+                .compact();
+
+        // when
+        JWTPayload result = streamingJWTDecoder.decode(token);
+
+        // then
+        assertThat(result, equalTo(new JJWTDecoder(keyRing).decode(token)));
+        assertThat(result.getUsername(), equalTo(USERNAME));
+        verifyNoInteractions(fallbackDecoder);
+    }
+
+    @Test
+    public void shouldUseFallbackDecoderIfAlgorithmDoesNotMatchKey() throws GeneralSecurityException {
+
+        // given
+        KeyPair keyPair = generateES256KeyPair();
+        JWTKey verificationKey = new JWTKey(ES256_KEY_ID, JWTKey.ALGORITHM_ES256, keyPair.getPublic(), new EcdsaSignatureEngine(null, keyPair.getPublic(), 1));
+        streamingJWTDecoder = new StreamingJWTDecoder(new JWTKeyRing(verificationKey, null, null, 0), fallbackDecoder);
+        long now = System.currentTimeMillis() / 1000;
+        String token = prepareTokenBuilder(now, now + ONE_HOUR_IN_SECONDS)
+                .setHeaderParam("kid", ES256_KEY_ID)
+                .signWith(SignatureAlgorithm.HS512, keyPair.getPublic().getEncoded())
+                .compact();
+        JWTPayload fallbackPayload = JWTPayload.getBuilder().build();
+        given(fallbackDecoder.decode(token)).willReturn(fallbackPayload);
+
+        // when
+        JWTPayload result = streamingJWTDecoder.decode(token);
+
+        // then
+        assertThat(result, sameInstance(fallbackPayload));
+    }
+
+    @Test
+    public void shouldUseFallbackDecoderForMalformedToken() {
+
+        // given
+        String token = "invalid-token";
+        JWTPayload fallbackPayload = JWTPayload.getBuilder().build();
+        given(fallbackDecoder.decode(token)).willReturn(fallbackPayload);
+
+        // when
+        JWTPayload result = streamingJWTDecoder.decode(token);
+
+        // then
+        assertThat(result, sameInstance(fallbackPayload));
+    }
+
+    private String prepareToken(SecretKey signingKey, long issuedAt, long expiration, boolean withExtraHeader) {
+
+        JwtBuilder builder = prepareTokenBuilder(issuedAt, expiration);
+
+        if (withExtraHeader) {
+            builder.setHeaderParam("zip", "DEF");
+        }
+
+        return builder
+                .signWith(SignatureAlgorithm.HS512, signingKey)
+                .compact();
+    }
+
+    private JwtBuilder prepareTokenBuilder(long issuedAt, long expiration) {
+        return Jwts.builder()
+                .setIssuedAt(new Date(issuedAt * 1000))
+                .setExpiration(new Date(expiration * 1000))
+                .claim("usr", USERNAME)
+                .claim("rol", RoleSet.of(Role.USER).getMask())
+                .claim("name", NAME)
+                .claim("uid", USER_ID);
+    }
+
+    private KeyPair generateES256KeyPair() throws GeneralSecurityException {
+        KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("EC");
+        keyPairGenerator.initialize(new ECGenParameterSpec("secp256r1"));
+        return keyPairGenerator.generateKeyPair();
+    }
+}
@@ -0,0 +1,117 @@
+package hu.psprog.leaflet.security.jwt.impl;
+
+import hu.psprog.leaflet.security.jwt.model.TokenRejectionReason;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Collections;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Unit tests for {@link TokenPreValidator}.
+ *
+ * @author Peter Smith
+ */
+public class TokenPreValidatorTest {
+
+    private static final String HEADER = encode("{\"alg\":\"HS512\"}");
+    private static final String SIGNATURE = "c2lnbmF0dXJl";
+
+    private final TokenPreValidator tokenPreValidator = new TokenPreValidator(Collections.singleton("HS512"), 64, 512);
+
+    @Test
+    public void shouldAcceptWellFormedNotExpiredToken() {
+
+        // given
+        String token = prepareToken(HEADER, System.currentTimeMillis() / 1000 + 3600);
+
+        // when
+        TokenRejectionReason result = tokenPreValidator.validate(token);
+
+        // then
+        assertThat(result, nullValue());
+    }
+
+    @Test
+    public void shouldRejectTokenWithInvalidSegmentCount() {
+
+        // given
+        String token = HEADER + "." + SIGNATURE;
+
+        // when
+        TokenRejectionReason result = tokenPreValidator.validate(token);
+
+        // then
+        assertThat(result, equalTo(TokenRejectionReason.MALFORMED));
+        assertThat(tokenPreValidator.getRejectionCount(TokenRejectionReason.MALFORMED), equalTo(1L));
+    }
+
+    @Test
+    public void shouldRejectTokenWithNonJSONPayload() {
+
+        // given
+        String token = HEADER + "." + encode("not-json") + "." + SIGNATURE;
+
+        // when
+        TokenRejectionReason result = tokenPreValidator.validate(token);
+
+        // then
+        assertThat(result, equalTo(TokenRejectionReason.MALFORMED));
+    }
+
+    @Test
+    public void shouldRejectOversizedHeader() {
+
+        // given
+        String header = encode("{\"alg\":\"HS512\",\"x\":\"" + String.join("", Collections.nCopies(64, "x")) + "\"}");
+        String token = prepareToken(header, System.currentTimeMillis() / 1000 + 3600);
+
+        // when
+        TokenRejectionReason result = tokenPreValidator.validate(token);
+
+        // then
+        assertThat(result, equalTo(TokenRejectionReason.OVERSIZED));
+        assertThat(tokenPreValidator.getRejectionCount(TokenRejectionReason.OVERSIZED), equalTo(1L));
+    }
+
+    @Test
+    public void shouldRejectUnsupportedAlgorithm() {
+
+        // given
+        String token = prepareToken(encode("{\"alg\":\"none\"}"), System.currentTimeMillis() / 1000 + 3600);
+
+        // when
+        TokenRejectionReason result = tokenPreValidator.validate(token);
+
+        // then
+        assertThat(result, equalTo(TokenRejectionReason.UNSUPPORTED_ALGORITHM));
+        assertThat(tokenPreValidator.getRejectionCount(TokenRejectionReason.UNSUPPORTED_ALGORITHM), equalTo(1L));
+    }
+
+    @Test
+    public void shouldRejectExpiredToken() {
+
+        // given
+        String token = prepareToken(HEADER, 1600000000L);
+
+        // when
+        TokenRejectionReason result = tokenPreValidator.validate(token);
+
+        // then
+        assertThat(result, equalTo(TokenRejectionReason.EXPIRED));
+        assertThat(tokenPreValidator.getRejectionCount(TokenRejectionReason.EXPIRED), equalTo(1L));
+        assertThat(tokenPreValidator.getRejectionCount(TokenRejectionReason.MALFORMED), equalTo(0L));
+    }
+
+    private String prepareToken(String header, long expiration) {
+        return header + "." + encode("{\"usr\":\"user\",\"exp\":" + expiration + "}") + "." + SIGNATURE;
+    }
+
+    private static String encode(String content) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(content.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,138 @@
+package hu.psprog.leaflet.security.jwt.impl;
+
+import hu.psprog.leaflet.security.jwt.model.JWTPayload;
+import hu.psprog.leaflet.security.jwt.model.Role;
+import org.junit.jupiter.api.Test;
+
+import java.util.Date;
+import java.util.Optional;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Unit tests for {@link VerifiedTokenCache}.
+ *
+ * @author Peter Smith
+ */
+public class VerifiedTokenCacheTest {
+
+    private static final String TOKEN_1 = "token-1";
+    private static final String TOKEN_2 = "token-2";
+    private static final String TOKEN_3 = "token-3";
+
+    @Test
+    public void shouldReturnCachedPayload() {
+
+        // given
+        VerifiedTokenCache verifiedTokenCache = new VerifiedTokenCache(true, 10);
+        JWTPayload payload = preparePayload(60000L);
+        verifiedTokenCache.put(TOKEN_1, payload);
+
+        // when
+        Optional<JWTPayload> result = verifiedTokenCache.get(TOKEN_1);
+
+        // then
+        assertThat(result.isPresent(), is(true));
+        assertThat(result.get(), sameInstance(payload));
+        assertThat(verifiedTokenCache.getHitCount(), equalTo(1L));
+        assertThat(verifiedTokenCache.getMissCount(), equalTo(0L));
+    }
+
+    @Test
+    public void shouldReturnEmptyOptionalForUnknownToken() {
+
+        // given
+        VerifiedTokenCache verifiedTokenCache = new VerifiedTokenCache(true, 10);
+        verifiedTokenCache.put(TOKEN_1, preparePayload(60000L));
+
+        // when
+        Optional<JWTPayload> result = verifiedTokenCache.get(TOKEN_2);
+
+        // then
+        assertThat(result.isPresent(), is(false));
+        assertThat(verifiedTokenCache.getMissCount(), equalTo(1L));
+    }
+
+    @Test
+    public void shouldEvictExpiredEntry() {
+
+        // given
+        VerifiedTokenCache verifiedTokenCache = new VerifiedTokenCache(true, 10);
+        verifiedTokenCache.put(TOKEN_1, preparePayload(-1000L));
+
+        // when
+        Optional<JWTPayload> result = verifiedTokenCache.get(TOKEN_1);
+
+        // then
+        assertThat(result.isPresent(), is(false));
+        assertThat(verifiedTokenCache.size(), equalTo(0));
+        assertThat(verifiedTokenCache.getEvictionCount(), equalTo(1L));
+    }
+
+    @Test
+    public void shouldEvictLeastRecentlyUsedEntryWhenFull() {
+
+        // given
+        VerifiedTokenCache verifiedTokenCache = new VerifiedTokenCache(true, 2);
+        verifiedTokenCache.put(TOKEN_1, preparePayload(60000L));
+        verifiedTokenCache.put(TOKEN_2, preparePayload(60000L));
+        verifiedTokenCache.get(TOKEN_1);
+
+        // when
+        verifiedTokenCache.put(TOKEN_3, preparePayload(60000L));
+
+        // then
+        assertThat(verifiedTokenCache.size(), equalTo(2));
+        assertThat(verifiedTokenCache.getEvictionCount(), equalTo(1L));
+        assertThat(verifiedTokenCache.get(TOKEN_1).isPresent(), is(true));
+        assertThat(verifiedTokenCache.get(TOKEN_2).isPresent(), is(false));
+        assertThat(verifiedTokenCache.get(TOKEN_3).isPresent(), is(true));
+    }
+
+    @Test
+    public void shouldKeepAddedEntryWhenEveryCachedEntryIsReferenced() {
+
+        // given
+        VerifiedTokenCache verifiedTokenCache = new VerifiedTokenCache(true, 2);
+        verifiedTokenCache.put(TOKEN_1, preparePayload(60000L));
+        verifiedTokenCache.put(TOKEN_2, preparePayload(60000L));
+        verifiedTokenCache.get(TOKEN_1);
+        verifiedTokenCache.get(TOKEN_2);
+
+        // when
+        verifiedTokenCache.put(TOKEN_3, preparePayload(60000L));
+
+        // then
+        assertThat(verifiedTokenCache.size(), equalTo(2));
+        assertThat(verifiedTokenCache.getEvictionCount(), equalTo(1L));
+        assertThat(verifiedTokenCache.get(TOKEN_3).isPresent(), is(true));
+    }
+
+    @Test
+    public void shouldNotCacheWhenDisabled() {
+
+        // given
+        VerifiedTokenCache verifiedTokenCache = new VerifiedTokenCache(false, 10);
+        verifiedTokenCache.put(TOKEN_1, preparePayload(60000L));
+
+        // when
+        Optional<JWTPayload> result = verifiedTokenCache.get(TOKEN_1);
+
+        // then
+        assertThat(result.isPresent(), is(false));
+        assertThat(verifiedTokenCache.size(), equalTo(0));
+        assertThat(verifiedTokenCache.getMissCount(), equalTo(0L));
+    }
+
+    private JWTPayload preparePayload(long expiresInMillis) {
+        return JWTPayload.getBuilder()
+                .withUsername("username")
+                .withRole(Role.USER)
+                .withIssuedAt(new Date())
+                .withExpires(new Date(System.currentTimeMillis() + expiresInMillis))
+                .build();
+    }
+}
@@ -0,0 +1,71 @@
+package hu.psprog.leaflet.security.sessionstore.config;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.UUID;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+
+/**
+ * Unit tests for {@link SessionStoreConnectionPool}.
+ *
+ * @author Peter Smith
+ */
+public class SessionStoreConnectionPoolTest {
+
+    private SessionStoreConnectionPool sessionStoreConnectionPool;
+
+    @BeforeEach
+    public void setup() {
+        sessionStoreConnectionPool = new SessionStoreConnectionPool("session-store-" + UUID.randomUUID(), 1, 1, 16);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        sessionStoreConnectionPool.destroy();
+    }
+
+    @Test
+    public void shouldReuseConnectionsAndTrackUsage() throws SQLException {
+
+        // when
+        for (int i = 0; i < 3; i++) {
+            try (Connection connection = sessionStoreConnectionPool.getDataSource().getConnection()) {
+                assertThat(connection.isValid(1), is(true));
+                assertThat(sessionStoreConnectionPool.getActiveConnections(), equalTo(1));
+            }
+        }
+
+        // then
+        assertThat(sessionStoreConnectionPool.getActiveConnections(), equalTo(0));
+        assertThat(sessionStoreConnectionPool.getPeakActiveConnections(), equalTo(1L));
+        assertThat(sessionStoreConnectionPool.getMaxConnections(), equalTo(1));
+        assertThat(sessionStoreConnectionPool.getConnectionRequestCount(), equalTo(3L));
+        assertThat(sessionStoreConnectionPool.getFailedConnectionRequestCount(), equalTo(0L));
+    }
+
+    @Test
+    public void shouldFailAfterWaitTimeoutWhenPoolIsExhausted() throws SQLException {
+
+        // given
+        try (Connection connection = sessionStoreConnectionPool.getDataSource().getConnection()) {
+
+            // when
+            Assertions.assertThrows(SQLException.class, () -> sessionStoreConnectionPool.getDataSource().getConnection());
+
+            // then
+            assertThat(connection.isClosed(), is(false));
+        }
+        assertThat(sessionStoreConnectionPool.getConnectionRequestCount(), equalTo(2L));
+        assertThat(sessionStoreConnectionPool.getFailedConnectionRequestCount(), equalTo(1L));
+        assertThat(sessionStoreConnectionPool.getMaxWaitTimeInNanos(), greaterThanOrEqualTo(1_000_000_000L));
+    }
+}
@@ -5,6 +5,7 @@ import hu.psprog.leaflet.security.sessionstore.domain.TokenStatus;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
+import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
 import java.sql.Timestamp;
@@ -17,11 +18,12 @@ import static hu.psprog.leaflet.security.sessionstore.config.SessionStoreDataSou
 import static hu.psprog.leaflet.security.sessionstore.config.SessionStoreDataSourceConfiguration.FIELD_ISSUED;
 import static hu.psprog.leaflet.security.sessionstore.config.SessionStoreDataSourceConfiguration.FIELD_REMOTE_ADDRESS;
 import static hu.psprog.leaflet.security.sessionstore.config.SessionStoreDataSourceConfiguration.FIELD_STATUS;
-import static hu.psprog.leaflet.security.sessionstore.config.SessionStoreDataSourceConfiguration.FIELD_TOKEN;
+import static hu.psprog.leaflet.security.sessionstore.config.SessionStoreDataSourceConfiguration.FIELD_TOKEN_DIGEST;
 import static hu.psprog.leaflet.security.sessionstore.config.SessionStoreDataSourceConfiguration.FIELD_USERNAME;
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.CoreMatchers.notNullValue;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.BDDMockito.given;
 
 /**
  * Unit tests for {@link SessionStoreTokenEntryConverter}.
@@ -32,6 +34,7 @@ import static org.hamcrest.MatcherAssert.assertThat;
 public class SessionStoreTokenEntryConverterTest {
 
     private static final String TOKEN = "token";
+    private static final byte[] TOKEN_DIGEST = new byte[] {1, 2, 3};
     private static final UUID DEVICE_ID = UUID.randomUUID();
     private static final String REMOTE_ADDRESS = "remote-address";
     private static final Timestamp EXPIRES = new Timestamp(new Date().getTime() + 60000);
@@ -39,6 +42,9 @@ public class SessionStoreTokenEntryConverterTest {
     private static final TokenStatus TOKEN_STATUS = TokenStatus.ACTIVE;
     private static final String USERNAME = "username";
 
+    @Mock
+    private TokenDigestConverter tokenDigestConverter;
+
     @InjectMocks
     private SessionStoreTokenEntryConverter sessionStoreTokenEntryConverter;
 
@@ -46,6 +52,7 @@ public class SessionStoreTokenEntryConverterTest {
     public void shouldConvert() {
 
         // given
+        given(tokenDigestConverter.convert(TOKEN)).willReturn(TOKEN_DIGEST);
         SessionStoreTokenEntry sessionStoreTokenEntry = SessionStoreTokenEntry.getBuilder()
                 .withToken(TOKEN)
                 .withDeviceID(DEVICE_ID)
@@ -61,7 +68,7 @@ public class SessionStoreTokenEntryConverterTest {
 
         // then
         assertThat(result, notNullValue());
-        assertThat(result.get(FIELD_TOKEN), equalTo(TOKEN));
+        assertThat(result.get(FIELD_TOKEN_DIGEST), equalTo(TOKEN_DIGEST));
         assertThat(result.get(FIELD_DEVICE_ID), equalTo(DEVICE_ID.toString()));
         assertThat(result.get(FIELD_REMOTE_ADDRESS), equalTo(REMOTE_ADDRESS));
         assertThat(result.get(FIELD_USERNAME), equalTo(USERNAME));
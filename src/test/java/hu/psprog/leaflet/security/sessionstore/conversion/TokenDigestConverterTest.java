@@ -0,0 +1,42 @@
+package hu.psprog.leaflet.security.sessionstore.conversion;
+
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Unit tests for {@link TokenDigestConverter}.
+ *
+ * @author Peter Smith
+ */
+public class TokenDigestConverterTest {
+
+    private static final String TOKEN = "token-1";
+    private static final String TOKEN_DIGEST_HEX = "3f08aace122ee2368432c1ca23a049bc640bafbf00fdf33a52429f38ba12dbf9";
+
+    private final TokenDigestConverter tokenDigestConverter = new TokenDigestConverter();
+
+    @Test
+    public void shouldConvertTokenToSHA256Digest() {
+
+        // when
+        byte[] result = tokenDigestConverter.convert(TOKEN);
+
+        // then
+        assertThat(result.length, equalTo(32));
+        assertThat(toHex(result), equalTo(TOKEN_DIGEST_HEX));
+        assertThat(toHex(tokenDigestConverter.convert("token-2")), not(equalTo(TOKEN_DIGEST_HEX)));
+    }
+
+    private static String toHex(byte[] bytes) {
+
+        StringBuilder builder = new StringBuilder();
+        for (byte value : bytes) {
+            builder.append(String.format("%02x", value));
+        }
+
+        return builder.toString();
+    }
+}
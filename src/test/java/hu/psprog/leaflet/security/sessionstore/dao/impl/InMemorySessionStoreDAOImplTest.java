@@ -0,0 +1,355 @@
+package hu.psprog.leaflet.security.sessionstore.dao.impl;
+
+import hu.psprog.leaflet.security.sessionstore.conversion.TokenDigestConverter;
+import hu.psprog.leaflet.security.sessionstore.domain.SessionStoreTokenEntry;
+import hu.psprog.leaflet.security.sessionstore.domain.TokenStatus;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DuplicateKeyException;
+
+import java.nio.ByteBuffer;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Unit tests for {@link InMemorySessionStoreDAOImpl}.
+ *
+ * @author Peter Smith
+ */
+public class InMemorySessionStoreDAOImplTest {
+
+    private static final long BASE_TIME = 1521914400000L;
+    private static final long ONE_HOUR_IN_MILLIS = 3600000L;
+    private static final SessionStoreTokenEntry SESSION_STORE_TOKEN_ENTRY_1 = prepareSessionStoreTokenEntry(1, TokenStatus.ACTIVE);
+    private static final SessionStoreTokenEntry SESSION_STORE_TOKEN_ENTRY_2 = prepareSessionStoreTokenEntry(2, TokenStatus.REVOKED);
+    private static final SessionStoreTokenEntry SESSION_STORE_TOKEN_ENTRY_3 = prepareSessionStoreTokenEntry(3, TokenStatus.COMPROMISED);
+    private static final String CONTROL_TOKEN = "token-1";
+    private static final String ADDITIONAL_TOKEN = "token-additional";
+    private static final String NEW_TOKEN = "token-new";
+    private static final UUID OTHER_DEVICE_ID = UUID.fromString("0191f32b-11f4-427f-93ac-d807e4782631");
+
+    private final TokenDigestConverter tokenDigestConverter = new TokenDigestConverter();
+
+    private InMemorySessionStoreDAOImpl sessionStoreDAO;
+
+    @BeforeEach
+    public void setup() {
+        sessionStoreDAO = new InMemorySessionStoreDAOImpl(tokenDigestConverter);
+        sessionStoreDAO.insertTokenEntry(SESSION_STORE_TOKEN_ENTRY_1);
+        sessionStoreDAO.insertTokenEntry(SESSION_STORE_TOKEN_ENTRY_2);
+        sessionStoreDAO.insertTokenEntry(SESSION_STORE_TOKEN_ENTRY_3);
+    }
+
+    @Test
+    public void shouldGetAllEntriesWithoutToken() {
+
+        // when
+        List<SessionStoreTokenEntry> result = sessionStoreDAO.getAllTokenEntries();
+
+        // then
+        assertThat(result.size(), equalTo(3));
+        assertThat(result.containsAll(Arrays.asList(SESSION_STORE_TOKEN_ENTRY_1.withToken(null), SESSION_STORE_TOKEN_ENTRY_2.withToken(null),
+                SESSION_STORE_TOKEN_ENTRY_3.withToken(null))), is(true));
+    }
+
+    @Test
+    public void shouldGetTokenEntryReturnTokenIfExists() {
+
+        // when
+        Optional<SessionStoreTokenEntry> result = sessionStoreDAO.getTokenEntry(CONTROL_TOKEN);
+
+        // then
+        assertThat(result.isPresent(), is(true));
+        assertThat(result.get(), equalTo(SESSION_STORE_TOKEN_ENTRY_1));
+    }
+
+    @Test
+    public void shouldInsertTokenEntryThrowExceptionForAlreadyStoredToken() {
+
+        // when
+        Assertions.assertThrows(DuplicateKeyException.class, () -> sessionStoreDAO.insertTokenEntry(SESSION_STORE_TOKEN_ENTRY_1));
+
+        // then
+        // exception expected
+    }
+
+    @Test
+    public void shouldUpdateTokenEntry() {
+
+        // when
+        sessionStoreDAO.updateTokenEntry(CONTROL_TOKEN, TokenStatus.COMPROMISED);
+
+        // then
+        assertThat(sessionStoreDAO.getTokenEntry(CONTROL_TOKEN).get(), equalTo(SESSION_STORE_TOKEN_ENTRY_1.withStatus(TokenStatus.COMPROMISED)));
+    }
+
+    @Test
+    public void shouldCompareAndUpdateTokenEntryChangeStatusOfActiveToken() {
+
+        // when
+        boolean result = sessionStoreDAO.compareAndUpdateTokenEntry(CONTROL_TOKEN, TokenStatus.ACTIVE, TokenStatus.REVOKED);
+
+        // then
+        assertThat(result, is(true));
+        assertThat(sessionStoreDAO.getTokenEntry(CONTROL_TOKEN).get().getStatus(), equalTo(TokenStatus.REVOKED));
+    }
+
+    @Test
+    public void shouldCompareAndUpdateTokenEntryKeepStatusOfNotActiveToken() {
+
+        // when
+        boolean result = sessionStoreDAO.compareAndUpdateTokenEntry("token-2", TokenStatus.ACTIVE, TokenStatus.COMPROMISED);
+
+        // then
+        assertThat(result, is(false));
+        assertThat(sessionStoreDAO.getTokenEntry("token-2").get().getStatus(), equalTo(TokenStatus.REVOKED));
+        assertThat(sessionStoreDAO.compareAndUpdateTokenEntry("token-not-existing", TokenStatus.ACTIVE, TokenStatus.REVOKED), is(false));
+    }
+
+    @Test
+    public void shouldGetTokenEntriesByUsername() {
+
+        // given
+        sessionStoreDAO.insertTokenEntry(prepareAdditionalSessionOfControlUser(OTHER_DEVICE_ID));
+
+        // when
+        List<SessionStoreTokenEntry> result = sessionStoreDAO.getTokenEntriesByUsername(SESSION_STORE_TOKEN_ENTRY_1.getUsername());
+
+        // then
+        assertThat(result.size(), equalTo(2));
+        assertThat(result.stream().allMatch(entry -> entry.getUsername().equals(SESSION_STORE_TOKEN_ENTRY_1.getUsername())), is(true));
+        assertThat(sessionStoreDAO.getTokenEntriesByUsername("user-not-existing").isEmpty(), is(true));
+    }
+
+    @Test
+    public void shouldCountTokenEntriesByUsernameFollowingRemovals() {
+
+        // given
+        sessionStoreDAO.insertTokenEntry(prepareAdditionalSessionOfControlUser(OTHER_DEVICE_ID));
+        int countBeforeRemoval = sessionStoreDAO.countTokenEntriesByUsername(SESSION_STORE_TOKEN_ENTRY_1.getUsername());
+
+        // when
+        sessionStoreDAO.removeTokenEntry(CONTROL_TOKEN);
+
+        // then
+        assertThat(countBeforeRemoval, equalTo(2));
+        assertThat(sessionStoreDAO.countTokenEntriesByUsername(SESSION_STORE_TOKEN_ENTRY_1.getUsername()), equalTo(1));
+        assertThat(sessionStoreDAO.countTokenEntriesByUsername("user-not-existing"), equalTo(0));
+    }
+
+    @Test
+    public void shouldUpdateTokenEntriesByUsernameExceptExcludedDevice() {
+
+        // given
+        sessionStoreDAO.insertTokenEntry(prepareAdditionalSessionOfControlUser(OTHER_DEVICE_ID));
+
+        // when
+        int result = sessionStoreDAO.updateTokenEntriesByUsername(SESSION_STORE_TOKEN_ENTRY_1.getUsername(), OTHER_DEVICE_ID,
+                TokenStatus.ACTIVE, TokenStatus.REVOKED);
+
+        // then
+        assertThat(result, equalTo(1));
+        assertThat(sessionStoreDAO.getTokenEntry(CONTROL_TOKEN).get().getStatus(), equalTo(TokenStatus.REVOKED));
+        assertThat(sessionStoreDAO.getTokenEntry(ADDITIONAL_TOKEN).get().getStatus(), equalTo(TokenStatus.ACTIVE));
+        assertThat(sessionStoreDAO.updateTokenEntriesByUsername(SESSION_STORE_TOKEN_ENTRY_1.getUsername(), null,
+                TokenStatus.ACTIVE, TokenStatus.REVOKED), equalTo(1));
+        assertThat(sessionStoreDAO.getTokenEntry(ADDITIONAL_TOKEN).get().getStatus(), equalTo(TokenStatus.REVOKED));
+        assertThat(sessionStoreDAO.getTokenEntry("token-2").get().getStatus(), equalTo(TokenStatus.REVOKED));
+    }
+
+    @Test
+    public void shouldUpsertTokenEntryReplaceTokenOfSameDevice() {
+
+        // when
+        int result = sessionStoreDAO.upsertTokenEntry(prepareNewSessionOfControlUser(NEW_TOKEN, SESSION_STORE_TOKEN_ENTRY_1.getDeviceID()), 0);
+
+        // then
+        assertThat(result, equalTo(1));
+        assertThat(sessionStoreDAO.getTokenEntry(CONTROL_TOKEN).isPresent(), is(false));
+        assertThat(sessionStoreDAO.getTokenEntry(NEW_TOKEN).isPresent(), is(true));
+        assertThat(sessionStoreDAO.countTokenEntriesByUsername(SESSION_STORE_TOKEN_ENTRY_1.getUsername()), equalTo(1));
+        assertThat(sessionStoreDAO.getTokenEntry("token-2").isPresent(), is(true));
+    }
+
+    @Test
+    public void shouldHandleTokensWithoutDeviceIDOnUpsertAndUpdateByUsername() {
+
+        // given
+        sessionStoreDAO.insertTokenEntry(prepareAdditionalSessionOfControlUser(null));
+
+        // when
+        int result = sessionStoreDAO.upsertTokenEntry(prepareNewSessionOfControlUser(NEW_TOKEN, null), 0);
+
+        // then
+        assertThat(result, equalTo(0));
+        assertThat(sessionStoreDAO.countTokenEntriesByUsername(SESSION_STORE_TOKEN_ENTRY_1.getUsername()), equalTo(3));
+        assertThat(sessionStoreDAO.updateTokenEntriesByUsername(SESSION_STORE_TOKEN_ENTRY_1.getUsername(), OTHER_DEVICE_ID,
+                TokenStatus.ACTIVE, TokenStatus.REVOKED), equalTo(3));
+    }
+
+    @Test
+    public void shouldUpsertTokenEntryEvictLeastRecentlyIssuedTokensOverLimit() {
+
+        // given
+        sessionStoreDAO.insertTokenEntry(prepareAdditionalSessionOfControlUser(OTHER_DEVICE_ID));
+
+        // when
+        int result = sessionStoreDAO.upsertTokenEntry(prepareNewSessionOfControlUser(NEW_TOKEN, UUID.randomUUID()), 1);
+
+        // then
+        assertThat(result, equalTo(2));
+        assertThat(sessionStoreDAO.getTokenEntry(CONTROL_TOKEN).isPresent(), is(false));
+        assertThat(sessionStoreDAO.getTokenEntry(ADDITIONAL_TOKEN).isPresent(), is(false));
+        assertThat(sessionStoreDAO.getTokenEntry(NEW_TOKEN).isPresent(), is(true));
+        assertThat(sessionStoreDAO.upsertTokenEntry(prepareNewSessionOfControlUser("token-newest", UUID.randomUUID()), 2), equalTo(0));
+        assertThat(sessionStoreDAO.countTokenEntriesByUsername(SESSION_STORE_TOKEN_ENTRY_1.getUsername()), equalTo(2));
+    }
+
+    @Test
+    public void shouldUpdateLastActivitiesKeepingLaterOnes() {
+
+        // given
+        long issued = SESSION_STORE_TOKEN_ENTRY_1.getIssued().getTime();
+        Date lastActivity = new Date(issued + 600000L);
+        sessionStoreDAO.updateLastActivities(Collections.singletonMap(digest(CONTROL_TOKEN), lastActivity));
+
+        // when
+        Map<ByteBuffer, Date> lastActivities = new HashMap<>();
+        lastActivities.put(digest(CONTROL_TOKEN), new Date(issued + 60000L));
+        lastActivities.put(digest("token-not-existing"), lastActivity);
+        sessionStoreDAO.updateLastActivities(lastActivities);
+
+        // then
+        assertThat(sessionStoreDAO.getTokenEntry(CONTROL_TOKEN).get().getLastActivity(), equalTo(new Timestamp(lastActivity.getTime())));
+        assertThat(sessionStoreDAO.getTokenEntry("token-2").get().getLastActivity(), nullValue());
+        assertThat(sessionStoreDAO.getTokenEntry("token-not-existing").isPresent(), is(false));
+    }
+
+    @Test
+    public void shouldUpsertTokenEntryEvictLeastRecentlyUsedToken() {
+
+        // given
+        sessionStoreDAO.insertTokenEntry(prepareAdditionalSessionOfControlUser(OTHER_DEVICE_ID));
+        sessionStoreDAO.updateLastActivities(Collections.singletonMap(digest(CONTROL_TOKEN), new Date(SESSION_STORE_TOKEN_ENTRY_1.getIssued().getTime() + 7200000L)));
+
+        // when
+        int result = sessionStoreDAO.upsertTokenEntry(prepareNewSessionOfControlUser(NEW_TOKEN, UUID.randomUUID()), 2);
+
+        // then
+        assertThat(result, equalTo(1));
+        assertThat(sessionStoreDAO.getTokenEntry(CONTROL_TOKEN).isPresent(), is(true));
+        assertThat(sessionStoreDAO.getTokenEntry(ADDITIONAL_TOKEN).isPresent(), is(false));
+        assertThat(sessionStoreDAO.getTokenEntry(NEW_TOKEN).isPresent(), is(true));
+    }
+
+    @Test
+    public void shouldRemoveTokenEntry() {
+
+        // when
+        sessionStoreDAO.removeTokenEntry(CONTROL_TOKEN);
+
+        // then
+        assertThat(sessionStoreDAO.getTokenEntry(CONTROL_TOKEN).isPresent(), is(false));
+        assertThat(sessionStoreDAO.removeExpiredTokenEntries(new Timestamp(BASE_TIME + ONE_HOUR_IN_MILLIS), 10), equalTo(2));
+    }
+
+    @Test
+    public void shouldRemoveExpiredTokenEntries() {
+
+        // when
+        int result = sessionStoreDAO.removeExpiredTokenEntries(new Timestamp(BASE_TIME), 10);
+
+        // then
+        assertThat(result, equalTo(1));
+        assertThat(sessionStoreDAO.getAllTokenEntries().size(), equalTo(2));
+        assertThat(sessionStoreDAO.getTokenEntry("token-3").isPresent(), is(false));
+    }
+
+    @Test
+    public void shouldRemoveExpiredTokenEntriesUpToLimitInExpirationOrder() {
+
+        // when
+        int result = sessionStoreDAO.removeExpiredTokenEntries(new Timestamp(BASE_TIME + ONE_HOUR_IN_MILLIS + 1), 2);
+
+        // then
+        assertThat(result, equalTo(2));
+        assertThat(sessionStoreDAO.getTokenEntry(CONTROL_TOKEN).isPresent(), is(true));
+    }
+
+    @Test
+    public void shouldRemoveExpiredTokenEntriesKeepReinsertedToken() {
+
+        // given
+        sessionStoreDAO.removeTokenEntry("token-3");
+        SessionStoreTokenEntry reinsertedEntry = SessionStoreTokenEntry.getBuilder()
+                .withToken("token-3")
+                .withDeviceID(UUID.randomUUID())
+                .withRemoteAddress("127.0.0.1")
+                .withStatus(TokenStatus.ACTIVE)
+                .withUsername("user-3")
+                .withIssued(new Timestamp(BASE_TIME))
+                .withExpires(new Timestamp(BASE_TIME + ONE_HOUR_IN_MILLIS))
+                .build();
+        sessionStoreDAO.insertTokenEntry(reinsertedEntry);
+
+        // when
+        int result = sessionStoreDAO.removeExpiredTokenEntries(new Timestamp(BASE_TIME + 1), 10);
+
+        // then
+        assertThat(result, equalTo(1));
+        assertThat(sessionStoreDAO.getTokenEntry("token-3").get(), equalTo(reinsertedEntry));
+    }
+
+    private static SessionStoreTokenEntry prepareNewSessionOfControlUser(String token, UUID deviceID) {
+        return SessionStoreTokenEntry.getBuilder()
+                .withToken(token)
+                .withDeviceID(deviceID)
+                .withRemoteAddress("127.0.0.1")
+                .withStatus(TokenStatus.ACTIVE)
+                .withUsername(SESSION_STORE_TOKEN_ENTRY_1.getUsername())
+                .withIssued(new Timestamp(SESSION_STORE_TOKEN_ENTRY_1.getIssued().getTime() + 3600000L))
+                .withExpires(SESSION_STORE_TOKEN_ENTRY_1.getExpires())
+                .build();
+    }
+
+    private static SessionStoreTokenEntry prepareAdditionalSessionOfControlUser(UUID deviceID) {
+        return SessionStoreTokenEntry.getBuilder()
+                .withToken(ADDITIONAL_TOKEN)
+                .withDeviceID(deviceID)
+                .withRemoteAddress("127.0.0.1")
+                .withStatus(TokenStatus.ACTIVE)
+                .withUsername(SESSION_STORE_TOKEN_ENTRY_1.getUsername())
+                .withIssued(SESSION_STORE_TOKEN_ENTRY_1.getIssued())
+                .withExpires(SESSION_STORE_TOKEN_ENTRY_1.getExpires())
+                .build();
+    }
+
+    private static SessionStoreTokenEntry prepareSessionStoreTokenEntry(int offset, TokenStatus status) {
+        return SessionStoreTokenEntry.getBuilder()
+                .withToken("token-" + offset)
+                .withDeviceID(UUID.fromString(offset + "191f32b-11f4-427f-93ac-d807e4782631"))
+                .withRemoteAddress("127.0.0.1")
+                .withStatus(status)
+                .withUsername("user-" + offset)
+                .withIssued(new Timestamp(BASE_TIME - (offset + 2) * ONE_HOUR_IN_MILLIS))
+                .withExpires(new Timestamp(BASE_TIME - (offset - 2) * ONE_HOUR_IN_MILLIS))
+                .build();
+    }
+
+    private ByteBuffer digest(String token) {
+        return ByteBuffer.wrap(tokenDigestConverter.convert(token));
+    }
+}
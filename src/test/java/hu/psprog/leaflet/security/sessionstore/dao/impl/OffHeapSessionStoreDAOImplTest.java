@@ -0,0 +1,408 @@
+package hu.psprog.leaflet.security.sessionstore.dao.impl;
+
+import hu.psprog.leaflet.security.sessionstore.conversion.TokenDigestConverter;
+import hu.psprog.leaflet.security.sessionstore.domain.SessionStoreTokenEntry;
+import hu.psprog.leaflet.security.sessionstore.domain.TokenStatus;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.dao.DuplicateKeyException;
+
+import java.nio.ByteBuffer;
+import java.sql.Timestamp;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Unit tests for {@link OffHeapSessionStoreDAOImpl}.
+ *
+ * @author Peter Smith
+ */
+public class OffHeapSessionStoreDAOImplTest {
+
+    private static final long BASE_TIME = 1521914400000L;
+    private static final long ONE_HOUR_IN_MILLIS = 3600000L;
+    private static final SessionStoreTokenEntry SESSION_STORE_TOKEN_ENTRY_1 = prepareSessionStoreTokenEntry(1, TokenStatus.ACTIVE);
+    private static final SessionStoreTokenEntry SESSION_STORE_TOKEN_ENTRY_2 = prepareSessionStoreTokenEntry(2, TokenStatus.REVOKED);
+    private static final SessionStoreTokenEntry SESSION_STORE_TOKEN_ENTRY_3 = prepareSessionStoreTokenEntry(3, TokenStatus.COMPROMISED);
+    private static final String CONTROL_TOKEN = "token-1";
+    private static final String ADDITIONAL_TOKEN = "token-additional";
+    private static final String NEW_TOKEN = "token-new";
+    private static final UUID OTHER_DEVICE_ID = UUID.fromString("0191f32b-11f4-427f-93ac-d807e4782631");
+
+    private final TokenDigestConverter tokenDigestConverter = new TokenDigestConverter();
+
+    private OffHeapSessionStoreDAOImpl sessionStoreDAO;
+
+    @BeforeEach
+    public void setup() {
+        sessionStoreDAO = new OffHeapSessionStoreDAOImpl(tokenDigestConverter, 4);
+        sessionStoreDAO.insertTokenEntry(SESSION_STORE_TOKEN_ENTRY_1);
+        sessionStoreDAO.insertTokenEntry(SESSION_STORE_TOKEN_ENTRY_2);
+        sessionStoreDAO.insertTokenEntry(SESSION_STORE_TOKEN_ENTRY_3);
+    }
+
+    @Test
+    public void shouldGetAllEntriesWithoutToken() {
+
+        // when
+        List<SessionStoreTokenEntry> result = sessionStoreDAO.getAllTokenEntries();
+
+        // then
+        assertThat(result.size(), equalTo(3));
+        assertThat(result.get(0).getToken(), nullValue());
+        assertThat(result.get(0).getUsername(), equalTo(SESSION_STORE_TOKEN_ENTRY_1.getUsername()));
+    }
+
+    @Test
+    public void shouldGetTokenEntryReturnTokenIfExists() {
+
+        // when
+        Optional<SessionStoreTokenEntry> result = sessionStoreDAO.getTokenEntry(CONTROL_TOKEN);
+
+        // then
+        assertThat(result.isPresent(), is(true));
+        assertThat(result.get(), equalTo(SESSION_STORE_TOKEN_ENTRY_1));
+    }
+
+    @Test
+    public void shouldGetTokenEntryReturnEmptyOptionalIfNotExists() {
+
+        // when
+        Optional<SessionStoreTokenEntry> result = sessionStoreDAO.getTokenEntry("token-not-existing");
+
+        // then
+        assertThat(result.isPresent(), is(false));
+    }
+
+    @Test
+    public void shouldInsertTokenEntryThrowExceptionForAlreadyStoredToken() {
+
+        // when
+        Assertions.assertThrows(DuplicateKeyException.class, () -> sessionStoreDAO.insertTokenEntry(SESSION_STORE_TOKEN_ENTRY_1));
+
+        // then
+        // exception expected
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"127.0.0.1", "10.0.255.1", "0:0:0:0:0:0:0:1", "fe80:0:0:0:1c2:ff:fe00:1", "::1", "010.0.0.1", "localhost"})
+    public void shouldKeepRemoteAddress(String remoteAddress) {
+
+        // given
+        SessionStoreTokenEntry sessionStoreTokenEntry = SessionStoreTokenEntry.getBuilder()
+                .withToken("token-address")
+                .withDeviceID(UUID.randomUUID())
+                .withRemoteAddress(remoteAddress)
+                .withStatus(TokenStatus.ACTIVE)
+                .withUsername("user-1")
+                .withIssued(new Timestamp(BASE_TIME))
+                .withExpires(new Timestamp(BASE_TIME + ONE_HOUR_IN_MILLIS))
+                .build();
+
+        // when
+        sessionStoreDAO.insertTokenEntry(sessionStoreTokenEntry);
+
+        // then
+        assertThat(sessionStoreDAO.getTokenEntry("token-address").get(), equalTo(sessionStoreTokenEntry));
+    }
+
+    @Test
+    public void shouldUpdateTokenEntry() {
+
+        // when
+        sessionStoreDAO.updateTokenEntry(CONTROL_TOKEN, TokenStatus.COMPROMISED);
+
+        // then
+        assertThat(sessionStoreDAO.getTokenEntry(CONTROL_TOKEN).get(), equalTo(SESSION_STORE_TOKEN_ENTRY_1.withStatus(TokenStatus.COMPROMISED)));
+    }
+
+    @Test
+    public void shouldCompareAndUpdateTokenEntryChangeStatusOfActiveToken() {
+
+        // when
+        boolean result = sessionStoreDAO.compareAndUpdateTokenEntry(CONTROL_TOKEN, TokenStatus.ACTIVE, TokenStatus.REVOKED);
+
+        // then
+        assertThat(result, is(true));
+        assertThat(sessionStoreDAO.getTokenEntry(CONTROL_TOKEN).get().getStatus(), equalTo(TokenStatus.REVOKED));
+    }
+
+    @Test
+    public void shouldCompareAndUpdateTokenEntryKeepStatusOfNotActiveToken() {
+
+        // when
+        boolean result = sessionStoreDAO.compareAndUpdateTokenEntry("token-2", TokenStatus.ACTIVE, TokenStatus.COMPROMISED);
+
+        // then
+        assertThat(result, is(false));
+        assertThat(sessionStoreDAO.getTokenEntry("token-2").get().getStatus(), equalTo(TokenStatus.REVOKED));
+        assertThat(sessionStoreDAO.compareAndUpdateTokenEntry("token-not-existing", TokenStatus.ACTIVE, TokenStatus.REVOKED), is(false));
+    }
+
+    @Test
+    public void shouldGetTokenEntriesByUsername() {
+
+        // given
+        sessionStoreDAO.insertTokenEntry(prepareAdditionalSessionOfControlUser(OTHER_DEVICE_ID));
+
+        // when
+        List<SessionStoreTokenEntry> result = sessionStoreDAO.getTokenEntriesByUsername(SESSION_STORE_TOKEN_ENTRY_1.getUsername());
+
+        // then
+        assertThat(result.size(), equalTo(2));
+        assertThat(result.stream().allMatch(entry -> entry.getUsername().equals(SESSION_STORE_TOKEN_ENTRY_1.getUsername())), is(true));
+        assertThat(sessionStoreDAO.getTokenEntriesByUsername("user-not-existing").isEmpty(), is(true));
+    }
+
+    @Test
+    public void shouldCountTokenEntriesByUsernameFollowingRemovals() {
+
+        // given
+        sessionStoreDAO.insertTokenEntry(prepareAdditionalSessionOfControlUser(OTHER_DEVICE_ID));
+        int countBeforeRemoval = sessionStoreDAO.countTokenEntriesByUsername(SESSION_STORE_TOKEN_ENTRY_1.getUsername());
+
+        // when
+        sessionStoreDAO.removeTokenEntry(CONTROL_TOKEN);
+
+        // then
+        assertThat(countBeforeRemoval, equalTo(2));
+        assertThat(sessionStoreDAO.countTokenEntriesByUsername(SESSION_STORE_TOKEN_ENTRY_1.getUsername()), equalTo(1));
+        assertThat(sessionStoreDAO.countTokenEntriesByUsername("user-not-existing"), equalTo(0));
+    }
+
+    @Test
+    public void shouldUpdateTokenEntriesByUsernameExceptExcludedDevice() {
+
+        // given
+        sessionStoreDAO.insertTokenEntry(prepareAdditionalSessionOfControlUser(OTHER_DEVICE_ID));
+
+        // when
+        int result = sessionStoreDAO.updateTokenEntriesByUsername(SESSION_STORE_TOKEN_ENTRY_1.getUsername(), OTHER_DEVICE_ID,
+                TokenStatus.ACTIVE, TokenStatus.REVOKED);
+
+        // then
+        assertThat(result, equalTo(1));
+        assertThat(sessionStoreDAO.getTokenEntry(CONTROL_TOKEN).get().getStatus(), equalTo(TokenStatus.REVOKED));
+        assertThat(sessionStoreDAO.getTokenEntry(ADDITIONAL_TOKEN).get().getStatus(), equalTo(TokenStatus.ACTIVE));
+        assertThat(sessionStoreDAO.updateTokenEntriesByUsername(SESSION_STORE_TOKEN_ENTRY_1.getUsername(), null,
+                TokenStatus.ACTIVE, TokenStatus.REVOKED), equalTo(1));
+        assertThat(sessionStoreDAO.getTokenEntry(ADDITIONAL_TOKEN).get().getStatus(), equalTo(TokenStatus.REVOKED));
+        assertThat(sessionStoreDAO.getTokenEntry("token-2").get().getStatus(), equalTo(TokenStatus.REVOKED));
+    }
+
+    @Test
+    public void shouldUpsertTokenEntryReplaceTokenOfSameDevice() {
+
+        // when
+        int result = sessionStoreDAO.upsertTokenEntry(prepareNewSessionOfControlUser(NEW_TOKEN, SESSION_STORE_TOKEN_ENTRY_1.getDeviceID()), 0);
+
+        // then
+        assertThat(result, equalTo(1));
+        assertThat(sessionStoreDAO.getTokenEntry(CONTROL_TOKEN).isPresent(), is(false));
+        assertThat(sessionStoreDAO.getTokenEntry(NEW_TOKEN).isPresent(), is(true));
+        assertThat(sessionStoreDAO.countTokenEntriesByUsername(SESSION_STORE_TOKEN_ENTRY_1.getUsername()), equalTo(1));
+        assertThat(sessionStoreDAO.getTokenEntry("token-2").isPresent(), is(true));
+    }
+
+    @Test
+    public void shouldUpsertTokenEntryEvictLeastRecentlyIssuedTokensOverLimit() {
+
+        // given
+        sessionStoreDAO.insertTokenEntry(prepareAdditionalSessionOfControlUser(OTHER_DEVICE_ID));
+
+        // when
+        int result = sessionStoreDAO.upsertTokenEntry(prepareNewSessionOfControlUser(NEW_TOKEN, UUID.randomUUID()), 1);
+
+        // then
+        assertThat(result, equalTo(2));
+        assertThat(sessionStoreDAO.getTokenEntry(CONTROL_TOKEN).isPresent(), is(false));
+        assertThat(sessionStoreDAO.getTokenEntry(ADDITIONAL_TOKEN).isPresent(), is(false));
+        assertThat(sessionStoreDAO.getTokenEntry(NEW_TOKEN).isPresent(), is(true));
+        assertThat(sessionStoreDAO.upsertTokenEntry(prepareNewSessionOfControlUser("token-newest", UUID.randomUUID()), 2), equalTo(0));
+        assertThat(sessionStoreDAO.countTokenEntriesByUsername(SESSION_STORE_TOKEN_ENTRY_1.getUsername()), equalTo(2));
+    }
+
+    @Test
+    public void shouldUpdateLastActivitiesKeepingLaterOnes() {
+
+        // given
+        long issued = SESSION_STORE_TOKEN_ENTRY_1.getIssued().getTime();
+        Date lastActivity = new Date(issued + 600000L);
+        sessionStoreDAO.updateLastActivities(Collections.singletonMap(digest(CONTROL_TOKEN), lastActivity));
+
+        // when
+        Map<ByteBuffer, Date> lastActivities = new HashMap<>();
+        lastActivities.put(digest(CONTROL_TOKEN), new Date(issued + 60000L));
+        lastActivities.put(digest("token-not-existing"), lastActivity);
+        sessionStoreDAO.updateLastActivities(lastActivities);
+
+        // then
+        assertThat(sessionStoreDAO.getTokenEntry(CONTROL_TOKEN).get().getLastActivity(), equalTo(new Timestamp(lastActivity.getTime())));
+        assertThat(sessionStoreDAO.getTokenEntry("token-2").get().getLastActivity(), nullValue());
+        assertThat(sessionStoreDAO.getTokenEntry("token-not-existing").isPresent(), is(false));
+    }
+
+    @Test
+    public void shouldUpsertTokenEntryEvictLeastRecentlyUsedToken() {
+
+        // given
+        sessionStoreDAO.insertTokenEntry(prepareAdditionalSessionOfControlUser(OTHER_DEVICE_ID));
+        sessionStoreDAO.updateLastActivities(Collections.singletonMap(digest(CONTROL_TOKEN), new Date(SESSION_STORE_TOKEN_ENTRY_1.getIssued().getTime() + 7200000L)));
+
+        // when
+        int result = sessionStoreDAO.upsertTokenEntry(prepareNewSessionOfControlUser(NEW_TOKEN, UUID.randomUUID()), 2);
+
+        // then
+        assertThat(result, equalTo(1));
+        assertThat(sessionStoreDAO.getTokenEntry(CONTROL_TOKEN).isPresent(), is(true));
+        assertThat(sessionStoreDAO.getTokenEntry(ADDITIONAL_TOKEN).isPresent(), is(false));
+        assertThat(sessionStoreDAO.getTokenEntry(NEW_TOKEN).isPresent(), is(true));
+    }
+
+    @Test
+    public void shouldRemoveTokenEntry() {
+
+        // when
+        sessionStoreDAO.removeTokenEntry(CONTROL_TOKEN);
+
+        // then
+        assertThat(sessionStoreDAO.getTokenEntry(CONTROL_TOKEN).isPresent(), is(false));
+        assertThat(sessionStoreDAO.getAllTokenEntries().size(), equalTo(2));
+    }
+
+    @Test
+    public void shouldRemoveExpiredTokenEntries() {
+
+        // when
+        int result = sessionStoreDAO.removeExpiredTokenEntries(new Timestamp(BASE_TIME), 10);
+
+        // then
+        assertThat(result, equalTo(1));
+        assertThat(sessionStoreDAO.getTokenEntry("token-3").isPresent(), is(false));
+        assertThat(sessionStoreDAO.getTokenEntry("token-2").get(), equalTo(SESSION_STORE_TOKEN_ENTRY_2));
+    }
+
+    @Test
+    public void shouldRemoveExpiredTokenEntriesUpToLimitInExpirationOrder() {
+
+        // when
+        int firstChunk = sessionStoreDAO.removeExpiredTokenEntries(new Timestamp(BASE_TIME + ONE_HOUR_IN_MILLIS + 1), 2);
+        int secondChunk = sessionStoreDAO.removeExpiredTokenEntries(new Timestamp(BASE_TIME + ONE_HOUR_IN_MILLIS + 1), 2);
+
+        // then
+        assertThat(firstChunk, equalTo(2));
+        assertThat(secondChunk, equalTo(1));
+        assertThat(sessionStoreDAO.getAllTokenEntries().isEmpty(), is(true));
+    }
+
+    @Test
+    public void shouldRemoveOnlyExpiredTokenEntriesInBatchesAfterRemovals() {
+
+        // given
+        int numberOfEntries = 1004;
+        for (int offset = 4; offset < numberOfEntries; offset++) {
+            sessionStoreDAO.insertTokenEntry(prepareSessionStoreTokenEntry(offset, TokenStatus.ACTIVE));
+        }
+        int expiredEntries = 0;
+        for (int offset = 4; offset < numberOfEntries; offset++) {
+            if ((offset - 4) % 3 == 0) {
+                sessionStoreDAO.removeTokenEntry("token-" + offset);
+            } else if (offset > 502) {
+                expiredEntries++;
+            }
+        }
+        Timestamp expiredBefore = new Timestamp(BASE_TIME - 500 * ONE_HOUR_IN_MILLIS);
+
+        // when
+        int firstResult = sessionStoreDAO.removeExpiredTokenEntries(expiredBefore, 1);
+        int result = sessionStoreDAO.removeExpiredTokenEntries(expiredBefore, numberOfEntries);
+
+        // then
+        assertThat(firstResult, equalTo(1));
+        assertThat(result, equalTo(expiredEntries - 1));
+        assertThat(sessionStoreDAO.getTokenEntry("token-1002").isPresent(), is(false));
+        for (int offset = 4; offset < numberOfEntries; offset++) {
+            boolean expectedToExist = offset <= 502 && (offset - 4) % 3 != 0;
+            assertThat(sessionStoreDAO.getTokenEntry("token-" + offset).isPresent(), equalTo(expectedToExist));
+        }
+    }
+
+    @Test
+    public void shouldKeepEntriesFindableWhileGrowingAndReusingRecords() {
+
+        // given
+        int numberOfEntries = 40000;
+        for (int offset = 4; offset < numberOfEntries; offset++) {
+            sessionStoreDAO.insertTokenEntry(prepareSessionStoreTokenEntry(offset, TokenStatus.ACTIVE));
+        }
+        for (int offset = 4; offset < numberOfEntries; offset += 2) {
+            sessionStoreDAO.removeTokenEntry("token-" + offset);
+        }
+
+        // when
+        for (int offset = numberOfEntries; offset < numberOfEntries + 1000; offset++) {
+            sessionStoreDAO.insertTokenEntry(prepareSessionStoreTokenEntry(offset, TokenStatus.ACTIVE));
+        }
+
+        // then
+        for (int offset = 4; offset < numberOfEntries + 1000; offset++) {
+            boolean expectedToExist = offset >= numberOfEntries || offset % 2 == 1;
+            assertThat(sessionStoreDAO.getTokenEntry("token-" + offset).isPresent(), equalTo(expectedToExist));
+        }
+        assertThat(sessionStoreDAO.getTokenEntry("token-5").get(), equalTo(prepareSessionStoreTokenEntry(5, TokenStatus.ACTIVE)));
+        assertThat(sessionStoreDAO.getAllTokenEntries().size(), equalTo(3 + (numberOfEntries - 4) / 2 + 1000));
+    }
+
+    private static SessionStoreTokenEntry prepareNewSessionOfControlUser(String token, UUID deviceID) {
+        return SessionStoreTokenEntry.getBuilder()
+                .withToken(token)
+                .withDeviceID(deviceID)
+                .withRemoteAddress("127.0.0.1")
+                .withStatus(TokenStatus.ACTIVE)
+                .withUsername(SESSION_STORE_TOKEN_ENTRY_1.getUsername())
+                .withIssued(new Timestamp(SESSION_STORE_TOKEN_ENTRY_1.getIssued().getTime() + 3600000L))
+                .withExpires(SESSION_STORE_TOKEN_ENTRY_1.getExpires())
+                .build();
+    }
+
+    private static SessionStoreTokenEntry prepareAdditionalSessionOfControlUser(UUID deviceID) {
+        return SessionStoreTokenEntry.getBuilder()
+                .withToken(ADDITIONAL_TOKEN)
+                .withDeviceID(deviceID)
+                .withRemoteAddress("127.0.0.1")
+                .withStatus(TokenStatus.ACTIVE)
+                .withUsername(SESSION_STORE_TOKEN_ENTRY_1.getUsername())
+                .withIssued(SESSION_STORE_TOKEN_ENTRY_1.getIssued())
+                .withExpires(SESSION_STORE_TOKEN_ENTRY_1.getExpires())
+                .build();
+    }
+
+    private static SessionStoreTokenEntry prepareSessionStoreTokenEntry(int offset, TokenStatus status) {
+        return SessionStoreTokenEntry.getBuilder()
+                .withToken("token-" + offset)
+                .withDeviceID(new UUID(offset, offset * 31L))
+                .withRemoteAddress("127.0.0." + (offset % 256))
+                .withStatus(status)
+                .withUsername("user-" + (offset % 10))
+                .withIssued(new Timestamp(BASE_TIME - (offset + 2) * ONE_HOUR_IN_MILLIS))
+                .withExpires(new Timestamp(BASE_TIME - (offset - 2) * ONE_HOUR_IN_MILLIS))
+                .build();
+    }
+
+    private ByteBuffer digest(String token) {
+        return ByteBuffer.wrap(tokenDigestConverter.convert(token));
+    }
+}
@@ -0,0 +1,118 @@
+package hu.psprog.leaflet.security.sessionstore.dao.impl;
+
+import hu.psprog.leaflet.security.sessionstore.config.SessionStoreConnectionPool;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+
+import java.nio.file.Path;
+import java.util.Date;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Unit tests for {@link RevocationWatermarkDAOImpl}.
+ *
+ * @author Peter Smith
+ */
+public class RevocationWatermarkDAOImplTest {
+
+    private static final String INIT_SCRIPT = "jwt_session_store_init.sql";
+    private static final String USERNAME = "user-1";
+    private static final Date GLOBAL_WATERMARK = new Date(1_600_000_000_000L);
+    private static final Date USER_WATERMARK = new Date(1_600_000_100_000L);
+    private static final Date UPDATED_USER_WATERMARK = new Date(1_600_000_200_000L);
+    private static final String OTHER_USERNAME = "user-2";
+
+    @TempDir
+    Path databaseDirectory;
+
+    @Test
+    public void shouldReturnNoWatermarksForEmptyDatabase() {
+
+        // given
+        SessionStoreConnectionPool sessionStoreConnectionPool = openDatabase();
+
+        try {
+            RevocationWatermarkDAOImpl revocationWatermarkDAO = createDAO(sessionStoreConnectionPool);
+
+            // when
+            Optional<Date> globalWatermark = revocationWatermarkDAO.getGlobalWatermark();
+            Map<String, Date> userWatermarks = revocationWatermarkDAO.getUserWatermarks();
+
+            // then
+            assertThat(globalWatermark.isPresent(), is(false));
+            assertThat(userWatermarks.isEmpty(), is(true));
+        } finally {
+            sessionStoreConnectionPool.destroy();
+        }
+    }
+
+    @Test
+    public void shouldRemoveOnlyUserWatermarksBeforeGivenTime() {
+
+        // given
+        SessionStoreConnectionPool sessionStoreConnectionPool = openDatabase();
+
+        try {
+            RevocationWatermarkDAOImpl revocationWatermarkDAO = createDAO(sessionStoreConnectionPool);
+            revocationWatermarkDAO.saveGlobalWatermark(GLOBAL_WATERMARK);
+            revocationWatermarkDAO.saveUserWatermark(USERNAME, USER_WATERMARK);
+            revocationWatermarkDAO.saveUserWatermark(OTHER_USERNAME, UPDATED_USER_WATERMARK);
+
+            // when
+            revocationWatermarkDAO.removeUserWatermarksBefore(UPDATED_USER_WATERMARK);
+
+            // then
+            assertThat(revocationWatermarkDAO.getGlobalWatermark(), equalTo(Optional.of(GLOBAL_WATERMARK)));
+            assertThat(revocationWatermarkDAO.getUserWatermarks(), equalTo(Map.of(OTHER_USERNAME, UPDATED_USER_WATERMARK)));
+        } finally {
+            sessionStoreConnectionPool.destroy();
+        }
+    }
+
+    @Test
+    public void shouldKeepWatermarksAcrossRestarts() {
+
+        // given
+        SessionStoreConnectionPool sessionStoreConnectionPool = openDatabase();
+        RevocationWatermarkDAOImpl revocationWatermarkDAO = createDAO(sessionStoreConnectionPool);
+        revocationWatermarkDAO.saveGlobalWatermark(GLOBAL_WATERMARK);
+        revocationWatermarkDAO.saveUserWatermark(USERNAME, USER_WATERMARK);
+        revocationWatermarkDAO.saveUserWatermark(USERNAME, UPDATED_USER_WATERMARK);
+        sessionStoreConnectionPool.destroy();
+
+        // when
+        sessionStoreConnectionPool = openDatabase();
+        try {
+            revocationWatermarkDAO = createDAO(sessionStoreConnectionPool);
+            Optional<Date> globalWatermark = revocationWatermarkDAO.getGlobalWatermark();
+            Map<String, Date> userWatermarks = revocationWatermarkDAO.getUserWatermarks();
+
+            // then
+            assertThat(globalWatermark, equalTo(Optional.of(GLOBAL_WATERMARK)));
+            assertThat(userWatermarks, equalTo(Map.of(USERNAME, UPDATED_USER_WATERMARK)));
+        } finally {
+            sessionStoreConnectionPool.destroy();
+        }
+    }
+
+    private SessionStoreConnectionPool openDatabase() {
+
+        SessionStoreConnectionPool sessionStoreConnectionPool = SessionStoreConnectionPool
+                .persistent(databaseDirectory.resolve("session-store").toString(), 1, 1, 16);
+        new ResourceDatabasePopulator(new ClassPathResource(INIT_SCRIPT)).execute(sessionStoreConnectionPool.getDataSource());
+
+        return sessionStoreConnectionPool;
+    }
+
+    private RevocationWatermarkDAOImpl createDAO(SessionStoreConnectionPool sessionStoreConnectionPool) {
+        return new RevocationWatermarkDAOImpl(new NamedParameterJdbcTemplate(sessionStoreConnectionPool.getDataSource()));
+    }
+}
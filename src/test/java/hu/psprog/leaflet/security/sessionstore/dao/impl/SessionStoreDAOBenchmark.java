@@ -0,0 +1,135 @@
+package hu.psprog.leaflet.security.sessionstore.dao.impl;
+
+import hu.psprog.leaflet.security.sessionstore.config.SessionStoreConnectionPool;
+import hu.psprog.leaflet.security.sessionstore.conversion.SessionStoreTokenEntryConverter;
+import hu.psprog.leaflet.security.sessionstore.conversion.SessionStoreTokenEntryMapper;
+import hu.psprog.leaflet.security.sessionstore.conversion.TokenDigestConverter;
+import hu.psprog.leaflet.security.sessionstore.dao.SessionStoreDAO;
+import hu.psprog.leaflet.security.sessionstore.domain.SessionStoreTokenEntry;
+import hu.psprog.leaflet.security.sessionstore.domain.TokenStatus;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+
+import java.sql.Timestamp;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Average time benchmark of the session store engines: token lookup (done for every authenticated request) and status
+ * update (done on logout) over a pre-populated store, using the JDBC (embedded H2), the in-memory and the off-heap engine.
+ * JDBC_UNPOOLED runs the JDBC engine over a non-pooling data source, opening a new connection for each call.
+ * Not part of the unit test suite, run it via the main method from the test classpath.
+ *
+ * @author Peter Smith
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SessionStoreDAOBenchmark {
+
+    private static final String INIT_SCRIPT = "classpath:jwt_session_store_init.sql";
+    private static final int NUMBER_OF_ENTRIES = 10000;
+
+    @Param({"JDBC_UNPOOLED", "JDBC", "IN_MEMORY", "OFF_HEAP"})
+    private String engine;
+
+    private EmbeddedDatabase embeddedDatabase;
+    private SessionStoreConnectionPool sessionStoreConnectionPool;
+    private SessionStoreDAO sessionStoreDAO;
+    private String[] tokens;
+
+    @Setup
+    public void setup() {
+
+        TokenDigestConverter tokenDigestConverter = new TokenDigestConverter();
+        if ("JDBC_UNPOOLED".equals(engine)) {
+            embeddedDatabase = new EmbeddedDatabaseBuilder()
+                    .setType(EmbeddedDatabaseType.H2)
+                    .setName("session-store-benchmark-" + UUID.randomUUID())
+                    .addScript(INIT_SCRIPT)
+                    .build();
+            sessionStoreDAO = new SessionStoreDAOImpl(new NamedParameterJdbcTemplate(embeddedDatabase),
+                    new SessionStoreTokenEntryConverter(tokenDigestConverter), new SessionStoreTokenEntryMapper(), tokenDigestConverter);
+        } else if ("JDBC".equals(engine)) {
+            sessionStoreConnectionPool = new SessionStoreConnectionPool("session-store-benchmark-" + UUID.randomUUID(), 10, 30, 64);
+            new ResourceDatabasePopulator(new DefaultResourceLoader().getResource(INIT_SCRIPT))
+                    .execute(sessionStoreConnectionPool.getDataSource());
+            sessionStoreDAO = new SessionStoreDAOImpl(new NamedParameterJdbcTemplate(sessionStoreConnectionPool.getDataSource()),
+                    new SessionStoreTokenEntryConverter(tokenDigestConverter), new SessionStoreTokenEntryMapper(), tokenDigestConverter);
+        } else if ("OFF_HEAP".equals(engine)) {
+            sessionStoreDAO = new OffHeapSessionStoreDAOImpl(tokenDigestConverter, NUMBER_OF_ENTRIES);
+        } else {
+            sessionStoreDAO = new InMemorySessionStoreDAOImpl(tokenDigestConverter);
+        }
+
+        tokens = new String[NUMBER_OF_ENTRIES];
+        long now = System.currentTimeMillis();
+        for (int index = 0; index < NUMBER_OF_ENTRIES; index++) {
+            tokens[index] = "header.payload-" + index + ".signature";
+            sessionStoreDAO.insertTokenEntry(SessionStoreTokenEntry.getBuilder()
+                    .withToken(tokens[index])
+                    .withDeviceID(UUID.randomUUID())
+                    .withRemoteAddress("127.0.0.1")
+                    .withUsername("user-" + index)
+                    .withStatus(TokenStatus.ACTIVE)
+                    .withIssued(new Timestamp(now))
+                    .withExpires(new Timestamp(now + TimeUnit.HOURS.toMillis(1)))
+                    .build());
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (embeddedDatabase != null) {
+            embeddedDatabase.shutdown();
+        }
+        if (sessionStoreConnectionPool != null) {
+            sessionStoreConnectionPool.destroy();
+        }
+    }
+
+    @Benchmark
+    public Optional<SessionStoreTokenEntry> getTokenEntry() {
+        return sessionStoreDAO.getTokenEntry(randomToken());
+    }
+
+    @Benchmark
+    public void updateTokenEntry() {
+        sessionStoreDAO.updateTokenEntry(randomToken(), ThreadLocalRandom.current().nextBoolean() ? TokenStatus.ACTIVE : TokenStatus.REVOKED);
+    }
+
+    private String randomToken() {
+        return tokens[ThreadLocalRandom.current().nextInt(NUMBER_OF_ENTRIES)];
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(SessionStoreDAOBenchmark.class.getSimpleName())
+                .build())
+                .run();
+    }
+}
@@ -3,6 +3,7 @@ package hu.psprog.leaflet.security.sessionstore.dao.impl;
 import hu.psprog.leaflet.security.sessionstore.config.SessionStoreDataSourceConfiguration;
 import hu.psprog.leaflet.security.sessionstore.conversion.SessionStoreTokenEntryConverter;
 import hu.psprog.leaflet.security.sessionstore.conversion.SessionStoreTokenEntryMapper;
+import hu.psprog.leaflet.security.sessionstore.conversion.TokenDigestConverter;
 import hu.psprog.leaflet.security.sessionstore.domain.SessionStoreTokenEntry;
 import hu.psprog.leaflet.security.sessionstore.domain.TokenStatus;
 import org.junit.jupiter.api.BeforeEach;
@@ -20,19 +21,25 @@ import org.springframework.util.ResourceUtils;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.sql.PreparedStatement;
 import java.sql.Timestamp;
 import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
 
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
 import static org.hamcrest.MatcherAssert.assertThat;
 
 /**
@@ -50,6 +57,12 @@ public class SessionStoreDAOImplTest {
     private static final SessionStoreTokenEntry SESSION_STORE_TOKEN_ENTRY_3 = prepareSessionStoreTokenEntry(3, TokenStatus.COMPROMISED);
     private static final SessionStoreTokenEntry SESSION_STORE_TOKEN_ENTRY_TO_INSERT = prepareSessionStoreTokenEntry(4, TokenStatus.ACTIVE);
     private static final String CONTROL_TOKEN = "token-1";
+    private static final String ADDITIONAL_TOKEN = "token-additional";
+    private static final String NEW_TOKEN = "token-new";
+    private static final UUID OTHER_DEVICE_ID = UUID.fromString("0191f32b-11f4-427f-93ac-d807e4782631");
+
+    @Autowired
+    private TokenDigestConverter tokenDigestConverter;
 
     @Autowired
     private SessionStoreDAOImpl sessionStoreDAO;
@@ -72,7 +85,8 @@ public class SessionStoreDAOImplTest {
         // then
         assertThat(result, notNullValue());
         assertThat(result.size(), equalTo(3));
-        assertThat(result.containsAll(Arrays.asList(SESSION_STORE_TOKEN_ENTRY_1, SESSION_STORE_TOKEN_ENTRY_2, SESSION_STORE_TOKEN_ENTRY_3)), is(true));
+        assertThat(result.containsAll(Arrays.asList(withoutToken(SESSION_STORE_TOKEN_ENTRY_1), withoutToken(SESSION_STORE_TOKEN_ENTRY_2),
+                withoutToken(SESSION_STORE_TOKEN_ENTRY_3))), is(true));
     }
 
     @Test
@@ -82,9 +96,8 @@ public class SessionStoreDAOImplTest {
         sessionStoreDAO.insertTokenEntry(SESSION_STORE_TOKEN_ENTRY_TO_INSERT);
 
         // then
-        List<SessionStoreTokenEntry> current = sessionStoreDAO.getAllTokenEntries();
-        assertThat(current.size(), equalTo(4));
-        assertThat(current.contains(SESSION_STORE_TOKEN_ENTRY_TO_INSERT), is(true));
+        assertThat(sessionStoreDAO.getAllTokenEntries().size(), equalTo(4));
+        assertThat(sessionStoreDAO.getTokenEntry(SESSION_STORE_TOKEN_ENTRY_TO_INSERT.getToken()).get(), equalTo(SESSION_STORE_TOKEN_ENTRY_TO_INSERT));
     }
 
     @Test
@@ -118,6 +131,149 @@ public class SessionStoreDAOImplTest {
         assertThat(sessionStoreDAO.getTokenEntry(CONTROL_TOKEN).get().getStatus(), equalTo(TokenStatus.COMPROMISED));
     }
 
+    @Test
+    public void shouldCompareAndUpdateTokenEntryChangeStatusOfActiveToken() {
+
+        // when
+        boolean result = sessionStoreDAO.compareAndUpdateTokenEntry(CONTROL_TOKEN, TokenStatus.ACTIVE, TokenStatus.REVOKED);
+
+        // then
+        assertThat(result, is(true));
+        assertThat(sessionStoreDAO.getTokenEntry(CONTROL_TOKEN).get().getStatus(), equalTo(TokenStatus.REVOKED));
+    }
+
+    @Test
+    public void shouldCompareAndUpdateTokenEntryKeepStatusOfNotActiveToken() {
+
+        // when
+        boolean result = sessionStoreDAO.compareAndUpdateTokenEntry("token-2", TokenStatus.ACTIVE, TokenStatus.COMPROMISED);
+
+        // then
+        assertThat(result, is(false));
+        assertThat(sessionStoreDAO.getTokenEntry("token-2").get().getStatus(), equalTo(TokenStatus.REVOKED));
+        assertThat(sessionStoreDAO.compareAndUpdateTokenEntry("token-not-existing", TokenStatus.ACTIVE, TokenStatus.REVOKED), is(false));
+    }
+
+    @Test
+    public void shouldGetTokenEntriesByUsername() {
+
+        // given
+        sessionStoreDAO.insertTokenEntry(prepareAdditionalSessionOfControlUser(OTHER_DEVICE_ID));
+
+        // when
+        List<SessionStoreTokenEntry> result = sessionStoreDAO.getTokenEntriesByUsername(SESSION_STORE_TOKEN_ENTRY_1.getUsername());
+
+        // then
+        assertThat(result.size(), equalTo(2));
+        assertThat(result.stream().allMatch(entry -> entry.getUsername().equals(SESSION_STORE_TOKEN_ENTRY_1.getUsername())), is(true));
+        assertThat(sessionStoreDAO.getTokenEntriesByUsername("user-not-existing").isEmpty(), is(true));
+    }
+
+    @Test
+    public void shouldCountTokenEntriesByUsernameFollowingRemovals() {
+
+        // given
+        sessionStoreDAO.insertTokenEntry(prepareAdditionalSessionOfControlUser(OTHER_DEVICE_ID));
+        int countBeforeRemoval = sessionStoreDAO.countTokenEntriesByUsername(SESSION_STORE_TOKEN_ENTRY_1.getUsername());
+
+        // when
+        sessionStoreDAO.removeTokenEntry(CONTROL_TOKEN);
+
+        // then
+        assertThat(countBeforeRemoval, equalTo(2));
+        assertThat(sessionStoreDAO.countTokenEntriesByUsername(SESSION_STORE_TOKEN_ENTRY_1.getUsername()), equalTo(1));
+        assertThat(sessionStoreDAO.countTokenEntriesByUsername("user-not-existing"), equalTo(0));
+    }
+
+    @Test
+    public void shouldUpdateTokenEntriesByUsernameExceptExcludedDevice() {
+
+        // given
+        sessionStoreDAO.insertTokenEntry(prepareAdditionalSessionOfControlUser(OTHER_DEVICE_ID));
+
+        // when
+        int result = sessionStoreDAO.updateTokenEntriesByUsername(SESSION_STORE_TOKEN_ENTRY_1.getUsername(), OTHER_DEVICE_ID,
+                TokenStatus.ACTIVE, TokenStatus.REVOKED);
+
+        // then
+        assertThat(result, equalTo(1));
+        assertThat(sessionStoreDAO.getTokenEntry(CONTROL_TOKEN).get().getStatus(), equalTo(TokenStatus.REVOKED));
+        assertThat(sessionStoreDAO.getTokenEntry(ADDITIONAL_TOKEN).get().getStatus(), equalTo(TokenStatus.ACTIVE));
+        assertThat(sessionStoreDAO.updateTokenEntriesByUsername(SESSION_STORE_TOKEN_ENTRY_1.getUsername(), null,
+                TokenStatus.ACTIVE, TokenStatus.REVOKED), equalTo(1));
+        assertThat(sessionStoreDAO.getTokenEntry(ADDITIONAL_TOKEN).get().getStatus(), equalTo(TokenStatus.REVOKED));
+        assertThat(sessionStoreDAO.getTokenEntry("token-2").get().getStatus(), equalTo(TokenStatus.REVOKED));
+    }
+
+    @Test
+    public void shouldUpsertTokenEntryReplaceTokenOfSameDevice() {
+
+        // when
+        int result = sessionStoreDAO.upsertTokenEntry(prepareNewSessionOfControlUser(NEW_TOKEN, SESSION_STORE_TOKEN_ENTRY_1.getDeviceID()), 0);
+
+        // then
+        assertThat(result, equalTo(1));
+        assertThat(sessionStoreDAO.getTokenEntry(CONTROL_TOKEN).isPresent(), is(false));
+        assertThat(sessionStoreDAO.getTokenEntry(NEW_TOKEN).isPresent(), is(true));
+        assertThat(sessionStoreDAO.countTokenEntriesByUsername(SESSION_STORE_TOKEN_ENTRY_1.getUsername()), equalTo(1));
+        assertThat(sessionStoreDAO.getTokenEntry("token-2").isPresent(), is(true));
+    }
+
+    @Test
+    public void shouldUpsertTokenEntryEvictLeastRecentlyIssuedTokensOverLimit() {
+
+        // given
+        sessionStoreDAO.insertTokenEntry(prepareAdditionalSessionOfControlUser(OTHER_DEVICE_ID));
+
+        // when
+        int result = sessionStoreDAO.upsertTokenEntry(prepareNewSessionOfControlUser(NEW_TOKEN, UUID.randomUUID()), 1);
+
+        // then
+        assertThat(result, equalTo(2));
+        assertThat(sessionStoreDAO.getTokenEntry(CONTROL_TOKEN).isPresent(), is(false));
+        assertThat(sessionStoreDAO.getTokenEntry(ADDITIONAL_TOKEN).isPresent(), is(false));
+        assertThat(sessionStoreDAO.getTokenEntry(NEW_TOKEN).isPresent(), is(true));
+        assertThat(sessionStoreDAO.upsertTokenEntry(prepareNewSessionOfControlUser("token-newest", UUID.randomUUID()), 2), equalTo(0));
+        assertThat(sessionStoreDAO.countTokenEntriesByUsername(SESSION_STORE_TOKEN_ENTRY_1.getUsername()), equalTo(2));
+    }
+
+    @Test
+    public void shouldUpdateLastActivitiesKeepingLaterOnes() {
+
+        // given
+        long issued = SESSION_STORE_TOKEN_ENTRY_1.getIssued().getTime();
+        Date lastActivity = new Date(issued + 600000L);
+        sessionStoreDAO.updateLastActivities(Collections.singletonMap(digest(CONTROL_TOKEN), lastActivity));
+
+        // when
+        Map<ByteBuffer, Date> lastActivities = new HashMap<>();
+        lastActivities.put(digest(CONTROL_TOKEN), new Date(issued + 60000L));
+        lastActivities.put(digest("token-not-existing"), lastActivity);
+        sessionStoreDAO.updateLastActivities(lastActivities);
+
+        // then
+        assertThat(sessionStoreDAO.getTokenEntry(CONTROL_TOKEN).get().getLastActivity(), equalTo(new Timestamp(lastActivity.getTime())));
+        assertThat(sessionStoreDAO.getTokenEntry("token-2").get().getLastActivity(), nullValue());
+        assertThat(sessionStoreDAO.getTokenEntry("token-not-existing").isPresent(), is(false));
+    }
+
+    @Test
+    public void shouldUpsertTokenEntryEvictLeastRecentlyUsedToken() {
+
+        // given
+        sessionStoreDAO.insertTokenEntry(prepareAdditionalSessionOfControlUser(OTHER_DEVICE_ID));
+        sessionStoreDAO.updateLastActivities(Collections.singletonMap(digest(CONTROL_TOKEN), new Date(SESSION_STORE_TOKEN_ENTRY_1.getIssued().getTime() + 7200000L)));
+
+        // when
+        int result = sessionStoreDAO.upsertTokenEntry(prepareNewSessionOfControlUser(NEW_TOKEN, UUID.randomUUID()), 2);
+
+        // then
+        assertThat(result, equalTo(1));
+        assertThat(sessionStoreDAO.getTokenEntry(CONTROL_TOKEN).isPresent(), is(true));
+        assertThat(sessionStoreDAO.getTokenEntry(ADDITIONAL_TOKEN).isPresent(), is(false));
+        assertThat(sessionStoreDAO.getTokenEntry(NEW_TOKEN).isPresent(), is(true));
+    }
+
     @Test
     public void shouldRemoveTokenEntry() {
 
@@ -128,6 +284,104 @@ public class SessionStoreDAOImplTest {
         assertThat(sessionStoreDAO.getTokenEntry(CONTROL_TOKEN).isPresent(), is(false));
     }
 
+    @Test
+    public void shouldRemoveExpiredTokenEntries() {
+
+        // when
+        int result = sessionStoreDAO.removeExpiredTokenEntries(prepareTimestamp(0), 10);
+
+        // then
+        assertThat(result, equalTo(1));
+        List<SessionStoreTokenEntry> current = sessionStoreDAO.getAllTokenEntries();
+        assertThat(current.size(), equalTo(2));
+        assertThat(current.containsAll(Arrays.asList(withoutToken(SESSION_STORE_TOKEN_ENTRY_1), withoutToken(SESSION_STORE_TOKEN_ENTRY_2))), is(true));
+    }
+
+    @Test
+    public void shouldRemoveExpiredTokenEntriesUpToLimit() {
+
+        // when
+        int firstChunk = sessionStoreDAO.removeExpiredTokenEntries(prepareTimestamp(-2), 2);
+        int secondChunk = sessionStoreDAO.removeExpiredTokenEntries(prepareTimestamp(-2), 2);
+
+        // then
+        assertThat(firstChunk, equalTo(2));
+        assertThat(secondChunk, equalTo(1));
+        assertThat(sessionStoreDAO.getAllTokenEntries().isEmpty(), is(true));
+    }
+
+    @Test
+    public void shouldInsertTokenEntriesInBatch() {
+
+        // given
+        SessionStoreTokenEntry additionalEntry = prepareSessionStoreTokenEntry(5, TokenStatus.REVOKED);
+
+        // when
+        sessionStoreDAO.insertTokenEntries(Arrays.asList(SESSION_STORE_TOKEN_ENTRY_TO_INSERT, additionalEntry));
+
+        // then
+        assertThat(sessionStoreDAO.getAllTokenEntries().size(), equalTo(5));
+        assertThat(sessionStoreDAO.getTokenEntry(SESSION_STORE_TOKEN_ENTRY_TO_INSERT.getToken()).get(), equalTo(SESSION_STORE_TOKEN_ENTRY_TO_INSERT));
+        assertThat(sessionStoreDAO.getTokenEntry(additionalEntry.getToken()).get(), equalTo(additionalEntry));
+    }
+
+    @Test
+    public void shouldUpdateTokenEntriesInBatch() {
+
+        // given
+        Map<String, TokenStatus> statuses = new LinkedHashMap<>();
+        statuses.put(CONTROL_TOKEN, TokenStatus.REVOKED);
+        statuses.put("token-2", TokenStatus.COMPROMISED);
+
+        // when
+        sessionStoreDAO.updateTokenEntries(statuses);
+
+        // then
+        assertThat(sessionStoreDAO.getTokenEntry(CONTROL_TOKEN).get().getStatus(), equalTo(TokenStatus.REVOKED));
+        assertThat(sessionStoreDAO.getTokenEntry("token-2").get().getStatus(), equalTo(TokenStatus.COMPROMISED));
+        assertThat(sessionStoreDAO.getTokenEntry("token-3").get().getStatus(), equalTo(TokenStatus.COMPROMISED));
+    }
+
+    @Test
+    public void shouldCompareAndUpdateTokenEntriesInBatchOnlyWithExpectedStatus() {
+
+        // given
+        Map<String, TokenStatus> statuses = new LinkedHashMap<>();
+        statuses.put(CONTROL_TOKEN, TokenStatus.COMPROMISED);
+        statuses.put("token-2", TokenStatus.COMPROMISED);
+
+        // when
+        sessionStoreDAO.compareAndUpdateTokenEntries(TokenStatus.ACTIVE, statuses);
+
+        // then
+        assertThat(sessionStoreDAO.getTokenEntry(CONTROL_TOKEN).get().getStatus(), equalTo(TokenStatus.COMPROMISED));
+        assertThat(sessionStoreDAO.getTokenEntry("token-2").get().getStatus(), equalTo(TokenStatus.REVOKED));
+    }
+
+    private static SessionStoreTokenEntry prepareNewSessionOfControlUser(String token, UUID deviceID) {
+        return SessionStoreTokenEntry.getBuilder()
+                .withToken(token)
+                .withDeviceID(deviceID)
+                .withRemoteAddress("127.0.0.1")
+                .withStatus(TokenStatus.ACTIVE)
+                .withUsername(SESSION_STORE_TOKEN_ENTRY_1.getUsername())
+                .withIssued(new Timestamp(SESSION_STORE_TOKEN_ENTRY_1.getIssued().getTime() + 3600000L))
+                .withExpires(SESSION_STORE_TOKEN_ENTRY_1.getExpires())
+                .build();
+    }
+
+    private static SessionStoreTokenEntry prepareAdditionalSessionOfControlUser(UUID deviceID) {
+        return SessionStoreTokenEntry.getBuilder()
+                .withToken(ADDITIONAL_TOKEN)
+                .withDeviceID(deviceID)
+                .withRemoteAddress("127.0.0.1")
+                .withStatus(TokenStatus.ACTIVE)
+                .withUsername(SESSION_STORE_TOKEN_ENTRY_1.getUsername())
+                .withIssued(SESSION_STORE_TOKEN_ENTRY_1.getIssued())
+                .withExpires(SESSION_STORE_TOKEN_ENTRY_1.getExpires())
+                .build();
+    }
+
     private static SessionStoreTokenEntry prepareSessionStoreTokenEntry(int offset, TokenStatus status) {
         return SessionStoreTokenEntry.getBuilder()
                 .withToken("token-" + offset)
@@ -140,6 +394,17 @@ public class SessionStoreDAOImplTest {
                 .build();
     }
 
+    private static SessionStoreTokenEntry withoutToken(SessionStoreTokenEntry sessionStoreTokenEntry) {
+        return SessionStoreTokenEntry.getBuilder()
+                .withDeviceID(sessionStoreTokenEntry.getDeviceID())
+                .withRemoteAddress(sessionStoreTokenEntry.getRemoteAddress())
+                .withStatus(sessionStoreTokenEntry.getStatus())
+                .withUsername(sessionStoreTokenEntry.getUsername())
+                .withIssued(sessionStoreTokenEntry.getIssued())
+                .withExpires(sessionStoreTokenEntry.getExpires())
+                .build();
+    }
+
     private static Timestamp prepareTimestamp(int offset) {
 
         Date date = new Calendar.Builder()
@@ -151,14 +416,23 @@ public class SessionStoreDAOImplTest {
         return new Timestamp(date.getTime());
     }
 
+    private ByteBuffer digest(String token) {
+        return ByteBuffer.wrap(tokenDigestConverter.convert(token));
+    }
+
     @Configuration
     @Import(SessionStoreDataSourceConfiguration.class)
     @ComponentScan("hu.psprog.leaflet.security.sessionstore.dao")
     public static class SessionStoreDAOITConfiguration {
 
+        @Bean
+        public TokenDigestConverter tokenDigestConverter() {
+            return new TokenDigestConverter();
+        }
+
         @Bean
         public SessionStoreTokenEntryConverter sessionStoreTokenEntryConverter() {
-            return new SessionStoreTokenEntryConverter();
+            return new SessionStoreTokenEntryConverter(tokenDigestConverter());
         }
 
         @Bean
@@ -0,0 +1,433 @@
+package hu.psprog.leaflet.security.sessionstore.dao.impl;
+
+import hu.psprog.leaflet.security.sessionstore.conversion.TokenDigestConverter;
+import hu.psprog.leaflet.security.sessionstore.dao.SessionStoreDAO;
+import hu.psprog.leaflet.security.sessionstore.domain.SessionStoreTokenEntry;
+import hu.psprog.leaflet.security.sessionstore.domain.TokenStatus;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DuplicateKeyException;
+
+import java.nio.ByteBuffer;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.BDDMockito.willThrow;
+import static org.mockito.Mockito.atLeast;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * Unit tests for {@link WriteBehindSessionStoreDAOImpl}.
+ *
+ * @author Peter Smith
+ */
+@ExtendWith(MockitoExtension.class)
+public class WriteBehindSessionStoreDAOImplTest {
+
+    private static final long BASE_TIME = 1521914400000L;
+    private static final SessionStoreTokenEntry SESSION_STORE_TOKEN_ENTRY_1 = prepareSessionStoreTokenEntry(1);
+    private static final SessionStoreTokenEntry SESSION_STORE_TOKEN_ENTRY_2 = prepareSessionStoreTokenEntry(2);
+    private static final SessionStoreTokenEntry SESSION_STORE_TOKEN_ENTRY_3 = prepareSessionStoreTokenEntry(3);
+    private static final int QUEUE_CAPACITY = 10;
+    private static final int BATCH_SIZE = 100;
+    private static final long LONG_LINGER_IN_MILLIS = 60000L;
+    private static final int UPSERTING_THREADS = 4;
+    private static final int FLUSHING_THREADS = 2;
+    private static final int UPSERTS_PER_THREAD = 2000;
+
+    @Mock
+    private SessionStoreDAOImpl sessionStoreDAO;
+
+    private final TokenDigestConverter tokenDigestConverter = new TokenDigestConverter();
+
+    private WriteBehindSessionStoreDAOImpl writeBehindSessionStoreDAO;
+
+    @BeforeEach
+    public void setup() {
+        writeBehindSessionStoreDAO = new WriteBehindSessionStoreDAOImpl(sessionStoreDAO, tokenDigestConverter, QUEUE_CAPACITY, BATCH_SIZE, LONG_LINGER_IN_MILLIS);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        writeBehindSessionStoreDAO.destroy();
+    }
+
+    @Test
+    public void shouldReturnPendingInsertBeforeFlush() {
+
+        // given
+        writeBehindSessionStoreDAO.insertTokenEntry(SESSION_STORE_TOKEN_ENTRY_1);
+
+        // when
+        Optional<SessionStoreTokenEntry> result = writeBehindSessionStoreDAO.getTokenEntry(SESSION_STORE_TOKEN_ENTRY_1.getToken());
+
+        // then
+        assertThat(result, equalTo(Optional.of(SESSION_STORE_TOKEN_ENTRY_1)));
+        assertThat(writeBehindSessionStoreDAO.getPendingWriteCount(), equalTo(1));
+        verifyNoInteractions(sessionStoreDAO);
+    }
+
+    @Test
+    public void shouldApplyPendingStatusUpdateOnStoredToken() {
+
+        // given
+        given(sessionStoreDAO.getTokenEntry(SESSION_STORE_TOKEN_ENTRY_1.getToken())).willReturn(Optional.of(SESSION_STORE_TOKEN_ENTRY_1));
+        writeBehindSessionStoreDAO.updateTokenEntry(SESSION_STORE_TOKEN_ENTRY_1.getToken(), TokenStatus.REVOKED);
+
+        // when
+        Optional<SessionStoreTokenEntry> result = writeBehindSessionStoreDAO.getTokenEntry(SESSION_STORE_TOKEN_ENTRY_1.getToken());
+
+        // then
+        assertThat(result, equalTo(Optional.of(SESSION_STORE_TOKEN_ENTRY_1.withStatus(TokenStatus.REVOKED))));
+    }
+
+    @Test
+    public void shouldCompareAndUpdateTokenEntryAgainstPendingStatus() {
+
+        // given
+        writeBehindSessionStoreDAO.insertTokenEntry(SESSION_STORE_TOKEN_ENTRY_1);
+
+        // when
+        boolean firstResult = writeBehindSessionStoreDAO.compareAndUpdateTokenEntry(SESSION_STORE_TOKEN_ENTRY_1.getToken(), TokenStatus.ACTIVE, TokenStatus.REVOKED);
+        boolean secondResult = writeBehindSessionStoreDAO.compareAndUpdateTokenEntry(SESSION_STORE_TOKEN_ENTRY_1.getToken(), TokenStatus.ACTIVE, TokenStatus.COMPROMISED);
+
+        // then
+        assertThat(firstResult, is(true));
+        assertThat(secondResult, is(false));
+        assertThat(writeBehindSessionStoreDAO.getTokenEntry(SESSION_STORE_TOKEN_ENTRY_1.getToken()).get().getStatus(), equalTo(TokenStatus.REVOKED));
+        verifyNoInteractions(sessionStoreDAO);
+    }
+
+    @Test
+    public void shouldQueueTransitionOfStoredTokenWithoutReadingIt() {
+
+        // when
+        boolean result = writeBehindSessionStoreDAO.compareAndUpdateTokenEntry(SESSION_STORE_TOKEN_ENTRY_1.getToken(), TokenStatus.ACTIVE, TokenStatus.REVOKED);
+
+        // then
+        assertThat(result, is(true));
+        assertThat(writeBehindSessionStoreDAO.getPendingWriteCount(), equalTo(1));
+        verifyNoInteractions(sessionStoreDAO);
+    }
+
+    @Test
+    public void shouldApplyPendingTransitionOnlyOnStoredTokenWithExpectedStatus() {
+
+        // given
+        given(sessionStoreDAO.getTokenEntry(SESSION_STORE_TOKEN_ENTRY_1.getToken()))
+                .willReturn(Optional.of(SESSION_STORE_TOKEN_ENTRY_1.withStatus(TokenStatus.COMPROMISED)));
+        given(sessionStoreDAO.getTokenEntry(SESSION_STORE_TOKEN_ENTRY_2.getToken())).willReturn(Optional.of(SESSION_STORE_TOKEN_ENTRY_2));
+        writeBehindSessionStoreDAO.compareAndUpdateTokenEntry(SESSION_STORE_TOKEN_ENTRY_1.getToken(), TokenStatus.ACTIVE, TokenStatus.REVOKED);
+        writeBehindSessionStoreDAO.compareAndUpdateTokenEntry(SESSION_STORE_TOKEN_ENTRY_2.getToken(), TokenStatus.ACTIVE, TokenStatus.REVOKED);
+
+        // when
+        Optional<SessionStoreTokenEntry> result1 = writeBehindSessionStoreDAO.getTokenEntry(SESSION_STORE_TOKEN_ENTRY_1.getToken());
+        Optional<SessionStoreTokenEntry> result2 = writeBehindSessionStoreDAO.getTokenEntry(SESSION_STORE_TOKEN_ENTRY_2.getToken());
+
+        // then
+        assertThat(result1.map(SessionStoreTokenEntry::getStatus), equalTo(Optional.of(TokenStatus.COMPROMISED)));
+        assertThat(result2.map(SessionStoreTokenEntry::getStatus), equalTo(Optional.of(TokenStatus.REVOKED)));
+    }
+
+    @Test
+    public void shouldFlushPendingTransitionsAsCompareAndUpdate() {
+
+        // given
+        writeBehindSessionStoreDAO.compareAndUpdateTokenEntry(SESSION_STORE_TOKEN_ENTRY_1.getToken(), TokenStatus.ACTIVE, TokenStatus.REVOKED);
+        writeBehindSessionStoreDAO.compareAndUpdateTokenEntry(SESSION_STORE_TOKEN_ENTRY_1.getToken(), TokenStatus.REVOKED, TokenStatus.COMPROMISED);
+
+        // when
+        writeBehindSessionStoreDAO.destroy();
+
+        // then
+        verify(sessionStoreDAO).compareAndUpdateTokenEntries(TokenStatus.ACTIVE,
+                Collections.singletonMap(SESSION_STORE_TOKEN_ENTRY_1.getToken(), TokenStatus.COMPROMISED));
+        verify(sessionStoreDAO, never()).updateTokenEntries(anyMap());
+        assertThat(writeBehindSessionStoreDAO.getPendingWriteCount(), equalTo(0));
+    }
+
+    @Test
+    public void shouldInsertTokenEntryThrowExceptionForPendingToken() {
+
+        // given
+        writeBehindSessionStoreDAO.insertTokenEntry(SESSION_STORE_TOKEN_ENTRY_1);
+
+        // when
+        Assertions.assertThrows(DuplicateKeyException.class, () -> writeBehindSessionStoreDAO.insertTokenEntry(SESSION_STORE_TOKEN_ENTRY_1));
+
+        // then
+        // exception expected
+    }
+
+    @Test
+    public void shouldCoalesceInsertAndStatusUpdateIntoSingleInsertOnShutdown() {
+
+        // given
+        writeBehindSessionStoreDAO.insertTokenEntry(SESSION_STORE_TOKEN_ENTRY_1);
+        writeBehindSessionStoreDAO.updateTokenEntry(SESSION_STORE_TOKEN_ENTRY_1.getToken(), TokenStatus.REVOKED);
+
+        // when
+        writeBehindSessionStoreDAO.destroy();
+
+        // then
+        verify(sessionStoreDAO).insertTokenEntries(Collections.singletonList(SESSION_STORE_TOKEN_ENTRY_1.withStatus(TokenStatus.REVOKED)));
+        verify(sessionStoreDAO, never()).updateTokenEntries(anyMap());
+        assertThat(writeBehindSessionStoreDAO.getPendingWriteCount(), equalTo(0));
+    }
+
+    @Test
+    public void shouldFlushPendingWritesBeforeRemovingExpiredTokens() {
+
+        // given
+        Date expiredBefore = new Date(BASE_TIME);
+        given(sessionStoreDAO.removeExpiredTokenEntries(expiredBefore, 10)).willReturn(1);
+        writeBehindSessionStoreDAO.updateTokenEntry(SESSION_STORE_TOKEN_ENTRY_1.getToken(), TokenStatus.COMPROMISED);
+
+        // when
+        int result = writeBehindSessionStoreDAO.removeExpiredTokenEntries(expiredBefore, 10);
+
+        // then
+        assertThat(result, equalTo(1));
+        assertThat(writeBehindSessionStoreDAO.getPendingWriteCount(), equalTo(0));
+        assertThat(writeBehindSessionStoreDAO.getFlushedBatchCount(), equalTo(1L));
+        InOrder inOrder = inOrder(sessionStoreDAO);
+        inOrder.verify(sessionStoreDAO).updateTokenEntries(Collections.singletonMap(SESSION_STORE_TOKEN_ENTRY_1.getToken(), TokenStatus.COMPROMISED));
+        inOrder.verify(sessionStoreDAO).removeExpiredTokenEntries(expiredBefore, 10);
+    }
+
+    @Test
+    public void shouldQueueUpsertWithoutWritingItToDatabase() {
+
+        // given
+        SessionStoreTokenEntry newSessionStoreTokenEntry = prepareNewSessionStoreTokenEntry("token-new", 1000L);
+        writeBehindSessionStoreDAO.insertTokenEntry(SESSION_STORE_TOKEN_ENTRY_1);
+
+        // when
+        int result = writeBehindSessionStoreDAO.upsertTokenEntry(newSessionStoreTokenEntry, 2);
+
+        // then
+        assertThat(result, equalTo(SessionStoreDAO.UNKNOWN_REMOVED_TOKEN_COUNT));
+        assertThat(writeBehindSessionStoreDAO.getTokenEntry(newSessionStoreTokenEntry.getToken()), equalTo(Optional.of(newSessionStoreTokenEntry)));
+        assertThat(writeBehindSessionStoreDAO.getPendingWriteCount(), equalTo(2));
+        verifyNoInteractions(sessionStoreDAO);
+
+        writeBehindSessionStoreDAO.destroy();
+        InOrder inOrder = inOrder(sessionStoreDAO);
+        inOrder.verify(sessionStoreDAO).insertTokenEntries(Collections.singletonList(SESSION_STORE_TOKEN_ENTRY_1));
+        inOrder.verify(sessionStoreDAO).upsertTokenEntry(newSessionStoreTokenEntry, 2);
+        assertThat(writeBehindSessionStoreDAO.getPendingWriteCount(), equalTo(0));
+    }
+
+    @Test
+    public void shouldFlushPendingUpsertsInOrderTheyHaveBeenMade() {
+
+        // given
+        SessionStoreTokenEntry firstSessionStoreTokenEntry = prepareNewSessionStoreTokenEntry("token-new-b", 1000L);
+        SessionStoreTokenEntry secondSessionStoreTokenEntry = prepareNewSessionStoreTokenEntry("token-new-a", 2000L);
+        writeBehindSessionStoreDAO.upsertTokenEntry(firstSessionStoreTokenEntry, 0);
+        writeBehindSessionStoreDAO.upsertTokenEntry(secondSessionStoreTokenEntry, 0);
+
+        // when
+        writeBehindSessionStoreDAO.destroy();
+
+        // then
+        InOrder inOrder = inOrder(sessionStoreDAO);
+        inOrder.verify(sessionStoreDAO).upsertTokenEntry(firstSessionStoreTokenEntry, 0);
+        inOrder.verify(sessionStoreDAO).upsertTokenEntry(secondSessionStoreTokenEntry, 0);
+    }
+
+    @Test
+    public void shouldFlushPendingUpsertsOfUserBeforeLookingUpItsStoredToken() {
+
+        // given
+        SessionStoreTokenEntry newSessionStoreTokenEntry = prepareNewSessionStoreTokenEntry("token-new", 1000L);
+        given(sessionStoreDAO.getTokenEntry(SESSION_STORE_TOKEN_ENTRY_1.getToken()))
+                .willReturn(Optional.of(SESSION_STORE_TOKEN_ENTRY_1))
+                .willReturn(Optional.empty());
+        writeBehindSessionStoreDAO.upsertTokenEntry(newSessionStoreTokenEntry, 2);
+
+        // when
+        Optional<SessionStoreTokenEntry> result = writeBehindSessionStoreDAO.getTokenEntry(SESSION_STORE_TOKEN_ENTRY_1.getToken());
+
+        // then
+        assertThat(result, equalTo(Optional.empty()));
+        assertThat(writeBehindSessionStoreDAO.getPendingWriteCount(), equalTo(0));
+        InOrder inOrder = inOrder(sessionStoreDAO);
+        inOrder.verify(sessionStoreDAO).getTokenEntry(SESSION_STORE_TOKEN_ENTRY_1.getToken());
+        inOrder.verify(sessionStoreDAO).upsertTokenEntry(newSessionStoreTokenEntry, 2);
+        inOrder.verify(sessionStoreDAO).getTokenEntry(SESSION_STORE_TOKEN_ENTRY_1.getToken());
+    }
+
+    @Test
+    public void shouldNotFlushAnythingOnLookingUpStoredTokenOfUserWithoutPendingUpserts() {
+
+        // given
+        given(sessionStoreDAO.getTokenEntry(SESSION_STORE_TOKEN_ENTRY_2.getToken())).willReturn(Optional.of(SESSION_STORE_TOKEN_ENTRY_2));
+        writeBehindSessionStoreDAO.upsertTokenEntry(prepareNewSessionStoreTokenEntry("token-new", 1000L), 2);
+
+        // when
+        Optional<SessionStoreTokenEntry> result = writeBehindSessionStoreDAO.getTokenEntry(SESSION_STORE_TOKEN_ENTRY_2.getToken());
+
+        // then
+        assertThat(result, equalTo(Optional.of(SESSION_STORE_TOKEN_ENTRY_2)));
+        assertThat(writeBehindSessionStoreDAO.getPendingWriteCount(), equalTo(1));
+        verify(sessionStoreDAO, never()).upsertTokenEntry(any(SessionStoreTokenEntry.class), anyInt());
+    }
+
+    @Test
+    public void shouldFlushEveryPendingUpsertOfUserInterleavedWithFlushes() throws Exception {
+
+        // given
+        SessionStoreDAOImpl stubOnlySessionStoreDAO = mock(SessionStoreDAOImpl.class, withSettings().stubOnly());
+        given(stubOnlySessionStoreDAO.getTokenEntry(SESSION_STORE_TOKEN_ENTRY_1.getToken())).willReturn(Optional.of(SESSION_STORE_TOKEN_ENTRY_1));
+        writeBehindSessionStoreDAO.destroy();
+        writeBehindSessionStoreDAO = new WriteBehindSessionStoreDAOImpl(stubOnlySessionStoreDAO, tokenDigestConverter,
+                UPSERTS_PER_THREAD * UPSERTING_THREADS, UPSERTS_PER_THREAD * UPSERTING_THREADS, LONG_LINGER_IN_MILLIS);
+        AtomicInteger runningUpserters = new AtomicInteger(UPSERTING_THREADS);
+        ExecutorService executorService = Executors.newFixedThreadPool(UPSERTING_THREADS + FLUSHING_THREADS);
+        List<Callable<Boolean>> tasks = new ArrayList<>();
+        for (int thread = 0; thread < UPSERTING_THREADS; thread++) {
+            String tokenPrefix = "token-new-" + thread + "-";
+            tasks.add(() -> {
+                try {
+                    for (int i = 0; i < UPSERTS_PER_THREAD; i++) {
+                        writeBehindSessionStoreDAO.upsertTokenEntry(prepareNewSessionStoreTokenEntry(tokenPrefix + i, i), 2);
+                    }
+                } finally {
+                    runningUpserters.decrementAndGet();
+                }
+                return true;
+            });
+        }
+        for (int thread = 0; thread < FLUSHING_THREADS; thread++) {
+            tasks.add(() -> {
+                while (runningUpserters.get() > 0) {
+                    writeBehindSessionStoreDAO.getTokenEntry(SESSION_STORE_TOKEN_ENTRY_1.getToken());
+                }
+                return true;
+            });
+        }
+
+        // when
+        for (Future<Boolean> result : executorService.invokeAll(tasks)) {
+            assertThat(result.get(), is(true));
+        }
+        executorService.shutdown();
+        writeBehindSessionStoreDAO.getTokenEntry(SESSION_STORE_TOKEN_ENTRY_1.getToken());
+
+        // then
+        assertThat(writeBehindSessionStoreDAO.getPendingWriteCount(), equalTo(0));
+    }
+
+    @Test
+    public void shouldFlushPendingWritesOfTokensBeforeUpdatingLastActivities() {
+
+        // given
+        Map<ByteBuffer, Date> lastActivities = Collections.singletonMap(ByteBuffer.wrap(tokenDigestConverter.convert(SESSION_STORE_TOKEN_ENTRY_1.getToken())),
+                new Date(BASE_TIME + 60000L));
+        writeBehindSessionStoreDAO.insertTokenEntry(SESSION_STORE_TOKEN_ENTRY_1);
+        writeBehindSessionStoreDAO.insertTokenEntry(SESSION_STORE_TOKEN_ENTRY_2);
+
+        // when
+        writeBehindSessionStoreDAO.updateLastActivities(lastActivities);
+
+        // then
+        assertThat(writeBehindSessionStoreDAO.getPendingWriteCount(), equalTo(1));
+        InOrder inOrder = inOrder(sessionStoreDAO);
+        inOrder.verify(sessionStoreDAO).insertTokenEntries(Collections.singletonList(SESSION_STORE_TOKEN_ENTRY_1));
+        inOrder.verify(sessionStoreDAO).updateLastActivities(lastActivities);
+    }
+
+    @Test
+    public void shouldRetryFailedBatchInsertOneByOne() {
+
+        // given
+        willThrow(new DuplicateKeyException("duplicate")).given(sessionStoreDAO)
+                .insertTokenEntries(Arrays.asList(SESSION_STORE_TOKEN_ENTRY_1, SESSION_STORE_TOKEN_ENTRY_2));
+        lenient().doThrow(new DuplicateKeyException("duplicate")).when(sessionStoreDAO).insertTokenEntry(SESSION_STORE_TOKEN_ENTRY_2);
+        writeBehindSessionStoreDAO.insertTokenEntry(SESSION_STORE_TOKEN_ENTRY_1);
+        writeBehindSessionStoreDAO.insertTokenEntry(SESSION_STORE_TOKEN_ENTRY_2);
+
+        // when
+        writeBehindSessionStoreDAO.destroy();
+
+        // then
+        verify(sessionStoreDAO).insertTokenEntry(SESSION_STORE_TOKEN_ENTRY_1);
+        verify(sessionStoreDAO).insertTokenEntry(SESSION_STORE_TOKEN_ENTRY_2);
+        assertThat(writeBehindSessionStoreDAO.getFailedWriteCount(), equalTo(1L));
+        assertThat(writeBehindSessionStoreDAO.getPendingWriteCount(), equalTo(0));
+    }
+
+    @Test
+    public void shouldFlushInBatchesInBackground() {
+
+        // given
+        writeBehindSessionStoreDAO.destroy();
+        writeBehindSessionStoreDAO = new WriteBehindSessionStoreDAOImpl(sessionStoreDAO, tokenDigestConverter, QUEUE_CAPACITY, 2, 1L);
+
+        // when
+        writeBehindSessionStoreDAO.insertTokenEntry(SESSION_STORE_TOKEN_ENTRY_1);
+        writeBehindSessionStoreDAO.insertTokenEntry(SESSION_STORE_TOKEN_ENTRY_2);
+        writeBehindSessionStoreDAO.insertTokenEntry(SESSION_STORE_TOKEN_ENTRY_3);
+
+        // then
+        verify(sessionStoreDAO, timeout(5000).atLeast(2)).insertTokenEntries(anyList());
+    }
+
+    private static SessionStoreTokenEntry prepareNewSessionStoreTokenEntry(String token, long issuedOffset) {
+        return SessionStoreTokenEntry.getBuilder()
+                .withToken(token)
+                .withDeviceID(SESSION_STORE_TOKEN_ENTRY_1.getDeviceID())
+                .withRemoteAddress("127.0.0.1")
+                .withStatus(TokenStatus.ACTIVE)
+                .withUsername(SESSION_STORE_TOKEN_ENTRY_1.getUsername())
+                .withIssued(new Timestamp(BASE_TIME + issuedOffset))
+                .withExpires(new Timestamp(BASE_TIME + 3600000L))
+                .build();
+    }
+
+    private static SessionStoreTokenEntry prepareSessionStoreTokenEntry(int offset) {
+        return SessionStoreTokenEntry.getBuilder()
+                .withToken("token-" + offset)
+                .withDeviceID(new UUID(offset, offset))
+                .withRemoteAddress("127.0.0.1")
+                .withStatus(TokenStatus.ACTIVE)
+                .withUsername("user-" + offset)
+                .withIssued(new Timestamp(BASE_TIME))
+                .withExpires(new Timestamp(BASE_TIME + 3600000L))
+                .build();
+    }
+}
@@ -0,0 +1,140 @@
+package hu.psprog.leaflet.security.sessionstore.service.impl;
+
+import hu.psprog.leaflet.security.sessionstore.dao.RevocationWatermarkDAO;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.Date;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+
+/**
+ * Unit tests for {@link RevocationWatermarks}.
+ *
+ * @author Peter Smith
+ */
+@ExtendWith(MockitoExtension.class)
+public class RevocationWatermarksTest {
+
+    private static final String USERNAME = "user-1";
+    private static final String OTHER_USERNAME = "user-2";
+    private static final long WATERMARK = 1_600_000_000_000L;
+    private static final int MAX_TOKEN_LIFETIME_IN_HOURS = 4;
+
+    @Mock
+    private RevocationWatermarkDAO revocationWatermarkDAO;
+
+    @Test
+    public void shouldNotRevokeAnyTokenWithoutWatermarks() {
+
+        // given
+        RevocationWatermarks revocationWatermarks = new RevocationWatermarks(revocationWatermarkDAO, MAX_TOKEN_LIFETIME_IN_HOURS);
+
+        // when
+        boolean result = revocationWatermarks.isRevoked(USERNAME, null);
+
+        // then
+        assertThat(result, is(false));
+    }
+
+    @Test
+    public void shouldCheckTokensAgainstStoredWatermarks() {
+
+        // given
+        given(revocationWatermarkDAO.getGlobalWatermark()).willReturn(Optional.of(new Date(WATERMARK)));
+        given(revocationWatermarkDAO.getUserWatermarks()).willReturn(Map.of(USERNAME, new Date(WATERMARK + 10_000L)));
+        RevocationWatermarks revocationWatermarks = new RevocationWatermarks(revocationWatermarkDAO, MAX_TOKEN_LIFETIME_IN_HOURS);
+
+        // then
+        assertThat(revocationWatermarks.isRevoked(OTHER_USERNAME, new Date(WATERMARK - 1000L)), is(true));
+        assertThat(revocationWatermarks.isRevoked(OTHER_USERNAME, new Date(WATERMARK)), is(false));
+        assertThat(revocationWatermarks.isRevoked(USERNAME, new Date(WATERMARK + 9000L)), is(true));
+        assertThat(revocationWatermarks.isRevoked(USERNAME, new Date(WATERMARK + 10_000L)), is(false));
+        assertThat(revocationWatermarks.isRevoked(null, new Date(WATERMARK + 9000L)), is(false));
+        assertThat(revocationWatermarks.getUserWatermarkCount(), equalTo(1));
+    }
+
+    @Test
+    public void shouldRevokeGlobalWatermarkTruncatedToSecondAndOnlyMoveForward() {
+
+        // given
+        RevocationWatermarks revocationWatermarks = new RevocationWatermarks(revocationWatermarkDAO, MAX_TOKEN_LIFETIME_IN_HOURS);
+
+        // when
+        revocationWatermarks.revokeIssuedBefore(new Date(WATERMARK + 999L));
+        revocationWatermarks.revokeIssuedBefore(new Date(WATERMARK - 1000L));
+
+        // then
+        assertThat(revocationWatermarks.isRevoked(USERNAME, new Date(WATERMARK - 1000L)), is(true));
+        assertThat(revocationWatermarks.isRevoked(USERNAME, new Date(WATERMARK)), is(false));
+        verify(revocationWatermarkDAO).saveGlobalWatermark(new Date(WATERMARK));
+        verify(revocationWatermarkDAO).getGlobalWatermark();
+        verify(revocationWatermarkDAO).getUserWatermarks();
+        verifyNoMoreInteractions(revocationWatermarkDAO);
+    }
+
+    @Test
+    public void shouldRevokeUserWatermarkOnlyForGivenUserAndOnlyMoveForward() {
+
+        // given
+        RevocationWatermarks revocationWatermarks = new RevocationWatermarks(revocationWatermarkDAO, MAX_TOKEN_LIFETIME_IN_HOURS);
+
+        // when
+        revocationWatermarks.revokeIssuedBefore(USERNAME, new Date(WATERMARK));
+        revocationWatermarks.revokeIssuedBefore(USERNAME, new Date(WATERMARK - 5000L));
+
+        // then
+        assertThat(revocationWatermarks.isRevoked(USERNAME, new Date(WATERMARK - 1000L)), is(true));
+        assertThat(revocationWatermarks.isRevoked(OTHER_USERNAME, new Date(WATERMARK - 1000L)), is(false));
+        verify(revocationWatermarkDAO).saveUserWatermark(USERNAME, new Date(WATERMARK));
+        verify(revocationWatermarkDAO).getGlobalWatermark();
+        verify(revocationWatermarkDAO).getUserWatermarks();
+        verifyNoMoreInteractions(revocationWatermarkDAO);
+    }
+
+    @Test
+    public void shouldNotRevokeTokenOfLoginRightAfterRevokingTokensOfUser() {
+
+        // given
+        RevocationWatermarks revocationWatermarks = new RevocationWatermarks(revocationWatermarkDAO, MAX_TOKEN_LIFETIME_IN_HOURS);
+
+        // when
+        revocationWatermarks.revokeIssuedBefore(USERNAME, new Date(WATERMARK + 400L));
+
+        // then
+        assertThat(revocationWatermarks.isRevoked(USERNAME, new Date(WATERMARK - 1000L)), is(true));
+        assertThat(revocationWatermarks.isRevoked(USERNAME, new Date(WATERMARK)), is(false));
+        verify(revocationWatermarkDAO).saveUserWatermark(USERNAME, new Date(WATERMARK));
+    }
+
+    @Test
+    public void shouldPruneUserWatermarksOlderThanMaximumTokenLifetime() {
+
+        // given
+        long now = System.currentTimeMillis();
+        given(revocationWatermarkDAO.getUserWatermarks()).willReturn(Map.of(
+                USERNAME, new Date(now - TimeUnit.HOURS.toMillis(MAX_TOKEN_LIFETIME_IN_HOURS + 1)),
+                OTHER_USERNAME, new Date(now - TimeUnit.HOURS.toMillis(MAX_TOKEN_LIFETIME_IN_HOURS - 1))));
+        RevocationWatermarks revocationWatermarks = new RevocationWatermarks(revocationWatermarkDAO, MAX_TOKEN_LIFETIME_IN_HOURS);
+
+        // when
+        int result = revocationWatermarks.pruneExpiredUserWatermarks();
+
+        // then
+        assertThat(result, equalTo(1));
+        assertThat(revocationWatermarks.getUserWatermarkCount(), equalTo(1));
+        assertThat(revocationWatermarks.isRevoked(OTHER_USERNAME, new Date(now - TimeUnit.HOURS.toMillis(MAX_TOKEN_LIFETIME_IN_HOURS))), is(true));
+        verify(revocationWatermarkDAO).removeUserWatermarksBefore(any(Date.class));
+    }
+}
@@ -0,0 +1,166 @@
+package hu.psprog.leaflet.security.sessionstore.service.impl;
+
+import hu.psprog.leaflet.security.sessionstore.conversion.TokenDigestConverter;
+import hu.psprog.leaflet.security.sessionstore.dao.SessionStoreDAO;
+import hu.psprog.leaflet.security.sessionstore.domain.SessionStoreTokenEntry;
+import hu.psprog.leaflet.security.sessionstore.domain.TokenStatus;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.TransientDataAccessResourceException;
+
+import java.nio.ByteBuffer;
+import java.sql.Timestamp;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.BDDMockito.willThrow;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+
+/**
+ * Unit tests for {@link SessionActivityTracker}.
+ *
+ * @author Peter Smith
+ */
+@ExtendWith(MockitoExtension.class)
+public class SessionActivityTrackerTest {
+
+    private static final String TOKEN = "token";
+    private static final long RESOLUTION_IN_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    private static final long IDLE_TIMEOUT_IN_MILLIS = TimeUnit.MINUTES.toMillis(30);
+
+    @Mock
+    private SessionStoreDAO sessionStoreDAO;
+
+    private final TokenDigestConverter tokenDigestConverter = new TokenDigestConverter();
+
+    @Test
+    public void shouldCoalesceActivitiesOfSameBucketIntoSingleWrite() {
+
+        // given
+        SessionActivityTracker sessionActivityTracker = new SessionActivityTracker(sessionStoreDAO, tokenDigestConverter, true, RESOLUTION_IN_MILLIS, IDLE_TIMEOUT_IN_MILLIS);
+        long now = System.currentTimeMillis();
+        sessionActivityTracker.recordActivity(TOKEN);
+        sessionActivityTracker.recordActivity(TOKEN);
+        sessionActivityTracker.recordActivity(TOKEN);
+
+        // when
+        int result = sessionActivityTracker.flush();
+
+        // then
+        assertThat(result, equalTo(1));
+        assertThat(sessionActivityTracker.flush(), equalTo(0));
+        assertThat(sessionActivityTracker.getFlushedActivityCount(), equalTo(1L));
+        assertThat(sessionActivityTracker.getTrackedTokenCount(), equalTo(1));
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<Map<ByteBuffer, Date>> lastActivitiesCaptor = ArgumentCaptor.forClass(Map.class);
+        verify(sessionStoreDAO).updateLastActivities(lastActivitiesCaptor.capture());
+        Date lastActivity = lastActivitiesCaptor.getValue().get(ByteBuffer.wrap(tokenDigestConverter.convert(TOKEN)));
+        assertThat(lastActivity.getTime() % RESOLUTION_IN_MILLIS, equalTo(0L));
+        assertThat(now - lastActivity.getTime(), lessThanOrEqualTo(RESOLUTION_IN_MILLIS));
+    }
+
+    @Test
+    public void shouldKeepFailedActivitiesForNextFlush() {
+
+        // given
+        SessionActivityTracker sessionActivityTracker = new SessionActivityTracker(sessionStoreDAO, tokenDigestConverter, true, RESOLUTION_IN_MILLIS, IDLE_TIMEOUT_IN_MILLIS);
+        willThrow(new TransientDataAccessResourceException("failure"))
+                .willDoNothing()
+                .given(sessionStoreDAO).updateLastActivities(anyMap());
+        sessionActivityTracker.recordActivity(TOKEN);
+
+        // when
+        int result = sessionActivityTracker.flush();
+
+        // then
+        assertThat(result, equalTo(0));
+        assertThat(sessionActivityTracker.getFailedFlushCount(), equalTo(1L));
+        assertThat(sessionActivityTracker.flush(), equalTo(1));
+        verify(sessionStoreDAO, times(2)).updateLastActivities(anyMap());
+    }
+
+    @Test
+    public void shouldDropFlushedActivitiesWithoutIdleTimeout() {
+
+        // given
+        SessionActivityTracker sessionActivityTracker = new SessionActivityTracker(sessionStoreDAO, tokenDigestConverter, true, RESOLUTION_IN_MILLIS, 0);
+        sessionActivityTracker.recordActivity(TOKEN);
+
+        // when
+        sessionActivityTracker.flush();
+
+        // then
+        assertThat(sessionActivityTracker.getTrackedTokenCount(), equalTo(0));
+        assertThat(sessionActivityTracker.isIdle(TOKEN, prepareSessionStoreTokenEntry(TimeUnit.DAYS.toMillis(1), null)), is(false));
+    }
+
+    @Test
+    public void shouldConsiderTokenIdleWithoutActivityWithinIdleTimeout() {
+
+        // given
+        SessionActivityTracker sessionActivityTracker = new SessionActivityTracker(sessionStoreDAO, tokenDigestConverter, true, RESOLUTION_IN_MILLIS, IDLE_TIMEOUT_IN_MILLIS);
+        long hourAgo = TimeUnit.HOURS.toMillis(1);
+        long minuteAgo = TimeUnit.MINUTES.toMillis(1);
+
+        // then
+        assertThat(sessionActivityTracker.isIdle(TOKEN, prepareSessionStoreTokenEntry(hourAgo, null)), is(true));
+        assertThat(sessionActivityTracker.isIdle(TOKEN, prepareSessionStoreTokenEntry(hourAgo, minuteAgo)), is(false));
+        assertThat(sessionActivityTracker.isIdle(TOKEN, prepareSessionStoreTokenEntry(minuteAgo, null)), is(false));
+    }
+
+    @Test
+    public void shouldConsiderTokenActiveAfterRecordedActivity() {
+
+        // given
+        SessionActivityTracker sessionActivityTracker = new SessionActivityTracker(sessionStoreDAO, tokenDigestConverter, true, RESOLUTION_IN_MILLIS, IDLE_TIMEOUT_IN_MILLIS);
+        SessionStoreTokenEntry sessionStoreTokenEntry = prepareSessionStoreTokenEntry(TimeUnit.HOURS.toMillis(1), null);
+
+        // when
+        sessionActivityTracker.recordActivity(TOKEN);
+
+        // then
+        assertThat(sessionActivityTracker.isIdle(TOKEN, sessionStoreTokenEntry), is(false));
+        assertThat(sessionActivityTracker.isIdle("other-token", sessionStoreTokenEntry), is(true));
+    }
+
+    @Test
+    public void shouldNeitherTrackNorConsiderTokensIdleWhenDisabled() {
+
+        // given
+        SessionActivityTracker sessionActivityTracker = new SessionActivityTracker(sessionStoreDAO, tokenDigestConverter, false, RESOLUTION_IN_MILLIS, IDLE_TIMEOUT_IN_MILLIS);
+
+        // when
+        sessionActivityTracker.recordActivity(TOKEN);
+
+        // then
+        assertThat(sessionActivityTracker.getTrackedTokenCount(), equalTo(0));
+        assertThat(sessionActivityTracker.isIdle(TOKEN, prepareSessionStoreTokenEntry(TimeUnit.HOURS.toMillis(1), null)), is(false));
+        assertThat(sessionActivityTracker.flush(), equalTo(0));
+        verifyNoInteractions(sessionStoreDAO);
+    }
+
+    private SessionStoreTokenEntry prepareSessionStoreTokenEntry(long issuedAgoInMillis, Long lastActivityAgoInMillis) {
+
+        long now = System.currentTimeMillis();
+
+        return SessionStoreTokenEntry.getBuilder()
+                .withToken(TOKEN)
+                .withStatus(TokenStatus.ACTIVE)
+                .withIssued(new Timestamp(now - issuedAgoInMillis))
+                .withExpires(new Timestamp(now + TimeUnit.HOURS.toMillis(1)))
+                .withLastActivity(lastActivityAgoInMillis != null ? new Timestamp(now - lastActivityAgoInMillis) : null)
+                .build();
+    }
+}
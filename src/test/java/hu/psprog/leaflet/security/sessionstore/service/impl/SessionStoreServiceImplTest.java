@@ -1,28 +1,35 @@
 package hu.psprog.leaflet.security.sessionstore.service.impl;
 
 import hu.psprog.leaflet.security.jwt.auth.JWTAuthenticationToken;
+import hu.psprog.leaflet.security.jwt.model.JWTPayload;
 import hu.psprog.leaflet.security.sessionstore.conversion.ClaimedTokenContextConverter;
+import hu.psprog.leaflet.security.sessionstore.conversion.TokenDigestConverter;
 import hu.psprog.leaflet.security.sessionstore.dao.SessionStoreDAO;
 import hu.psprog.leaflet.security.sessionstore.domain.ClaimedTokenContext;
 import hu.psprog.leaflet.security.sessionstore.domain.SessionStoreTokenEntry;
 import hu.psprog.leaflet.security.sessionstore.domain.SessionStoreValidationStatus;
 import hu.psprog.leaflet.security.sessionstore.domain.TokenStatus;
 import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
-import org.mockito.InjectMocks;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
 import java.sql.Timestamp;
-import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 
 import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.BDDMockito.given;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
@@ -40,6 +47,9 @@ public class SessionStoreServiceImplTest {
     private static final String TOKEN = "token";
     private static final UUID DEVICE_ID = UUID.randomUUID();
     private static final String REMOTE_ADDRESS = "remote-address";
+    private static final String USERNAME = "user";
+    private static final int CLEANUP_CHUNK_SIZE = 2;
+    private static final int MAX_SESSIONS_PER_USER = 2;
 
     @Mock
     private SessionStoreDAO sessionStoreDAO;
@@ -50,9 +60,20 @@ public class SessionStoreServiceImplTest {
     @Mock
     private JWTAuthenticationToken jwtAuthenticationToken;
 
-    @InjectMocks
+    @Mock
+    private RevocationWatermarks revocationWatermarks;
+
+    @Mock
+    private SessionActivityTracker sessionActivityTracker;
+
     private SessionStoreServiceImpl sessionStoreService;
 
+    @BeforeEach
+    public void setup() {
+        sessionStoreService = new SessionStoreServiceImpl(sessionStoreDAO, claimedTokenContextConverter, new SessionStoreStatusCache(new TokenDigestConverter(), false, 0, 0), revocationWatermarks,
+                sessionActivityTracker, CLEANUP_CHUNK_SIZE, 0, 0);
+    }
+
     @Test
     public void shouldStoreToken() {
 
@@ -70,7 +91,87 @@ public class SessionStoreServiceImplTest {
 
         // then
         verify(claimedTokenContextConverter).convert(claimedTokenContext);
-        verify(sessionStoreDAO).insertTokenEntry(sessionStoreTokenEntry);
+        verify(sessionStoreDAO).upsertTokenEntry(sessionStoreTokenEntry, 0);
+    }
+
+    @Test
+    public void shouldStoreTokenDroppingReplacedSessionsFromStatusCache() {
+
+        // given
+        SessionStoreStatusCache sessionStoreStatusCache = new SessionStoreStatusCache(new TokenDigestConverter(), true, 10, 60000L);
+        sessionStoreService = new SessionStoreServiceImpl(sessionStoreDAO, claimedTokenContextConverter, sessionStoreStatusCache, revocationWatermarks,
+                sessionActivityTracker, CLEANUP_CHUNK_SIZE, 0, MAX_SESSIONS_PER_USER);
+        given(jwtAuthenticationToken.getRawToken()).willReturn(TOKEN);
+        given(jwtAuthenticationToken.getDeviceID()).willReturn(DEVICE_ID);
+        given(jwtAuthenticationToken.getRemoteAddress()).willReturn(REMOTE_ADDRESS);
+        given(sessionStoreDAO.getTokenEntry(TOKEN))
+                .willReturn(Optional.of(prepareCacheableSessionStoreTokenEntry()))
+                .willReturn(Optional.empty());
+        sessionStoreService.validateToken(jwtAuthenticationToken);
+
+        ClaimedTokenContext claimedTokenContext = ClaimedTokenContext.getBuilder()
+                .withToken("new-token")
+                .withDeviceID(DEVICE_ID)
+                .withRemoteAddress(REMOTE_ADDRESS)
+                .build();
+        SessionStoreTokenEntry sessionStoreTokenEntry = SessionStoreTokenEntry.getBuilder()
+                .withStatus(TokenStatus.ACTIVE)
+                .withToken("new-token")
+                .withDeviceID(DEVICE_ID)
+                .withRemoteAddress(REMOTE_ADDRESS)
+                .withUsername(USERNAME)
+                .withExpires(new Timestamp(getTimeWithOffsetInMinutes(System.currentTimeMillis(), 60)))
+                .build();
+        given(claimedTokenContextConverter.convert(claimedTokenContext)).willReturn(sessionStoreTokenEntry);
+        given(sessionStoreDAO.upsertTokenEntry(sessionStoreTokenEntry, MAX_SESSIONS_PER_USER)).willReturn(1);
+
+        // when
+        sessionStoreService.storeToken(claimedTokenContext);
+
+        // then
+        assertThat(sessionStoreService.validateToken(jwtAuthenticationToken), equalTo(SessionStoreValidationStatus.UNKNOWN_TOKEN));
+        assertThat(sessionStoreStatusCache.size(), equalTo(1));
+        verify(sessionStoreDAO, times(2)).getTokenEntry(TOKEN);
+    }
+
+    @Test
+    public void shouldStoreTokenDroppingEverySessionOfUserFromStatusCacheIfRemovedSessionsAreUnknown() {
+
+        // given
+        SessionStoreStatusCache sessionStoreStatusCache = new SessionStoreStatusCache(new TokenDigestConverter(), true, 10, 60000L);
+        sessionStoreService = new SessionStoreServiceImpl(sessionStoreDAO, claimedTokenContextConverter, sessionStoreStatusCache, revocationWatermarks,
+                sessionActivityTracker, CLEANUP_CHUNK_SIZE, 0, MAX_SESSIONS_PER_USER);
+        given(jwtAuthenticationToken.getRawToken()).willReturn(TOKEN);
+        given(jwtAuthenticationToken.getDeviceID()).willReturn(DEVICE_ID);
+        given(jwtAuthenticationToken.getRemoteAddress()).willReturn(REMOTE_ADDRESS);
+        given(sessionStoreDAO.getTokenEntry(TOKEN))
+                .willReturn(Optional.of(prepareCacheableSessionStoreTokenEntry()))
+                .willReturn(Optional.empty());
+        sessionStoreService.validateToken(jwtAuthenticationToken);
+
+        ClaimedTokenContext claimedTokenContext = ClaimedTokenContext.getBuilder()
+                .withToken("new-token")
+                .withDeviceID(DEVICE_ID)
+                .withRemoteAddress(REMOTE_ADDRESS)
+                .build();
+        SessionStoreTokenEntry sessionStoreTokenEntry = SessionStoreTokenEntry.getBuilder()
+                .withStatus(TokenStatus.ACTIVE)
+                .withToken("new-token")
+                .withDeviceID(DEVICE_ID)
+                .withRemoteAddress(REMOTE_ADDRESS)
+                .withUsername(USERNAME)
+                .withExpires(new Timestamp(getTimeWithOffsetInMinutes(System.currentTimeMillis(), 60)))
+                .build();
+        given(claimedTokenContextConverter.convert(claimedTokenContext)).willReturn(sessionStoreTokenEntry);
+        given(sessionStoreDAO.upsertTokenEntry(sessionStoreTokenEntry, MAX_SESSIONS_PER_USER)).willReturn(SessionStoreDAO.UNKNOWN_REMOVED_TOKEN_COUNT);
+
+        // when
+        sessionStoreService.storeToken(claimedTokenContext);
+
+        // then
+        assertThat(sessionStoreService.validateToken(jwtAuthenticationToken), equalTo(SessionStoreValidationStatus.UNKNOWN_TOKEN));
+        assertThat(sessionStoreStatusCache.size(), equalTo(1));
+        verify(sessionStoreDAO, times(2)).getTokenEntry(TOKEN);
     }
 
     @Test
@@ -139,6 +240,27 @@ public class SessionStoreServiceImplTest {
 
         // then
         assertThat(result, equalTo(SessionStoreValidationStatus.VALID));
+        verify(sessionActivityTracker).recordActivity(TOKEN);
+    }
+
+    @Test
+    public void shouldValidateIdleTokenAsIdleWithoutRecordingActivity() {
+
+        // given
+        SessionStoreTokenEntry sessionStoreTokenEntry = prepareSessionStoreTokenEntry(true);
+        given(jwtAuthenticationToken.getRawToken()).willReturn(TOKEN);
+        given(jwtAuthenticationToken.getDeviceID()).willReturn(DEVICE_ID);
+        given(jwtAuthenticationToken.getRemoteAddress()).willReturn(REMOTE_ADDRESS);
+        given(sessionStoreDAO.getTokenEntry(anyString())).willReturn(Optional.of(sessionStoreTokenEntry));
+        given(sessionActivityTracker.isIdle(TOKEN, sessionStoreTokenEntry)).willReturn(true);
+
+        // when
+        SessionStoreValidationStatus result = sessionStoreService.validateToken(jwtAuthenticationToken);
+
+        // then
+        assertThat(result, equalTo(SessionStoreValidationStatus.IDLE));
+        verify(sessionActivityTracker, never()).recordActivity(anyString());
+        verify(sessionStoreDAO, never()).compareAndUpdateTokenEntry(anyString(), any(TokenStatus.class), any(TokenStatus.class));
     }
 
     @Test
@@ -171,7 +293,7 @@ public class SessionStoreServiceImplTest {
 
         // then
         assertThat(result, equalTo(SessionStoreValidationStatus.DIFFERENT_SOURCE));
-        verify(sessionStoreDAO).updateTokenEntry(TOKEN, TokenStatus.COMPROMISED);
+        verify(sessionStoreDAO).compareAndUpdateTokenEntry(TOKEN, TokenStatus.ACTIVE, TokenStatus.COMPROMISED);
     }
 
     @Test
@@ -188,7 +310,53 @@ public class SessionStoreServiceImplTest {
 
         // then
         assertThat(result, equalTo(SessionStoreValidationStatus.DIFFERENT_SOURCE));
-        verify(sessionStoreDAO).updateTokenEntry(TOKEN, TokenStatus.COMPROMISED);
+        verify(sessionStoreDAO).compareAndUpdateTokenEntry(TOKEN, TokenStatus.ACTIVE, TokenStatus.COMPROMISED);
+    }
+
+    @Test
+    public void shouldValidateTokenFromStatusCacheOnSubsequentCalls() {
+
+        // given
+        SessionStoreStatusCache sessionStoreStatusCache = new SessionStoreStatusCache(new TokenDigestConverter(), true, 10, 60000L);
+        sessionStoreService = new SessionStoreServiceImpl(sessionStoreDAO, claimedTokenContextConverter, sessionStoreStatusCache, revocationWatermarks,
+                sessionActivityTracker, CLEANUP_CHUNK_SIZE, 0, 0);
+        given(jwtAuthenticationToken.getRawToken()).willReturn(TOKEN);
+        given(jwtAuthenticationToken.getDeviceID()).willReturn(DEVICE_ID);
+        given(jwtAuthenticationToken.getRemoteAddress()).willReturn(REMOTE_ADDRESS);
+        given(sessionStoreDAO.getTokenEntry(TOKEN)).willReturn(Optional.of(prepareCacheableSessionStoreTokenEntry()));
+        sessionStoreService.validateToken(jwtAuthenticationToken);
+
+        // when
+        SessionStoreValidationStatus result = sessionStoreService.validateToken(jwtAuthenticationToken);
+
+        // then
+        assertThat(result, equalTo(SessionStoreValidationStatus.VALID));
+        verify(sessionStoreDAO, times(1)).getTokenEntry(TOKEN);
+        assertThat(sessionStoreStatusCache.getHitCount(), equalTo(1L));
+        assertThat(sessionStoreStatusCache.getMissCount(), equalTo(1L));
+    }
+
+    @Test
+    public void shouldValidateRevokedTokenAsInvalidatedWithStatusCache() {
+
+        // given
+        sessionStoreService = new SessionStoreServiceImpl(sessionStoreDAO, claimedTokenContextConverter, new SessionStoreStatusCache(new TokenDigestConverter(), true, 10, 60000L), revocationWatermarks,
+                sessionActivityTracker, CLEANUP_CHUNK_SIZE, 0, 0);
+        given(jwtAuthenticationToken.getRawToken()).willReturn(TOKEN);
+        given(jwtAuthenticationToken.getDeviceID()).willReturn(DEVICE_ID);
+        given(jwtAuthenticationToken.getRemoteAddress()).willReturn(REMOTE_ADDRESS);
+        given(sessionStoreDAO.getTokenEntry(TOKEN)).willReturn(Optional.of(prepareCacheableSessionStoreTokenEntry()));
+        given(sessionStoreDAO.compareAndUpdateTokenEntry(TOKEN, TokenStatus.ACTIVE, TokenStatus.REVOKED)).willReturn(true);
+        sessionStoreService.validateToken(jwtAuthenticationToken);
+        sessionStoreService.revokeToken(jwtAuthenticationToken);
+
+        // when
+        SessionStoreValidationStatus result = sessionStoreService.validateToken(jwtAuthenticationToken);
+
+        // then
+        assertThat(result, equalTo(SessionStoreValidationStatus.INVALIDATED));
+        verify(sessionStoreDAO, times(1)).getTokenEntry(TOKEN);
+        verify(sessionStoreDAO).compareAndUpdateTokenEntry(TOKEN, TokenStatus.ACTIVE, TokenStatus.REVOKED);
     }
 
     @Test
@@ -201,7 +369,107 @@ public class SessionStoreServiceImplTest {
         sessionStoreService.revokeToken(jwtAuthenticationToken);
 
         // then
-        verify(sessionStoreDAO).updateTokenEntry(TOKEN, TokenStatus.REVOKED);
+        verify(sessionStoreDAO).compareAndUpdateTokenEntry(TOKEN, TokenStatus.ACTIVE, TokenStatus.REVOKED);
+    }
+
+    @Test
+    public void shouldReloadStatusOfNotActiveTokenInsteadOfRevokingAgain() {
+
+        // given
+        SessionStoreStatusCache sessionStoreStatusCache = new SessionStoreStatusCache(new TokenDigestConverter(), true, 10, 60000L);
+        sessionStoreService = new SessionStoreServiceImpl(sessionStoreDAO, claimedTokenContextConverter, sessionStoreStatusCache, revocationWatermarks,
+                sessionActivityTracker, CLEANUP_CHUNK_SIZE, 0, 0);
+        given(jwtAuthenticationToken.getRawToken()).willReturn(TOKEN);
+        given(sessionStoreDAO.getTokenEntry(TOKEN)).willReturn(Optional.of(prepareCacheableSessionStoreTokenEntry().withStatus(TokenStatus.COMPROMISED)));
+        given(sessionStoreDAO.compareAndUpdateTokenEntry(TOKEN, TokenStatus.ACTIVE, TokenStatus.REVOKED)).willReturn(false);
+        sessionStoreService.validateToken(jwtAuthenticationToken);
+
+        // when
+        sessionStoreService.revokeToken(jwtAuthenticationToken);
+
+        // then
+        assertThat(sessionStoreService.validateToken(jwtAuthenticationToken), equalTo(SessionStoreValidationStatus.INVALIDATED));
+        verify(sessionStoreDAO, times(2)).getTokenEntry(TOKEN);
+        verify(sessionStoreDAO, never()).updateTokenEntry(anyString(), any(TokenStatus.class));
+    }
+
+    @Test
+    public void shouldGetSessionsOfUser() {
+
+        // given
+        List<SessionStoreTokenEntry> sessions = Collections.singletonList(prepareSessionStoreTokenEntry(true));
+        given(sessionStoreDAO.getTokenEntriesByUsername(USERNAME)).willReturn(sessions);
+        given(sessionStoreDAO.countTokenEntriesByUsername(USERNAME)).willReturn(1);
+
+        // when
+        List<SessionStoreTokenEntry> result = sessionStoreService.getSessions(USERNAME);
+
+        // then
+        assertThat(result, equalTo(sessions));
+        assertThat(sessionStoreService.countSessions(USERNAME), equalTo(1));
+    }
+
+    @Test
+    public void shouldRevokeSessionsOfUserExceptKeptDeviceAndDropThemFromStatusCache() {
+
+        // given
+        SessionStoreStatusCache sessionStoreStatusCache = new SessionStoreStatusCache(new TokenDigestConverter(), true, 10, 60000L);
+        sessionStoreService = new SessionStoreServiceImpl(sessionStoreDAO, claimedTokenContextConverter, sessionStoreStatusCache, revocationWatermarks,
+                sessionActivityTracker, CLEANUP_CHUNK_SIZE, 0, 0);
+        sessionStoreStatusCache.put(prepareCacheableSessionStoreTokenEntry());
+        given(sessionStoreDAO.updateTokenEntriesByUsername(USERNAME, DEVICE_ID, TokenStatus.ACTIVE, TokenStatus.REVOKED)).willReturn(2);
+
+        // when
+        int result = sessionStoreService.revokeSessions(USERNAME, DEVICE_ID);
+
+        // then
+        assertThat(result, equalTo(2));
+        assertThat(sessionStoreStatusCache.size(), equalTo(0));
+    }
+
+    @Test
+    public void shouldRevokeSessionsOfUserOnEveryDevice() {
+
+        // when
+        sessionStoreService.revokeSessions(USERNAME);
+
+        // then
+        verify(sessionStoreDAO).updateTokenEntriesByUsername(USERNAME, null, TokenStatus.ACTIVE, TokenStatus.REVOKED);
+    }
+
+    @Test
+    public void shouldValidateTokenRevokedByIssueTimeAsInvalidatedWithoutLookup() {
+
+        // given
+        Date issuedAt = new Date();
+        given(jwtAuthenticationToken.getDetails()).willReturn(JWTPayload.getBuilder()
+                .withUsername(USERNAME)
+                .withIssuedAt(issuedAt)
+                .build());
+        given(revocationWatermarks.isRevoked(USERNAME, issuedAt.getTime())).willReturn(true);
+
+        // when
+        SessionStoreValidationStatus result = sessionStoreService.validateToken(jwtAuthenticationToken);
+
+        // then
+        assertThat(result, equalTo(SessionStoreValidationStatus.INVALIDATED));
+        verifyNoInteractions(sessionStoreDAO);
+    }
+
+    @Test
+    public void shouldRevokeTokensIssuedBefore() {
+
+        // given
+        Date issuedBefore = new Date();
+
+        // when
+        sessionStoreService.revokeTokensIssuedBefore(issuedBefore);
+        sessionStoreService.revokeTokensIssuedBefore(USERNAME, issuedBefore);
+
+        // then
+        verify(revocationWatermarks).revokeIssuedBefore(issuedBefore);
+        verify(revocationWatermarks).revokeIssuedBefore(USERNAME, issuedBefore);
+        verifyNoInteractions(sessionStoreDAO);
     }
 
     @Test
@@ -209,19 +477,14 @@ public class SessionStoreServiceImplTest {
 
         // given
         int threshold = 2;
-        List<SessionStoreTokenEntry> entries = prepareSessionStoreTokenEntries();
-        given(sessionStoreDAO.getAllTokenEntries()).willReturn(entries);
 
         // when
+        long before = System.currentTimeMillis();
         sessionStoreService.cleanExpiredToken(threshold);
+        long after = System.currentTimeMillis();
 
         // then
-        verify(sessionStoreDAO, times(5)).removeTokenEntry(anyString());
-        verify(sessionStoreDAO).removeTokenEntry(entries.get(2).getToken());
-        verify(sessionStoreDAO).removeTokenEntry(entries.get(3).getToken());
-        verify(sessionStoreDAO).removeTokenEntry(entries.get(4).getToken());
-        verify(sessionStoreDAO).removeTokenEntry(entries.get(5).getToken());
-        verify(sessionStoreDAO).removeTokenEntry(entries.get(6).getToken());
+        assertExpiredBefore(before, after, threshold);
     }
 
     @Test
@@ -229,54 +492,50 @@ public class SessionStoreServiceImplTest {
 
         // given
         int threshold = 60;
-        List<SessionStoreTokenEntry> entries = prepareSessionStoreTokenEntries();
-        given(sessionStoreDAO.getAllTokenEntries()).willReturn(entries);
 
         // when
+        long before = System.currentTimeMillis();
         sessionStoreService.cleanExpiredToken(threshold);
+        long after = System.currentTimeMillis();
 
         // then
-        verify(sessionStoreDAO, times(3)).removeTokenEntry(anyString());
-        verify(sessionStoreDAO).removeTokenEntry(entries.get(4).getToken());
-        verify(sessionStoreDAO).removeTokenEntry(entries.get(5).getToken());
-        verify(sessionStoreDAO).removeTokenEntry(entries.get(6).getToken());
+        assertExpiredBefore(before, after, threshold);
     }
 
     @Test
-    public void shouldCleanExpiredTokenWith130mThreshold() {
+    public void shouldCleanExpiredTokenInChunksUntilLastChunkIsNotFull() {
 
         // given
-        int threshold = 130;
-        List<SessionStoreTokenEntry> entries = prepareSessionStoreTokenEntries();
-        given(sessionStoreDAO.getAllTokenEntries()).willReturn(entries);
+        given(sessionStoreDAO.removeExpiredTokenEntries(any(Date.class), eq(CLEANUP_CHUNK_SIZE))).willReturn(2, 2, 1);
 
         // when
-        sessionStoreService.cleanExpiredToken(threshold);
+        sessionStoreService.cleanExpiredToken(2);
 
         // then
-        verify(sessionStoreDAO, never()).removeTokenEntry(anyString());
+        verify(sessionStoreDAO, times(3)).removeExpiredTokenEntries(any(Date.class), eq(CLEANUP_CHUNK_SIZE));
     }
 
-    private List<SessionStoreTokenEntry> prepareSessionStoreTokenEntries() {
-        return Arrays.asList(
-                prepareSessionStoreTokenEntry(90),
-                prepareSessionStoreTokenEntry(30),
-                prepareSessionStoreTokenEntry(-4),
-                prepareSessionStoreTokenEntry(-10),
-                prepareSessionStoreTokenEntry(-62),
-                prepareSessionStoreTokenEntry(-70),
-                prepareSessionStoreTokenEntry(-120));
+    private void assertExpiredBefore(long before, long after, int thresholdInMinutes) {
+        ArgumentCaptor<Date> expiredBeforeCaptor = ArgumentCaptor.forClass(Date.class);
+        verify(sessionStoreDAO).removeExpiredTokenEntries(expiredBeforeCaptor.capture(), eq(CLEANUP_CHUNK_SIZE));
+        long expiredBefore = expiredBeforeCaptor.getValue().getTime();
+        assertThat(expiredBefore >= getTimeWithOffsetInMinutes(before, -thresholdInMinutes), is(true));
+        assertThat(expiredBefore <= getTimeWithOffsetInMinutes(after, -thresholdInMinutes), is(true));
     }
 
-    private SessionStoreTokenEntry prepareSessionStoreTokenEntry(int expirationInMinutes) {
-        return SessionStoreTokenEntry.getBuilder()
-                .withToken("token_" + expirationInMinutes)
-                .withExpires(new Timestamp(getTimeWithOffsetInMinutes(expirationInMinutes)))
-                .build();
+    private long getTimeWithOffsetInMinutes(long time, int offsetInMinutes) {
+        return time + offsetInMinutes * 60000L;
     }
 
-    private long getTimeWithOffsetInMinutes(int expirationInMinutes) {
-        return System.currentTimeMillis() + expirationInMinutes * 60000L;
+    private SessionStoreTokenEntry prepareCacheableSessionStoreTokenEntry() {
+        return SessionStoreTokenEntry.getBuilder()
+                .withStatus(TokenStatus.ACTIVE)
+                .withToken(TOKEN)
+                .withDeviceID(DEVICE_ID)
+                .withRemoteAddress(REMOTE_ADDRESS)
+                .withUsername(USERNAME)
+                .withExpires(new Timestamp(getTimeWithOffsetInMinutes(System.currentTimeMillis(), 60)))
+                .build();
     }
 
     private SessionStoreTokenEntry prepareSessionStoreTokenEntry(boolean isActive) {
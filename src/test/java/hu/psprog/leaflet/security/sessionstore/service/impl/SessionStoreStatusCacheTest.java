@@ -0,0 +1,223 @@
+package hu.psprog.leaflet.security.sessionstore.service.impl;
+
+import hu.psprog.leaflet.security.sessionstore.conversion.TokenDigestConverter;
+import hu.psprog.leaflet.security.sessionstore.domain.SessionStoreTokenEntry;
+import hu.psprog.leaflet.security.sessionstore.domain.TokenStatus;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Timestamp;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Unit tests for {@link SessionStoreStatusCache}.
+ *
+ * @author Peter Smith
+ */
+public class SessionStoreStatusCacheTest {
+
+    private static final String TOKEN = "token";
+    private static final long ONE_HOUR_IN_MILLIS = 3600000L;
+
+    private final TokenDigestConverter tokenDigestConverter = new TokenDigestConverter();
+
+    @Test
+    public void shouldLoadEntryOnlyOnceWhileCachedWithoutToken() {
+
+        // given
+        SessionStoreStatusCache sessionStoreStatusCache = new SessionStoreStatusCache(tokenDigestConverter, true, 10, ONE_HOUR_IN_MILLIS);
+        AtomicInteger loadCount = new AtomicInteger();
+        SessionStoreTokenEntry tokenEntry = prepareTokenEntry(TOKEN, System.currentTimeMillis() + ONE_HOUR_IN_MILLIS);
+
+        // when
+        sessionStoreStatusCache.getTokenEntry(TOKEN, token -> load(loadCount, tokenEntry));
+        Optional<SessionStoreTokenEntry> result = sessionStoreStatusCache.getTokenEntry(TOKEN, token -> load(loadCount, tokenEntry));
+
+        // then
+        assertThat(result, equalTo(Optional.of(tokenEntry.withToken(null))));
+        assertThat(loadCount.get(), equalTo(1));
+        assertThat(sessionStoreStatusCache.getHitRatio(), equalTo(0.5));
+    }
+
+    @Test
+    public void shouldNotServeEntryAfterTokenExpiration() {
+
+        // given
+        SessionStoreStatusCache sessionStoreStatusCache = new SessionStoreStatusCache(tokenDigestConverter, true, 10, ONE_HOUR_IN_MILLIS);
+        AtomicInteger loadCount = new AtomicInteger();
+        SessionStoreTokenEntry tokenEntry = prepareTokenEntry(TOKEN, System.currentTimeMillis() - 1);
+        sessionStoreStatusCache.put(tokenEntry);
+
+        // when
+        sessionStoreStatusCache.getTokenEntry(TOKEN, token -> load(loadCount, tokenEntry));
+
+        // then
+        assertThat(loadCount.get(), equalTo(1));
+        assertThat(sessionStoreStatusCache.getHitCount(), equalTo(0L));
+    }
+
+    @Test
+    public void shouldUpdateStatusOfCachedEntry() {
+
+        // given
+        SessionStoreStatusCache sessionStoreStatusCache = new SessionStoreStatusCache(tokenDigestConverter, true, 10, ONE_HOUR_IN_MILLIS);
+        sessionStoreStatusCache.put(prepareTokenEntry(TOKEN, System.currentTimeMillis() + ONE_HOUR_IN_MILLIS));
+
+        // when
+        sessionStoreStatusCache.updateStatus(TOKEN, TokenStatus.REVOKED);
+
+        // then
+        Optional<SessionStoreTokenEntry> result = sessionStoreStatusCache.getTokenEntry(TOKEN, token -> Optional.empty());
+        assertThat(result.map(SessionStoreTokenEntry::getStatus), equalTo(Optional.of(TokenStatus.REVOKED)));
+    }
+
+    @Test
+    public void shouldNotCacheEntryLoadedConcurrentlyWithStatusChange() {
+
+        // given
+        SessionStoreStatusCache sessionStoreStatusCache = new SessionStoreStatusCache(tokenDigestConverter, true, 10, ONE_HOUR_IN_MILLIS);
+        SessionStoreTokenEntry staleEntry = prepareTokenEntry(TOKEN, System.currentTimeMillis() + ONE_HOUR_IN_MILLIS);
+
+        // when
+        sessionStoreStatusCache.getTokenEntry(TOKEN, token -> {
+            sessionStoreStatusCache.updateStatus(TOKEN, TokenStatus.REVOKED);
+            return Optional.of(staleEntry);
+        });
+
+        // then
+        assertThat(sessionStoreStatusCache.size(), equalTo(0));
+    }
+
+    @Test
+    public void shouldKeepSizeWithinMaximum() {
+
+        // given
+        SessionStoreStatusCache sessionStoreStatusCache = new SessionStoreStatusCache(tokenDigestConverter, true, 3, ONE_HOUR_IN_MILLIS);
+        long expires = System.currentTimeMillis() + ONE_HOUR_IN_MILLIS;
+
+        // when
+        for (int i = 0; i < 10; i++) {
+            sessionStoreStatusCache.put(prepareTokenEntry(TOKEN + i, expires));
+        }
+
+        // then
+        assertThat(sessionStoreStatusCache.size() <= 3, is(true));
+    }
+
+    @Test
+    public void shouldEvictSampledEntryClosestToExpirationOnOverflow() {
+
+        // given
+        SessionStoreStatusCache sessionStoreStatusCache = new SessionStoreStatusCache(tokenDigestConverter, true, 2, ONE_HOUR_IN_MILLIS);
+        long now = System.currentTimeMillis();
+        sessionStoreStatusCache.put(prepareTokenEntry("token-1", now + ONE_HOUR_IN_MILLIS));
+        sessionStoreStatusCache.put(prepareTokenEntry("token-2", now + 60000L));
+
+        // when
+        sessionStoreStatusCache.put(prepareTokenEntry("token-3", now + ONE_HOUR_IN_MILLIS));
+
+        // then
+        assertThat(sessionStoreStatusCache.size(), equalTo(2));
+        assertThat(sessionStoreStatusCache.getTokenEntry("token-1", token -> Optional.empty()).isPresent(), is(true));
+        assertThat(sessionStoreStatusCache.getTokenEntry("token-2", token -> Optional.empty()).isPresent(), is(false));
+        assertThat(sessionStoreStatusCache.getTokenEntry("token-3", token -> Optional.empty()).isPresent(), is(true));
+    }
+
+    private Optional<SessionStoreTokenEntry> load(AtomicInteger loadCount, SessionStoreTokenEntry tokenEntry) {
+        loadCount.incrementAndGet();
+        return Optional.of(tokenEntry);
+    }
+
+    @Test
+    public void shouldInvalidateEveryCachedEntryOfUser() {
+
+        // given
+        SessionStoreStatusCache sessionStoreStatusCache = new SessionStoreStatusCache(tokenDigestConverter, true, 10, ONE_HOUR_IN_MILLIS);
+        long expires = System.currentTimeMillis() + ONE_HOUR_IN_MILLIS;
+        sessionStoreStatusCache.put(prepareUserTokenEntry("token-1", "user-1", expires));
+        sessionStoreStatusCache.put(prepareUserTokenEntry("token-2", "user-1", expires));
+        sessionStoreStatusCache.put(prepareUserTokenEntry("token-3", "user-2", expires));
+
+        // when
+        sessionStoreStatusCache.invalidateUser("user-1");
+
+        // then
+        assertThat(sessionStoreStatusCache.size(), equalTo(1));
+        assertThat(sessionStoreStatusCache.getTokenEntry("token-3", token -> Optional.empty()).isPresent(), is(true));
+    }
+
+    @Test
+    public void shouldInvalidateLoadedEntriesOfUser() {
+
+        // given
+        SessionStoreStatusCache sessionStoreStatusCache = new SessionStoreStatusCache(tokenDigestConverter, true, 10, ONE_HOUR_IN_MILLIS);
+        AtomicInteger loadCount = new AtomicInteger();
+        SessionStoreTokenEntry tokenEntry = prepareUserTokenEntry("token-1", "user-1", System.currentTimeMillis() + ONE_HOUR_IN_MILLIS);
+        sessionStoreStatusCache.getTokenEntry("token-1", token -> load(loadCount, tokenEntry));
+        sessionStoreStatusCache.put(prepareUserTokenEntry("token-2", "user-1", System.currentTimeMillis() + ONE_HOUR_IN_MILLIS));
+        sessionStoreStatusCache.invalidate("token-2");
+
+        // when
+        sessionStoreStatusCache.invalidateUser("user-1");
+
+        // then
+        assertThat(sessionStoreStatusCache.size(), equalTo(0));
+        sessionStoreStatusCache.getTokenEntry("token-1", token -> load(loadCount, tokenEntry));
+        assertThat(loadCount.get(), equalTo(2));
+    }
+
+    @Test
+    public void shouldCacheEntryLoadedConcurrentlyWithInvalidationOfAnotherUser() {
+
+        // given
+        SessionStoreStatusCache sessionStoreStatusCache = new SessionStoreStatusCache(tokenDigestConverter, true, 10, ONE_HOUR_IN_MILLIS);
+        SessionStoreTokenEntry tokenEntry = prepareUserTokenEntry("token-1", "user-1", System.currentTimeMillis() + ONE_HOUR_IN_MILLIS);
+
+        // when
+        sessionStoreStatusCache.getTokenEntry("token-1", token -> {
+            sessionStoreStatusCache.invalidateUser("user-2");
+            return Optional.of(tokenEntry);
+        });
+
+        // then
+        assertThat(sessionStoreStatusCache.size(), equalTo(1));
+    }
+
+    @Test
+    public void shouldNotCacheEntryLoadedConcurrentlyWithInvalidationOfItsUser() {
+
+        // given
+        SessionStoreStatusCache sessionStoreStatusCache = new SessionStoreStatusCache(tokenDigestConverter, true, 10, ONE_HOUR_IN_MILLIS);
+        SessionStoreTokenEntry staleEntry = prepareUserTokenEntry("token-1", "user-1", System.currentTimeMillis() + ONE_HOUR_IN_MILLIS);
+
+        // when
+        sessionStoreStatusCache.getTokenEntry("token-1", token -> {
+            sessionStoreStatusCache.invalidateUser("user-1");
+            return Optional.of(staleEntry);
+        });
+
+        // then
+        assertThat(sessionStoreStatusCache.size(), equalTo(0));
+    }
+
+    private SessionStoreTokenEntry prepareUserTokenEntry(String token, String username, long expires) {
+        return SessionStoreTokenEntry.getBuilder()
+                .withToken(token)
+                .withUsername(username)
+                .withStatus(TokenStatus.ACTIVE)
+                .withExpires(new Timestamp(expires))
+                .build();
+    }
+
+    private SessionStoreTokenEntry prepareTokenEntry(String token, long expires) {
+        return SessionStoreTokenEntry.getBuilder()
+                .withToken(token)
+                .withStatus(TokenStatus.ACTIVE)
+                .withExpires(new Timestamp(expires))
+                .build();
+    }
+}
@@ -0,0 +1,133 @@
+package hu.psprog.leaflet.security.sessionstore.service.impl;
+
+import hu.psprog.leaflet.security.jwt.auth.JWTAuthenticationToken;
+import hu.psprog.leaflet.security.jwt.model.JWTPayload;
+import hu.psprog.leaflet.security.jwt.model.Role;
+import hu.psprog.leaflet.security.sessionstore.dao.RevocationWatermarkDAO;
+import hu.psprog.leaflet.security.sessionstore.domain.SessionStoreTokenEntry;
+import hu.psprog.leaflet.security.sessionstore.domain.SessionStoreValidationStatus;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Unit tests for {@link StatelessSessionStoreServiceImpl}.
+ *
+ * @author Peter Smith
+ */
+public class StatelessSessionStoreServiceImplTest {
+
+    private static final String TOKEN = "token";
+    private static final String USERNAME = "user";
+
+    private StatelessSessionStoreServiceImpl sessionStoreService;
+
+    @BeforeEach
+    public void setup() {
+        sessionStoreService = new StatelessSessionStoreServiceImpl(new RevocationWatermarks(mock(RevocationWatermarkDAO.class), 4), 100);
+    }
+
+    @Test
+    public void shouldValidateNotRevokedTokenWithSuccess() {
+
+        // when
+        SessionStoreValidationStatus result = sessionStoreService.validateToken(prepareAuthenticationToken(TOKEN));
+
+        // then
+        assertThat(result, equalTo(SessionStoreValidationStatus.VALID));
+    }
+
+    @Test
+    public void shouldValidateRevokedTokenWithInvalidated() {
+
+        // given
+        sessionStoreService.revokeToken(prepareAuthenticationToken(TOKEN));
+
+        // when
+        SessionStoreValidationStatus result = sessionStoreService.validateToken(prepareAuthenticationToken(TOKEN));
+
+        // then
+        assertThat(result, equalTo(SessionStoreValidationStatus.INVALIDATED));
+    }
+
+    @Test
+    public void shouldKeepRevocationAfterCleanupUntilTokenExpires() {
+
+        // given
+        sessionStoreService.revokeToken(prepareAuthenticationToken(TOKEN));
+
+        // when
+        sessionStoreService.cleanExpiredToken(0);
+
+        // then
+        assertThat(sessionStoreService.validateToken(prepareAuthenticationToken(TOKEN)), equalTo(SessionStoreValidationStatus.INVALIDATED));
+        assertThat(sessionStoreService.validateToken(prepareAuthenticationToken("other-token")), equalTo(SessionStoreValidationStatus.VALID));
+    }
+
+    @Test
+    public void shouldRevokeSessionsOfUserByIssueTime() {
+
+        // when
+        int result = sessionStoreService.revokeSessions(USERNAME, UUID.randomUUID());
+
+        // then
+        assertThat(result, equalTo(0));
+        assertThat(sessionStoreService.validateToken(prepareAuthenticationToken(TOKEN, USERNAME)), equalTo(SessionStoreValidationStatus.INVALIDATED));
+        assertThat(sessionStoreService.validateToken(prepareAuthenticationToken(TOKEN, "other-user")), equalTo(SessionStoreValidationStatus.VALID));
+    }
+
+    @Test
+    public void shouldReturnNoSessionsOfUser() {
+
+        // when
+        List<SessionStoreTokenEntry> result = sessionStoreService.getSessions(USERNAME);
+
+        // then
+        assertThat(result.isEmpty(), is(true));
+        assertThat(sessionStoreService.countSessions(USERNAME), equalTo(0));
+    }
+
+    @Test
+    public void shouldValidateTokenIssuedBeforeRevocationWatermarkWithInvalidated() {
+
+        // given
+        sessionStoreService.revokeTokensIssuedBefore(new Date(System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1)));
+
+        // when
+        SessionStoreValidationStatus result = sessionStoreService.validateToken(prepareAuthenticationToken(TOKEN));
+
+        // then
+        assertThat(result, equalTo(SessionStoreValidationStatus.INVALIDATED));
+    }
+
+    private JWTAuthenticationToken prepareAuthenticationToken(String token) {
+        return JWTAuthenticationToken.getBuilder()
+                .withRawToken(token)
+                .withPayload(JWTPayload.getBuilder()
+                        .withRole(Role.USER)
+                        .withExpires(new Date(System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1)))
+                        .build())
+                .build();
+    }
+
+    private JWTAuthenticationToken prepareAuthenticationToken(String token, String username) {
+        return JWTAuthenticationToken.getBuilder()
+                .withRawToken(token)
+                .withPayload(JWTPayload.getBuilder()
+                        .withRole(Role.USER)
+                        .withUsername(username)
+                        .withIssuedAt(new Date(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1)))
+                        .withExpires(new Date(System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1)))
+                        .build())
+                .build();
+    }
+}
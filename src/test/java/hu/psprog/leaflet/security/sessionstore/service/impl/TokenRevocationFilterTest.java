@@ -0,0 +1,85 @@
+package hu.psprog.leaflet.security.sessionstore.service.impl;
+
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Unit tests for {@link TokenRevocationFilter}.
+ *
+ * @author Peter Smith
+ */
+public class TokenRevocationFilterTest {
+
+    private static final String TOKEN = "header.payload.signature";
+    private static final long ONE_HOUR_IN_MILLIS = 3600000L;
+
+    @Test
+    public void shouldReportRevokedToken() {
+
+        // given
+        TokenRevocationFilter tokenRevocationFilter = new TokenRevocationFilter(100);
+        tokenRevocationFilter.revoke(TOKEN, System.currentTimeMillis() + ONE_HOUR_IN_MILLIS);
+
+        // when
+        boolean result = tokenRevocationFilter.isRevoked(TOKEN);
+
+        // then
+        assertThat(result, is(true));
+    }
+
+    @Test
+    public void shouldNotReportAnyOtherTokenEvenBeyondExpectedCapacity() {
+
+        // given
+        TokenRevocationFilter tokenRevocationFilter = new TokenRevocationFilter(10);
+        long expiresAt = System.currentTimeMillis() + ONE_HOUR_IN_MILLIS;
+        for (int i = 0; i < 1000; i++) {
+            tokenRevocationFilter.revoke(TOKEN + i, expiresAt);
+        }
+
+        // when
+        int falselyRevoked = 0;
+        for (int i = 1000; i < 11000; i++) {
+            if (tokenRevocationFilter.isRevoked(TOKEN + i)) {
+                falselyRevoked++;
+            }
+        }
+
+        // then
+        assertThat(falselyRevoked, equalTo(0));
+        assertThat(tokenRevocationFilter.isRevoked(TOKEN + 999), is(true));
+    }
+
+    @Test
+    public void shouldNotReportExpiredToken() {
+
+        // given
+        TokenRevocationFilter tokenRevocationFilter = new TokenRevocationFilter(100);
+        tokenRevocationFilter.revoke(TOKEN, System.currentTimeMillis() - 1);
+
+        // when
+        boolean result = tokenRevocationFilter.isRevoked(TOKEN);
+
+        // then
+        assertThat(result, is(false));
+    }
+
+    @Test
+    public void shouldPurgeExpiredTokensAndKeepActiveRevocations() {
+
+        // given
+        TokenRevocationFilter tokenRevocationFilter = new TokenRevocationFilter(100);
+        tokenRevocationFilter.revoke(TOKEN, System.currentTimeMillis() + ONE_HOUR_IN_MILLIS);
+        tokenRevocationFilter.revoke(TOKEN + "-expired", System.currentTimeMillis() - 1);
+
+        // when
+        tokenRevocationFilter.purgeExpired();
+
+        // then
+        assertThat(tokenRevocationFilter.size(), equalTo(1));
+        assertThat(tokenRevocationFilter.isRevoked(TOKEN), is(true));
+    }
+}
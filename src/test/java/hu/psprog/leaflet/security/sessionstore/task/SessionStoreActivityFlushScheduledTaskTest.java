@@ -0,0 +1,35 @@
+package hu.psprog.leaflet.security.sessionstore.task;
+
+import hu.psprog.leaflet.security.sessionstore.service.impl.SessionActivityTracker;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import static org.mockito.Mockito.verify;
+
+/**
+ * Unit tests for {@link SessionStoreActivityFlushScheduledTask}.
+ *
+ * @author Peter Smith
+ */
+@ExtendWith(MockitoExtension.class)
+public class SessionStoreActivityFlushScheduledTaskTest {
+
+    @Mock
+    private SessionActivityTracker sessionActivityTracker;
+
+    @InjectMocks
+    private SessionStoreActivityFlushScheduledTask sessionStoreActivityFlushScheduledTask;
+
+    @Test
+    public void shouldFlushRecordedActivities() {
+
+        // when
+        sessionStoreActivityFlushScheduledTask.scheduledFlush();
+
+        // then
+        verify(sessionActivityTracker).flush();
+    }
+}
@@ -2,8 +2,8 @@ delete
 from jwt_session_store;
 
 insert into
-    jwt_session_store
+    jwt_session_store (token_digest, device_id, remote_address, username, status, issued, expires)
 values
-    ('token-1', '1191f32b-11f4-427f-93ac-d807e4782631', '127.0.0.1', 'user-1', 'ACTIVE', '2018-03-24 18:00:00', '2018-03-24 20:00:00'),
-    ('token-2', '2191f32b-11f4-427f-93ac-d807e4782631', '127.0.0.1', 'user-2', 'REVOKED', '2018-03-24 17:00:00', '2018-03-24 19:00:00'),
-    ('token-3', '3191f32b-11f4-427f-93ac-d807e4782631', '127.0.0.1', 'user-3', 'COMPROMISED', '2018-03-24 16:00:00', '2018-03-24 18:00:00');
+    (X'3f08aace122ee2368432c1ca23a049bc640bafbf00fdf33a52429f38ba12dbf9', '1191f32b-11f4-427f-93ac-d807e4782631', '127.0.0.1', 'user-1', 'ACTIVE', '2018-03-24 18:00:00', '2018-03-24 20:00:00'),
+    (X'0f6bffa9661cb5dd2f3f7b2929f33061f58a7ba7fdd689530b1a306f8ed8f3ec', '2191f32b-11f4-427f-93ac-d807e4782631', '127.0.0.1', 'user-2', 'REVOKED', '2018-03-24 17:00:00', '2018-03-24 19:00:00'),
+    (X'a2f2b0b588bcc84fbf4d2ac8cc086b6f84de3e00fa3c1ba11e38ac078eb03192', '3191f32b-11f4-427f-93ac-d807e4782631', '127.0.0.1', 'user-3', 'COMPROMISED', '2018-03-24 16:00:00', '2018-03-24 18:00:00');